@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.book;
+
+import chesspresso.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * Opening book in the Polyglot <code>.bin</code> format.
+ *
+ * A Polyglot book is a sequence of 16 byte entries (big endian), sorted by key:
+ * <pre>
+ *   long  key     {@link PolyglotKey polyglot key} of the position
+ *   short move    polyglot move, see {@link #toMove(int, ImmutablePosition)}
+ *   short weight  relative weight of the move (unsigned)
+ *   int   learn   learning data, not used
+ * </pre>
+ * The file is memory mapped, the moves of a position are found by binary
+ * search. Probing does not allocate any objects, the moves are returned in
+ * arrays provided by the caller.
+ *
+ * A book can be used by many threads at the same time.
+ */
+public class PolyglotBook implements Closeable
+{
+
+    static final int ENTRY_SIZE = 16;
+
+    private static final int ENTRIES_PER_SEGMENT = Integer.MAX_VALUE / ENTRY_SIZE;
+
+    // polyglot promotion codes to pieces
+    private static final int[] s_promotionPieces = {
+        Chess.NO_PIECE, Chess.KNIGHT, Chess.BISHOP, Chess.ROOK, Chess.QUEEN,
+        Chess.NO_PIECE, Chess.NO_PIECE, Chess.NO_PIECE
+    };
+
+    /*================================================================================*/
+
+    /**
+     * Converts a polyglot move to a move which can be played on the given
+     * position. Returns <code>Move.ILLEGAL_MOVE</code> if the move does not fit
+     * to the position at all; the move is not checked for legality otherwise.
+     *
+     *@param polyglotMove the polyglot move
+     *@param position the position the move is played in
+     *@return the move
+     */
+    public static short toMove(int polyglotMove, ImmutablePosition position)
+    {
+        int toSqi   =  polyglotMove       & 0x3F;
+        int fromSqi = (polyglotMove >> 6) & 0x3F;
+        int promotionPiece = s_promotionPieces[(polyglotMove >> 12) & 0x7];
+
+        int toPlay = position.getToPlay();
+        int stone = position.getStone(fromSqi);
+        if (stone == Chess.NO_STONE || Chess.stoneToColor(stone) != toPlay) return Move.ILLEGAL_MOVE;  // =====>
+        int capturedStone = position.getStone(toSqi);
+
+        switch (Chess.stoneToPiece(stone)) {
+            case Chess.KING:
+                // castles are encoded as king takes own rook
+                if (capturedStone == Chess.pieceToStone(Chess.ROOK, toPlay)) {
+                    return (toSqi > fromSqi ? Move.getShortCastle(toPlay) : Move.getLongCastle(toPlay));  // =====>
+                }
+                break;
+            case Chess.PAWN:
+                if (Chess.sqiToCol(fromSqi) != Chess.sqiToCol(toSqi) && capturedStone == Chess.NO_STONE) {
+                    return Move.getEPMove(fromSqi, toSqi);  // =====>
+                }
+                return Move.getPawnMove(fromSqi, toSqi, capturedStone != Chess.NO_STONE, promotionPiece);  // =====>
+        }
+        return Move.getRegularMove(fromSqi, toSqi, capturedStone != Chess.NO_STONE);
+    }
+
+    /**
+     * Converts a move to a polyglot move.
+     *
+     *@param move the move
+     *@return the polyglot move
+     */
+    public static int toPolyglotMove(short move)
+    {
+        int fromSqi = Move.getFromSqi(move);
+        int toSqi = Move.getToSqi(move);
+        int promotion = 0;
+        if (Move.isCastle(move)) {
+            toSqi = (Move.isShortCastle(move) ? fromSqi + 3 : fromSqi - 4);  // king takes rook
+        } else if (Move.isPromotion(move)) {
+            promotion = Move.getPromotionPiece(move);  // knight .. queen are 1 .. 4 in both
+        }
+        return (promotion << 12) | (fromSqi << 6) | toSqi;
+    }
+
+    /*================================================================================*/
+
+    private final RandomAccessFile m_file;
+    private final ByteBuffer[] m_segments;
+    private final long m_numOfEntries;
+
+    /*================================================================================*/
+
+    public PolyglotBook(File file) throws IOException
+    {
+        m_file = new RandomAccessFile(file, "r");
+        boolean ok = false;
+        try {
+            m_numOfEntries = m_file.length() / ENTRY_SIZE;
+            FileChannel channel = m_file.getChannel();
+            int numOfSegments = (int)((m_numOfEntries + ENTRIES_PER_SEGMENT - 1) / ENTRIES_PER_SEGMENT);
+            m_segments = new ByteBuffer[numOfSegments];
+            for (int i = 0; i < numOfSegments; i++) {
+                long first = (long)i * ENTRIES_PER_SEGMENT;
+                long num = Math.min(ENTRIES_PER_SEGMENT, m_numOfEntries - first);
+                m_segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, first * ENTRY_SIZE, num * ENTRY_SIZE);
+            }
+            ok = true;
+        } finally {
+            if (!ok) m_file.close();
+        }
+    }
+
+    public void close() throws IOException
+    {
+        m_file.close();
+    }
+
+    /*================================================================================*/
+    // raw entries
+
+    public long getNumOfEntries() {return m_numOfEntries;}
+
+    private ByteBuffer getSegment(long entry)
+    {
+        return m_segments[(int)(entry / ENTRIES_PER_SEGMENT)];
+    }
+
+    private static int getOffset(long entry)
+    {
+        return (int)(entry % ENTRIES_PER_SEGMENT) * ENTRY_SIZE;
+    }
+
+    public long getKey(long entry)         {return getSegment(entry).getLong(getOffset(entry));}
+    public int getPolyglotMove(long entry) {return getSegment(entry).getShort(getOffset(entry) + 8) & 0xFFFF;}
+    public int getWeight(long entry)       {return getSegment(entry).getShort(getOffset(entry) + 10) & 0xFFFF;}
+    public int getLearn(long entry)        {return getSegment(entry).getInt(getOffset(entry) + 12);}
+
+    /**
+     * Returns the index of the first entry with the given key, or -1 if the
+     * key is not in the book.
+     */
+    public long findFirstEntry(long key)
+    {
+        long low = 0, high = m_numOfEntries;  // first entry >= key lies in [low, high]
+        long unsignedKey = key ^ Long.MIN_VALUE;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if ((getKey(mid) ^ Long.MIN_VALUE) < unsignedKey) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < m_numOfEntries && getKey(low) == key ? low : -1);
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Looks the position up in the book and stores its moves and weights in
+     * the given arrays, in the order of the book (usually best first). At most
+     * <code>moves.length</code> moves are stored.
+     *
+     *@param position the position
+     *@param moves receives the moves
+     *@param weights receives the weights, may be null
+     *@return the number of moves stored, 0 if the position is not in the book
+     */
+    public int getMoves(ImmutablePosition position, short[] moves, int[] weights)
+    {
+        long key = position.getPolyglotKey();
+        long entry = findFirstEntry(key);
+        if (entry == -1) return 0;  // =====>
+
+        int num = 0;
+        for (; num < moves.length && entry < m_numOfEntries && getKey(entry) == key; entry++) {
+            moves[num] = toMove(getPolyglotMove(entry), position);
+            if (weights != null) weights[num] = getWeight(entry);
+            num++;
+        }
+        return num;
+    }
+
+    /**
+     * Returns the move with the highest weight, <code>Move.NO_MOVE</code> if
+     * the position is not in the book.
+     */
+    public short getBestMove(ImmutablePosition position)
+    {
+        long key = position.getPolyglotKey();
+        long entry = findFirstEntry(key);
+        if (entry == -1) return Move.NO_MOVE;  // =====>
+
+        long best = entry;
+        for (entry++; entry < m_numOfEntries && getKey(entry) == key; entry++) {
+            if (getWeight(entry) > getWeight(best)) best = entry;
+        }
+        return toMove(getPolyglotMove(best), position);
+    }
+
+    /**
+     * Returns a random move, chosen with probability proportional to its
+     * weight. Returns <code>Move.NO_MOVE</code> if the position is not in the
+     * book or all moves have weight 0.
+     */
+    public short getRandomMove(ImmutablePosition position, Random random)
+    {
+        long key = position.getPolyglotKey();
+        long first = findFirstEntry(key);
+        if (first == -1) return Move.NO_MOVE;  // =====>
+
+        int totalWeight = 0;
+        for (long entry = first; entry < m_numOfEntries && getKey(entry) == key; entry++) {
+            totalWeight += getWeight(entry);
+        }
+        if (totalWeight == 0) return Move.NO_MOVE;  // =====>
+
+        int choice = random.nextInt(totalWeight);
+        for (long entry = first; ; entry++) {
+            choice -= getWeight(entry);
+            if (choice < 0) return toMove(getPolyglotMove(entry), position);  // =====>
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.book;
+
+import chesspresso.database.*;
+import chesspresso.position.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes Polyglot books from the statistics of an {@link OpeningTree}.
+ *
+ * The tree must be keyed by polyglot keys, i.e. be built by a builder
+ * returned by {@link #createTreeBuilder}:
+ * <pre>
+ *   OpeningTreeBuilder builder = PolyglotBookWriter.createTreeBuilder();
+ *   builder.addGames(games);
+ *   builder.build(treeFile);
+ *   new PolyglotBookWriter().write(new OpeningTree(treeFile), bookFile);
+ * </pre>
+ * Since the records of the tree are sorted by key already, the book is
+ * written in a single pass without holding more than the moves of one
+ * position in memory.
+ *
+ * The weight of a move is <code>2 * wins + draws</code>, scaled down per
+ * position if necessary to fit into 16 bits. Moves with weight 0 are not
+ * included.
+ */
+public class PolyglotBookWriter
+{
+
+    private static final int MAX_WEIGHT = 0xFFFF;
+
+    /*================================================================================*/
+
+    /**
+     * Returns an opening tree builder which keys the positions by their
+     * polyglot keys.
+     */
+    public static OpeningTreeBuilder createTreeBuilder()
+    {
+        return new OpeningTreeBuilder() {
+            protected long getPositionKey(ImmutablePosition position)
+            {
+                return position.getPolyglotKey();
+            }
+        };
+    }
+
+    /*================================================================================*/
+
+    private int m_minGames;
+
+    /*================================================================================*/
+
+    public PolyglotBookWriter()
+    {
+        m_minGames = 1;
+    }
+
+    /**
+     * Sets the number of games a move must have been played in to be included.
+     * Default is 1.
+     */
+    public void setMinGames(int minGames)  {m_minGames = minGames;}
+    public int getMinGames()               {return m_minGames;}
+
+    /**
+     * Returns the unscaled weight of the move. Override to weigh moves
+     * differently.
+     */
+    protected long getWeight(OpeningTree.Entry entry)
+    {
+        return 2L * entry.getNumOfWins() + entry.getNumOfDraws();
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Writes the book.
+     *
+     * @return the number of entries written
+     */
+    public long write(OpeningTree tree, File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            return write(tree, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private long write(OpeningTree tree, DataOutput out) throws IOException
+    {
+        List<OpeningTree.Entry> entries = new ArrayList<>();
+        long[] weights = new long[16];
+        long numOfEntries = 0;
+
+        long record = 0, numOfRecords = tree.getNumOfRecords();
+        while (record < numOfRecords) {
+            /*---------- collect the moves of the next position ----------*/
+            long key = tree.getKey(record);
+            entries.clear();
+            long maxWeight = 0;
+            for (; record < numOfRecords && tree.getKey(record) == key; record++) {
+                OpeningTree.Entry entry = tree.getEntry(record);
+                long weight = getWeight(entry);
+                if (entry.getNumOfGames() < m_minGames || weight <= 0) continue;
+                int index = entries.size();
+                if (index == weights.length) weights = Arrays.copyOf(weights, 2 * index);
+                // insertion sort, best move first
+                entries.add(entry);
+                while (index > 0 && weights[index - 1] < weight) {
+                    entries.set(index, entries.get(index - 1));
+                    weights[index] = weights[index - 1];
+                    index--;
+                }
+                entries.set(index, entry);
+                weights[index] = weight;
+                maxWeight = Math.max(maxWeight, weight);
+            }
+
+            /*---------- write them ----------*/
+            double scale = (maxWeight > MAX_WEIGHT ? (double)MAX_WEIGHT / maxWeight : 1.0);
+            for (int i = 0; i < entries.size(); i++) {
+                out.writeLong(key);
+                out.writeShort(PolyglotBook.toPolyglotMove(entries.get(i).getMove()));
+                out.writeShort((int)Math.max(1L, Math.round(weights[i] * scale)));
+                out.writeInt(0);
+                numOfEntries++;
+            }
+        }
+        return numOfEntries;
+    }
+
+}
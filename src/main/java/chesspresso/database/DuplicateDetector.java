@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.game.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Finds duplicate games in large game collections.
+ *
+ * Instead of comparing all pairs of games, every game is put into two
+ * buckets, one by the hash code of its main line
+ * ({@link GameMoveModel#getHashCode}) and one by a normalized header key
+ * (last names of the players and year). Games are only compared with the
+ * games in the same buckets:
+ * <ul>
+ *   <li> a game with exactly the same main line as an earlier game is an
+ *        {@link #EXACT_DUPLICATE}, if the main line has at least
+ *        {@link #setMinPliesForMovesOnly minPliesForMovesOnly} plies or the
+ *        header keys are equal (short games are often played many times),
+ *   <li> a game with the same, known header key whose main line is a prefix of the
+ *        main line of an earlier game or vice versa, and has at least
+ *        {@link #setMinCommonPlies minCommonPlies} plies, is a
+ *        {@link #NEAR_DUPLICATE} (truncated or extended copy of a game).
+ * </ul>
+ * Only the main lines and header keys of the games are kept, not the games.
+ *
+ * Games can be added from several threads at the same time. Each bucket is
+ * locked only while a game is checked against and added to it. When two
+ * duplicates are added concurrently, the one getting the lock first is
+ * considered the original.
+ */
+public class DuplicateDetector
+{
+
+    public static final int
+        NO_DUPLICATE    = -1,
+        EXACT_DUPLICATE = 0,
+        NEAR_DUPLICATE  = 1;
+
+    /**
+     * Listener to be informed about found duplicates.
+     */
+    public interface Listener
+    {
+        /**
+         * Called when a game is found to be a duplicate of an earlier game. May
+         * be called from any thread adding games.
+         *
+         * @param gameId the id of the duplicate
+         * @param originalId the id of the game it duplicates
+         * @param type EXACT_DUPLICATE or NEAR_DUPLICATE
+         */
+        public void notifyDuplicate(int gameId, int originalId, int type);
+    }
+
+    /*================================================================================*/
+
+    private static final class Entry
+    {
+        final int m_id;
+        final short[] m_moves;
+        final String m_headerKey;
+        volatile int m_duplicateOf = -1;
+
+        Entry(int id, short[] moves, String headerKey)
+        {
+            m_id = id; m_moves = moves; m_headerKey = headerKey;
+        }
+
+        int getOriginalId() {return (m_duplicateOf != -1 ? m_duplicateOf : m_id);}
+    }
+
+    /*================================================================================*/
+
+    private final ConcurrentMap<Long,List<Entry>> m_moveBuckets;
+    private final ConcurrentMap<String,List<Entry>> m_headerBuckets;
+    private final AtomicInteger m_nextId;
+    private final AtomicInteger m_numOfDuplicates;
+    private int m_minPliesForMovesOnly;
+    private int m_minCommonPlies;
+    private Listener m_listener;
+
+    /*================================================================================*/
+
+    public DuplicateDetector()
+    {
+        m_moveBuckets = new ConcurrentHashMap<>();
+        m_headerBuckets = new ConcurrentHashMap<>();
+        m_nextId = new AtomicInteger();
+        m_numOfDuplicates = new AtomicInteger();
+        m_minPliesForMovesOnly = 40;
+        m_minCommonPlies = 20;
+        m_listener = null;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Sets the minimal length of a game to be considered an exact duplicate of
+     * a game with different header key. Default is 40 plies.
+     */
+    public void setMinPliesForMovesOnly(int plies) {m_minPliesForMovesOnly = plies;}
+    public int getMinPliesForMovesOnly()           {return m_minPliesForMovesOnly;}
+
+    /**
+     * Sets the minimal length of the common part of near duplicates. Default is
+     * 20 plies.
+     */
+    public void setMinCommonPlies(int plies)       {m_minCommonPlies = plies;}
+    public int getMinCommonPlies()                 {return m_minCommonPlies;}
+
+    public void setListener(Listener listener)     {m_listener = listener;}
+
+    public int getNumOfGames()                     {return m_nextId.get();}
+    public int getNumOfDuplicates()                {return m_numOfDuplicates.get();}
+
+    /*================================================================================*/
+
+    /**
+     * Returns the normalized header key: the lower case last names of the
+     * players and the year.
+     */
+    public static String getHeaderKey(GameHeaderModel headerModel)
+    {
+        StringBuilder sb = new StringBuilder();
+        appendLastName(sb, headerModel.getWhite());
+        sb.append('|');
+        appendLastName(sb, headerModel.getBlack());
+        sb.append('|').append(headerModel.getYear());
+        return sb.toString();
+    }
+
+    private static void appendLastName(StringBuilder sb, String name)
+    {
+        if (name == null) return;  // =====>
+        name = name.trim();
+        int start, end = name.indexOf(',');
+        if (end != -1) {
+            start = 0;                              // "Last, First"
+        } else {
+            start = name.lastIndexOf(' ') + 1;      // "First Last"
+            end = name.length();
+        }
+        for (int i = start; i < end; i++) {
+            char ch = name.charAt(i);
+            if (Character.isLetter(ch)) sb.append(Character.toLowerCase(ch));
+        }
+    }
+
+    /**
+     * Returns whether both players and the year of the header key are known.
+     * Unknown keys say nothing about the games and are not used to match
+     * them, besides they would collect all games without header in one
+     * bucket.
+     */
+    private static boolean isKnownHeaderKey(String headerKey)
+    {
+        int first = headerKey.indexOf('|'), last = headerKey.lastIndexOf('|');
+        return first > 0 && last > first + 1 && !headerKey.endsWith("|0");
+    }
+
+    private static boolean isPrefix(short[] moves1, short[] moves2)
+    {
+        short[] shorter = (moves1.length <= moves2.length ? moves1 : moves2);
+        short[] longer = (shorter == moves1 ? moves2 : moves1);
+        for (int i = 0; i < shorter.length; i++) {
+            if (shorter[i] != longer[i]) return false;  // =====>
+        }
+        return true;
+    }
+
+    private static <K> List<Entry> getBucket(ConcurrentMap<K,List<Entry>> buckets, K key)
+    {
+        List<Entry> bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<>(2);
+            List<Entry> existing = buckets.putIfAbsent(key, bucket);
+            if (existing != null) bucket = existing;
+        }
+        return bucket;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Checks the game against the games added so far and adds it. Exact
+     * duplicates are not added. Near duplicates are added to the bucket of
+     * their main line, so later exact copies of them are found and reported
+     * with the id of the original, but not to the bucket of their header key,
+     * i.e. later games are checked for near duplicates against the original
+     * only. Games with unknown players or year are not checked for near
+     * duplicates.
+     *
+     * @return the id of the original if the game is a duplicate, -1 otherwise
+     */
+    public int addGame(GameModel gameModel)
+    {
+        return addGame(m_nextId.getAndIncrement(), gameModel);
+    }
+
+    private int addGame(int id, GameModel gameModel)
+    {
+        GameMoveModel moveModel = gameModel.getMoveModel();
+        Entry entry = new Entry(id, moveModel.getMainLine(), getHeaderKey(gameModel.getHeaderModel()));
+
+        /*---------- exact duplicates ----------*/
+        List<Entry> bucket = getBucket(m_moveBuckets, moveModel.getHashCode());
+        synchronized (bucket) {
+            for (Entry other : bucket) {
+                if (Arrays.equals(entry.m_moves, other.m_moves)
+                    && (entry.m_moves.length >= m_minPliesForMovesOnly
+                        || (isKnownHeaderKey(entry.m_headerKey) && entry.m_headerKey.equals(other.m_headerKey)))) {
+                    return duplicateFound(id, other.getOriginalId(), EXACT_DUPLICATE);  // =====>
+                }
+            }
+            bucket.add(entry);
+        }
+
+        /*---------- near duplicates ----------*/
+        if (!isKnownHeaderKey(entry.m_headerKey)) return NO_DUPLICATE;  // =====>
+        bucket = getBucket(m_headerBuckets, entry.m_headerKey);
+        synchronized (bucket) {
+            if (entry.m_moves.length >= m_minCommonPlies) {
+                for (Entry other : bucket) {
+                    if (other.m_moves.length >= m_minCommonPlies && isPrefix(entry.m_moves, other.m_moves)) {
+                        int type = (entry.m_moves.length == other.m_moves.length ? EXACT_DUPLICATE : NEAR_DUPLICATE);
+                        entry.m_duplicateOf = other.getOriginalId();  // already in the move bucket
+                        return duplicateFound(id, entry.m_duplicateOf, type);  // =====>
+                    }
+                }
+            }
+            bucket.add(entry);
+        }
+        return NO_DUPLICATE;
+    }
+
+    private int duplicateFound(int id, int originalId, int type)
+    {
+        m_numOfDuplicates.incrementAndGet();
+        Listener listener = m_listener;
+        if (listener != null) listener.notifyDuplicate(id, originalId, type);
+        return originalId;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns an iterator which passes on the games of the given iterator, but
+     * skips duplicates. The ids of the games are the ids of this detector, so
+     * the skipped games can be identified in the listener.
+     */
+    public GameModelIterator filter(final GameModelIterator it)
+    {
+        return new GameModelIterator() {
+            private GameModel m_next = null;
+
+            public boolean hasNext()
+            {
+                while (m_next == null && it.hasNext()) {
+                    GameModel gameModel = it.nextGameModel();
+                    if (addGame(gameModel) == NO_DUPLICATE) m_next = gameModel;
+                }
+                return m_next != null;
+            }
+
+            public GameModel nextGameModel()
+            {
+                if (!hasNext()) throw new NoSuchElementException();
+                GameModel gameModel = m_next;
+                m_next = null;
+                return gameModel;
+            }
+
+            public Object next() {return nextGameModel();}
+
+            public void remove() {throw new UnsupportedOperationException();}
+        };
+    }
+
+    /**
+     * Adds all games of the iterator using the given number of threads. The
+     * games are read in the calling thread and checked by the worker threads.
+     * Duplicates are reported to the listener.
+     *
+     * @return the number of duplicates found
+     */
+    public int addGames(GameModelIterator it, int numOfThreads) throws InterruptedException
+    {
+        int duplicatesBefore = getNumOfDuplicates();
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        Semaphore inFlight = new Semaphore(64 * numOfThreads);  // bound the games held in memory
+        try {
+            while (it.hasNext()) {
+                final GameModel gameModel = it.nextGameModel();
+                final int id = m_nextId.getAndIncrement();
+                final Semaphore semaphore = inFlight;
+                semaphore.acquire();
+                executor.execute(new Runnable() {
+                    public void run()
+                    {
+                        try {
+                            addGame(id, gameModel);
+                        } finally {
+                            semaphore.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        return getNumOfDuplicates() - duplicatesBefore;
+    }
+
+}
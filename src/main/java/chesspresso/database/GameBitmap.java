@@ -0,0 +1,563 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compressed set of game ids.
+ *
+ * The ids are split into chunks of 65536 ids sharing the same upper 16 bits.
+ * Each chunk is stored either as sorted array of the lower 16 bits (at most
+ * 4096 entries) or as plain bitmap of 1024 longs, whichever is smaller. Sparse
+ * sets (e.g. the games of a player) and dense sets (e.g. all draws) are both
+ * stored compactly, and the set operations work chunk by chunk on the
+ * respective representations.
+ *
+ * Bitmaps returned by the set operations are new objects, the operands are not
+ * modified.
+ */
+public class GameBitmap
+{
+
+    private static final int
+        MAX_ARRAY_SIZE = 4096,
+        BITMAP_WORDS = 1024;
+
+    /*================================================================================*/
+    // chunks
+
+    /**
+     * A chunk holds the lower 16 bits of its ids either in m_values (sorted, m_words
+     * is null) or in m_words (m_values is null).
+     */
+    private static final class Chunk
+    {
+        char[] m_values;
+        long[] m_words;
+        int m_cardinality;
+
+        static Chunk createArray(int capacity)
+        {
+            Chunk chunk = new Chunk();
+            chunk.m_values = new char[capacity];
+            return chunk;
+        }
+
+        static Chunk createBitmap()
+        {
+            Chunk chunk = new Chunk();
+            chunk.m_words = new long[BITMAP_WORDS];
+            return chunk;
+        }
+
+        boolean isBitmap() {return m_words != null;}
+
+        boolean contains(int low)
+        {
+            if (m_words != null) {
+                return (m_words[low >>> 6] & (1L << low)) != 0;
+            } else {
+                return Arrays.binarySearch(m_values, 0, m_cardinality, (char)low) >= 0;
+            }
+        }
+
+        /**
+         * Adds the value, returns the chunk to use from now on (may be converted
+         * to a bitmap).
+         */
+        Chunk add(int low)
+        {
+            if (m_words != null) {
+                long bit = 1L << low;
+                if ((m_words[low >>> 6] & bit) == 0) {
+                    m_words[low >>> 6] |= bit;
+                    m_cardinality++;
+                }
+                return this;  // =====>
+            }
+            int index;
+            if (m_cardinality == 0 || m_values[m_cardinality - 1] < low) {
+                index = m_cardinality;  // appending, the usual case when indexing
+            } else {
+                index = Arrays.binarySearch(m_values, 0, m_cardinality, (char)low);
+                if (index >= 0) return this;  // =====>
+                index = -index - 1;
+            }
+            if (m_cardinality == MAX_ARRAY_SIZE) {
+                Chunk bitmap = toBitmap();
+                return bitmap.add(low);  // =====>
+            }
+            if (m_cardinality == m_values.length) {
+                m_values = Arrays.copyOf(m_values, Math.min(MAX_ARRAY_SIZE, Math.max(4, 2 * m_cardinality)));
+            }
+            System.arraycopy(m_values, index, m_values, index + 1, m_cardinality - index);
+            m_values[index] = (char)low;
+            m_cardinality++;
+            return this;
+        }
+
+        Chunk toBitmap()
+        {
+            Chunk bitmap = createBitmap();
+            for (int i = 0; i < m_cardinality; i++) {
+                int low = m_values[i];
+                bitmap.m_words[low >>> 6] |= 1L << low;
+            }
+            bitmap.m_cardinality = m_cardinality;
+            return bitmap;
+        }
+
+        /**
+         * Converts a bitmap chunk back to an array if that is smaller. Returns null
+         * for empty chunks.
+         */
+        Chunk optimize()
+        {
+            if (m_cardinality == 0) return null;  // =====>
+            if (m_words == null || m_cardinality > MAX_ARRAY_SIZE) return this;  // =====>
+            Chunk array = createArray(m_cardinality);
+            int index = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = m_words[i];
+                while (word != 0) {
+                    array.m_values[index++] = (char)((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array.m_cardinality = m_cardinality;
+            return array;
+        }
+
+        Chunk copy()
+        {
+            Chunk chunk = new Chunk();
+            if (m_words != null) {
+                chunk.m_words = m_words.clone();
+            } else {
+                chunk.m_values = Arrays.copyOf(m_values, m_cardinality);
+            }
+            chunk.m_cardinality = m_cardinality;
+            return chunk;
+        }
+
+        int toArray(int high, int[] ids, int index)
+        {
+            if (m_words != null) {
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    long word = m_words[i];
+                    while (word != 0) {
+                        ids[index++] = high | (i << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < m_cardinality; i++) {
+                    ids[index++] = high | m_values[i];
+                }
+            }
+            return index;
+        }
+
+        /*--------------------------------------------------------------------------------*/
+
+        static Chunk and(Chunk c1, Chunk c2)
+        {
+            if (c1.isBitmap() && c2.isBitmap()) {
+                Chunk result = createBitmap();
+                int cardinality = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    long word = c1.m_words[i] & c2.m_words[i];
+                    result.m_words[i] = word;
+                    cardinality += Long.bitCount(word);
+                }
+                result.m_cardinality = cardinality;
+                return result.optimize();  // =====>
+            }
+            if (c1.isBitmap()) {Chunk tmp = c1; c1 = c2; c2 = tmp;}  // c1 is an array now
+            Chunk result = createArray(Math.min(c1.m_cardinality, c2.m_cardinality));
+            int n = 0;
+            if (c2.isBitmap()) {
+                for (int i = 0; i < c1.m_cardinality; i++) {
+                    int low = c1.m_values[i];
+                    if ((c2.m_words[low >>> 6] & (1L << low)) != 0) result.m_values[n++] = (char)low;
+                }
+            } else {
+                int i1 = 0, i2 = 0;
+                while (i1 < c1.m_cardinality && i2 < c2.m_cardinality) {
+                    char v1 = c1.m_values[i1], v2 = c2.m_values[i2];
+                    if (v1 < v2) {
+                        i1++;
+                    } else if (v1 > v2) {
+                        i2++;
+                    } else {
+                        result.m_values[n++] = v1; i1++; i2++;
+                    }
+                }
+            }
+            result.m_cardinality = n;
+            return (n == 0 ? null : result);
+        }
+
+        static Chunk or(Chunk c1, Chunk c2)
+        {
+            if (c1.isBitmap() || c2.isBitmap()) {
+                if (!c1.isBitmap()) {Chunk tmp = c1; c1 = c2; c2 = tmp;}  // c1 is a bitmap now
+                Chunk result = c1.copy();
+                if (c2.isBitmap()) {
+                    int cardinality = 0;
+                    for (int i = 0; i < BITMAP_WORDS; i++) {
+                        long word = result.m_words[i] | c2.m_words[i];
+                        result.m_words[i] = word;
+                        cardinality += Long.bitCount(word);
+                    }
+                    result.m_cardinality = cardinality;
+                } else {
+                    for (int i = 0; i < c2.m_cardinality; i++) result.add(c2.m_values[i]);
+                }
+                return result;  // =====>
+            }
+            char[] values = new char[c1.m_cardinality + c2.m_cardinality];
+            int n = 0, i1 = 0, i2 = 0;
+            while (i1 < c1.m_cardinality && i2 < c2.m_cardinality) {
+                char v1 = c1.m_values[i1], v2 = c2.m_values[i2];
+                if (v1 < v2) {
+                    values[n++] = v1; i1++;
+                } else if (v1 > v2) {
+                    values[n++] = v2; i2++;
+                } else {
+                    values[n++] = v1; i1++; i2++;
+                }
+            }
+            while (i1 < c1.m_cardinality) values[n++] = c1.m_values[i1++];
+            while (i2 < c2.m_cardinality) values[n++] = c2.m_values[i2++];
+            Chunk result = new Chunk();
+            result.m_values = values;
+            result.m_cardinality = n;
+            return (n > MAX_ARRAY_SIZE ? result.toBitmap() : result);
+        }
+
+        static Chunk andNot(Chunk c1, Chunk c2)
+        {
+            if (c1.isBitmap()) {
+                Chunk result = c1.copy();
+                if (c2.isBitmap()) {
+                    int cardinality = 0;
+                    for (int i = 0; i < BITMAP_WORDS; i++) {
+                        long word = result.m_words[i] & ~c2.m_words[i];
+                        result.m_words[i] = word;
+                        cardinality += Long.bitCount(word);
+                    }
+                    result.m_cardinality = cardinality;
+                } else {
+                    for (int i = 0; i < c2.m_cardinality; i++) {
+                        int low = c2.m_values[i];
+                        long bit = 1L << low;
+                        if ((result.m_words[low >>> 6] & bit) != 0) {
+                            result.m_words[low >>> 6] &= ~bit;
+                            result.m_cardinality--;
+                        }
+                    }
+                }
+                return result.optimize();  // =====>
+            }
+            Chunk result = createArray(c1.m_cardinality);
+            int n = 0;
+            if (c2.isBitmap()) {
+                for (int i = 0; i < c1.m_cardinality; i++) {
+                    int low = c1.m_values[i];
+                    if ((c2.m_words[low >>> 6] & (1L << low)) == 0) result.m_values[n++] = (char)low;
+                }
+            } else {
+                int i2 = 0;
+                for (int i1 = 0; i1 < c1.m_cardinality; i1++) {
+                    char v1 = c1.m_values[i1];
+                    while (i2 < c2.m_cardinality && c2.m_values[i2] < v1) i2++;
+                    if (i2 == c2.m_cardinality || c2.m_values[i2] != v1) result.m_values[n++] = v1;
+                }
+            }
+            result.m_cardinality = n;
+            return (n == 0 ? null : result);
+        }
+    }
+
+    /*================================================================================*/
+
+    private char[] m_keys;        // upper 16 bits of the ids in the chunk, sorted
+    private Chunk[] m_chunks;
+    private int m_numOfChunks;
+
+    /*================================================================================*/
+
+    public GameBitmap()
+    {
+        m_keys = new char[4];
+        m_chunks = new Chunk[4];
+        m_numOfChunks = 0;
+    }
+
+    /**
+     * Creates a copy of the bitmap, later changes of one do not affect the
+     * other.
+     */
+    public GameBitmap(GameBitmap bitmap)
+    {
+        this(bitmap.m_numOfChunks);
+        for (int i = 0; i < bitmap.m_numOfChunks; i++) {
+            appendChunk(bitmap.m_keys[i], bitmap.m_chunks[i].copy());
+        }
+    }
+
+    private GameBitmap(int capacity)
+    {
+        m_keys = new char[Math.max(capacity, 1)];
+        m_chunks = new Chunk[Math.max(capacity, 1)];
+        m_numOfChunks = 0;
+    }
+
+    /**
+     * Returns a bitmap containing all ids from <code>from</code> (inclusive) to
+     * <code>to</code> (exclusive).
+     */
+    public static GameBitmap range(int from, int to)
+    {
+        GameBitmap bitmap = new GameBitmap();
+        for (int id = from; id < to; ) {
+            int high = id >>> 16;
+            int end = Math.min(to, (high + 1) << 16);
+            Chunk chunk;
+            if (end - id <= MAX_ARRAY_SIZE) {
+                chunk = Chunk.createArray(end - id);
+                for (int i = id; i < end; i++) chunk.m_values[chunk.m_cardinality++] = (char)i;
+            } else {
+                chunk = Chunk.createBitmap();
+                for (int i = id; i < end; i++) chunk.m_words[(i & 0xFFFF) >>> 6] |= 1L << i;
+                chunk.m_cardinality = end - id;
+            }
+            bitmap.appendChunk((char)high, chunk);
+            id = end;
+        }
+        return bitmap;
+    }
+
+    /*================================================================================*/
+
+    private int getChunkIndex(char key)
+    {
+        if (m_numOfChunks > 0 && m_keys[m_numOfChunks - 1] == key) return m_numOfChunks - 1;  // =====>
+        return Arrays.binarySearch(m_keys, 0, m_numOfChunks, key);
+    }
+
+    private void appendChunk(char key, Chunk chunk)
+    {
+        insertChunk(m_numOfChunks, key, chunk);
+    }
+
+    private void insertChunk(int index, char key, Chunk chunk)
+    {
+        if (m_numOfChunks == m_keys.length) {
+            m_keys = Arrays.copyOf(m_keys, 2 * m_numOfChunks);
+            m_chunks = Arrays.copyOf(m_chunks, 2 * m_numOfChunks);
+        }
+        System.arraycopy(m_keys, index, m_keys, index + 1, m_numOfChunks - index);
+        System.arraycopy(m_chunks, index, m_chunks, index + 1, m_numOfChunks - index);
+        m_keys[index] = key;
+        m_chunks[index] = chunk;
+        m_numOfChunks++;
+    }
+
+    /**
+     * Adds the id to the set. Adding ids in increasing order is fastest.
+     *
+     * @param id the id to add, must be non-negative
+     */
+    public void add(int id)
+    {
+        if (id < 0) throw new IllegalArgumentException("Negative id: " + id);
+        char key = (char)(id >>> 16);
+        int index = getChunkIndex(key);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, key, Chunk.createArray(4));
+        }
+        m_chunks[index] = m_chunks[index].add(id & 0xFFFF);
+    }
+
+    public boolean contains(int id)
+    {
+        if (id < 0) return false;  // =====>
+        int index = getChunkIndex((char)(id >>> 16));
+        return index >= 0 && m_chunks[index].contains(id & 0xFFFF);
+    }
+
+    public int getCardinality()
+    {
+        int cardinality = 0;
+        for (int i = 0; i < m_numOfChunks; i++) cardinality += m_chunks[i].m_cardinality;
+        return cardinality;
+    }
+
+    public boolean isEmpty()
+    {
+        return m_numOfChunks == 0;
+    }
+
+    /**
+     * Returns the ids of the set in increasing order.
+     */
+    public int[] toArray()
+    {
+        int[] ids = new int[getCardinality()];
+        int index = 0;
+        for (int i = 0; i < m_numOfChunks; i++) {
+            index = m_chunks[i].toArray(m_keys[i] << 16, ids, index);
+        }
+        return ids;
+    }
+
+    /*================================================================================*/
+    // set operations
+
+    public GameBitmap and(GameBitmap bitmap)
+    {
+        GameBitmap result = new GameBitmap(Math.min(m_numOfChunks, bitmap.m_numOfChunks));
+        int i1 = 0, i2 = 0;
+        while (i1 < m_numOfChunks && i2 < bitmap.m_numOfChunks) {
+            char k1 = m_keys[i1], k2 = bitmap.m_keys[i2];
+            if (k1 < k2) {
+                i1++;
+            } else if (k1 > k2) {
+                i2++;
+            } else {
+                Chunk chunk = Chunk.and(m_chunks[i1], bitmap.m_chunks[i2]);
+                if (chunk != null) result.appendChunk(k1, chunk);
+                i1++; i2++;
+            }
+        }
+        return result;
+    }
+
+    public GameBitmap or(GameBitmap bitmap)
+    {
+        GameBitmap result = new GameBitmap(m_numOfChunks + bitmap.m_numOfChunks);
+        int i1 = 0, i2 = 0;
+        while (i1 < m_numOfChunks || i2 < bitmap.m_numOfChunks) {
+            char k1 = (i1 < m_numOfChunks ? m_keys[i1] : Character.MAX_VALUE);
+            char k2 = (i2 < bitmap.m_numOfChunks ? bitmap.m_keys[i2] : Character.MAX_VALUE);
+            if (i2 == bitmap.m_numOfChunks || (i1 < m_numOfChunks && k1 < k2)) {
+                result.appendChunk(k1, m_chunks[i1].copy()); i1++;
+            } else if (i1 == m_numOfChunks || k1 > k2) {
+                result.appendChunk(k2, bitmap.m_chunks[i2].copy()); i2++;
+            } else {
+                result.appendChunk(k1, Chunk.or(m_chunks[i1], bitmap.m_chunks[i2]));
+                i1++; i2++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the union of all given sets. The result is built in one pass over
+     * the chunks, which is cheaper than or-ing the sets one at a time when
+     * there are many of them.
+     */
+    public static GameBitmap union(List<GameBitmap> bitmaps)
+    {
+        int numOfBitmaps = bitmaps.size(), capacity = 0;
+        for (int i = 0; i < numOfBitmaps; i++) capacity = Math.max(capacity, bitmaps.get(i).m_numOfChunks);
+        GameBitmap result = new GameBitmap(capacity);
+        int[] indexes = new int[numOfBitmaps];
+        for (;;) {
+            int key = Integer.MAX_VALUE, numWithKey = 0;
+            Chunk single = null;
+            for (int i = 0; i < numOfBitmaps; i++) {
+                GameBitmap bitmap = bitmaps.get(i);
+                if (indexes[i] == bitmap.m_numOfChunks) continue;
+                int k = bitmap.m_keys[indexes[i]];
+                if (k < key) {
+                    key = k; numWithKey = 1; single = bitmap.m_chunks[indexes[i]];
+                } else if (k == key) {
+                    numWithKey++;
+                }
+            }
+            if (numWithKey == 0) break;
+
+            if (numWithKey == 1) {
+                result.appendChunk((char)key, single.copy());
+            } else {
+                Chunk chunk = Chunk.createBitmap();
+                for (int i = 0; i < numOfBitmaps; i++) {
+                    GameBitmap bitmap = bitmaps.get(i);
+                    if (indexes[i] == bitmap.m_numOfChunks || bitmap.m_keys[indexes[i]] != key) continue;
+                    Chunk c = bitmap.m_chunks[indexes[i]];
+                    if (c.isBitmap()) {
+                        for (int w = 0; w < BITMAP_WORDS; w++) chunk.m_words[w] |= c.m_words[w];
+                    } else {
+                        for (int v = 0; v < c.m_cardinality; v++) chunk.m_words[c.m_values[v] >>> 6] |= 1L << c.m_values[v];
+                    }
+                }
+                int cardinality = 0;
+                for (int w = 0; w < BITMAP_WORDS; w++) cardinality += Long.bitCount(chunk.m_words[w]);
+                chunk.m_cardinality = cardinality;
+                result.appendChunk((char)key, chunk.optimize());
+            }
+            for (int i = 0; i < numOfBitmaps; i++) {
+                GameBitmap bitmap = bitmaps.get(i);
+                if (indexes[i] < bitmap.m_numOfChunks && bitmap.m_keys[indexes[i]] == key) indexes[i]++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of this set which are not in the given set. To negate a set,
+     * subtract it from {@link #range range(0, numOfGames)}.
+     */
+    public GameBitmap andNot(GameBitmap bitmap)
+    {
+        GameBitmap result = new GameBitmap(m_numOfChunks);
+        int i2 = 0;
+        for (int i1 = 0; i1 < m_numOfChunks; i1++) {
+            char k1 = m_keys[i1];
+            while (i2 < bitmap.m_numOfChunks && bitmap.m_keys[i2] < k1) i2++;
+            if (i2 < bitmap.m_numOfChunks && bitmap.m_keys[i2] == k1) {
+                Chunk chunk = Chunk.andNot(m_chunks[i1], bitmap.m_chunks[i2]);
+                if (chunk != null) result.appendChunk(k1, chunk);
+            } else {
+                result.appendChunk(k1, m_chunks[i1].copy());
+            }
+        }
+        return result;
+    }
+
+    /*================================================================================*/
+
+    public boolean equals(Object obj)
+    {
+        if (obj == this) return true;  // =====>
+        if (!(obj instanceof GameBitmap)) return false;  // =====>
+        return Arrays.equals(toArray(), ((GameBitmap)obj).toArray());
+    }
+
+    public int hashCode()
+    {
+        return Arrays.hashCode(toArray());
+    }
+
+    public String toString()
+    {
+        return "GameBitmap[" + getCardinality() + " ids in " + m_numOfChunks + " chunks]";
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.game.*;
+import chesspresso.move.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Extracts the position hash codes of many games, as needed to build position
+ * keyed indexes.
+ *
+ * The games are replayed by a {@link GameReplayer} per thread, the hash codes
+ * are written into an array per thread which is handed to the listener. No
+ * objects are allocated per move or, once the arrays have grown to the
+ * longest game, per game.
+ */
+public class HashCodeExtractor
+{
+
+    /**
+     * Listener receiving the hash codes of the games.
+     */
+    public interface Listener
+    {
+        /**
+         * Called for every game, from the thread replaying the game.
+         *
+         * @param gameId the number of the game in the iterator, starting at 0
+         * @param hashCodes the hash codes of the positions of the game, see
+         *        {@link GameReplayer#getHashCodes}; the array is reused after
+         *        the call
+         * @param num the number of hash codes
+         */
+        public void notifyHashCodes(int gameId, long[] hashCodes, int num);
+    }
+
+    /*================================================================================*/
+
+    private final boolean m_withLines;
+    private final AtomicInteger m_numOfIllegalGames;
+    private final ThreadLocal<GameReplayer> m_replayers;
+    private final ThreadLocal<long[]> m_buffers;
+
+    /*================================================================================*/
+
+    /**
+     * @param withLines whether to include the positions of the lines
+     */
+    public HashCodeExtractor(boolean withLines)
+    {
+        m_withLines = withLines;
+        m_numOfIllegalGames = new AtomicInteger();
+        m_replayers = new ThreadLocal<GameReplayer>() {
+            protected GameReplayer initialValue() {return new GameReplayer();}
+        };
+        m_buffers = new ThreadLocal<long[]>() {
+            protected long[] initialValue() {return new long[256];}
+        };
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the number of games with illegal moves. These games are not
+     * passed to the listener.
+     */
+    public int getNumOfIllegalGames() {return m_numOfIllegalGames.get();}
+
+    private void extract(int gameId, GameModel gameModel, Listener listener)
+    {
+        GameReplayer replayer = m_replayers.get();
+        long[] hashCodes = m_buffers.get();
+        int num;
+        try {
+            num = replayer.getHashCodes(gameModel, hashCodes, m_withLines);
+            if (num > hashCodes.length) {
+                hashCodes = new long[Math.max(num, 2 * hashCodes.length)];
+                m_buffers.set(hashCodes);
+                num = replayer.getHashCodes(gameModel, hashCodes, m_withLines);
+            }
+        } catch (IllegalMoveException ex) {
+            m_numOfIllegalGames.incrementAndGet();
+            return;  // =====>
+        }
+        listener.notifyHashCodes(gameId, hashCodes, num);
+    }
+
+    /**
+     * Extracts the hash codes of all games of the iterator in the calling
+     * thread.
+     *
+     * @return the number of games
+     */
+    public int extract(GameModelIterator it, Listener listener)
+    {
+        int gameId = 0;
+        while (it.hasNext()) {
+            extract(gameId++, it.nextGameModel(), listener);
+        }
+        return gameId;
+    }
+
+    /**
+     * Extracts the hash codes of all games of the iterator using the given
+     * number of threads. The games are read in the calling thread and
+     * replayed by the worker threads, so the listener is called concurrently
+     * and not in the order of the games.
+     *
+     * @return the number of games
+     */
+    public int extract(GameModelIterator it, final Listener listener, int numOfThreads) throws InterruptedException
+    {
+        if (numOfThreads <= 1) return extract(it, listener);  // =====>
+
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        final Semaphore inFlight = new Semaphore(64 * numOfThreads);  // bound the games held in memory
+        int gameId = 0;
+        try {
+            while (it.hasNext()) {
+                final GameModel gameModel = it.nextGameModel();
+                final int id = gameId++;
+                inFlight.acquire();
+                executor.execute(new Runnable() {
+                    public void run()
+                    {
+                        try {
+                            extract(id, gameModel, listener);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        return gameId;
+    }
+
+}
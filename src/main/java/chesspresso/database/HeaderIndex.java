@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import java.util.*;
+
+/**
+ * Column store of the headers of a game collection.
+ *
+ * Games are identified by the order in which they are added, starting at 0.
+ * The index keeps the elos, dates, results, eco codes and player ids of all
+ * games in primitive arrays, one per column, and maintains a
+ * {@link GameBitmap} per result, eco code, year and player. Together with
+ * {@link HeaderQuery} this allows to answer typical database searches
+ * ("all wins of white with the French Defence since 1990") by combining a few
+ * bitmaps, without looking at the headers themselves.
+ */
+public class HeaderIndex
+{
+
+    private static final int NUM_OF_ECO_CODES = 500;
+
+    /*================================================================================*/
+
+    private int m_numOfGames;
+
+    private short[] m_whiteElos;
+    private short[] m_blackElos;
+    private int[] m_dates;
+    private byte[] m_results;
+    private short[] m_ecos;
+    private int[] m_whitePlayers;
+    private int[] m_blackPlayers;
+
+    private Map<String,Integer> m_playerIds;
+    private List<String> m_playerNames;
+
+    private GameBitmap[] m_resultBitmaps;    // index is result + 1, to include NO_RES
+    private GameBitmap[] m_ecoBitmaps;
+    private Map<Integer,GameBitmap> m_yearBitmaps;
+    private List<GameBitmap> m_whitePlayerBitmaps;
+    private List<GameBitmap> m_blackPlayerBitmaps;
+    private GameBitmap m_allGames;           // cached, valid for m_allGamesSize games
+    private int m_allGamesSize;
+
+    /*================================================================================*/
+
+    public HeaderIndex()
+    {
+        this(1024);
+    }
+
+    /**
+     * @param expectedNumOfGames the initial capacity of the columns
+     */
+    public HeaderIndex(int expectedNumOfGames)
+    {
+        int capacity = Math.max(expectedNumOfGames, 16);
+        m_numOfGames = 0;
+        m_whiteElos = new short[capacity];
+        m_blackElos = new short[capacity];
+        m_dates = new int[capacity];
+        m_results = new byte[capacity];
+        m_ecos = new short[capacity];
+        m_whitePlayers = new int[capacity];
+        m_blackPlayers = new int[capacity];
+
+        m_playerIds = new HashMap<>();
+        m_playerNames = new ArrayList<>();
+
+        m_resultBitmaps = new GameBitmap[Chess.RES_NOT_FINISHED + 2];
+        for (int i = 0; i < m_resultBitmaps.length; i++) m_resultBitmaps[i] = new GameBitmap();
+        m_ecoBitmaps = new GameBitmap[NUM_OF_ECO_CODES];
+        m_yearBitmaps = new HashMap<>();
+        m_whitePlayerBitmaps = new ArrayList<>();
+        m_blackPlayerBitmaps = new ArrayList<>();
+    }
+
+    /*================================================================================*/
+
+    private void ensureCapacity()
+    {
+        if (m_numOfGames < m_dates.length) return;  // =====>
+        int capacity = 2 * m_dates.length;
+        m_whiteElos = Arrays.copyOf(m_whiteElos, capacity);
+        m_blackElos = Arrays.copyOf(m_blackElos, capacity);
+        m_dates = Arrays.copyOf(m_dates, capacity);
+        m_results = Arrays.copyOf(m_results, capacity);
+        m_ecos = Arrays.copyOf(m_ecos, capacity);
+        m_whitePlayers = Arrays.copyOf(m_whitePlayers, capacity);
+        m_blackPlayers = Arrays.copyOf(m_blackPlayers, capacity);
+    }
+
+    private int getOrCreatePlayerId(String name)
+    {
+        if (name == null) return -1;  // =====>
+        Integer id = m_playerIds.get(name);
+        if (id == null) {
+            id = m_playerNames.size();
+            m_playerIds.put(name, id);
+            m_playerNames.add(name);
+            m_whitePlayerBitmaps.add(new GameBitmap());
+            m_blackPlayerBitmaps.add(new GameBitmap());
+        }
+        return id;
+    }
+
+    /**
+     * Adds the header of the next game to the index.
+     *
+     * @return the id of the game
+     */
+    public int addGame(GameHeaderModel headerModel)
+    {
+        ensureCapacity();
+        int gameId = m_numOfGames++;
+
+        m_whiteElos[gameId] = (short)Math.min(headerModel.getWhiteElo(), Short.MAX_VALUE);
+        m_blackElos[gameId] = (short)Math.min(headerModel.getBlackElo(), Short.MAX_VALUE);
+
+        int date = headerModel.getPackedDate();
+        m_dates[gameId] = date;
+        int year = PGN.getYearOfPackedDate(date);
+        GameBitmap yearBitmap = m_yearBitmaps.get(year);
+        if (yearBitmap == null) {
+            yearBitmap = new GameBitmap();
+            m_yearBitmaps.put(year, yearBitmap);
+        }
+        yearBitmap.add(gameId);
+
+        int result = headerModel.getResult();
+        m_results[gameId] = (byte)result;
+        m_resultBitmaps[result + 1].add(gameId);
+
+        int eco = headerModel.getPackedECO();
+        m_ecos[gameId] = (short)eco;
+        if (eco != PGN.NO_PACKED_ECO) {
+            if (m_ecoBitmaps[eco] == null) m_ecoBitmaps[eco] = new GameBitmap();
+            m_ecoBitmaps[eco].add(gameId);
+        }
+
+        int white = getOrCreatePlayerId(headerModel.getWhite());
+        m_whitePlayers[gameId] = white;
+        if (white != -1) m_whitePlayerBitmaps.get(white).add(gameId);
+        int black = getOrCreatePlayerId(headerModel.getBlack());
+        m_blackPlayers[gameId] = black;
+        if (black != -1) m_blackPlayerBitmaps.get(black).add(gameId);
+
+        return gameId;
+    }
+
+    /**
+     * Adds all remaining games of the iterator.
+     */
+    public void addGames(GameModelIterator it)
+    {
+        while (it.hasNext()) {
+            addGame(it.nextGameModel().getHeaderModel());
+        }
+    }
+
+    /*================================================================================*/
+    // columns
+
+    public int getNumOfGames()                {return m_numOfGames;}
+
+    public int getWhiteElo(int gameId)        {return m_whiteElos[gameId];}
+    public int getBlackElo(int gameId)        {return m_blackElos[gameId];}
+    public int getPackedDate(int gameId)      {return m_dates[gameId];}
+    public int getYear(int gameId)            {return PGN.getYearOfPackedDate(m_dates[gameId]);}
+    public int getResult(int gameId)          {return m_results[gameId];}
+    public int getPackedECO(int gameId)       {return m_ecos[gameId];}
+    public int getWhitePlayerId(int gameId)   {return m_whitePlayers[gameId];}
+    public int getBlackPlayerId(int gameId)   {return m_blackPlayers[gameId];}
+
+    public int getNumOfPlayers()              {return m_playerNames.size();}
+    public String getPlayerName(int playerId) {return m_playerNames.get(playerId);}
+
+    /**
+     * Returns the id of the player with exactly the given name, -1 if there is
+     * no such player.
+     */
+    public int getPlayerId(String name)
+    {
+        Integer id = m_playerIds.get(name);
+        return (id == null ? -1 : id.intValue());
+    }
+
+    /*================================================================================*/
+    // bitmaps, the returned bitmaps are copies owned by the caller
+
+    public GameBitmap getAllGames()
+    {
+        if (m_allGames == null || m_allGamesSize != m_numOfGames) {
+            m_allGames = GameBitmap.range(0, m_numOfGames);
+            m_allGamesSize = m_numOfGames;
+        }
+        return new GameBitmap(m_allGames);
+    }
+
+    /**
+     * @param result one of the Chess.RES_* constants, or Chess.NO_RES
+     */
+    public GameBitmap getResultBitmap(int result)
+    {
+        if (result < Chess.NO_RES || result > Chess.RES_NOT_FINISHED) return new GameBitmap();  // =====>
+        return new GameBitmap(m_resultBitmaps[result + 1]);
+    }
+
+    /**
+     * @param packedECO the eco code as returned by {@link PGN#ecoToPackedECO}
+     */
+    public GameBitmap getECOBitmap(int packedECO)
+    {
+        if (packedECO < 0 || packedECO >= NUM_OF_ECO_CODES || m_ecoBitmaps[packedECO] == null) return new GameBitmap();  // =====>
+        return new GameBitmap(m_ecoBitmaps[packedECO]);
+    }
+
+    /**
+     * @param year the year, 0 for games of unknown year
+     */
+    public GameBitmap getYearBitmap(int year)
+    {
+        GameBitmap bitmap = m_yearBitmaps.get(year);
+        return (bitmap == null ? new GameBitmap() : new GameBitmap(bitmap));
+    }
+
+    /**
+     * Returns the distinct years of the indexed games, sorted.
+     */
+    public int[] getYears()
+    {
+        int[] years = new int[m_yearBitmaps.size()];
+        int index = 0;
+        for (Integer year : m_yearBitmaps.keySet()) years[index++] = year;
+        Arrays.sort(years);
+        return years;
+    }
+
+    public GameBitmap getWhitePlayerBitmap(int playerId)
+    {
+        if (playerId < 0 || playerId >= m_whitePlayerBitmaps.size()) return new GameBitmap();  // =====>
+        return new GameBitmap(m_whitePlayerBitmaps.get(playerId));
+    }
+
+    public GameBitmap getBlackPlayerBitmap(int playerId)
+    {
+        if (playerId < 0 || playerId >= m_blackPlayerBitmaps.size()) return new GameBitmap();  // =====>
+        return new GameBitmap(m_blackPlayerBitmaps.get(playerId));
+    }
+
+    /*================================================================================*/
+    // column scans for attributes without bitmap
+
+    /**
+     * Returns the games where the elos of the players lie in the given range
+     * (inclusive). Unknown elos are 0.
+     *
+     * @param color Chess.WHITE, Chess.BLACK or Chess.NOBODY for both players
+     */
+    public GameBitmap getEloBitmap(int color, int minElo, int maxElo)
+    {
+        GameBitmap bitmap = new GameBitmap();
+        for (int gameId = 0; gameId < m_numOfGames; gameId++) {
+            int whiteElo = m_whiteElos[gameId], blackElo = m_blackElos[gameId];
+            boolean whiteOk = whiteElo >= minElo && whiteElo <= maxElo;
+            boolean blackOk = blackElo >= minElo && blackElo <= maxElo;
+            if (color == Chess.WHITE ? whiteOk : (color == Chess.BLACK ? blackOk : whiteOk && blackOk)) {
+                bitmap.add(gameId);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the games played between the two packed dates (inclusive). Games
+     * without well-formed date are never included.
+     */
+    public GameBitmap getDateBitmap(int fromPackedDate, int toPackedDate)
+    {
+        GameBitmap bitmap = new GameBitmap();
+        for (int gameId = 0; gameId < m_numOfGames; gameId++) {
+            int date = m_dates[gameId];
+            if (date != PGN.NO_PACKED_DATE && date >= fromPackedDate && date <= toPackedDate) {
+                bitmap.add(gameId);
+            }
+        }
+        return bitmap;
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.*;
+import chesspresso.pgn.*;
+import java.util.*;
+
+/**
+ * Query on the headers of a game collection, evaluated against a
+ * {@link HeaderIndex}.
+ *
+ * Queries are built with the static factory methods and combined with
+ * {@link #and and}, {@link #or or} and {@link #not not}, e.g.
+ * <pre>
+ *   HeaderQuery query = HeaderQuery.and(HeaderQuery.player("Kasparov, Garry"),
+ *                                       HeaderQuery.eco("B90", "B99"),
+ *                                       HeaderQuery.not(HeaderQuery.result(Chess.RES_DRAW)));
+ *   int[] gameIds = query.evaluate(index).toArray();
+ * </pre>
+ * Player, result, eco and year queries use the bitmaps of the index, elo and
+ * date range queries scan the respective columns.
+ */
+public abstract class HeaderQuery
+{
+
+    /**
+     * Returns the ids of the games matching the query.
+     */
+    public abstract GameBitmap evaluate(HeaderIndex index);
+
+    /*================================================================================*/
+    // combinations
+
+    public static HeaderQuery and(final HeaderQuery... queries)
+    {
+        if (queries.length == 0) throw new IllegalArgumentException("No queries given");
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                GameBitmap result = queries[0].evaluate(index);
+                for (int i = 1; i < queries.length && !result.isEmpty(); i++) {
+                    result = result.and(queries[i].evaluate(index));
+                }
+                return result;
+            }
+        };
+    }
+
+    public static HeaderQuery or(final HeaderQuery... queries)
+    {
+        if (queries.length == 0) throw new IllegalArgumentException("No queries given");
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                GameBitmap result = queries[0].evaluate(index);
+                for (int i = 1; i < queries.length; i++) {
+                    result = result.or(queries[i].evaluate(index));
+                }
+                return result;
+            }
+        };
+    }
+
+    public static HeaderQuery not(final HeaderQuery query)
+    {
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                return index.getAllGames().andNot(query.evaluate(index));
+            }
+        };
+    }
+
+    /*================================================================================*/
+    // bitmap queries
+
+    /**
+     * @param result one of the Chess.RES_* constants
+     */
+    public static HeaderQuery result(final int result)
+    {
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index) {return index.getResultBitmap(result);}
+        };
+    }
+
+    /**
+     * Games with an eco code between <code>fromECO</code> and <code>toECO</code>
+     * (inclusive), e.g. "C00" to "C19" for the French Defence.
+     */
+    public static HeaderQuery eco(String fromECO, String toECO)
+    {
+        final int from = PGN.ecoToPackedECO(fromECO);
+        final int to = PGN.ecoToPackedECO(toECO);
+        if (from == PGN.NO_PACKED_ECO) throw new IllegalArgumentException("Illegal eco code: " + fromECO);
+        if (to == PGN.NO_PACKED_ECO) throw new IllegalArgumentException("Illegal eco code: " + toECO);
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                List<GameBitmap> bitmaps = new ArrayList<>();
+                for (int eco = from; eco <= to; eco++) {
+                    GameBitmap bitmap = index.getECOBitmap(eco);
+                    if (!bitmap.isEmpty()) bitmaps.add(bitmap);
+                }
+                return GameBitmap.union(bitmaps);
+            }
+        };
+    }
+
+    /**
+     * Games played from <code>fromYear</code> to <code>toYear</code> (inclusive).
+     */
+    public static HeaderQuery year(final int fromYear, final int toYear)
+    {
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                List<GameBitmap> bitmaps = new ArrayList<>();
+                int[] years = index.getYears();
+                for (int i = 0; i < years.length; i++) {
+                    if (years[i] >= fromYear && years[i] <= toYear) {
+                        bitmaps.add(index.getYearBitmap(years[i]));
+                    }
+                }
+                return GameBitmap.union(bitmaps);
+            }
+        };
+    }
+
+    /**
+     * Games where the player with exactly the given name has white.
+     */
+    public static HeaderQuery white(final String name)
+    {
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                return index.getWhitePlayerBitmap(index.getPlayerId(name));
+            }
+        };
+    }
+
+    /**
+     * Games where the player with exactly the given name has black.
+     */
+    public static HeaderQuery black(final String name)
+    {
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index)
+            {
+                return index.getBlackPlayerBitmap(index.getPlayerId(name));
+            }
+        };
+    }
+
+    /**
+     * Games of the player with exactly the given name, with either color.
+     */
+    public static HeaderQuery player(String name)
+    {
+        return or(white(name), black(name));
+    }
+
+    /**
+     * Games won by the player with exactly the given name.
+     */
+    public static HeaderQuery wins(String name)
+    {
+        return or(and(white(name), result(Chess.RES_WHITE_WINS)),
+                  and(black(name), result(Chess.RES_BLACK_WINS)));
+    }
+
+    /*================================================================================*/
+    // column scan queries
+
+    /**
+     * Games where the elo of the player(s) lies in the given range (inclusive).
+     *
+     * @param color Chess.WHITE, Chess.BLACK or Chess.NOBODY for both players
+     */
+    public static HeaderQuery elo(final int color, final int minElo, final int maxElo)
+    {
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index) {return index.getEloBitmap(color, minElo, maxElo);}
+        };
+    }
+
+    /**
+     * Games played between the two dates (inclusive), given as pgn dates like
+     * "1999.07.31". Unknown months or days ("1999.??.??") are taken as 0, i.e.
+     * before the first month or day.
+     */
+    public static HeaderQuery date(String fromDate, String toDate)
+    {
+        final int from = PGN.pgnDateToPackedDate(fromDate);
+        final int to = PGN.pgnDateToPackedDate(toDate);
+        if (from == PGN.NO_PACKED_DATE) throw new IllegalArgumentException("Illegal date: " + fromDate);
+        if (to == PGN.NO_PACKED_DATE) throw new IllegalArgumentException("Illegal date: " + toDate);
+        return new HeaderQuery() {
+            public GameBitmap evaluate(HeaderIndex index) {return index.getDateBitmap(from, to);}
+        };
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.util.*;
+
+/**
+ * Index of the material signatures reached in the games of a collection.
+ *
+ * Every game is replayed once on a reused position, whose material signature
+ * is maintained incrementally. For each {@link MaterialSignature material
+ * signature} the index records the games reaching it together with the range
+ * of plies spent in it. Since material never comes back once it is gone, a game
+ * has at most one range per signature.
+ *
+ * Queries like "all KRP vs KR endings lasting at least 10 plies" are answered
+ * from the index without replaying any game:
+ * <pre>
+ *   GameBitmap games = index.getGames(MaterialSignature.getPattern("KRPKR"), 10);
+ * </pre>
+ *
+ * Games are identified by the order in which they are added, starting at 0,
+ * like in {@link HeaderIndex}.
+ */
+public class MaterialIndex
+{
+
+    /**
+     * The games and ply ranges of one signature, sorted by game id. A range is
+     * packed as (first ply << 16) | (last ply + 1), plies are counted from the
+     * start of the game, 0 being the start position.
+     */
+    private static class Ranges
+    {
+        int[] m_gameIds = new int[4];
+        int[] m_plies = new int[4];
+        int m_size = 0;
+
+        void add(int gameId, int fromPly, int toPly)
+        {
+            if (m_size == m_gameIds.length) {
+                m_gameIds = Arrays.copyOf(m_gameIds, 2 * m_size);
+                m_plies = Arrays.copyOf(m_plies, 2 * m_size);
+            }
+            m_gameIds[m_size] = gameId;
+            m_plies[m_size] = (Math.min(fromPly, 0xFFFF) << 16) | Math.min(toPly, 0xFFFF);
+            m_size++;
+        }
+
+        int indexOf(int gameId)
+        {
+            int index = Arrays.binarySearch(m_gameIds, 0, m_size, gameId);
+            return (index < 0 ? -1 : index);
+        }
+
+        int getFromPly(int index)   {return m_plies[index] >>> 16;}
+        int getNumOfPlies(int index) {return (m_plies[index] & 0xFFFF) - (m_plies[index] >>> 16);}
+    }
+
+    /*================================================================================*/
+
+    private final Map<Integer,Ranges> m_ranges;
+    private final Position m_position;
+    private int m_numOfGames;
+
+    /*================================================================================*/
+
+    public MaterialIndex()
+    {
+        m_ranges = new HashMap<>();
+        m_position = new Position();
+        m_numOfGames = 0;
+    }
+
+    /*================================================================================*/
+
+    private void addRange(int signature, int gameId, int fromPly, int toPly)
+    {
+        Ranges ranges = m_ranges.get(signature);
+        if (ranges == null) {
+            ranges = new Ranges();
+            m_ranges.put(signature, ranges);
+        }
+        ranges.add(gameId, fromPly, toPly);
+    }
+
+    /**
+     * Replays the main line of the game and adds its signatures. Games with
+     * illegal moves are indexed up to the illegal move.
+     *
+     * @return the id of the game
+     * @throws IllegalArgumentException if the FEN tag of the game is malformed
+     */
+    public int addGame(GameModel gameModel)
+    {
+        int gameId = m_numOfGames++;
+
+        Position position = m_position;
+        gameModel.initStartPosition(position);
+        short[] moves = gameModel.getMoveModel().getMainLine();
+        int signature = position.getMaterialSignature();
+        int fromPly = 0, ply = 0;
+        try {
+            for (; ply < moves.length; ply++) {
+                position.doMove(moves[ply]);
+                int newSignature = position.getMaterialSignature();
+                if (newSignature != signature) {
+                    addRange(signature, gameId, fromPly, ply + 1);
+                    signature = newSignature;
+                    fromPly = ply + 1;
+                }
+            }
+            addRange(signature, gameId, fromPly, ply + 1);
+        } catch (IllegalMoveException ex) {
+            addRange(signature, gameId, fromPly, ply + 1);  // up to the position before the illegal move
+        } finally {
+            for (int i = 0; i < ply; i++) position.undoMove();
+        }
+        return gameId;
+    }
+
+    /**
+     * Adds all remaining games of the iterator.
+     */
+    public void addGames(GameModelIterator it)
+    {
+        while (it.hasNext()) {
+            addGame(it.nextGameModel());
+        }
+    }
+
+    /*================================================================================*/
+
+    public int getNumOfGames() {return m_numOfGames;}
+
+    /**
+     * Returns all signatures reached in any game, sorted.
+     */
+    public int[] getSignatures()
+    {
+        int[] signatures = new int[m_ranges.size()];
+        int index = 0;
+        for (Integer signature : m_ranges.keySet()) signatures[index++] = signature;
+        Arrays.sort(signatures);
+        return signatures;
+    }
+
+    /**
+     * Returns the number of games reaching the signature.
+     */
+    public int getNumOfGames(int signature)
+    {
+        Ranges ranges = m_ranges.get(signature);
+        return (ranges == null ? 0 : ranges.m_size);
+    }
+
+    /**
+     * Returns the games reaching the signature.
+     */
+    public GameBitmap getGames(int signature)
+    {
+        GameBitmap games = new GameBitmap();
+        Ranges ranges = m_ranges.get(signature);
+        if (ranges != null) {
+            for (int i = 0; i < ranges.m_size; i++) games.add(ranges.m_gameIds[i]);
+        }
+        return games;
+    }
+
+    /**
+     * Returns the games spending at least <code>minPlies</code> positions in
+     * signatures matching the pattern.
+     *
+     * @param pattern a pattern as returned by {@link MaterialSignature#getPattern}
+     * @param minPlies the minimal number of positions, 1 for all games reaching
+     *        the pattern at all
+     */
+    public GameBitmap getGames(long pattern, int minPlies)
+    {
+        GameBitmap games = new GameBitmap();
+        int[] plies = (minPlies > 1 ? new int[m_numOfGames] : null);
+        for (Map.Entry<Integer,Ranges> entry : m_ranges.entrySet()) {
+            if (!MaterialSignature.matches(pattern, entry.getKey())) continue;
+            Ranges ranges = entry.getValue();
+            if (plies == null) {
+                games = games.or(getGames(entry.getKey()));
+            } else {
+                for (int i = 0; i < ranges.m_size; i++) plies[ranges.m_gameIds[i]] += ranges.getNumOfPlies(i);
+            }
+        }
+        if (plies != null) {
+            for (int gameId = 0; gameId < plies.length; gameId++) {
+                if (plies[gameId] >= minPlies) games.add(gameId);
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Returns the first ply at which the game reaches a signature matching the
+     * pattern, -1 if it never does.
+     */
+    public int getFirstPly(int gameId, long pattern)
+    {
+        int firstPly = -1;
+        for (Map.Entry<Integer,Ranges> entry : m_ranges.entrySet()) {
+            if (!MaterialSignature.matches(pattern, entry.getKey())) continue;
+            Ranges ranges = entry.getValue();
+            int index = ranges.indexOf(gameId);
+            if (index != -1 && (firstPly == -1 || ranges.getFromPly(index) < firstPly)) {
+                firstPly = ranges.getFromPly(index);
+            }
+        }
+        return firstPly;
+    }
+
+}
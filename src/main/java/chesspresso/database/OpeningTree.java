@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Opening tree file written by {@link OpeningTreeBuilder}.
+ *
+ * The file consists of a header followed by fixed size records, one per
+ * position and move, sorted by position key (unsigned) and move. The file is
+ * memory mapped, a query is a binary search over the records.
+ *
+ * Record layout (big endian, {@link #RECORD_SIZE} bytes):
+ * <pre>
+ *   long  key        position key (hash code of the position before the move)
+ *   short move
+ *   short reserved
+ *   int   games      number of games with the move
+ *   int   wins       results from the view of the player making the move
+ *   int   draws
+ *   int   losses
+ *   int   eloGames   number of games where the elo of the player is known
+ *   long  eloSum     sum of these elos
+ * </pre>
+ *
+ * By default the positions are keyed by their hash codes. A tree can also be
+ * keyed differently, e.g. by polyglot keys, see
+ * {@link OpeningTreeBuilder#getPositionKey}.
+ *
+ * An opening tree can be used by many threads at the same time.
+ */
+public class OpeningTree implements Closeable
+{
+
+    static final int
+        MAGIC = 0x43504f54,  // "CPOT"
+        VERSION = 1,
+        HEADER_SIZE = 16,
+        RECORD_SIZE = 40;
+
+    private static final int RECORDS_PER_SEGMENT = Integer.MAX_VALUE / RECORD_SIZE;
+
+    /*================================================================================*/
+
+    /**
+     * Statistics of a move in a position.
+     */
+    public static class Entry
+    {
+        private final short m_move;
+        private final int m_games, m_wins, m_draws, m_losses, m_eloGames;
+        private final long m_eloSum;
+
+        Entry(short move, int games, int wins, int draws, int losses, int eloGames, long eloSum)
+        {
+            m_move = move; m_games = games;
+            m_wins = wins; m_draws = draws; m_losses = losses;
+            m_eloGames = eloGames; m_eloSum = eloSum;
+        }
+
+        public short getMove()        {return m_move;}
+        public int getNumOfGames()    {return m_games;}
+        public int getNumOfWins()     {return m_wins;}
+        public int getNumOfDraws()    {return m_draws;}
+        public int getNumOfLosses()   {return m_losses;}
+
+        /**
+         * Returns the score of the move in percent, from the view of the player
+         * making it. Games without result are not counted. Returns -1 if no
+         * game with the move has a result.
+         */
+        public double getScore()
+        {
+            int finished = m_wins + m_draws + m_losses;
+            return (finished == 0 ? -1.0 : 100.0 * (m_wins + 0.5 * m_draws) / finished);
+        }
+
+        /**
+         * Returns the average elo of the players making the move, 0 if unknown.
+         */
+        public int getAverageElo()
+        {
+            return (m_eloGames == 0 ? 0 : (int)(m_eloSum / m_eloGames));
+        }
+
+        public String toString()
+        {
+            return Move.getString(m_move) + " " + m_games + " games, "
+                + Math.round(getScore()) + "%, elo " + getAverageElo();
+        }
+    }
+
+    /*================================================================================*/
+
+    private final RandomAccessFile m_file;
+    private final ByteBuffer[] m_segments;
+    private final long m_numOfRecords;
+
+    /*================================================================================*/
+
+    public OpeningTree(File file) throws IOException
+    {
+        m_file = new RandomAccessFile(file, "r");
+        boolean ok = false;
+        try {
+            if (m_file.readInt() != MAGIC) throw new IOException("Not an opening tree file: " + file);
+            if (m_file.readInt() != VERSION) throw new IOException("Unsupported opening tree version: " + file);
+            m_numOfRecords = m_file.readLong();
+            if (HEADER_SIZE + m_numOfRecords * RECORD_SIZE > m_file.length()) throw new IOException("Truncated opening tree file: " + file);
+
+            FileChannel channel = m_file.getChannel();
+            int numOfSegments = (int)((m_numOfRecords + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT);
+            m_segments = new ByteBuffer[numOfSegments];
+            for (int i = 0; i < numOfSegments; i++) {
+                long first = (long)i * RECORDS_PER_SEGMENT;
+                long num = Math.min(RECORDS_PER_SEGMENT, m_numOfRecords - first);
+                m_segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE, num * RECORD_SIZE);
+            }
+            ok = true;
+        } finally {
+            if (!ok) m_file.close();
+        }
+    }
+
+    public void close() throws IOException
+    {
+        m_file.close();
+    }
+
+    /*================================================================================*/
+
+    public long getNumOfRecords() {return m_numOfRecords;}
+
+    private ByteBuffer getSegment(long record)
+    {
+        return m_segments[(int)(record / RECORDS_PER_SEGMENT)];
+    }
+
+    private static int getOffset(long record)
+    {
+        return (int)(record % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+    }
+
+    /**
+     * Returns the position key of the record with the given index.
+     */
+    public long getKey(long record)
+    {
+        return getSegment(record).getLong(getOffset(record));
+    }
+
+    public short getMove(long record)
+    {
+        return getSegment(record).getShort(getOffset(record) + 8);
+    }
+
+    /**
+     * Returns the index of the first record with the given key, or -1.
+     */
+    public long findFirstRecord(long key)
+    {
+        long low = 0, high = m_numOfRecords;  // first record >= key lies in [low, high]
+        long unsignedKey = key ^ Long.MIN_VALUE;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if ((getKey(mid) ^ Long.MIN_VALUE) < unsignedKey) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return (low < m_numOfRecords && getKey(low) == key ? low : -1);
+    }
+
+    /**
+     * Returns the statistics stored in the record with the given index.
+     */
+    public Entry getEntry(long record)
+    {
+        ByteBuffer segment = getSegment(record);
+        int offset = getOffset(record);
+        return new Entry(segment.getShort(offset + 8),
+                         segment.getInt(offset + 12), segment.getInt(offset + 16),
+                         segment.getInt(offset + 20), segment.getInt(offset + 24),
+                         segment.getInt(offset + 28), segment.getLong(offset + 32));
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the statistics of the moves played in the position with the given
+     * key, most often played moves first. Returns an empty array if the
+     * position is not in the tree.
+     */
+    public Entry[] getNextMoves(long key)
+    {
+        long first = findFirstRecord(key);
+        if (first == -1) return new Entry[0];  // =====>
+        long last = first;
+        while (last + 1 < m_numOfRecords && getKey(last + 1) == key) last++;
+
+        Entry[] entries = new Entry[(int)(last - first + 1)];
+        for (int i = 0; i < entries.length; i++) {
+            Entry entry = getEntry(first + i);
+            int j = i;   // insertion sort by number of games, there are only few moves
+            while (j > 0 && entries[j - 1].getNumOfGames() < entry.getNumOfGames()) {
+                entries[j] = entries[j - 1]; j--;
+            }
+            entries[j] = entry;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the statistics of the moves played in the position, see
+     * {@link #getNextMoves(long)}. The tree must have been built with the
+     * hash codes of the positions as keys (the default).
+     */
+    public Entry[] getNextMoves(ImmutablePosition position)
+    {
+        return getNextMoves(position.getHashCode());
+    }
+
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Builds an {@link OpeningTree} file from a game collection.
+ *
+ * Every game is replayed up to {@link #setMaxPly maxPly} on a single position
+ * object. For each move a tuple (position key, move, result, elo) is collected
+ * in primitive arrays. When the arrays are full, the tuples are sorted,
+ * aggregated and written to a temporary run file. {@link #build} finally merges
+ * all runs into the tree file. The memory used therefore only depends on
+ * {@link #setMaxTuplesInMemory maxTuplesInMemory} (13 bytes per tuple), not on
+ * the number of games.
+ *
+ * A builder is not thread-safe.
+ */
+public class OpeningTreeBuilder
+{
+
+    private static final byte
+        WIN = 0, DRAW = 1, LOSS = 2, NO_RESULT = 3;
+
+    private static final int MAX_RUNS_PER_MERGE = 128;
+
+    /*================================================================================*/
+
+    private int m_maxPly;
+    private int m_maxTuplesInMemory;
+    private File m_tempDir;
+
+    private long[] m_keys;
+    private short[] m_moves;
+    private byte[] m_results;
+    private short[] m_elos;
+    private int m_numOfTuples;
+
+    private List<File> m_runs;
+    private Position m_position;
+    private int m_numOfGames;
+    private int m_numOfIllegalGames;
+
+    /*================================================================================*/
+
+    public OpeningTreeBuilder()
+    {
+        m_maxPly = 30;
+        m_maxTuplesInMemory = 1 << 22;
+        m_tempDir = null;
+        m_numOfTuples = 0;
+        m_runs = new ArrayList<>();
+        m_position = new Position();
+        m_numOfGames = 0;
+        m_numOfIllegalGames = 0;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Sets the number of plies of each game to include. Default is 30.
+     */
+    public void setMaxPly(int maxPly)      {m_maxPly = maxPly;}
+    public int getMaxPly()                 {return m_maxPly;}
+
+    /**
+     * Sets the number of tuples collected before they are written to a run file.
+     * Default is 4M tuples, about 52MB. Must be set before the first game is
+     * added.
+     */
+    public void setMaxTuplesInMemory(int maxTuples)
+    {
+        if (m_keys != null) throw new IllegalStateException("Games already added");
+        if (maxTuples < 1) throw new IllegalArgumentException("maxTuples must be positive: " + maxTuples);
+        m_maxTuplesInMemory = maxTuples;
+    }
+    public int getMaxTuplesInMemory()      {return m_maxTuplesInMemory;}
+
+    /**
+     * Sets the directory for the run files, null for the default temporary
+     * directory.
+     */
+    public void setTempDir(File tempDir)   {m_tempDir = tempDir;}
+
+    public int getNumOfGames()             {return m_numOfGames;}
+
+    /**
+     * Returns the number of games which have been cut at an illegal move.
+     */
+    public int getNumOfIllegalGames()      {return m_numOfIllegalGames;}
+
+    /**
+     * Returns the number of run files written so far.
+     */
+    public int getNumOfRuns()              {return m_runs.size();}
+
+    /*================================================================================*/
+
+    /**
+     * Returns the key under which the position is stored in the tree. The
+     * default is the hash code of the position.
+     */
+    protected long getPositionKey(ImmutablePosition position)
+    {
+        return position.getHashCode();
+    }
+
+    private static byte getRelativeResult(int result, int toPlay)
+    {
+        switch (result) {
+            case Chess.RES_WHITE_WINS: return (toPlay == Chess.WHITE ? WIN : LOSS);
+            case Chess.RES_BLACK_WINS: return (toPlay == Chess.BLACK ? WIN : LOSS);
+            case Chess.RES_DRAW:       return DRAW;
+            default:                   return NO_RESULT;
+        }
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Replays the game and collects its tuples. Games with illegal moves are
+     * included up to the illegal move.
+     *
+     * @throws IllegalArgumentException if the FEN tag of the game is malformed
+     */
+    public void addGame(GameModel gameModel) throws IOException
+    {
+        if (m_keys == null) {
+            m_keys = new long[m_maxTuplesInMemory];
+            m_moves = new short[m_maxTuplesInMemory];
+            m_results = new byte[m_maxTuplesInMemory];
+            m_elos = new short[m_maxTuplesInMemory];
+        }
+
+        GameHeaderModel headerModel = gameModel.getHeaderModel();
+        int result = headerModel.getResult();
+        int whiteElo = Math.min(Math.max(headerModel.getWhiteElo(), 0), Short.MAX_VALUE);
+        int blackElo = Math.min(Math.max(headerModel.getBlackElo(), 0), Short.MAX_VALUE);
+
+        Position position = m_position;
+        gameModel.initStartPosition(position);
+        int plies = 0;
+        try {
+            short[] moves = gameModel.getMoveModel().getMainLine();
+            int numOfPlies = Math.min(moves.length, m_maxPly);
+            while (plies < numOfPlies) {
+                short move = moves[plies];
+                int toPlay = position.getToPlay();
+                if (m_numOfTuples == m_maxTuplesInMemory) writeRun();
+                m_keys[m_numOfTuples] = getPositionKey(position);
+                m_moves[m_numOfTuples] = move;
+                m_results[m_numOfTuples] = getRelativeResult(result, toPlay);
+                m_elos[m_numOfTuples] = (short)(toPlay == Chess.WHITE ? whiteElo : blackElo);
+                position.doMove(move);
+                m_numOfTuples++;
+                plies++;
+            }
+        } catch (IllegalMoveException ex) {
+            m_numOfIllegalGames++;
+        } finally {
+            for (int i = 0; i < plies; i++) position.undoMove();
+        }
+        m_numOfGames++;
+    }
+
+    /**
+     * Adds all remaining games of the iterator.
+     */
+    public void addGames(GameModelIterator it) throws IOException
+    {
+        while (it.hasNext()) {
+            addGame(it.nextGameModel());
+        }
+    }
+
+    /*================================================================================*/
+    // in-memory sort, by unsigned key and move
+
+    private int compare(int i, int j)
+    {
+        long key1 = m_keys[i] ^ Long.MIN_VALUE, key2 = m_keys[j] ^ Long.MIN_VALUE;
+        if (key1 != key2) return (key1 < key2 ? -1 : 1);  // =====>
+        return m_moves[i] - m_moves[j];
+    }
+
+    private void swap(int i, int j)
+    {
+        long key = m_keys[i]; m_keys[i] = m_keys[j]; m_keys[j] = key;
+        short move = m_moves[i]; m_moves[i] = m_moves[j]; m_moves[j] = move;
+        byte result = m_results[i]; m_results[i] = m_results[j]; m_results[j] = result;
+        short elo = m_elos[i]; m_elos[i] = m_elos[j]; m_elos[j] = elo;
+    }
+
+    private void sort(int from, int to)
+    {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            // median of three to pivot position from
+            if (compare(mid, from) > 0) swap(mid, from);
+            if (compare(from, to - 1) > 0) swap(from, to - 1);
+            if (compare(mid, from) > 0) swap(mid, from);
+
+            int i = from + 1, j = to - 1;
+            for (;;) {
+                while (compare(i, from) < 0) i++;
+                while (compare(j, from) > 0) j--;
+                if (i >= j) break;
+                swap(i++, j--);
+            }
+            swap(from, j);
+            // recurse into the smaller part to bound the stack depth
+            if (j - from < to - j - 1) {
+                sort(from, j);
+                from = j + 1;
+            } else {
+                sort(j + 1, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compare(j - 1, j) > 0; j--) swap(j - 1, j);
+        }
+    }
+
+    /*================================================================================*/
+    // runs
+
+    private File createTempFile() throws IOException
+    {
+        return File.createTempFile("chesspresso-tree", ".run", m_tempDir);
+    }
+
+    private void writeRun() throws IOException
+    {
+        if (m_numOfTuples == 0) return;  // =====>
+        sort(0, m_numOfTuples);
+
+        File file = createTempFile();
+        m_runs.add(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            Record record = new Record();
+            int i = 0;
+            while (i < m_numOfTuples) {
+                record.m_key = m_keys[i];
+                record.m_move = m_moves[i];
+                record.m_games = record.m_eloGames = 0;
+                record.m_wins = record.m_draws = record.m_losses = 0;
+                record.m_eloSum = 0L;
+                do {
+                    record.m_games++;
+                    switch (m_results[i]) {
+                        case WIN:  record.m_wins++;   break;
+                        case DRAW: record.m_draws++;  break;
+                        case LOSS: record.m_losses++; break;
+                    }
+                    if (m_elos[i] > 0) {
+                        record.m_eloGames++;
+                        record.m_eloSum += m_elos[i];
+                    }
+                    i++;
+                } while (i < m_numOfTuples && m_keys[i] == record.m_key && m_moves[i] == record.m_move);
+                record.write(out);
+            }
+        } finally {
+            out.close();
+        }
+        m_numOfTuples = 0;
+    }
+
+    /**
+     * Aggregated statistics of a position and move, in the record format of
+     * the tree file.
+     */
+    private static class Record
+    {
+        long m_key;
+        short m_move;
+        int m_games, m_wins, m_draws, m_losses, m_eloGames;
+        long m_eloSum;
+
+        boolean sameAs(Record record)
+        {
+            return m_key == record.m_key && m_move == record.m_move;
+        }
+
+        int compareTo(Record record)
+        {
+            long key1 = m_key ^ Long.MIN_VALUE, key2 = record.m_key ^ Long.MIN_VALUE;
+            if (key1 != key2) return (key1 < key2 ? -1 : 1);  // =====>
+            return m_move - record.m_move;
+        }
+
+        void set(Record record)
+        {
+            m_key = record.m_key; m_move = record.m_move;
+            m_games = record.m_games; m_wins = record.m_wins;
+            m_draws = record.m_draws; m_losses = record.m_losses;
+            m_eloGames = record.m_eloGames; m_eloSum = record.m_eloSum;
+        }
+
+        void add(Record record)
+        {
+            m_games += record.m_games; m_wins += record.m_wins;
+            m_draws += record.m_draws; m_losses += record.m_losses;
+            m_eloGames += record.m_eloGames; m_eloSum += record.m_eloSum;
+        }
+
+        boolean read(DataInput in) throws IOException
+        {
+            try {
+                m_key = in.readLong();
+            } catch (EOFException ex) {
+                return false;  // =====>
+            }
+            m_move = in.readShort();
+            in.readShort();
+            m_games = in.readInt();
+            m_wins = in.readInt();
+            m_draws = in.readInt();
+            m_losses = in.readInt();
+            m_eloGames = in.readInt();
+            m_eloSum = in.readLong();
+            return true;
+        }
+
+        void write(DataOutput out) throws IOException
+        {
+            out.writeLong(m_key);
+            out.writeShort(m_move);
+            out.writeShort(0);
+            out.writeInt(m_games);
+            out.writeInt(m_wins);
+            out.writeInt(m_draws);
+            out.writeInt(m_losses);
+            out.writeInt(m_eloGames);
+            out.writeLong(m_eloSum);
+        }
+    }
+
+    private static class RunReader
+    {
+        final DataInputStream m_in;
+        final Record m_record;
+
+        RunReader(File file) throws IOException
+        {
+            m_in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            m_record = new Record();
+        }
+    }
+
+    /**
+     * Merges the runs into out, adding up records of the same position and
+     * move.
+     *
+     * @return the number of records written
+     */
+    private static long merge(List<File> runs, DataOutput out) throws IOException
+    {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(runs.size(), 1), new Comparator<RunReader>() {
+            public int compare(RunReader reader1, RunReader reader2)
+            {
+                return reader1.m_record.compareTo(reader2.m_record);
+            }
+        });
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.m_record.read(reader.m_in)) queue.add(reader);
+            }
+
+            long numOfRecords = 0;
+            Record current = new Record();
+            boolean hasCurrent = false;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (hasCurrent && current.sameAs(reader.m_record)) {
+                    current.add(reader.m_record);
+                } else {
+                    if (hasCurrent) {current.write(out); numOfRecords++;}
+                    current.set(reader.m_record);
+                    hasCurrent = true;
+                }
+                if (reader.m_record.read(reader.m_in)) queue.add(reader);
+            }
+            if (hasCurrent) {current.write(out); numOfRecords++;}
+            return numOfRecords;
+        } finally {
+            for (RunReader reader : readers) reader.m_in.close();
+        }
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Writes the tree of all games added so far to the file and deletes the run
+     * files. The builder can be reused afterwards.
+     */
+    public void build(File file) throws IOException
+    {
+        List<File> merged = new ArrayList<>();  // runs of the current reduction pass
+        try {
+            writeRun();
+
+            /*---------- reduce to at most MAX_RUNS_PER_MERGE runs ----------*/
+            while (m_runs.size() > MAX_RUNS_PER_MERGE) {
+                merged = new ArrayList<>();
+                for (int from = 0; from < m_runs.size(); from += MAX_RUNS_PER_MERGE) {
+                    List<File> group = m_runs.subList(from, Math.min(from + MAX_RUNS_PER_MERGE, m_runs.size()));
+                    File run = createTempFile();
+                    merged.add(run);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+                    try {
+                        merge(group, out);
+                    } finally {
+                        out.close();
+                    }
+                    for (File old : group) old.delete();
+                }
+                m_runs = merged;
+            }
+
+            /*---------- final merge ----------*/
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+            long numOfRecords;
+            try {
+                out.writeInt(OpeningTree.MAGIC);
+                out.writeInt(OpeningTree.VERSION);
+                out.writeLong(0L);  // number of records, written below
+                numOfRecords = merge(m_runs, out);
+            } finally {
+                out.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(8);
+                raf.writeLong(numOfRecords);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            for (File run : m_runs) run.delete();
+            for (File run : merged) run.delete();
+            m_runs = new ArrayList<>();
+            m_numOfTuples = 0;
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Searches the positions of a game collection for {@link PatternQuery piece
+ * placement patterns}.
+ *
+ * The index keeps the main line and start position of every game and, per
+ * game, a summary bitboard per stone: the union of the squares the stone
+ * occupies in any position of the game. A game is only replayed if every
+ * required square of the pattern is covered by the summary of its stone; most
+ * games of a collection are rejected by these twelve mask tests without
+ * replaying a single move. The remaining games are replayed on a reused
+ * {@link Position} and the pattern is tested after every move.
+ *
+ * Searches can be run in several threads, each replaying its own range of
+ * games. Games are identified by the order in which they are added, starting
+ * at 0, like in {@link HeaderIndex}.
+ */
+public class PatternIndex
+{
+
+    private static final int NUM_OF_STONES = Chess.MAX_STONE - Chess.MIN_STONE + 1;
+    private static final int GAMES_PER_TASK = 256;
+
+    /*================================================================================*/
+
+    private short[][] m_moves;
+    private String[] m_fens;      // null for the standard start position
+    private long[] m_summaries;   // NUM_OF_STONES bitboards per game
+    private int m_numOfGames;
+    private final Position m_position;
+
+    /*================================================================================*/
+
+    public PatternIndex()
+    {
+        m_moves = new short[1024][];
+        m_fens = new String[1024];
+        m_summaries = new long[1024 * NUM_OF_STONES];
+        m_numOfGames = 0;
+        m_position = new Position();
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Adds the main line of the game. Games with illegal moves are added up to
+     * the illegal move.
+     *
+     * @return the id of the game
+     * @throws IllegalArgumentException if the FEN tag of the game is malformed
+     */
+    public int addGame(GameModel gameModel)
+    {
+        int gameId = m_numOfGames;
+        if (gameId == m_moves.length) {
+            m_moves = Arrays.copyOf(m_moves, 2 * gameId);
+            m_fens = Arrays.copyOf(m_fens, 2 * gameId);
+            m_summaries = Arrays.copyOf(m_summaries, 2 * gameId * NUM_OF_STONES);
+        }
+
+        Position position = m_position;
+        gameModel.initStartPosition(position);
+        short[] moves = gameModel.getMoveModel().getMainLine();
+        int offset = gameId * NUM_OF_STONES;
+        addToSummary(position, offset);
+        int ply = 0;
+        try {
+            for (; ply < moves.length; ply++) {
+                position.doMove(moves[ply]);
+                addToSummary(position, offset);
+            }
+        } catch (IllegalMoveException ex) {
+            moves = Arrays.copyOf(moves, ply);
+        } finally {
+            for (int i = 0; i < ply; i++) position.undoMove();
+        }
+
+        m_moves[gameId] = moves;
+        m_fens[gameId] = gameModel.getHeaderModel().getTag(chesspresso.pgn.PGN.TAG_FEN);
+        m_numOfGames++;
+        return gameId;
+    }
+
+    private void addToSummary(Position position, int offset)
+    {
+        long[] summaries = m_summaries;
+        for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+            if (stone != Chess.NO_STONE) summaries[offset + stone - Chess.MIN_STONE] |= position.getBitBoard(stone);
+        }
+    }
+
+    /**
+     * Adds all remaining games of the iterator.
+     */
+    public void addGames(GameModelIterator it)
+    {
+        while (it.hasNext()) {
+            addGame(it.nextGameModel());
+        }
+    }
+
+    public int getNumOfGames() {return m_numOfGames;}
+
+    /*================================================================================*/
+
+    /**
+     * Returns the first ply of the game at which the position matches the
+     * pattern, -1 if none does. Ply 0 is the start position.
+     *
+     * @param position the position to replay the game on, its move history
+     *        is left unchanged
+     * @param start the game whose start position the position is at, -1 if it
+     *        is at no known start position; avoids setting up the same start
+     *        position again
+     */
+    private int findFirstPly(int gameId, PatternQuery query, Position position, int start)
+    {
+        if (!query.canMatch(m_summaries, gameId * NUM_OF_STONES)) return -1;  // =====>
+
+        String fen = m_fens[gameId];
+        if (start == -1 || fen != null || m_fens[start] != null) {
+            if (fen != null) FEN.initFromFEN(position, fen, false); else position.setStart();
+        }
+
+        short[] moves = m_moves[gameId];
+        if (query.matches(position)) return 0;  // =====>
+        int ply = 0;
+        try {
+            while (ply < moves.length) {
+                position.doMove(moves[ply]);
+                ply++;
+                if (query.matches(position)) return ply;  // =====>
+            }
+        } catch (IllegalMoveException ex) {
+            throw new RuntimeException("Move became illegal in game " + gameId, ex);
+        } finally {
+            for (int i = 0; i < ply; i++) position.undoMove();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first ply of the game at which the position matches the
+     * pattern, -1 if none does. Ply 0 is the start position.
+     */
+    public int getFirstPly(int gameId, PatternQuery query)
+    {
+        if (gameId < 0 || gameId >= m_numOfGames) throw new IllegalArgumentException("Unknown game: " + gameId);
+        return findFirstPly(gameId, query, m_position, -1);
+    }
+
+    /**
+     * Returns the games containing a position matching the pattern.
+     */
+    public GameBitmap search(PatternQuery query)
+    {
+        boolean[] matches = new boolean[m_numOfGames];
+        searchGames(query, 0, m_numOfGames, matches, m_position);
+        return toBitmap(matches);
+    }
+
+    /**
+     * Returns the games containing a position matching the pattern, searching
+     * with the given number of threads.
+     */
+    public GameBitmap search(final PatternQuery query, int numOfThreads) throws InterruptedException
+    {
+        if (numOfThreads <= 1) return search(query);  // =====>
+
+        final boolean[] matches = new boolean[m_numOfGames];
+        final AtomicInteger nextGame = new AtomicInteger();
+        final int numOfGames = m_numOfGames;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < numOfThreads; i++) {
+            tasks.add(new Callable<Void>() {
+                public Void call()
+                {
+                    Position position = new Position();
+                    int from;
+                    while ((from = nextGame.getAndAdd(GAMES_PER_TASK)) < numOfGames) {
+                        searchGames(query, from, Math.min(from + GAMES_PER_TASK, numOfGames), matches, position);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    throw new RuntimeException(ex.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return toBitmap(matches);
+    }
+
+    private void searchGames(PatternQuery query, int from, int to, boolean[] matches, Position position)
+    {
+        int start = -1;
+        for (int gameId = from; gameId < to; gameId++) {
+            if (!query.canMatch(m_summaries, gameId * NUM_OF_STONES)) continue;
+            matches[gameId] = findFirstPly(gameId, query, position, start) != -1;
+            start = gameId;
+        }
+    }
+
+    private static GameBitmap toBitmap(boolean[] matches)
+    {
+        GameBitmap bitmap = new GameBitmap();
+        for (int gameId = 0; gameId < matches.length; gameId++) {
+            if (matches[gameId]) bitmap.add(gameId);
+        }
+        return bitmap;
+    }
+
+}
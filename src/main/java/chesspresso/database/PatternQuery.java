@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import chesspresso.*;
+import chesspresso.position.*;
+import java.util.*;
+
+/**
+ * Piece placement pattern, evaluated against the positions of the games of a
+ * {@link PatternIndex}.
+ *
+ * A pattern consists of a set of required and a set of forbidden squares per
+ * stone, both given as bitboards (bit <i>sqi</i> for square <i>sqi</i>). A
+ * position matches if every required square is occupied by the stone and no
+ * forbidden square is. "White knight on d5, black pawns on c6 and e6, no black
+ * bishop" reads:
+ * <pre>
+ *   PatternQuery query = new PatternQuery()
+ *       .require(Chess.WHITE_KNIGHT, PatternQuery.getSquares("d5"))
+ *       .require(Chess.BLACK_PAWN, PatternQuery.getSquares("c6 e6"))
+ *       .forbid(Chess.BLACK_BISHOP, PatternQuery.ALL_SQUARES);
+ * </pre>
+ * Matching a position costs one {@link Position#getBitBoard bitboard} lookup
+ * and two mask tests per constrained stone, no square is looked at
+ * individually.
+ *
+ * Patterns must not be modified while a search is running.
+ */
+public class PatternQuery
+{
+
+    public static final long ALL_SQUARES = -1L;
+
+    /*================================================================================*/
+
+    // constrained stones and their masks, in the order they were first constrained
+    private int[] m_stones;
+    private long[] m_required;
+    private long[] m_forbidden;
+    private int m_numOfStones;
+    private int m_toPlay;
+
+    /*================================================================================*/
+
+    public PatternQuery()
+    {
+        m_stones = new int[4];
+        m_required = new long[4];
+        m_forbidden = new long[4];
+        m_numOfStones = 0;
+        m_toPlay = Chess.NOBODY;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the bitboard of a list of squares separated by spaces or commas,
+     * like "c6 e6".
+     *
+     * @throws IllegalArgumentException if a square is malformed
+     */
+    public static long getSquares(String squares) throws IllegalArgumentException
+    {
+        long bb = 0L;
+        StringTokenizer st = new StringTokenizer(squares, " ,");
+        while (st.hasMoreTokens()) {
+            String square = st.nextToken();
+            int sqi = Chess.strToSqi(square);
+            if (sqi == Chess.NO_SQUARE) throw new IllegalArgumentException("Illegal square: " + square);
+            bb |= 1L << sqi;
+        }
+        return bb;
+    }
+
+    private int getIndex(int stone)
+    {
+        if (stone == Chess.NO_STONE || stone < Chess.MIN_STONE || stone > Chess.MAX_STONE)
+            throw new IllegalArgumentException("Illegal stone: " + stone);
+        for (int i = 0; i < m_numOfStones; i++) {
+            if (m_stones[i] == stone) return i;  // =====>
+        }
+        if (m_numOfStones == m_stones.length) {
+            m_stones = Arrays.copyOf(m_stones, 2 * m_numOfStones);
+            m_required = Arrays.copyOf(m_required, 2 * m_numOfStones);
+            m_forbidden = Arrays.copyOf(m_forbidden, 2 * m_numOfStones);
+        }
+        m_stones[m_numOfStones] = stone;
+        return m_numOfStones++;
+    }
+
+    /**
+     * Requires the stone to be on all of the given squares.
+     */
+    public PatternQuery require(int stone, long squares)
+    {
+        m_required[getIndex(stone)] |= squares;
+        return this;
+    }
+
+    /**
+     * Forbids the stone to be on any of the given squares. Use
+     * {@link #ALL_SQUARES} to forbid the stone on the board at all.
+     */
+    public PatternQuery forbid(int stone, long squares)
+    {
+        m_forbidden[getIndex(stone)] |= squares;
+        return this;
+    }
+
+    /**
+     * Restricts the pattern to positions with the given player to move,
+     * <code>Chess.NOBODY</code> (the default) for both.
+     */
+    public PatternQuery setToPlay(int toPlay)
+    {
+        m_toPlay = toPlay;
+        return this;
+    }
+
+    public int getToPlay() {return m_toPlay;}
+
+    /**
+     * Returns whether the pattern is contradictory, i.e. requires a stone on a
+     * square where it is forbidden or two stones on the same square.
+     */
+    public boolean isContradictory()
+    {
+        long occupied = 0L;
+        for (int i = 0; i < m_numOfStones; i++) {
+            if ((m_required[i] & m_forbidden[i]) != 0L) return true;  // =====>
+            if ((m_required[i] & occupied) != 0L) return true;  // =====>
+            occupied |= m_required[i];
+        }
+        return false;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns whether the position matches the pattern.
+     */
+    public boolean matches(Position position)
+    {
+        if (m_toPlay != Chess.NOBODY && position.getToPlay() != m_toPlay) return false;  // =====>
+        for (int i = 0; i < m_numOfStones; i++) {
+            long bb = position.getBitBoard(m_stones[i]);
+            if ((bb & m_required[i]) != m_required[i] || (bb & m_forbidden[i]) != 0L) return false;  // =====>
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a game can contain a matching position at all, given
+     * the squares each stone occupies in any position of the game.
+     *
+     * @param summary the union of the bitboards of each stone over all positions
+     *        of the game, indexed by <code>stone - Chess.MIN_STONE</code>
+     * @param offset the index of <code>Chess.MIN_STONE</code> in the array
+     */
+    boolean canMatch(long[] summary, int offset)
+    {
+        for (int i = 0; i < m_numOfStones; i++) {
+            long required = m_required[i];
+            if ((summary[offset + m_stones[i] - Chess.MIN_STONE] & required) != required) return false;  // =====>
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Cache of engine analysis results, keyed by the hash code of the position.
+ * The FEN of the position without the move counters is stored with each
+ * result and compared on lookup, so colliding hash codes are misses.
+ *
+ * Recently used results are kept in memory, up to a given number. If a file
+ * is given, all results are also appended to it and survive restarts; the
+ * memory then only holds the offsets of the results in the file. Replaced
+ * results stay in the file until it is compacted, which happens
+ * automatically when they outnumber the live results.
+ *
+ * The methods are synchronized, one cache can serve several engines.
+ */
+public class AnalysisCache implements Closeable
+{
+    private static final int MAGIC = 0x43504143;   // CPAC
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MIN_STALE_FOR_COMPACTION = 1024;
+
+    private static class CachedResult
+    {
+        final String m_fen;
+        final SearchResult m_result;
+
+        CachedResult(String fen, SearchResult result) {m_fen = fen; m_result = result;}
+    }
+
+    /*================================================================================*/
+
+    private final File m_file;
+    private RandomAccessFile m_raf;
+    private final Map<Long,Long> m_offsets = new HashMap<>();
+    private final LinkedHashMap<Long,CachedResult> m_entries;
+    private int m_numOfStaleRecords;
+    private long m_numOfHits, m_numOfMisses;
+
+    /*================================================================================*/
+
+    /**
+     * Opens a cache.
+     *
+     *@param file the file of the cache, created if missing, or <code>null</code>
+     *            for a cache in memory only
+     *@param memoryCapacity the number of results kept in memory
+     *@throws IOException if the file cannot be read or is not a cache
+     */
+    public AnalysisCache(File file, final int memoryCapacity) throws IOException
+    {
+        m_file = file;
+        m_entries = new LinkedHashMap<Long,CachedResult>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Long,CachedResult> eldest) {return size() > memoryCapacity;}
+        };
+        if (m_file != null) open();
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the number of results in the cache.
+     */
+    public synchronized int getNumOfEntries()
+    {
+        return (m_file != null ? m_offsets.size() : m_entries.size());
+    }
+
+    /**
+     * Returns the number of replaced results still in the file.
+     */
+    public synchronized int getNumOfStaleRecords() {return m_numOfStaleRecords;}
+
+    public synchronized long getNumOfHits()   {return m_numOfHits;}
+    public synchronized long getNumOfMisses() {return m_numOfMisses;}
+
+    /*================================================================================*/
+
+    /**
+     * Returns the FEN of the position without the halfmove clock and the move
+     * number, which do not influence the analysis.
+     */
+    private static String getKeyFEN(ImmutablePosition position)
+    {
+        String fen = FEN.getFEN(position);
+        int index = -1;
+        for (int i = 0; i < 4; i++) {
+            index = fen.indexOf(' ', index + 1);
+            if (index < 0) return fen;   // =====>
+        }
+        return fen.substring(0, index);
+    }
+
+    /**
+     * Returns whether results of the position are final at any depth, which
+     * is the case for positions without legal move. The result itself does
+     * not tell, engines also report no best move for output they garble.
+     */
+    private static boolean isFinal(ImmutablePosition position)
+    {
+        return new Position(position).getAllMoves().length == 0;
+    }
+
+    /**
+     * Returns a cached result of the position searched at least to the given
+     * depth. Results of positions without legal move are returned for any
+     * depth.
+     *
+     *@return the result, or <code>null</code> if there is none deep enough
+     *@throws IOException if the file cannot be read or the cache is closed
+     */
+    public synchronized SearchResult get(ImmutablePosition position, int minDepth) throws IOException
+    {
+        checkOpen();
+        CachedResult entry = getEntry(position.getHashCode(), getKeyFEN(position));
+        if (entry != null && (entry.m_result.getDepth() >= minDepth || isFinal(position))) {
+            m_numOfHits++;
+            return entry.m_result;   // =====>
+        }
+        m_numOfMisses++;
+        return null;
+    }
+
+    /**
+     * Adds the result of a search of the position, unless the cache knows a
+     * deeper result.
+     *
+     *@throws IOException if the file cannot be written or the cache is closed
+     */
+    public synchronized void put(ImmutablePosition position, SearchResult result) throws IOException
+    {
+        checkOpen();
+        long hashCode = position.getHashCode();
+        String fen = getKeyFEN(position);
+        CachedResult old = getEntry(hashCode, fen);
+        if (old != null && old.m_result.getDepth() > result.getDepth()) return;   // =====>
+
+        CachedResult entry = new CachedResult(fen, result);
+        m_entries.put(hashCode, entry);
+        if (m_file != null) {
+            long offset = m_raf.length();
+            m_raf.seek(offset);
+            m_raf.write(getRecord(hashCode, entry));
+            if (m_offsets.put(hashCode, offset) != null) m_numOfStaleRecords++;
+            if (m_numOfStaleRecords > Math.max(m_offsets.size(), MIN_STALE_FOR_COMPACTION)) compact();
+        }
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (m_file != null && m_raf == null) throw new IOException("Analysis cache is closed: " + m_file);
+    }
+
+    private CachedResult getEntry(long hashCode, String fen) throws IOException
+    {
+        CachedResult entry = m_entries.get(hashCode);
+        if (entry == null && m_file != null) {
+            Long offset = m_offsets.get(hashCode);
+            if (offset == null) return null;   // =====>
+            entry = readEntry(offset.longValue());
+            m_entries.put(hashCode, entry);
+        }
+        return (entry != null && entry.m_fen.equals(fen) ? entry : null);
+    }
+
+    /*================================================================================*/
+
+    private static byte[] getRecord(long hashCode, CachedResult entry) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        short[] pv = entry.m_result.getPV();
+        out.writeInt(0);   // length, patched below
+        out.writeLong(hashCode);
+        out.writeUTF(entry.m_fen);
+        out.writeInt(entry.m_result.getScore());
+        out.writeShort(entry.m_result.getDepth());
+        out.writeLong(entry.m_result.getNumOfNodes());
+        out.writeLong(entry.m_result.getTime());
+        out.writeShort(pv.length);
+        for (int i = 0; i < pv.length; i++) out.writeShort(pv[i]);
+        out.close();
+
+        byte[] record = buffer.toByteArray();
+        int length = record.length - 4;
+        record[0] = (byte)(length >>> 24); record[1] = (byte)(length >>> 16);
+        record[2] = (byte)(length >>> 8);  record[3] = (byte)length;
+        return record;
+    }
+
+    private static CachedResult parseRecord(DataInput in) throws IOException
+    {
+        String fen = in.readUTF();
+        int score = in.readInt();
+        int depth = in.readShort();
+        long numOfNodes = in.readLong();
+        long time = in.readLong();
+        short[] pv = new short[in.readShort()];
+        for (int i = 0; i < pv.length; i++) pv[i] = in.readShort();
+        return new CachedResult(fen, new SearchResult(score, depth, numOfNodes, time, pv));
+    }
+
+    private CachedResult readEntry(long offset) throws IOException
+    {
+        m_raf.seek(offset);
+        byte[] record = new byte[m_raf.readInt()];
+        m_raf.readFully(record);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        in.readLong();   // hash code
+        return parseRecord(in);
+    }
+
+    /*================================================================================*/
+
+    private void open() throws IOException
+    {
+        m_raf = new RandomAccessFile(m_file, "rw");
+        if (m_raf.length() == 0) {
+            m_raf.writeInt(MAGIC);
+            m_raf.writeInt(VERSION);
+            return;   // =====>
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+        long offset = 0;
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(m_file + " is not an analysis cache");
+            }
+            offset = HEADER_LENGTH;
+            for (;;) {
+                int length = in.readInt();
+                long hashCode = in.readLong();
+                in.skipBytes(length - 8);
+                if (offset + 4 + length > m_raf.length()) break;   // incomplete record of an interrupted write
+                if (m_offsets.put(hashCode, offset) != null) m_numOfStaleRecords++;
+                offset += 4 + length;
+            }
+        } catch (EOFException ex) {
+            // end of the last complete record
+        } catch (IOException ex) {
+            m_raf.close();
+            throw ex;
+        } finally {
+            in.close();
+        }
+        if (offset < m_raf.length()) m_raf.setLength(offset);
+    }
+
+    /**
+     * Rewrites the file with the live results only.
+     */
+    public synchronized void compact() throws IOException
+    {
+        if (m_file == null) return;   // =====>
+        checkOpen();
+
+        File tmpFile = new File(m_file.getPath() + ".tmp");
+        Map<Long,Long> offsets = new HashMap<>();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            long offset = HEADER_LENGTH;
+            for (Map.Entry<Long,Long> e : m_offsets.entrySet()) {
+                m_raf.seek(e.getValue().longValue());
+                byte[] record = new byte[m_raf.readInt()];
+                m_raf.readFully(record);
+                out.writeInt(record.length);
+                out.write(record);
+                offsets.put(e.getKey(), offset);
+                offset += 4 + record.length;
+            }
+        } finally {
+            out.close();
+        }
+
+        m_raf.close();
+        Files.move(tmpFile.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        m_raf = new RandomAccessFile(m_file, "rw");
+        m_offsets.clear();
+        m_offsets.putAll(offsets);
+        m_numOfStaleRecords = 0;
+    }
+
+    public synchronized void close() throws IOException
+    {
+        if (m_raf != null) {
+            m_raf.close();
+            m_raf = null;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import chesspresso.game.*;
+import chesspresso.position.*;
+
+/**
+ * A position to be analyzed by an {@link EnginePool}, with the limits of
+ * the search. Jobs created for the positions of a game know the game.
+ */
+public class AnalysisJob
+{
+    private final ImmutablePosition m_position;
+    private final int m_maxDepth;
+    private final long m_maxNodes;
+    private final long m_maxTime;
+    private final Game m_game;
+
+    /*================================================================================*/
+
+    /**
+     * Creates a job to analyze a position. At least one limit must be given.
+     *
+     *@param position the position, it is copied
+     *@param maxDepth the maximal depth, 0 for no limit
+     *@param maxNodes the maximal number of nodes, 0 for no limit
+     *@param maxTime the maximal time in milliseconds, 0 for no limit
+     *@throws IllegalArgumentException if no limit is given
+     */
+    public AnalysisJob(ImmutablePosition position, int maxDepth, long maxNodes, long maxTime)
+    {
+        this(position, maxDepth, maxNodes, maxTime, null);
+    }
+
+    AnalysisJob(ImmutablePosition position, int maxDepth, long maxNodes, long maxTime, Game game)
+    {
+        if (maxDepth <= 0 && maxNodes <= 0 && maxTime <= 0)
+            throw new IllegalArgumentException("Analysis job without limit");
+        m_position = new CompactPosition(position);
+        m_maxDepth = maxDepth;
+        m_maxNodes = maxNodes;
+        m_maxTime = maxTime;
+        m_game = game;
+    }
+
+    /*================================================================================*/
+
+    public ImmutablePosition getPosition() {return m_position;}
+    public int getMaxDepth() {return m_maxDepth;}
+    public long getMaxNodes() {return m_maxNodes;}
+    public long getMaxTime() {return m_maxTime;}
+
+    /**
+     * Returns the game the position is taken from, or <code>null</code>.
+     */
+    public Game getGame() {return m_game;}
+
+    public String toString()
+    {
+        return (m_game != null ? m_game.toString() + " ply " + m_position.getPlyNumber() : FEN.getFEN(m_position));
+    }
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import chesspresso.game.*;
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of UCI engine processes analyzing positions in parallel.
+ *
+ * Jobs are taken from a bounded queue by one worker thread per engine;
+ * {@link #submit} blocks while the queue is full. Results are passed to a
+ * {@link ResultConsumer} on the worker threads as the jobs complete, in no
+ * particular order.
+ *
+ * An engine that died, failed a job or does not answer the periodic
+ * <code>isready</code> of an idle worker is restarted. A failed job is
+ * retried once on the restarted engine before it is reported as failure.
+ * A job that is not finished in time, i.e. within its time limit plus
+ * {@link UCIEngine#TIMEOUT} or, without time limit, within the
+ * {@link #setSearchTimeout search timeout}, is stopped and reported as
+ * failure without retry, and its engine is restarted.
+ */
+public class EnginePool implements Closeable
+{
+    /**
+     * Receives the outcome of the jobs. Called on the worker threads, so
+     * implementations must be thread-safe.
+     */
+    public interface ResultConsumer
+    {
+        public void notifyResult(AnalysisJob job, SearchResult result);
+        public void notifyFailure(AnalysisJob job, Exception cause);
+    }
+
+    /**
+     * Milliseconds an idle worker waits for a job before it checks its engine.
+     */
+    public static final long HEALTH_CHECK_INTERVAL = 5000L;
+
+    /**
+     * Default milliseconds a job without time limit may take.
+     */
+    public static final long DEFAULT_SEARCH_TIMEOUT = 600000L;
+
+    private static final int MAX_RETRIES = 1;
+
+    private static final AnalysisJob END_OF_JOBS = new AnalysisJob(new Position(), 1, 0L, 0L);
+
+    /*================================================================================*/
+
+    private final String[] m_command;
+    private final File m_dir;
+    private final ResultConsumer m_consumer;
+    private final BlockingQueue<AnalysisJob> m_queue;
+    private final UCIEngine[] m_engines;
+    private final Thread[] m_workers;
+    private final AtomicInteger m_numOfRestarts = new AtomicInteger();
+    private final Object m_submitLock = new Object();
+    private boolean m_closed;   // guarded by m_submitLock
+    private volatile AnalysisCache m_cache;
+    private volatile long m_searchTimeout = DEFAULT_SEARCH_TIMEOUT;
+
+    /*================================================================================*/
+
+    /**
+     * Starts the engines and their worker threads.
+     *
+     *@param command the program and its arguments to start an engine
+     *@param dir the working directory of the engines, or <code>null</code>
+     *@param numOfEngines the number of engine processes
+     *@param queueCapacity the number of jobs waiting before submit blocks
+     *@param consumer receives the results
+     *@throws IOException if an engine cannot be started
+     */
+    public EnginePool(String[] command, File dir, int numOfEngines, int queueCapacity,
+                      ResultConsumer consumer) throws IOException
+    {
+        m_command = command.clone();
+        m_dir = dir;
+        m_consumer = consumer;
+        m_queue = new ArrayBlockingQueue<>(queueCapacity);
+        m_engines = new UCIEngine[numOfEngines];
+        m_workers = new Thread[numOfEngines];
+
+        try {
+            for (int i = 0; i < numOfEngines; i++) {
+                m_engines[i] = new UCIEngine(m_command, m_dir);
+            }
+        } catch (IOException ex) {
+            for (int i = 0; i < numOfEngines; i++) {
+                if (m_engines[i] != null) m_engines[i].close();
+            }
+            throw ex;
+        }
+        for (int i = 0; i < numOfEngines; i++) {
+            final int index = i;
+            m_workers[i] = new Thread(new Runnable() {
+                public void run() {work(index);}
+            }, "EnginePool worker " + i);
+            m_workers[i].setDaemon(true);
+            m_workers[i].start();
+        }
+    }
+
+    /*================================================================================*/
+
+    public int getNumOfEngines() {return m_engines.length;}
+
+    /**
+     * Returns the number of engines restarted so far.
+     */
+    public int getNumOfRestarts() {return m_numOfRestarts.get();}
+
+    /**
+     * Returns the number of jobs waiting for an engine.
+     */
+    public int getNumOfWaitingJobs() {return m_queue.size();}
+
+    /**
+     * Sets the cache consulted before a job is sent to an engine, or
+     * <code>null</code>. Jobs with a depth limit are answered from the cache
+     * if it knows a result at least as deep; all results are added to it.
+     * The cache is not closed by the pool.
+     */
+    public void setCache(AnalysisCache cache) {m_cache = cache;}
+
+    public AnalysisCache getCache() {return m_cache;}
+
+    /**
+     * Sets the milliseconds a job limited by depth or nodes only may take
+     * before it is stopped and fails. Default is {@link #DEFAULT_SEARCH_TIMEOUT}.
+     */
+    public void setSearchTimeout(long searchTimeout)
+    {
+        if (searchTimeout <= 0L) throw new IllegalArgumentException("Search timeout must be positive: " + searchTimeout);
+        m_searchTimeout = searchTimeout;
+    }
+
+    public long getSearchTimeout() {return m_searchTimeout;}
+
+    /*================================================================================*/
+
+    /**
+     * Adds a job to the queue, waiting while the queue is full.
+     *
+     *@throws IllegalStateException if the pool is closed
+     */
+    public void submit(AnalysisJob job) throws InterruptedException
+    {
+        // close must not queue its end marker between the check and the put
+        synchronized (m_submitLock) {
+            if (m_closed) throw new IllegalStateException("Engine pool is closed");
+            m_queue.put(job);
+        }
+    }
+
+    /**
+     * Adds a job for each position of the main line of a game, from the
+     * start position to the last position.
+     *
+     *@return the number of jobs
+     */
+    public int submit(Game game, int maxDepth, long maxNodes, long maxTime) throws InterruptedException
+    {
+        int num = 0;
+        game.gotoStart();
+        do {
+            submit(new AnalysisJob(game.getPosition(), maxDepth, maxNodes, maxTime, game));
+            num++;
+        } while (game.goForward());
+        return num;
+    }
+
+    /**
+     * Finishes the submitted jobs, then quits the engines.
+     */
+    public void close()
+    {
+        synchronized (m_submitLock) {
+            if (m_closed) return;   // =====>
+            m_closed = true;
+        }
+        try {
+            for (int i = 0; i < m_workers.length; i++) m_queue.put(END_OF_JOBS);
+            for (int i = 0; i < m_workers.length; i++) m_workers[i].join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < m_workers.length; i++) m_workers[i].interrupt();
+        }
+    }
+
+    /*================================================================================*/
+
+    private void work(int index)
+    {
+        try {
+            for (;;) {
+                AnalysisJob job = m_queue.poll(HEALTH_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                if (job == END_OF_JOBS) break;
+                if (job == null) {
+                    checkEngine(index);
+                } else {
+                    analyze(index, job);
+                }
+            }
+        } catch (InterruptedException ex) {
+            // closing
+        } finally {
+            if (m_engines[index] != null) m_engines[index].close();
+        }
+    }
+
+    private void checkEngine(int index)
+    {
+        UCIEngine engine = m_engines[index];
+        try {
+            if (engine == null) {
+                restart(index);
+            } else {
+                engine.isReady();
+            }
+        } catch (IOException ex) {
+            m_logger.warn("Engine " + index + " failed the health check: " + ex.getMessage());
+            try {
+                restart(index);
+            } catch (IOException ex2) {
+                m_logger.error("Cannot restart engine " + index + ": " + ex2.getMessage());
+            }
+        }
+    }
+
+    private void restart(int index) throws IOException
+    {
+        if (m_engines[index] != null) m_engines[index].close();
+        m_engines[index] = null;
+        m_numOfRestarts.incrementAndGet();
+        m_engines[index] = new UCIEngine(m_command, m_dir);
+    }
+
+    private void analyze(int index, AnalysisJob job) throws InterruptedException
+    {
+        AnalysisCache cache = m_cache;
+        if (cache != null && job.getMaxDepth() > 0) {
+            try {
+                SearchResult result = cache.get(job.getPosition(), job.getMaxDepth());
+                if (result != null) {
+                    notifyResult(job, result);
+                    return;   // =====>
+                }
+            } catch (IOException ex) {
+                m_logger.error("Cannot read analysis cache: " + ex.getMessage());
+            }
+        }
+
+        long timeout = (job.getMaxTime() > 0 ? job.getMaxTime() + UCIEngine.TIMEOUT : m_searchTimeout);
+        for (int attempt = 0; ; attempt++) {
+            UCIEngine.SearchFuture future = null;
+            try {
+                if (m_engines[index] == null || !m_engines[index].isAlive()) restart(index);
+                future = m_engines[index].go(job.getPosition(),
+                    job.getMaxDepth(), job.getMaxNodes(), job.getMaxTime(), null);
+                SearchResult result = future.get(timeout, TimeUnit.MILLISECONDS);
+                if (cache != null) putIntoCache(cache, job, result);
+                notifyResult(job, result);
+                return;   // =====>
+            } catch (InterruptedException ex) {
+                throw ex;
+            } catch (TimeoutException ex) {
+                // a retry would take as long, the job fails at once
+                m_logger.warn("Engine " + index + " did not finish " + job + " within " + timeout + " ms");
+                future.cancel(true);
+                try {
+                    restart(index);
+                } catch (IOException ex2) {
+                    m_logger.error("Cannot restart engine " + index + ": " + ex2.getMessage());
+                }
+                notifyFailure(job, ex);
+                return;   // =====>
+            } catch (Exception ex) {
+                Exception cause = (ex instanceof ExecutionException && ex.getCause() instanceof Exception
+                                   ? (Exception)ex.getCause() : ex);
+                m_logger.warn("Engine " + index + " failed on " + job + ": " + cause);
+                if (m_engines[index] != null) m_engines[index].close();
+                m_engines[index] = null;
+                if (attempt >= MAX_RETRIES) {
+                    notifyFailure(job, cause);
+                    return;   // =====>
+                }
+            }
+        }
+    }
+
+    private void putIntoCache(AnalysisCache cache, AnalysisJob job, SearchResult result)
+    {
+        try {
+            cache.put(job.getPosition(), result);
+        } catch (IOException ex) {
+            m_logger.error("Cannot write analysis cache: " + ex.getMessage());
+        }
+    }
+
+    private void notifyResult(AnalysisJob job, SearchResult result)
+    {
+        try {
+            m_consumer.notifyResult(job, result);
+        } catch (RuntimeException ex) {
+            m_logger.error("Result consumer failed on " + job, ex);
+        }
+    }
+
+    private void notifyFailure(AnalysisJob job, Exception cause)
+    {
+        try {
+            m_consumer.notifyFailure(job, cause);
+        } catch (RuntimeException ex) {
+            m_logger.error("Result consumer failed on " + job, ex);
+        }
+    }
+
+    private static final Logger m_logger =
+        LoggerFactory.getLogger(EnginePool.class);
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import chesspresso.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Client for an engine process speaking the UCI protocol.
+ *
+ * The output of the engine is read by a dedicated thread, blocking on the
+ * stream, and dispatched as it arrives. Searches are started with
+ * {@link #go}, which returns at once; the result is delivered through the
+ * returned future, the <code>info</code> lines through an optional
+ * {@link InfoListener}. One search can be run at a time.
+ */
+public class UCIEngine implements Closeable
+{
+    /**
+     * Receives the <code>info</code> lines of a search. Called on the reader
+     * thread of the engine, so implementations should return quickly.
+     */
+    public interface InfoListener
+    {
+        public void notifyInfo(UCIInfo info);
+    }
+
+    /**
+     * The pending result of a search. Cancelling it stops the search; the
+     * engine can be used again once it answered with its best move.
+     */
+    public class SearchFuture extends FutureTask<SearchResult>
+    {
+        private SearchFuture()
+        {
+            super(NO_TASK);
+        }
+
+        private void complete(SearchResult result) {set(result);}
+        private void fail(Throwable cause)         {setException(cause);}
+
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            boolean cancelled = super.cancel(false);
+            if (cancelled) {
+                try {
+                    stop();
+                } catch (IOException ex) {
+                    // the engine is gone, the reader thread cleans up
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    private static final Callable<SearchResult> NO_TASK = new Callable<SearchResult>() {
+        public SearchResult call() {throw new IllegalStateException("search futures are completed by the engine");}
+    };
+
+    /*================================================================================*/
+
+    /**
+     * Cuts a line into tokens separated by spaces, without creating strings
+     * for tokens only to be compared or parsed.
+     */
+    private static class Tokenizer
+    {
+        private String m_line;
+        private int m_index, m_start, m_end;
+
+        void setLine(String line) {m_line = line; m_index = 0;}
+
+        boolean next()
+        {
+            int length = m_line.length();
+            while (m_index < length && m_line.charAt(m_index) <= ' ') m_index++;
+            if (m_index == length) return false;   // =====>
+            m_start = m_index;
+            while (m_index < length && m_line.charAt(m_index) > ' ') m_index++;
+            m_end = m_index;
+            return true;
+        }
+
+        void pushBack() {m_index = m_start;}
+
+        boolean is(String token)
+        {
+            return m_end - m_start == token.length() && m_line.regionMatches(m_start, token, 0, token.length());
+        }
+
+        int getLength()     {return m_end - m_start;}
+        char charAt(int i)  {return m_line.charAt(m_start + i);}
+
+        long nextLong()
+        {
+            if (!next()) return -1;   // =====>
+            boolean negative = charAt(0) == '-';
+            long value = 0;
+            for (int i = (negative ? 1 : 0); i < getLength(); i++) {
+                char ch = charAt(i);
+                if (ch < '0' || ch > '9') return -1;   // =====>
+                value = 10 * value + (ch - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        String getRest()
+        {
+            while (m_index < m_line.length() && m_line.charAt(m_index) <= ' ') m_index++;
+            String rest = m_line.substring(m_index).trim();
+            m_index = m_line.length();
+            return rest;
+        }
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Milliseconds to wait for the engine to answer <code>uci</code> or
+     * <code>isready</code>, or to stop after a cancelled search.
+     */
+    public static final long TIMEOUT = 10000L;
+
+    private static final String END_OF_STREAM = new String("end of stream");
+    private static final short[] NO_MOVES = new short[0];
+
+    private final Process m_process;
+    private final BufferedReader m_in;
+    private final Writer m_out;
+    private final Thread m_reader;
+    private final BlockingQueue<String> m_replies = new LinkedBlockingQueue<>();
+    private volatile boolean m_alive = true;
+
+    private String m_name, m_author;
+    private final List<String> m_optionNames = new ArrayList<>();
+
+    // search state, guarded by m_lock
+    private final Object m_lock = new Object();
+    private SearchFuture m_search;
+    private Position m_searchPosition;
+    private InfoListener m_infoListener;
+    private UCIInfo m_lastInfo;
+    private long m_numOfNodes;
+    private long m_startTime;
+
+    // used by the reader thread only
+    private final Tokenizer m_tokenizer = new Tokenizer();
+    private final short[] m_moves = new short[256];
+    private final short[] m_pv = new short[2 * Searcher.MAX_PLY];
+
+    /*================================================================================*/
+
+    /**
+     * Starts the engine process and performs the UCI handshake.
+     *
+     *@param command the program and its arguments
+     *@param dir the working directory of the engine, or <code>null</code>
+     *@throws IOException if the engine cannot be started or does not answer in time
+     */
+    public UCIEngine(String[] command, File dir) throws IOException
+    {
+        m_process = new ProcessBuilder(command).directory(dir).redirectErrorStream(true).start();
+        m_in = new BufferedReader(new InputStreamReader(m_process.getInputStream()));
+        m_out = new BufferedWriter(new OutputStreamWriter(m_process.getOutputStream()));
+        m_reader = new Thread(new Runnable() {
+            public void run() {readLines();}
+        }, "UCIEngine " + command[0]);
+        m_reader.setDaemon(true);
+        m_reader.start();
+
+        try {
+            synchronized (m_replies) {
+                send("uci");
+                waitForReply("uciok");
+            }
+            isReady();
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /*================================================================================*/
+
+    public String getName()   {return m_name;}
+    public String getAuthor() {return m_author;}
+
+    /**
+     * Returns the names of the options announced by the engine.
+     */
+    public List<String> getOptionNames() {return Collections.unmodifiableList(m_optionNames);}
+
+    public boolean isAlive() {return m_alive;}
+
+    /*================================================================================*/
+
+    private void send(String command) throws IOException
+    {
+        if (!m_alive) throw new IOException("Engine terminated");
+        synchronized (m_out) {
+            m_out.write(command);
+            m_out.write('\n');
+            m_out.flush();
+        }
+    }
+
+    private void waitForReply(String reply) throws IOException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        try {
+            for (;;) {
+                String line = m_replies.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (line == null) throw new IOException("No " + reply + " from engine");
+                if (line == END_OF_STREAM) {
+                    m_replies.offer(END_OF_STREAM);   // for later callers
+                    throw new IOException("Engine terminated");
+                }
+                if (line.equals(reply)) return;   // =====>
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Sends <code>isready</code> and waits for the engine to answer.
+     */
+    public void isReady() throws IOException
+    {
+        synchronized (m_replies) {
+            send("isready");
+            waitForReply("readyok");
+        }
+    }
+
+    public void setOption(String name, String value) throws IOException
+    {
+        send(value == null ? "setoption name " + name : "setoption name " + name + " value " + value);
+    }
+
+    /**
+     * Tells the engine that the next search is from a different game.
+     */
+    public void newGame() throws IOException
+    {
+        send("ucinewgame");
+        isReady();
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Starts a search of a position and returns immediately.
+     *
+     *@param position the position to search
+     *@param maxDepth the maximal depth, 0 for no limit
+     *@param maxNodes the maximal number of nodes, 0 for no limit
+     *@param maxTime the maximal time in milliseconds, 0 for no limit
+     *@param listener receives the info lines of the search, may be <code>null</code>
+     *@return the future result; if no limit is given the search runs until stopped
+     *@throws IllegalStateException if a search is running
+     */
+    public SearchFuture go(ImmutablePosition position, int maxDepth, long maxNodes, long maxTime,
+                           InfoListener listener) throws IOException
+    {
+        SearchFuture search = new SearchFuture();
+        synchronized (m_lock) {
+            waitForIdle();
+            m_search = search;
+            m_searchPosition = new Position(position);
+            m_infoListener = listener;
+            m_lastInfo = null;
+            m_numOfNodes = 0L;
+            m_startTime = System.currentTimeMillis();
+        }
+
+        StringBuffer sb = new StringBuffer("go");
+        if (maxDepth > 0) sb.append(" depth ").append(maxDepth);
+        if (maxNodes > 0) sb.append(" nodes ").append(maxNodes);
+        if (maxTime > 0)  sb.append(" movetime ").append(maxTime);
+        if (maxDepth <= 0 && maxNodes <= 0 && maxTime <= 0) sb.append(" infinite");
+        try {
+            send("position fen " + FEN.getFEN(position));
+            send(sb.toString());
+        } catch (IOException ex) {
+            failSearch(ex);
+            throw ex;
+        }
+        return search;
+    }
+
+    // must hold m_lock
+    private void waitForIdle() throws IOException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (m_search != null) {
+            if (!m_search.isCancelled()) throw new IllegalStateException("Engine is searching");
+            long timeout = deadline - System.currentTimeMillis();
+            if (timeout <= 0) throw new IOException("Engine did not stop");
+            try {
+                m_lock.wait(timeout);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (!m_alive) throw new IOException("Engine terminated");
+    }
+
+    /**
+     * Asks the engine to stop the running search. The engine answers with
+     * its best move, which completes the future returned by {@link #go}.
+     */
+    public void stop() throws IOException
+    {
+        synchronized (m_lock) {
+            if (m_search == null) return;   // =====>
+        }
+        send("stop");
+    }
+
+    /**
+     * Quits the engine, killing the process if it does not exit in time. A
+     * running search fails.
+     */
+    public void close()
+    {
+        if (m_alive) {
+            try {
+                send("quit");
+                m_reader.join(1000L);
+            } catch (IOException ex) {
+                // the engine is gone already
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        m_process.destroy();
+        failSearch(new IOException("Engine closed"));
+        try {
+            m_out.close();
+        } catch (IOException ex) {
+            // the stream is broken if the engine died
+        }
+    }
+
+    private void failSearch(Throwable cause)
+    {
+        SearchFuture search;
+        synchronized (m_lock) {
+            search = m_search;
+            m_search = null;
+            m_searchPosition = null;
+            m_lock.notifyAll();
+        }
+        if (search != null) search.fail(cause);
+    }
+
+    /*================================================================================*/
+
+    private void readLines()
+    {
+        try {
+            for (;;) {
+                String line = m_in.readLine();
+                if (line == null) break;
+                dispatch(line);
+            }
+        } catch (IOException ex) {
+            // the process ended
+        } finally {
+            m_alive = false;
+            m_replies.offer(END_OF_STREAM);
+            failSearch(new IOException("Engine terminated"));
+        }
+    }
+
+    private void dispatch(String line)
+    {
+        Tokenizer tokenizer = m_tokenizer;
+        tokenizer.setLine(line);
+        if (!tokenizer.next()) return;   // =====>
+
+        if (tokenizer.is("info")) {
+            handleInfo();
+        } else if (tokenizer.is("bestmove")) {
+            handleBestMove();
+        } else if (tokenizer.is("uciok") || tokenizer.is("readyok")) {
+            m_replies.offer(tokenizer.is("uciok") ? "uciok" : "readyok");
+        } else if (tokenizer.is("id")) {
+            if (!tokenizer.next()) return;   // =====>
+            if (tokenizer.is("name")) {
+                m_name = tokenizer.getRest();
+            } else if (tokenizer.is("author")) {
+                m_author = tokenizer.getRest();
+            }
+        } else if (tokenizer.is("option")) {
+            if (!tokenizer.next() || !tokenizer.is("name")) return;   // =====>
+            String rest = tokenizer.getRest();
+            int index = rest.indexOf(" type ");
+            m_optionNames.add(index < 0 ? rest : rest.substring(0, index));
+        }
+    }
+
+    private void handleInfo()
+    {
+        SearchFuture search;
+        Position position;
+        InfoListener listener;
+        synchronized (m_lock) {
+            search = m_search;
+            position = m_searchPosition;
+            listener = m_infoListener;
+        }
+        if (search == null || search.isCancelled()) return;   // =====>
+
+        Tokenizer tokenizer = m_tokenizer;
+        int depth = -1, selDepth = -1, multiPV = 1, score = 0, bound = TranspositionTable.EXACT;
+        boolean hasScore = false;
+        long numOfNodes = -1L, nps = -1L, time = -1L;
+        short[] pv = NO_MOVES;
+        String string = null;
+        while (tokenizer.next()) {
+            if      (tokenizer.is("depth"))    depth = (int)tokenizer.nextLong();
+            else if (tokenizer.is("seldepth")) selDepth = (int)tokenizer.nextLong();
+            else if (tokenizer.is("multipv"))  multiPV = (int)tokenizer.nextLong();
+            else if (tokenizer.is("nodes"))    numOfNodes = tokenizer.nextLong();
+            else if (tokenizer.is("nps"))      nps = tokenizer.nextLong();
+            else if (tokenizer.is("time"))     time = tokenizer.nextLong();
+            else if (tokenizer.is("score")) {
+                while (tokenizer.next()) {
+                    if (tokenizer.is("cp")) {
+                        score = (int)tokenizer.nextLong();
+                        hasScore = true;
+                    } else if (tokenizer.is("mate")) {
+                        int mate = (int)tokenizer.nextLong();   // in moves, negative if mated
+                        score = (mate > 0 ? Searcher.MATE - (2 * mate - 1) : -Searcher.MATE - 2 * mate);
+                        hasScore = true;
+                    } else if (tokenizer.is("lowerbound")) {
+                        bound = TranspositionTable.LOWER_BOUND;
+                    } else if (tokenizer.is("upperbound")) {
+                        bound = TranspositionTable.UPPER_BOUND;
+                    } else {
+                        tokenizer.pushBack();
+                        break;
+                    }
+                }
+            } else if (tokenizer.is("pv")) {
+                pv = parseMoves(position);
+            } else if (tokenizer.is("string")) {
+                string = tokenizer.getRest();
+            }
+            // other keys (currmove, hashfull, ...) and their values are skipped
+        }
+
+        UCIInfo info = new UCIInfo(depth, selDepth, multiPV, hasScore, score, bound, numOfNodes, nps, time, pv, string);
+        synchronized (m_lock) {
+            if (search != m_search) return;   // =====>
+            if (numOfNodes > m_numOfNodes) m_numOfNodes = numOfNodes;
+            if (hasScore && multiPV == 1) m_lastInfo = info;
+        }
+        if (listener != null) listener.notifyInfo(info);
+    }
+
+    private short[] parseMoves(Position position)
+    {
+        int num = 0;
+        while (num < m_pv.length && m_tokenizer.next()) {
+            short move = getMove(position);
+            if (move == Move.NO_MOVE) {
+                m_tokenizer.pushBack();
+                break;
+            }
+            try {
+                position.doMove(move);
+            } catch (IllegalMoveException ex) {
+                break;
+            }
+            m_pv[num++] = move;
+        }
+        for (int i = 0; i < num; i++) position.undoMove();
+        short[] moves = new short[num];
+        System.arraycopy(m_pv, 0, moves, 0, num);
+        return moves;
+    }
+
+    // the legal move of position matching the current token, like e2e4 or e7e8q
+    private short getMove(Position position)
+    {
+        Tokenizer tokenizer = m_tokenizer;
+        int length = tokenizer.getLength();
+        if (length != 4 && length != 5) return Move.NO_MOVE;   // =====>
+        int from = Chess.strToSqi(tokenizer.charAt(0), tokenizer.charAt(1));
+        int to   = Chess.strToSqi(tokenizer.charAt(2), tokenizer.charAt(3));
+        int promo = (length == 5 ? Chess.charToPiece(Character.toUpperCase(tokenizer.charAt(4))) : Chess.NO_PIECE);
+        if (from == Chess.NO_SQUARE || to == Chess.NO_SQUARE) return Move.NO_MOVE;   // =====>
+
+        int num = position.getAllMoves(m_moves, 0);
+        for (int i = 0; i < num; i++) {
+            short move = m_moves[i];
+            if (Move.getFromSqi(move) == from && Move.getToSqi(move) == to
+                && (Move.isPromotion(move) ? Move.getPromotionPiece(move) : Chess.NO_PIECE) == promo) {
+                return move;   // =====>
+            }
+        }
+        return Move.NO_MOVE;
+    }
+
+    private void handleBestMove()
+    {
+        SearchFuture search;
+        Position position;
+        UCIInfo lastInfo;
+        long numOfNodes, startTime;
+        synchronized (m_lock) {
+            search = m_search;
+            position = m_searchPosition;
+            lastInfo = m_lastInfo;
+            numOfNodes = m_numOfNodes;
+            startTime = m_startTime;
+        }
+        if (search == null) return;   // =====>
+
+        short bestMove = (m_tokenizer.next() ? getMove(position) : Move.NO_MOVE);
+        short[] pv = (lastInfo != null ? lastInfo.getPV() : NO_MOVES);
+        if (bestMove == Move.NO_MOVE) {
+            pv = NO_MOVES;
+        } else if (pv.length == 0 || pv[0] != bestMove) {
+            pv = new short[] {bestMove};
+        }
+        SearchResult result = new SearchResult(lastInfo != null ? lastInfo.getScore() : 0,
+                                               lastInfo != null ? lastInfo.getDepth() : 0,
+                                               Math.max(numOfNodes, 0L), System.currentTimeMillis() - startTime, pv);
+
+        synchronized (m_lock) {
+            if (search != m_search) return;   // =====>
+            m_search = null;
+            m_searchPosition = null;
+            m_infoListener = null;
+            m_lock.notifyAll();
+        }
+        search.complete(result);
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the move in the long algebraic notation of UCI, like
+     * <code>e2e4</code>, <code>e1g1</code> or <code>e7e8q</code>.
+     */
+    public static String getUCIString(short move)
+    {
+        if (move == Move.NO_MOVE) return "0000";   // =====>
+        StringBuffer sb = new StringBuffer(5);
+        sb.append(Chess.sqiToStr(Move.getFromSqi(move)));
+        sb.append(Chess.sqiToStr(Move.getToSqi(move)));
+        if (Move.isPromotion(move)) {
+            sb.append(Character.toLowerCase(Chess.pieceToChar(Move.getPromotionPiece(move))));
+        }
+        return sb.toString();
+    }
+
+}
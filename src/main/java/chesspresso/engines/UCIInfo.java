@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import chesspresso.move.*;
+import chesspresso.search.*;
+
+/**
+ * An <code>info</code> line sent by a UCI engine while searching. Values the
+ * engine did not send are -1, see {@link UCIEngine.InfoListener}.
+ */
+public class UCIInfo
+{
+    private final int m_depth;
+    private final int m_selDepth;
+    private final int m_multiPV;
+    private final boolean m_hasScore;
+    private final int m_score;
+    private final int m_bound;
+    private final long m_numOfNodes;
+    private final long m_nps;
+    private final long m_time;
+    private final short[] m_pv;
+    private final String m_string;
+
+    /*================================================================================*/
+
+    UCIInfo(int depth, int selDepth, int multiPV, boolean hasScore, int score, int bound,
+            long numOfNodes, long nps, long time, short[] pv, String string)
+    {
+        m_depth = depth;
+        m_selDepth = selDepth;
+        m_multiPV = multiPV;
+        m_hasScore = hasScore;
+        m_score = score;
+        m_bound = bound;
+        m_numOfNodes = numOfNodes;
+        m_nps = nps;
+        m_time = time;
+        m_pv = pv;
+        m_string = string;
+    }
+
+    /*================================================================================*/
+
+    public int getDepth() {return m_depth;}
+    public int getSelDepth() {return m_selDepth;}
+
+    /**
+     * Returns the number of the variation, 1 for the best line.
+     */
+    public int getMultiPV() {return m_multiPV;}
+
+    public boolean hasScore() {return m_hasScore;}
+
+    /**
+     * Returns the score in centipawns from the point of view of the engine.
+     * Mate scores are converted as {@link Searcher} reports them, see
+     * {@link Searcher#isMateScore}.
+     */
+    public int getScore() {return m_score;}
+
+    /**
+     * Returns whether the score is exact or a bound, one of the bound
+     * constants of {@link TranspositionTable}.
+     */
+    public int getBound() {return m_bound;}
+
+    public long getNumOfNodes() {return m_numOfNodes;}
+    public long getNodesPerSecond() {return m_nps;}
+
+    /**
+     * Returns the time searched in milliseconds.
+     */
+    public long getTime() {return m_time;}
+
+    /**
+     * Returns the principal variation, as far as its moves are legal.
+     */
+    public short[] getPV() {return m_pv.clone();}
+
+    /**
+     * Returns the text of an <code>info string</code> line, or <code>null</code>.
+     */
+    public String getString() {return m_string;}
+
+    /*================================================================================*/
+
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("depth ").append(m_depth).append(" seldepth ").append(m_selDepth);
+        if (m_hasScore) sb.append(" score ").append(m_score);
+        sb.append(" nodes ").append(m_numOfNodes).append(" time ").append(m_time).append(" pv");
+        for (int i = 0; i < m_pv.length; i++) {
+            sb.append(' ').append(Move.getString(m_pv[i]));
+        }
+        if (m_string != null) sb.append(" string ").append(m_string);
+        return sb.toString();
+    }
+
+}
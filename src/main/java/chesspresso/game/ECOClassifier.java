@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Assigns ECO codes to games by their main line.
+ *
+ * The classifier is built from a set of ECO lines, usually a PGN file with one
+ * game per line carrying an ECO tag. The final position of each line is stored
+ * with the code of the line, keyed by the {@link ImmutablePosition#getHashCode
+ * hash code} of the position. A game gets the code of the last position of its
+ * main line found in the classifier, so transpositions into a line are
+ * classified like the line itself.
+ *
+ * Positions are kept in an open addressing table of primitives; a lookup costs
+ * one or two array accesses. Positions further than the longest line from the
+ * start are never looked up. The classifier is immutable and can be shared by
+ * any number of threads, e.g. by several {@link PGNReader readers} importing
+ * in parallel (see {@link PGNReader#setECOClassifier}).
+ */
+public final class ECOClassifier
+{
+
+    /**
+     * Reads the ECO lines from a PGN file. Games without a valid ECO tag,
+     * with a FEN tag or with syntax errors are skipped. If several lines end
+     * in the same position, the first one is used.
+     */
+    public static ECOClassifier read(Reader reader, String name) throws IOException
+    {
+        PGNReader pgnReader = new PGNReader(reader, name);
+        List<GameModel> lines = new ArrayList<>();
+        for (;;) {
+            Game game;
+            try {
+                game = pgnReader.parseGame();
+            } catch (PGNSyntaxError ex) {
+                continue;
+            }
+            if (game == null) break;
+            lines.add(game.getModel());
+        }
+        return new ECOClassifier(lines);
+    }
+
+    /*================================================================================*/
+
+    private final long[] m_keys;
+    private final short[] m_packedECOs;   // PGN.NO_PACKED_ECO for empty slots
+    private final int m_mask;
+    private final int m_maxPly;
+    private final int m_numOfPositions;
+
+    /*================================================================================*/
+
+    /**
+     * Builds the classifier from the given ECO lines, see {@link #read}.
+     */
+    public ECOClassifier(Collection<GameModel> lines)
+    {
+        Map<Long,Integer> ecos = new LinkedHashMap<>();
+        int maxPly = 0;
+        Position position = new Position();
+        for (GameModel line : lines) {
+            int packedECO = PGN.ecoToPackedECO(line.getHeaderModel().getECO());
+            if (packedECO == PGN.NO_PACKED_ECO || line.getHeaderModel().getTag(PGN.TAG_FEN) != null) continue;
+            position.setStart();
+            short[] moves = line.getMoveModel().getMainLine();
+            int ply = 0;
+            try {
+                for (; ply < moves.length; ply++) position.doMove(moves[ply]);
+                if (!ecos.containsKey(position.getHashCode())) {
+                    ecos.put(position.getHashCode(), packedECO);
+                    maxPly = Math.max(maxPly, moves.length);
+                }
+            } catch (IllegalMoveException ex) {
+                // skip the line
+            } finally {
+                for (int i = 0; i < ply; i++) position.undoMove();
+            }
+        }
+
+        int capacity = 16;
+        while (capacity < 2 * ecos.size()) capacity <<= 1;  // load factor at most 1/2
+        m_keys = new long[capacity];
+        m_packedECOs = new short[capacity];
+        Arrays.fill(m_packedECOs, (short)PGN.NO_PACKED_ECO);
+        m_mask = capacity - 1;
+        for (Map.Entry<Long,Integer> entry : ecos.entrySet()) {
+            int index = getSlot(entry.getKey());
+            m_keys[index] = entry.getKey();
+            m_packedECOs[index] = (short)entry.getValue().intValue();
+        }
+        m_maxPly = maxPly;
+        m_numOfPositions = ecos.size();
+    }
+
+    /*================================================================================*/
+
+    private int getSlot(long hashCode)
+    {
+        int index = (int)(hashCode ^ (hashCode >>> 32)) & m_mask;
+        while (m_packedECOs[index] != PGN.NO_PACKED_ECO && m_keys[index] != hashCode) {
+            index = (index + 1) & m_mask;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of plies of the longest line. Positions deeper in a
+     * game are never classified.
+     */
+    public int getMaxPly() {return m_maxPly;}
+
+    public int getNumOfPositions() {return m_numOfPositions;}
+
+    /**
+     * Returns the packed ECO code of the line ending in the position with the
+     * given hash code, PGN.NO_PACKED_ECO if there is none.
+     */
+    public int getPackedECO(long hashCode)
+    {
+        return m_packedECOs[getSlot(hashCode)];
+    }
+
+    /**
+     * Returns the packed ECO code of the game, PGN.NO_PACKED_ECO if it cannot be
+     * classified. Games with a FEN tag are not classified.
+     */
+    public int getPackedECO(GameModel gameModel)
+    {
+        if (gameModel.getHeaderModel().getTag(PGN.TAG_FEN) != null) return PGN.NO_PACKED_ECO;  // =====>
+
+        Position position = Position.createInitialPosition();
+        short[] moves = gameModel.getMoveModel().getMainLine();
+        int packedECO = PGN.NO_PACKED_ECO;
+        try {
+            for (int ply = 0; ply < moves.length && ply < m_maxPly; ply++) {
+                position.doMove(moves[ply]);
+                int eco = getPackedECO(position.getHashCode());
+                if (eco != PGN.NO_PACKED_ECO) packedECO = eco;
+            }
+        } catch (IllegalMoveException ex) {
+            // classified up to the illegal move
+        }
+        return packedECO;
+    }
+
+    /**
+     * Returns the ECO code of the game, e.g. "B90", null if it cannot be
+     * classified.
+     */
+    public String getECO(GameModel gameModel)
+    {
+        return PGN.packedECOToECO(getPackedECO(gameModel));
+    }
+
+}
@@ -64,6 +64,11 @@ public class Game implements PositionChangeListener
     private boolean m_ignoreNotifications;
     private boolean m_alwaysAddLine;        // during pgn parsing, always add new lines
     private List m_changeListeners;
+    private int m_checkpointInterval;                     // 0 if no checkpoints are taken
+    private Map<Integer,CompactPosition> m_checkpoints;  // by node, in access order
+    private CompactPosition m_startCheckpoint;
+    private int m_checkpointModCount;
+    private int m_restoredNode;  // node set from a checkpoint, its last move is unknown
     
     //======================================================================
     
@@ -110,10 +115,100 @@ public class Game implements PositionChangeListener
         m_position = position;
         m_position.addPositionChangeListener(this);
         m_cur = 0;
+        if (m_checkpoints != null) {
+            m_checkpoints.clear();
+            m_startCheckpoint = new CompactPosition(m_position);
+        }
     }
     
     public void setAlwaysAddLine(boolean alwaysAddLine) {m_alwaysAddLine = alwaysAddLine;}
     
+    //======================================================================
+    // checkpoints
+    
+    /**
+     * Enables a cache of positions to speed up random access to the nodes of
+     * the game, for instance by {@link #gotoNode(int)}. The position is stored
+     * whenever the game arrives at a node whose number of plies from the start
+     * is a multiple of the interval. Going to a node then starts at the
+     * nearest stored position before the node and replays at most interval
+     * moves. Once there are more than the given number of positions, the least
+     * recently used ones are dropped. All positions are dropped when the moves
+     * of the game are changed.
+     *
+     *@param interval the number of plies between two checkpoints, 0 to disable the cache
+     *@param maxNumOfCheckpoints the maximum number of positions to keep
+     */
+    public void setCheckpoints(int interval, final int maxNumOfCheckpoints)
+    {
+        if (interval < 0) throw new IllegalArgumentException("Illegal checkpoint interval " + interval);
+        if (interval > 0 && maxNumOfCheckpoints < 1) throw new IllegalArgumentException("Illegal number of checkpoints " + maxNumOfCheckpoints);
+        
+        m_checkpointInterval = interval;
+        if (interval == 0) {
+            m_checkpoints = null;
+            m_startCheckpoint = null;
+        } else {
+            m_checkpoints = new LinkedHashMap<Integer,CompactPosition>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer,CompactPosition> eldest)
+                {
+                    return size() > maxNumOfCheckpoints;
+                }
+            };
+            m_checkpointModCount = m_moves.getModCount();
+            Position startPosition = new Position();
+            m_model.initStartPosition(startPosition);
+            m_startCheckpoint = new CompactPosition(startPosition);
+        }
+    }
+    
+    /**
+     * Returns the number of positions currently cached, see {@link #setCheckpoints}.
+     */
+    public int getNumOfCheckpoints()
+    {
+        return hasCheckpoints() ? m_checkpoints.size() : 0;
+    }
+    
+    private boolean hasCheckpoints()
+    {
+        if (m_checkpoints == null) return false;  // =====>
+        
+        if (m_checkpointModCount != m_moves.getModCount()) {
+            // node indices may have moved
+            m_checkpoints.clear();
+            m_checkpointModCount = m_moves.getModCount();
+        }
+        return true;
+    }
+    
+    private void storeCheckpoint()
+    {
+        if (hasCheckpoints() && m_moves.getNumOfPliesToRoot(m_cur) % m_checkpointInterval == 0) {
+            Integer node = Integer.valueOf(m_cur);
+            if (!m_checkpoints.containsKey(node)) {
+                m_checkpoints.put(node, new CompactPosition(m_position));
+            }
+        }
+    }
+    
+    /**
+     * Sets the position to a checkpoint. The moves which led to the position
+     * so far cannot be undone afterwards, and going back to the node itself
+     * has to go through an earlier checkpoint to know the last move.
+     */
+    private void restoreCheckpoint(int node, CompactPosition checkpoint, boolean silent)
+    {
+        m_cur = node;
+        m_restoredNode = (node == 0 ? -1 : node);
+        m_ignoreNotifications = true;
+        if (silent) m_position.setNotifyListeners(false);
+        m_position.set(checkpoint);
+        m_position.clearHistory();
+        if (silent) m_position.setNotifyListeners(true);
+        m_ignoreNotifications = false;
+    }
+    
     //======================================================================
     
     public void addChangeListener(GameModelChangeListener listener)
@@ -347,7 +442,7 @@ public class Game implements PositionChangeListener
             m_position.setNotifyListeners(false);
             m_position.doMove(shortMove);
 //            ChMove move = m_position.getLastMove(shortMove);
-            Move move = m_position.getLastMove();
+            Move move = m_position.getLastLazyMove();
             m_position.undoMove();
             m_position.setNotifyListeners(true);
             return move;
@@ -384,7 +479,7 @@ public class Game implements PositionChangeListener
             try {
                 m_position.doMove(move);
 //                moves[i] = m_position.getLastMove(move);
-                moves[i] = m_position.getLastMove();
+                moves[i] = m_position.getLastLazyMove();
                 m_position.undoMove();
             } catch (IllegalMoveException ex) {
                 m_moves.write(System.out);
@@ -437,6 +532,10 @@ public class Game implements PositionChangeListener
         if (DEBUG) System.out.println("goBack");
         
         int index = m_moves.goBack(m_cur, true);
+        if (index != -1 && m_checkpoints != null && (index == m_restoredNode || !m_position.canUndoMove())) {
+            gotoNode(index, silent);  // the position has been set from a checkpoint
+            return true;  // =====>
+        }
         if (index != -1) {
 //        if (m_position.canUndoMove()) {  // do not rely on position since in silent mode it is not updated
 //            m_cur = m_moves.goBack(m_cur, true);
@@ -457,6 +556,10 @@ public class Game implements PositionChangeListener
         if (DEBUG) System.out.println("goBackInLine");
         
         int index = m_moves.goBack(m_cur, false);
+        if (index != -1 && m_checkpoints != null && (index == m_restoredNode || !m_position.canUndoMove())) {
+            gotoNode(index, silent);  // the position has been set from a checkpoint
+            return true;  // =====>
+        }
         if (index != -1) {
             m_cur = index; // needs to be set before undoing the move to allow listeners to check for curNode
             m_ignoreNotifications = true;
@@ -499,6 +602,7 @@ public class Game implements PositionChangeListener
                 m_position.doMove(shortMove);
                 if (silent) m_position.setNotifyListeners(true);
                 m_ignoreNotifications = false;
+                if (m_checkpoints != null) storeCheckpoint();
                 return true;
             } catch (IllegalMoveException ex) {
                 ex.printStackTrace();
@@ -522,9 +626,10 @@ public class Game implements PositionChangeListener
                 m_ignoreNotifications = true;
                 if (silent) m_position.setNotifyListeners(false);
                 m_position.doMove(shortMove);
-                Move move = m_position.getLastMove();
+                Move move = m_position.getLastLazyMove();
                 if (silent) m_position.setNotifyListeners(true);
                 m_ignoreNotifications = false;
+                if (m_checkpoints != null) storeCheckpoint();
                 return move;
             } catch (IllegalMoveException ex) {
                 ex.printStackTrace();
@@ -537,7 +642,11 @@ public class Game implements PositionChangeListener
     
     private void gotoStart(boolean silent)
     {
-        while (goBack(silent)) ;
+        if (m_cur != 0 && hasCheckpoints()) {
+            restoreCheckpoint(0, m_startCheckpoint, silent);
+        } else {
+            while (goBack(silent)) ;
+        }
     }
     
     private void gotoEndOfLine(boolean silent)
@@ -561,26 +670,16 @@ public class Game implements PositionChangeListener
         goForward(silent);
     }
      
-    private int getNumOfPliesToRoot(int node)
-    {
-        int plies = 0;
-        while (node > 0) {
-            node = m_moves.goBack(node, true);
-            plies++;
-        }
-        return plies;
-    }
-    
     private int[] getNodesToRoot(int node)
     {
         int[] nodes;
         int i = 0;
         if (m_moves.getMove(node) != GameMoveModel.NO_MOVE) {
-            nodes = new int[getNumOfPliesToRoot(node) + 1];
+            nodes = new int[m_moves.getNumOfPliesToRoot(node) + 1];
             nodes[0] = node;
             i = 1;
         } else {
-            nodes = new int[getNumOfPliesToRoot(node)];  // if we stand on a line end, don't include node in nodes to root
+            nodes = new int[m_moves.getNumOfPliesToRoot(node)];  // if we stand on a line end, don't include node in nodes to root
             i = 0;
         }
         for (; i < nodes.length; i++) {
@@ -594,8 +693,23 @@ public class Game implements PositionChangeListener
     {
         int[] nodeNodes = getNodesToRoot(node);
         
-        gotoStart(silent);
-        for (int i = nodeNodes.length - 2; i >= 0; i--) {
+        int i = nodeNodes.length - 2;
+        if (hasCheckpoints()) {
+            // start at the nearest checkpoint before node, then the move leading
+            // to node is on the move stack of the position
+            CompactPosition checkpoint = null;
+            for (int j = 1; j < nodeNodes.length - 1 && checkpoint == null; j++) {
+                checkpoint = m_checkpoints.get(Integer.valueOf(nodeNodes[j]));
+                if (checkpoint != null) {
+                    restoreCheckpoint(nodeNodes[j], checkpoint, silent);
+                    i = j - 1;
+                }
+            }
+            if (checkpoint == null) gotoStart(silent);
+        } else {
+            gotoStart(silent);
+        }
+        for (; i >= 0; i--) {
             int nextMoveIndex = 0;
             for (int j = 1; j < getNumOfNextMoves(); j++) {
                 if (m_moves.goForward(m_cur, j) == nodeNodes[i]) {
@@ -18,6 +18,7 @@ import chesspresso.*;
 import chesspresso.pgn.*;
 import java.util.*;
 import java.io.*;
+import java.nio.charset.Charset;
 
 
 /**
@@ -28,8 +29,7 @@ import java.io.*;
 public class GameHeaderModel
 {
     
-    //TODO store standard tags in variables, not array of string (eg elo as short)
-    //     check tagValue for consistency, throw IllegalTagValue if wrong
+    //TODO check tagValue for consistency, throw IllegalTagValue if wrong
     //     in pgnreader, issue warning if value is incorrect
     //TODO fen as standard tag, most probably not
     
@@ -57,11 +57,44 @@ public class GameHeaderModel
         MODE_STANDARD_TAGS     = 1,
         MODE_ALL_TAGS          = 2;
     
+    /**
+     * Names of frequent non-standard tags. In MODE_ALL_TAGS, a tag from this
+     * list is stored as its index (plus one) instead of its name; other tag
+     * names are stored in full after a 0. Never reorder or remove entries,
+     * only append, otherwise stored headers cannot be read anymore.
+     */
+    private static final String[] COMMON_TAG_NAMES =
+        {PGN.TAG_FEN, "SetUp", "TimeControl", "Time", "Termination", "Mode",
+         "Annotator", "Opening", "Variation", "SubVariation",
+         "WhiteTitle", "BlackTitle", "WhiteFideId", "BlackFideId",
+         "WhiteTeam", "BlackTeam", "WhiteCountry", "BlackCountry",
+         "WhiteType", "BlackType", "WhiteClock", "BlackClock",
+         "EventType", "EventRounds", "EventCountry", "EventCategory",
+         "Board", "Stage", "Section", "Source", "SourceDate",
+         "UTCDate", "UTCTime", "Variant", "Remark"};
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    /*================================================================================*/
+    
+    private static final String[] RESULT_STRINGS = {"1-0", "1/2-1/2", "0-1", "*"};
+    
+    private static final short NO_ELO = -1;
+    
     /*================================================================================*/
     
+    // Date, result, elos, event date and eco are kept in packed form. Only if
+    // a value cannot be reproduced from its packed form (e.g. "1999.8.1") it
+    // is kept as string in m_standardTags, which also holds the string tags.
     private String[] m_standardTags;
-    private LinkedList m_otherTags;
-    private LinkedList m_otherTagValues;
+    private int m_date, m_eventDate;
+    private short m_whiteElo, m_blackElo;
+    private short m_eco;
+    private byte m_result;
+    
+    private String[] m_otherTags;
+    private String[] m_otherTagValues;
+    private int m_numOfOtherTags;
     private long m_long;
     
     /*================================================================================*/
@@ -69,15 +102,19 @@ public class GameHeaderModel
     public GameHeaderModel()
     {
         m_standardTags = new String[NUM_OF_STANDARD_TAGS];
+        m_date = PGN.NO_PACKED_DATE;
+        m_eventDate = PGN.NO_PACKED_DATE;
+        m_whiteElo = NO_ELO;
+        m_blackElo = NO_ELO;
+        m_eco = PGN.NO_PACKED_ECO;
+        m_result = Chess.NO_RES;
         m_otherTags = null;
         m_long = -1;
     }
     
     public GameHeaderModel(DataInput in, int mode) throws IOException
     {
-        m_standardTags = new String[NUM_OF_STANDARD_TAGS];
-        m_otherTags = null;
-        m_long = -1;
+        this();
         load(in, mode);
     }
     
@@ -110,17 +147,22 @@ public class GameHeaderModel
 //        else                                           return -1;
     }
     
+    private int getOtherTagIndex(String tagName)
+    {
+        for (int i = 0; i < m_numOfOtherTags; i++) {
+            if (m_otherTags[i].equals(tagName)) return i;
+        }
+        return -1;
+    }
+    
     public String getTag(String tagName)
     {
         int index = getStandardTagIndex(tagName);
         if (index != -1) {
-            return m_standardTags[index];
-        } else if (m_otherTags != null) {
-            index = m_otherTags.indexOf(tagName);
-            return (index == -1 ? null : (String)m_otherTagValues.get(index));
-//            return (String)m_otherTags.get(tagName);
+            return getStandardTag(index);
         } else {
-            return null;
+            index = getOtherTagIndex(tagName);
+            return (index == -1 ? null : m_otherTagValues[index]);
         }
     }
     
@@ -128,87 +170,194 @@ public class GameHeaderModel
     {
         int index = getStandardTagIndex(tagName);
         if (index != -1) {
-            m_standardTags[index] = tagValue;
+            setStandardTag(index, tagValue);
         } else if (!"PlyCount".equals(tagName)) {
 //            System.out.println(tagName + "=" + tagValue);
-            if (m_otherTags == null) {
-                m_otherTags = new LinkedList(); m_otherTagValues = new LinkedList();
-            }
-            index = m_otherTags.indexOf(tagName);
+            index = getOtherTagIndex(tagName);
             if (index == -1) {
-                m_otherTags.addLast(tagName); m_otherTagValues.addLast(tagValue);  // append
+                if (m_otherTags == null) {
+                    m_otherTags = new String[4]; m_otherTagValues = new String[4];
+                } else if (m_numOfOtherTags == m_otherTags.length) {
+                    String[] otherTags = new String[2 * m_numOfOtherTags];
+                    String[] otherTagValues = new String[2 * m_numOfOtherTags];
+                    System.arraycopy(m_otherTags, 0, otherTags, 0, m_numOfOtherTags);
+                    System.arraycopy(m_otherTagValues, 0, otherTagValues, 0, m_numOfOtherTags);
+                    m_otherTags = otherTags; m_otherTagValues = otherTagValues;
+                }
+                m_otherTags[m_numOfOtherTags] = tagName.intern();  // append
+                m_otherTagValues[m_numOfOtherTags] = tagValue;
+                m_numOfOtherTags++;
             } else {
-                m_otherTagValues.set(index, tagValue);  // replace
+                m_otherTagValues[index] = tagValue;  // replace
             }
         }
     }
     
     public String[] getTags()
     {
-        int numOfTags = (m_otherTags == null ? 0 : m_otherTags.size());
-        for (int i = 0; i < NUM_OF_STANDARD_TAGS; i++) if (m_standardTags[i] != null) numOfTags++;
+        int numOfTags = m_numOfOtherTags;
+        for (int i = 0; i < NUM_OF_STANDARD_TAGS; i++) if (hasStandardTag(i)) numOfTags++;
         
         String[] tags = new String[numOfTags];
         int index = 0;
         for (int i = 0; i < NUM_OF_STANDARD_TAGS; i++) {
-            if (m_standardTags[i] != null)
+            if (hasStandardTag(i))
                 tags[index++] = TAG_NAMES[i];
         }
-        if (m_otherTags != null) {
-            for (Iterator it = m_otherTags.iterator(); it.hasNext(); ) {
-                tags[index++] = (String)it.next();
-            }
+        for (int i = 0; i < m_numOfOtherTags; i++) {
+            tags[index++] = m_otherTags[i];
         }
         return tags;
     }
     
+    /*================================================================================*/
+    // packed standard tags
+    
+    private boolean hasStandardTag(int index)
+    {
+        if (m_standardTags[index] != null) return true;  // =====>
+        switch (index) {
+            case INDEX_DATE:       return m_date != PGN.NO_PACKED_DATE;
+            case INDEX_RESULT:     return m_result != Chess.NO_RES;
+            case INDEX_WHITE_ELO:  return m_whiteElo != NO_ELO;
+            case INDEX_BLACK_ELO:  return m_blackElo != NO_ELO;
+            case INDEX_EVENT_DATE: return m_eventDate != PGN.NO_PACKED_DATE;
+            case INDEX_ECO:        return m_eco != PGN.NO_PACKED_ECO;
+            default:               return false;
+        }
+    }
+    
+    private String getStandardTag(int index)
+    {
+        if (m_standardTags[index] != null) return m_standardTags[index];  // =====>
+        switch (index) {
+            case INDEX_DATE:       return PGN.packedDateToPGNDate(m_date);
+            case INDEX_RESULT:     return (m_result == Chess.NO_RES ? null : RESULT_STRINGS[m_result]);
+            case INDEX_WHITE_ELO:  return (m_whiteElo == NO_ELO ? null : String.valueOf(m_whiteElo));
+            case INDEX_BLACK_ELO:  return (m_blackElo == NO_ELO ? null : String.valueOf(m_blackElo));
+            case INDEX_EVENT_DATE: return PGN.packedDateToPGNDate(m_eventDate);
+            case INDEX_ECO:        return PGN.packedECOToECO(m_eco);
+            default:               return null;
+        }
+    }
+    
+    private void setStandardTag(int index, String tagValue)
+    {
+        String fallback = null;
+        switch (index) {
+            case INDEX_DATE:
+                m_date = PGN.pgnDateToPackedDate(tagValue);
+                if (m_date == PGN.NO_PACKED_DATE) fallback = tagValue;
+                break;
+            case INDEX_RESULT:
+                m_result = (byte)getResult(tagValue);
+                if (m_result == Chess.NO_RES) fallback = tagValue;
+                break;
+            case INDEX_WHITE_ELO:
+                m_whiteElo = getPackedElo(tagValue);
+                if (m_whiteElo == NO_ELO) fallback = tagValue;
+                break;
+            case INDEX_BLACK_ELO:
+                m_blackElo = getPackedElo(tagValue);
+                if (m_blackElo == NO_ELO) fallback = tagValue;
+                break;
+            case INDEX_EVENT_DATE:
+                m_eventDate = PGN.pgnDateToPackedDate(tagValue);
+                if (m_eventDate == PGN.NO_PACKED_DATE) fallback = tagValue;
+                break;
+            case INDEX_ECO:
+                m_eco = (short)PGN.ecoToPackedECO(tagValue);
+                if (m_eco == PGN.NO_PACKED_ECO) fallback = tagValue;
+                break;
+            default:
+                // event, site, round and player names repeat across games
+                fallback = (tagValue == null ? null : tagValue.intern());
+        }
+        m_standardTags[index] = fallback;
+    }
+    
+    private static int getResult(String result)
+    {
+        for (int res = 0; res < RESULT_STRINGS.length; res++) {
+            if (RESULT_STRINGS[res].equals(result)) return res;
+        }
+        return Chess.NO_RES;
+    }
+    
+    private static short getPackedElo(String elo)
+    {
+        if (elo == null || elo.length() == 0 || elo.length() > 5) return NO_ELO;  // =====>
+        if (elo.charAt(0) == '0' && elo.length() > 1) return NO_ELO;  // =====> would not print the same
+        int value = 0;
+        for (int i = 0; i < elo.length(); i++) {
+            char ch = elo.charAt(i);
+            if (ch < '0' || ch > '9') return NO_ELO;  // =====>
+            value = 10 * value + (ch - '0');
+        }
+        return (value > Short.MAX_VALUE ? NO_ELO : (short)value);
+    }
+    
     /*================================================================================*/
     // convenience methods for tags
     
     public String getEvent()        {return m_standardTags[INDEX_EVENT];}
     public String getSite()         {return m_standardTags[INDEX_SITE];}
-    public String getDate()         {return m_standardTags[INDEX_DATE];}
+    public String getDate()         {return getStandardTag(INDEX_DATE);}
     public String getRound()        {return m_standardTags[INDEX_ROUND];}
     public String getWhite()        {return m_standardTags[INDEX_WHITE];}
     public String getBlack()        {return m_standardTags[INDEX_BLACK];}
-    public String getResultStr()    {return m_standardTags[INDEX_RESULT];}
-    public String getWhiteEloStr()  {return m_standardTags[INDEX_WHITE_ELO];}
-    public String getBlackEloStr()  {return m_standardTags[INDEX_BLACK_ELO];}
-    public String getEventDate()    {return m_standardTags[INDEX_EVENT_DATE];}
-    public String getECO()          {return m_standardTags[INDEX_ECO];}
+    public String getResultStr()    {return getStandardTag(INDEX_RESULT);}
+    public String getWhiteEloStr()  {return getStandardTag(INDEX_WHITE_ELO);}
+    public String getBlackEloStr()  {return getStandardTag(INDEX_BLACK_ELO);}
+    public String getEventDate()    {return getStandardTag(INDEX_EVENT_DATE);}
+    public String getECO()          {return getStandardTag(INDEX_ECO);}
     
     public int getResult()
     {
         // TODO combine with PGNReader.isResultString
-        String result = getResultStr();
-        if      ("1-0".equals(result))     return Chess.RES_WHITE_WINS;
-        else if ("0-1".equals(result))     return Chess.RES_BLACK_WINS;
-        else if ("1/2-1/2".equals(result)) return Chess.RES_DRAW;
-        else if ("*".equals(result))       return Chess.RES_NOT_FINISHED;
-        else                               return Chess.NO_RES;
+        return m_result;
     }
     
     public int getWhiteElo()
     {
-        try {
-            String whiteElo = getWhiteEloStr();
-            if (whiteElo == null) return 0;  // =====>
-            return Integer.parseInt(whiteElo);
-        } catch (NumberFormatException ex) {
-            return 0;  // =====>
-        }
+        if (m_whiteElo != NO_ELO) return m_whiteElo;  // =====>
+        return parseElo(m_standardTags[INDEX_WHITE_ELO]);
     }
     
     public int getBlackElo()
+    {
+        if (m_blackElo != NO_ELO) return m_blackElo;  // =====>
+        return parseElo(m_standardTags[INDEX_BLACK_ELO]);
+    }
+    
+    private static int parseElo(String elo)
     {
         try {
-            String blackElo = getBlackEloStr();
-            if (blackElo == null) return 0;  // =====>
-            return Integer.parseInt(blackElo);
+            if (elo == null) return 0;  // =====>
+            return Integer.parseInt(elo);
         } catch (NumberFormatException ex) {
             return 0;  // =====>
         }
     }
+    
+    /**
+     * Returns the date in packed form, see {@link PGN#pgnDateToPackedDate}.
+     * Returns PGN.NO_PACKED_DATE if there is no date or it is not well-formed.
+     */
+    public int getPackedDate()      {return m_date;}
+    
+    public int getPackedEventDate() {return m_eventDate;}
+    
+    /**
+     * Returns the year of the game, 0 if unknown.
+     */
+    public int getYear()            {return PGN.getYearOfPackedDate(m_date);}
+    
+    /**
+     * Returns the eco code in packed form, see {@link PGN#ecoToPackedECO}.
+     * Returns PGN.NO_PACKED_ECO if there is no eco code or it is not well-formed.
+     */
+    public int getPackedECO()       {return m_eco;}
         
     /*================================================================================*/
     
@@ -237,7 +386,19 @@ public class GameHeaderModel
         
         if (mode <= MODE_STANDARD_TAGS) return;  // =====>
         
-        // NOT YET SUPPORTED
+        int numOfOtherTags = readVarInt(in);
+        for (int i = 0; i < numOfOtherTags; i++) {
+            int code = readVarInt(in);
+            String tagName;
+            if (code == 0) {
+                tagName = readString(in);
+            } else if (code <= COMMON_TAG_NAMES.length) {
+                tagName = COMMON_TAG_NAMES[code - 1];
+            } else {
+                throw new IOException("Illegal tag code " + code);
+            }
+            setTag(tagName, readString(in));
+        }
     }
     
     private void writeUTFNonNull(DataOutput out, String s) throws IOException
@@ -264,7 +425,68 @@ public class GameHeaderModel
         
         if (mode <= MODE_STANDARD_TAGS) return;  // =====>
         
-        // NOT YET SUPPORTED
+        writeVarInt(out, m_numOfOtherTags);
+        for (int i = 0; i < m_numOfOtherTags; i++) {
+            int code = getCommonTagCode(m_otherTags[i]);
+            writeVarInt(out, code);
+            if (code == 0) writeString(out, m_otherTags[i]);
+            writeString(out, m_otherTagValues[i]);
+        }
+    }
+    
+    /*================================================================================*/
+    // compact encoding of non-standard tags
+    
+    private static int getCommonTagCode(String tagName)
+    {
+        for (int i = 0; i < COMMON_TAG_NAMES.length; i++) {
+            if (COMMON_TAG_NAMES[i].equals(tagName)) return i + 1;
+        }
+        return 0;
+    }
+    
+    private static void writeVarInt(DataOutput out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    private static int readVarInt(DataInput in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;  // =====>
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+    
+    /**
+     * Writes the string as its UTF-8 byte length followed by the bytes. Like
+     * for the standard tags, null is written as the empty string.
+     */
+    private static void writeString(DataOutput out, String s) throws IOException
+    {
+        if (s == null || s.length() == 0) {
+            writeVarInt(out, 0);
+        } else {
+            byte[] bytes = s.getBytes(UTF8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    private static String readString(DataInput in) throws IOException
+    {
+        int length = readVarInt(in);
+        if (length == 0) return null;  // =====>
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
     }
     
     /*================================================================================*/
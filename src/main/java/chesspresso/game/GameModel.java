@@ -14,6 +14,8 @@
 
 package chesspresso.game;
 
+import chesspresso.pgn.PGN;
+import chesspresso.position.*;
 import java.io.*;
 
 /**
@@ -50,6 +52,23 @@ public class GameModel
     public GameHeaderModel getHeaderModel() {return m_headerModel;}
     public GameMoveModel getMoveModel() {return m_moveModel;}
     
+    /**
+     * Sets the position to the start position of the game, which is the
+     * position of the FEN tag if present, the standard start position
+     * otherwise. Allows to replay many games on the same position object.
+     *
+     * @throws IllegalArgumentException if the FEN tag is malformed
+     */
+    public void initStartPosition(MutablePosition position) throws IllegalArgumentException
+    {
+        String fen = m_headerModel.getTag(PGN.TAG_FEN);
+        if (fen != null) {
+            FEN.initFromFEN(position, fen, false);
+        } else {
+            position.setStart();
+        }
+    }
+    
     /*================================================================================*/
 
     public void load(DataInput in, int headerMode, int movesMode) throws IOException
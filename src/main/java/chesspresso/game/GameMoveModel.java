@@ -16,6 +16,7 @@ package chesspresso.game;
 
 import chesspresso.*;
 import chesspresso.position.NAG;
+import chesspresso.position.Position;
 import chesspresso.move.*;
 import java.io.*;
 import java.util.*;
@@ -54,9 +55,18 @@ public class GameMoveModel
     
     //======================================================================
     
+    // The values are kept in a gap buffer: value i is stored at m_moves[i] before
+    // the gap and at m_moves[i + m_gapLength] after it. Insertions move the gap
+    // to the insertion point, so editing near the current move does not shift
+    // the rest of the game. The last element of m_moves is a LINE_END guard.
     private short[] m_moves;
     private int m_size;
+    private int m_gapStart;
+    private int m_gapLength;
     private int m_hashCode;
+    private volatile Navigation m_navigation;  // built on demand, dropped on changes
+    private int m_numOfQueries;       // navigation queries since the last change, counted loosely
+    private int m_modCount;           // increased on every change
 
     //======================================================================
     
@@ -66,6 +76,9 @@ public class GameMoveModel
         m_moves[0] = LINE_START;
         m_moves[1] = LINE_END;
         m_size = 2;
+        m_gapStart = m_size;
+        m_gapLength = m_moves.length - m_size - 1;
+        m_moves[m_moves.length - 1] = LINE_END;
         m_hashCode = 0;
     }
 
@@ -75,6 +88,56 @@ public class GameMoveModel
         m_hashCode = 0;  // TODO: store in file?
     }
     
+    //======================================================================
+    // gap buffer
+    
+    private short get(int index)
+    {
+        return m_moves[index < m_gapStart ? index : index + m_gapLength];
+    }
+    
+    private void set(int index, short value)
+    {
+        m_moves[index < m_gapStart ? index : index + m_gapLength] = value;
+    }
+    
+    private void moveGap(int index)
+    {
+        if (index < m_gapStart) {
+            System.arraycopy(m_moves, index, m_moves, index + m_gapLength, m_gapStart - index);
+        } else if (index > m_gapStart) {
+            System.arraycopy(m_moves, m_gapStart + m_gapLength, m_moves, m_gapStart, index - m_gapStart);
+        }
+        m_gapStart = index;
+    }
+    
+    /**
+     * Inserts num NO_MOVEs at index. Only the values between the gap and the
+     * index are moved.
+     */
+    private void insertNoMoves(int index, int num)
+    {
+        if (DEBUG) {
+            System.out.println("insertNoMoves " + index + " " + num);
+            write(System.out);
+        }
+        
+        moveGap(index);
+        if (m_gapLength < num) {
+            short[] newMoves = new short[Math.max(2 * m_moves.length, m_moves.length + num)];
+            int tail = m_moves.length - (m_gapStart + m_gapLength);
+            System.arraycopy(m_moves, 0, newMoves, 0, m_gapStart);
+            System.arraycopy(m_moves, m_gapStart + m_gapLength, newMoves, newMoves.length - tail, tail);
+            m_gapLength += newMoves.length - m_moves.length;
+            m_moves = newMoves;
+        }
+        java.util.Arrays.fill(m_moves, m_gapStart, m_gapStart + num, NO_MOVE);
+        m_gapStart += num;
+        m_gapLength -= num;
+        m_size += num;
+        if (DEBUG) write(System.out);
+    }
+    
     //======================================================================
     // invariant checking
     
@@ -82,8 +145,8 @@ public class GameMoveModel
     {
         if (index < 0) throw new RuntimeException("Illegal index " + index);
         if (index >= m_size) throw new RuntimeException("Illegal index " + index + " m_size=" + m_size);
-        if (m_moves[index] != LINE_START && !isMoveValue(m_moves[index]))
-            throw new RuntimeException("No move at index " + index + " move=" + valueToString(m_moves[index]));
+        if (get(index) != LINE_START && !isMoveValue(get(index)))
+            throw new RuntimeException("No move at index " + index + " move=" + valueToString(get(index)));
     }
     
     //======================================================================
@@ -100,6 +163,139 @@ public class GameMoveModel
     private void changed()
     {
         m_hashCode = 0;
+        m_navigation = null;
+        m_numOfQueries = 0;
+        m_modCount++;
+    }
+    
+    /**
+     * Returns a counter which is increased whenever the model is changed or
+     * packed. Information derived from node indices, like cached positions,
+     * is only valid as long as the counter stays the same.
+     *
+     *@return the modification count
+     */
+    public int getModCount()
+    {
+        return m_modCount;
+    }
+    
+    //======================================================================
+    // navigation index
+    
+    /**
+     * The game tree of the moves, built in one pass over the values. Only
+     * index 0 and the indices of moves are indexed, other cursors are handled
+     * by scanning the values.
+     *
+     * The index is only built for models which are queried repeatedly
+     * without being changed, see {@link #MIN_QUERIES_FOR_NAVIGATION}; the
+     * edit methods and the walks along the main line scan. Several threads
+     * may read an unchanged model at the same time: the index is published
+     * through a volatile field, and threads building it at the same time
+     * build equal indices.
+     */
+    private static final class Navigation
+    {
+        static final int NOT_INDEXED = Integer.MIN_VALUE;
+        
+        final int[] m_parents;       // previous move, 0 for the first moves of the game
+        final int[] m_children;      // as goForward(index), NOT_INDEXED if index is not indexed
+        final int[] m_siblings;      // next alternative to the move, -1 if there is none
+        final int[] m_depths;        // number of plies to the root
+        final boolean[] m_firstInLine;  // first move of a line other than the main line
+        
+        Navigation(int size)
+        {
+            m_parents = new int[size];
+            m_children = new int[size];
+            m_siblings = new int[size];
+            m_depths = new int[size];
+            m_firstInLine = new boolean[size];
+            java.util.Arrays.fill(m_children, NOT_INDEXED);
+        }
+        
+        boolean isIndexed(int index) {return index >= 0 && index < m_children.length && m_children[index] != NOT_INDEXED;}
+    }
+    
+    /**
+     * The number of navigation queries after a change before the index is
+     * built. Games being entered or read ask a few questions per move only,
+     * they would pay a full build per move.
+     */
+    private static final int MIN_QUERIES_FOR_NAVIGATION = 16;
+    
+    /**
+     * Stands for the index of a model for which none can be built, so that
+     * it is not built again on every query.
+     */
+    private static final Navigation NO_NAVIGATION = new Navigation(0);
+    
+    /**
+     * Returns the navigation index, or null if there is none.
+     *
+     * @param query whether the call is a navigation query from outside, which
+     *              builds the index once there have been enough of them
+     */
+    private Navigation getNavigation(boolean query)
+    {
+        Navigation navigation = m_navigation;
+        if (navigation == null && query && ++m_numOfQueries >= MIN_QUERIES_FOR_NAVIGATION) {
+            navigation = buildNavigation();
+            if (navigation == null) navigation = NO_NAVIGATION;
+            m_navigation = navigation;
+        }
+        return navigation;
+    }
+    
+    private Navigation buildNavigation()
+    {
+        Navigation nav = new Navigation(m_size);
+        // per level: the last move of the line (initially the parent of its first move),
+        // whether the next move of the last move is still to be found,
+        // the last alternative to the last move, whether the first move of the line is still to come
+        int[] last = new int[16], alt = new int[16];
+        boolean[] open = new boolean[16], firstToCome = new boolean[16];
+        int level = 0;
+        last[0] = 0; open[0] = true; alt[0] = -1;
+        nav.m_children[0] = m_size - 1;
+        for (int index = 1; index < m_size; index++) {
+            short value = get(index);
+            if (isMoveValue(value)) {
+                int parent = last[level];
+                nav.m_parents[index] = parent;
+                nav.m_depths[index] = nav.m_depths[parent] + 1;
+                nav.m_siblings[index] = -1;
+                nav.m_children[index] = m_size - 1;  // until the next move or line end is seen
+                if (open[level]) nav.m_children[parent] = index;
+                if (firstToCome[level]) {
+                    nav.m_firstInLine[index] = true;
+                    nav.m_siblings[alt[level - 1]] = index;
+                    alt[level - 1] = index;
+                    firstToCome[level] = false;
+                }
+                last[level] = index; open[level] = true; alt[level] = index;
+            } else if (value == LINE_START) {
+                if (firstToCome[level] || alt[level] == -1) return null;  // =====> line without a move to replace
+                level++;
+                if (level >= last.length) {
+                    last = java.util.Arrays.copyOf(last, 2 * level);
+                    alt = java.util.Arrays.copyOf(alt, 2 * level);
+                    open = java.util.Arrays.copyOf(open, 2 * level);
+                    firstToCome = java.util.Arrays.copyOf(firstToCome, 2 * level);
+                }
+                last[level] = nav.m_parents[last[level - 1]];
+                open[level] = false; alt[level] = -1; firstToCome[level] = true;
+            } else if (value == LINE_END) {
+                if (firstToCome[level]) return null;  // =====> empty line
+                if (open[level]) nav.m_children[last[level]] = index;
+                if (level == 0) break;
+                level--;
+            } else if (value == COMMENT_START) {
+                index = skipComment(index);
+            }
+        }
+        return nav;
     }
     
     //======================================================================
@@ -115,7 +311,7 @@ public class GameMoveModel
         short value;
         do {
             index++;
-            value = m_moves[index];
+            value = get(index);
             if (value == nagValue) return true;
         } while (isNagValue(value));
         
@@ -125,17 +321,17 @@ public class GameMoveModel
     public short[] getNags(int index)
     {
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " move=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " move=" + valueToString(get(index)));
         
         int num = 0;
-        while (isNagValue(m_moves[index + 1])) {index++; num++;}
+        while (isNagValue(get(index + 1))) {index++; num++;}
         if (num == 0) {
             return null;
         } else {
             short[] nags = new short[num];
             // collect nags from back to front (most recently added last)
-            for (int i = 0; i < num; i++) nags[i] = getNagForValue(m_moves[index - i]);
+            for (int i = 0; i < num; i++) nags[i] = getNagForValue(get(index - i));
             return nags;
         }
     }
@@ -148,11 +344,11 @@ public class GameMoveModel
         }
         
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
-        makeSpace(index + 1, 1, false);  // most recent nag first
-        m_moves[index + 1] = getValueForNag(nag);
+        makeSpace(index + 1, 1);  // most recent nag first
+        set(index + 1, getValueForNag(nag));
         changed();
         
         if (DEBUG) write(System.out);
@@ -166,21 +362,26 @@ public class GameMoveModel
         }
         
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
         short nagValue = getValueForNag(nag);
         short value;
         boolean changed = false;
         do {
             index++;
-            value = m_moves[index];
+            value = get(index);
             if (value == nagValue) {
-                while (isNagValue(m_moves[index + 1])) {
-                    m_moves[index] = m_moves[index + 1];
+                while (isNagValue(get(index + 1))) {
+                    set(index, get(index + 1));
                     index++;
                 }
-                m_moves[index] = NO_MOVE;
+                if (get(index + 1) == COMMENT_START) {
+                    // keep the comment next to the nags, getComment does not skip no moves
+                    int end = skipComment(index + 1);
+                    for (; index < end; index++) set(index, get(index + 1));
+                }
+                set(index, NO_MOVE);
                 changed = true;
                 break;
             }
@@ -195,12 +396,12 @@ public class GameMoveModel
     
     private int skipComment(int index)
     {
-        if (m_moves[index] == COMMENT_START) {
-            while (m_moves[index] != COMMENT_END) index++;
-        } else if (m_moves[index] == COMMENT_END) {
-            while (m_moves[index] != COMMENT_START) index--;
+        if (get(index) == COMMENT_START) {
+            while (get(index) != COMMENT_END) index++;
+        } else if (get(index) == COMMENT_END) {
+            while (get(index) != COMMENT_START) index--;
         } else {
-            throw new RuntimeException("No comment start or end at index " + index + " move " + valueToString(m_moves[index]));
+            throw new RuntimeException("No comment start or end at index " + index + " move " + valueToString(get(index)));
         }
         return index;
     }
@@ -208,17 +409,17 @@ public class GameMoveModel
     public String getComment(int index)
     {
         if (EXTRA_CHECKS)
-            if (!isMoveValue(m_moves[index]) && index != 0)  // comment at index 0 allowed
-                throw new RuntimeException("No move at index " + index + " move=" + valueToString(m_moves[index]));
+            if (!isMoveValue(get(index)) && index != 0)  // comment at index 0 allowed
+                throw new RuntimeException("No move at index " + index + " move=" + valueToString(get(index)));
         
         // skip all nags
-        while(isNagValue(m_moves[index + 1])) index++;
+        while(isNagValue(get(index + 1))) index++;
         
-        if (m_moves[index + 1] == COMMENT_START) {
+        if (get(index + 1) == COMMENT_START) {
             index += 2;
             StringBuffer sb = new StringBuffer();
-            while (m_moves[index] != COMMENT_END) {
-                sb.append((char)m_moves[index]);
+            while (get(index) != COMMENT_END) {
+                sb.append((char)get(index));
                 index++;
             }
             return sb.toString();
@@ -235,21 +436,21 @@ public class GameMoveModel
         }
         
         if (EXTRA_CHECKS)
-            if (index != 0 && !isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (index != 0 && !isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
         if (comment == null || comment.length() == 0) return false;  // =====>
         
         // allow comments before first move (index == 0)
         if (index != 0) {
-            while(isNagValue(m_moves[index + 1])) index++;
+            while(isNagValue(get(index + 1))) index++;
         }
-        makeSpace(index + 1, comment.length() + 2, false);
-        m_moves[index + 1] = COMMENT_START;
+        makeSpace(index + 1, comment.length() + 2);
+        set(index + 1, COMMENT_START);
         for (int i = 0; i < comment.length(); i++) {
-            m_moves[index + 2 + i] = (short)comment.charAt(i);
+            set(index + 2 + i, (short)comment.charAt(i));
         }
-        m_moves[index + comment.length() + 2] = COMMENT_END;
+        set(index + comment.length() + 2, COMMENT_END);
         changed();
         
         if (DEBUG) write(System.out);
@@ -264,17 +465,17 @@ public class GameMoveModel
         }
         
         if (EXTRA_CHECKS)
-            if (index != 0 && !isMoveValue(m_moves[index]))
-                throw new RuntimeException("No move at index " + index + " val=" + valueToString(m_moves[index]));
+            if (index != 0 && !isMoveValue(get(index)))
+                throw new RuntimeException("No move at index " + index + " val=" + valueToString(get(index)));
         
         // allow comments before first move (index == 0)
         if (index != 0) {
-            while(isNagValue(m_moves[index + 1])) index++;
+            while(isNagValue(get(index + 1))) index++;
         }
         boolean isChanged = false;
-        if (m_moves[index + 1] == COMMENT_START) {
+        if (get(index + 1) == COMMENT_START) {
             for (int i = skipComment(index + 1); i > index; i--) {
-                m_moves[i] = NO_MOVE;
+                set(i, NO_MOVE);
             }
             isChanged = true;
         }
@@ -295,7 +496,7 @@ public class GameMoveModel
     public boolean hasLines()
     {
         for (int i=1; i<m_size; i++) {
-            if (m_moves[i] == LINE_START) return true;
+            if (get(i) == LINE_START) return true;
         }
         return false;
     }
@@ -304,17 +505,39 @@ public class GameMoveModel
     {
         int num = 0;
         for (int index = 0; index < m_size; index++) {
-            if (isMoveValue(m_moves[index])) num++;
+            if (isMoveValue(get(index))) num++;
         }
         return num;
     }
     
+    public int getNumOfMainLinePlies()
+    {
+        int num = 0;
+        Navigation nav = getNavigation(false);
+        for (int index = goForward(0, nav); get(index) != LINE_END; index = goForward(index, nav)) num++;
+        return num;
+    }
+    
+    /**
+     * Returns the moves of the main line, without lines, comments and nags.
+     */
+    public short[] getMainLine()
+    {
+        short[] moves = new short[getNumOfMainLinePlies()];
+        int num = 0;
+        Navigation nav = getNavigation(false);
+        for (int index = goForward(0, nav); get(index) != LINE_END; index = goForward(index, nav)) {
+            moves[num++] = get(index);
+        }
+        return moves;
+    }
+    
     public int getTotalCommentSize()
     {
         boolean inComment = false;
         int num = 0;
         for (int i=0; i<m_size; i++) {
-            short move = m_moves[i];
+            short move = get(i);
             if (move == COMMENT_END)   inComment = false;
             if (inComment) num++;
             if (move == COMMENT_START) inComment = true;
@@ -325,7 +548,7 @@ public class GameMoveModel
     public short getMove(int index)
     {
         if (index >= 0 && index < m_size) {
-            short move = m_moves[index];
+            short move = get(index);
             return (isMoveValue(move) ? move : NO_MOVE);
         } else {
             return NO_MOVE;
@@ -360,6 +583,11 @@ public class GameMoveModel
      *@return -1 if at the beginning of a line
      */
     public int goBack(int index, boolean gotoMainLine)
+    {
+        return goBack(index, gotoMainLine, getNavigation(true));
+    }
+    
+    private int goBack(int index, boolean gotoMainLine, Navigation nav)
     {
         if (DEBUG) {
             System.out.println("goBack " + index + " " + gotoMainLine);
@@ -371,18 +599,22 @@ public class GameMoveModel
         
         if (index <= 0) return -1;  // =====>
         
+        if (nav != null && nav.isIndexed(index)) {
+            return (!gotoMainLine && nav.m_firstInLine[index] ? -1 : nav.m_parents[index]);  // =====>
+        }
+        
         index--;
         int level = 0;
         while (index > 0) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (move == LINE_START)   {
                 level--;
                 if (level == -1) {
                     if (!gotoMainLine) {
                         index = -1; break;
                     } else {
-                        index = goBack(index, false);  // now at main line's move
-                        index = goBack(index, false);  // now one move back
+                        index = goBack(index, false, nav);  // now at main line's move
+                        index = goBack(index, false, nav);  // now one move back
                         break;
                     }
                 }
@@ -415,6 +647,11 @@ public class GameMoveModel
      * points to a LINE_END, where a next move should be inserted.
      */
     public int goForward(int index)
+    {
+        return goForward(index, getNavigation(true));
+    }
+    
+    private int goForward(int index, Navigation nav)
     {
         if (DEBUG) {
             System.out.println("goForward " + index);
@@ -424,13 +661,15 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
-//        if (index >= 0 && m_moves[index] == LINE_END) return index;  // =====>
+//        if (index >= 0 && get(index) == LINE_END) return index;  // =====>
 //        if (index >= m_size - 1) return index;  // =====>
         
+        if (nav != null && nav.isIndexed(index)) return nav.m_children[index];  // =====>
+        
         index++;
         int level = 0;
         while (index < m_size - 1) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (move == LINE_START)     level++;
             else if (move == LINE_END)      {level--; if (level < 0) break;}
             else if (isNagValue(move))       ;
@@ -445,6 +684,11 @@ public class GameMoveModel
     }
     
     public int goForward(int index, int whichLine)
+    {
+        return goForward(index, whichLine, getNavigation(true));
+    }
+    
+    private int goForward(int index, int whichLine, Navigation nav)
     {
         if (DEBUG) {
             System.out.println("goForward " + index + " " + whichLine);
@@ -454,12 +698,20 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
-        index = goForward(index);
-        if (m_moves[index] != LINE_END && whichLine > 0) {
+        if (nav != null && nav.isIndexed(index)) {
+            int move = nav.m_children[index];
+            if (get(move) == LINE_END) return move;  // =====>
+            for (int i = 0; i < whichLine && move != -1; i++) move = nav.m_siblings[move];
+            if (move != -1) return move;  // =====>
+            // not enough lines, scan as below
+        }
+        
+        index = goForward(index, nav);
+        if (get(index) != LINE_END && whichLine > 0) {
             index++;
             int level = 0;
             while (index < m_size - 1) {
-                short move = m_moves[index];
+                short move = get(index);
                 if      (move == LINE_START)          {level++; if (level == 1) whichLine--;}
                 else if (move == LINE_END)            {level--; if (level < 0) break;}
                 else if (isNagValue(move))             ;
@@ -476,6 +728,11 @@ public class GameMoveModel
     }
     
     public int getNumOfNextMoves(int index)
+    {
+        return getNumOfNextMoves(index, getNavigation(true));
+    }
+    
+    private int getNumOfNextMoves(int index, Navigation nav)
     {
         if (DEBUG) {
             System.out.println("getNumOfNextMoves " + index);
@@ -485,14 +742,22 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
-        index = goForward(index);
-        if (m_moves[index] == LINE_END) return 0;   // =====>
+        if (nav != null && nav.isIndexed(index)) {
+            int num = 0;
+            int move = nav.m_children[index];
+            if (get(move) == LINE_END) return 0;  // =====>
+            for (; move != -1; move = nav.m_siblings[move]) num++;
+            return num;  // =====>
+        }
+        
+        index = goForward(index, nav);
+        if (get(index) == LINE_END) return 0;   // =====>
 
         index++;
         int numOfMoves = 1;
         int level = 0;
         while (index < m_size && level >= 0) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (move == LINE_START)    level++;
             else if (move == LINE_END)     {level--; if (level == 0) numOfMoves++;}
             else if (isNagValue(move))      ;
@@ -507,6 +772,11 @@ public class GameMoveModel
     }
     
     public boolean hasNextMove(int index)
+    {
+        return hasNextMove(index, getNavigation(true));
+    }
+    
+    private boolean hasNextMove(int index, Navigation nav)
     {
         if (DEBUG) {
             System.out.println("hasNextMove " + index);
@@ -516,16 +786,102 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
-        boolean nextMove = isMoveValue(m_moves[goForward(index)]);
+        boolean nextMove = isMoveValue(get(goForward(index, nav)));
         if (DEBUG) System.out.println("  --> " + nextMove);
         return (nextMove);
     }
     
+    /**
+     * Returns the number of plies from the start of the game to the move at
+     * the index.
+     */
+    public int getNumOfPliesToRoot(int index)
+    {
+        Navigation nav = getNavigation(true);
+        if (nav != null && nav.isIndexed(index)) return nav.m_depths[index];  // =====>
+        
+        int plies = 0;
+        while (index > 0) {
+            index = goBack(index, true, nav);
+            plies++;
+        }
+        return plies;
+    }
+    
+    //======================================================================
+    
+    /**
+     * Replays the moves in one pass over the model, in the order of
+     * {@link Game#traverse}. The position must be at the start position of
+     * the game and is returned to it.
+     *
+     * @param replayer the replayer whose current move index is kept up to date
+     * @param levels scratch space for the moves played per level, grown if needed
+     * @return the scratch space, possibly grown
+     */
+    int[] replay(Position position, GameMoveVisitor visitor, boolean withLines, GameReplayer replayer, int[] levels)
+        throws IllegalMoveException
+    {
+        // per level: number of moves of the line currently played, the last move of the line
+        int level = 0;
+        levels[0] = 0; levels[1] = Move.NO_MOVE;
+        try {
+            for (int index = 1; index < m_size; index++) {
+                short value = get(index);
+                if (isMoveValue(value)) {
+                    int plyNumber = position.getPlyNumber();
+                    position.doMove(value);
+                    levels[2 * level]++;
+                    levels[2 * level + 1] = value;
+                    replayer.setMoveIndex(index);
+                    visitor.visitMove(value, plyNumber, level, position);
+                } else if (value == LINE_START) {
+                    if (!withLines) {
+                        index = skipLine(index);
+                        continue;
+                    }
+                    position.undoMove();  // the line is an alternative to the last move
+                    levels[2 * level]--;
+                    visitor.visitLineStart(level);
+                    level++;
+                    if (2 * level + 1 >= levels.length) levels = Arrays.copyOf(levels, 2 * levels.length);
+                    levels[2 * level] = 0; levels[2 * level + 1] = Move.NO_MOVE;
+                } else if (value == LINE_END) {
+                    if (level == 0) break;
+                    for (; levels[2 * level] > 0; levels[2 * level]--) position.undoMove();
+                    level--;
+                    position.doMove((short)levels[2 * level + 1]);
+                    levels[2 * level]++;
+                    visitor.visitLineEnd(level);
+                } else if (value == COMMENT_START) {
+                    index = skipComment(index);
+                }
+            }
+        } finally {
+            // back to the start, also if the visitor or an illegal move interrupted the replay
+            for (; level >= 0; level--) {
+                for (int i = levels[2 * level]; i > 0; i--) position.undoMove();
+            }
+        }
+        return levels;
+    }
+    
+    private int skipLine(int index)
+    {
+        int level = 0;
+        for (;; index++) {
+            short value = get(index);
+            if      (value == LINE_START)    level++;
+            else if (value == LINE_END)     {level--; if (level == 0) return index;}
+            else if (value == COMMENT_START) index = skipComment(index);
+        }
+    }
+    
     //======================================================================
     
     private int findEarliestNoMove(int index)
     {
-        while (index > 1 && m_moves[index - 1] == NO_MOVE) index--;
+        while (index > 1 && get(index - 1) == NO_MOVE) index--;
         return index;
     }
 
@@ -534,30 +890,14 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             if (index < 1 || index > m_size)
                 throw new RuntimeException("Index out of bounds " + index);
-            else if (m_moves[index] != NO_MOVE)
+            else if (get(index) != NO_MOVE)
                 throw new RuntimeException("Expected no move  " + index);
         
-        while (index > 0 && m_moves[index - 1] == NO_MOVE) index--;
+        while (index > 0 && get(index - 1) == NO_MOVE) index--;
         return index;
     }
 
-    private void enlarge(int index, int size)
-    {
-        if (DEBUG) {
-            System.out.println("enlarge " + index + " " + size);
-            write(System.out);
-        }
-        
-        short[] newMoves = new short[m_moves.length + size];
-        System.arraycopy(m_moves, 0, newMoves, 0, index);
-        System.arraycopy(m_moves, index, newMoves, index + size, m_size - index);
-        java.util.Arrays.fill(newMoves, index, index + size, NO_MOVE);
-        m_moves = newMoves;
-        m_size += size;
-        if (DEBUG) write(System.out);
-    }
-    
-    private void makeSpace(int index, int spaceNeeded, boolean possiblyMakeMore)
+    private void makeSpace(int index, int spaceNeeded)
     {
         if (DEBUG) {
             System.out.println("makeSpace " + index + " " + spaceNeeded);
@@ -569,16 +909,9 @@ public class GameMoveModel
                 throw new RuntimeException("Index out of bounds " + index + " size=" + m_size);
         
         for (int i = 0; i < spaceNeeded; i++) {
-            if (m_moves[index + i] != NO_MOVE) {
+            if (get(index + i) != NO_MOVE) {
                 // not enough space, make it
-                if (m_size + spaceNeeded - i >= m_moves.length) {
-                    int size = (spaceNeeded - i  < 8 && possiblyMakeMore ? 8 : spaceNeeded - i);
-                    enlarge(index, size);
-                } else {
-                    System.arraycopy(m_moves, index + i, m_moves, index + spaceNeeded, m_size - (index + i));
-                    java.util.Arrays.fill(m_moves, index + i, index + spaceNeeded, NO_MOVE);
-                    m_size += spaceNeeded - i;
-                }
+                insertNoMoves(index + i, spaceNeeded - i);
                 break;
             }
         }
@@ -595,23 +928,25 @@ public class GameMoveModel
         if (EXTRA_CHECKS)
             checkLegalCursor(index);
         
-        if (hasNextMove(index)) {
-            index = goForward(index);  // go to the move for which an alternative is entered
-            index = goForward(index);  // go to the end of all existing lines
+        // edits scan, building the index here would cost a full pass per move
+        Navigation nav = getNavigation(false);
+        if (hasNextMove(index, nav)) {
+            index = goForward(index, nav);  // go to the move for which an alternative is entered
+            index = goForward(index, nav);  // go to the end of all existing lines
             index = findEarliestNoMove(index);
-            makeSpace(index, 3, true);
-            m_moves[index]     = LINE_START;
-            m_moves[index + 1] = move;
-            m_moves[findLatestNoMove(index + 2)] = LINE_END;
+            makeSpace(index, 3);
+            set(index, LINE_START);
+            set(index + 1, move);
+            set(findLatestNoMove(index + 2), LINE_END);
             if (DEBUG) write(System.out);
             if (DEBUG) System.out.println("  --> " + index);
             changed();
             return index + 1;
         } else {
-            index = goForward(index);
+            index = goForward(index, nav);
             index = findEarliestNoMove(index);
-            makeSpace(index, 1, true);
-            m_moves[index] = move;
+            makeSpace(index, 1);
+            set(index, move);
             if (DEBUG) write(System.out);
             if (DEBUG) System.out.println("  --> " + index);
             changed();
@@ -634,23 +969,23 @@ public class GameMoveModel
         
         // check if we stand at a line start
         for (int i=1; i<index; i++) {
-            short move = m_moves[index - i];
+            short move = get(index - i);
             if      (move == LINE_START) {index -= i; deleteLineEnd = true; level = -1; break;}
             else if (move != NO_MOVE)     break;
         }
         
         boolean inComment = false;
         while (index < m_size) {
-            short move = m_moves[index];
+            short move = get(index);
             if      (!inComment && move == LINE_START) level++;
             else if (!inComment && move == LINE_END)   level--;
             else if (move == COMMENT_START)            inComment = true;
             else if (move == COMMENT_END)              inComment = false;
             if (level == -1) {
-                if (deleteLineEnd) m_moves[index] = NO_MOVE;
+                if (deleteLineEnd) set(index, NO_MOVE);
                 break;
             }
-            m_moves[index] = NO_MOVE;
+            set(index, NO_MOVE);
             index++;
         }
         changed();
@@ -668,14 +1003,14 @@ public class GameMoveModel
         
         int newSize = 0;
         for (int i=0; i<m_size; i++) {
-            if (m_moves[i] != NO_MOVE) newSize++;
+            if (get(i) != NO_MOVE) newSize++;
         }
         
         short[] newMoves = new short[newSize + 1];
         int j = 0;
         boolean inComment = false;
         for (int i=0; i<m_size; i++) {
-            short move = m_moves[i];
+            short move = get(i);
             if      (move == COMMENT_START) inComment = true;
             else if (move == COMMENT_END)   inComment = false;
             if (inComment || (move != NO_MOVE)) {
@@ -687,6 +1022,10 @@ public class GameMoveModel
         m_moves = newMoves;
         m_moves[newSize] = LINE_END;
         m_size = newSize;
+        m_gapStart = m_size;
+        m_gapLength = 0;
+        m_navigation = null;
+        m_modCount++;
         
         if (DEBUG) write(System.out);
         if (DEBUG) System.out.println("  --> " + index);
@@ -699,7 +1038,9 @@ public class GameMoveModel
     public void load(DataInput in, int mode) throws IOException
     {
         m_size = in.readInt() + 2;
-        m_moves = new short[m_size];
+        m_moves = new short[m_size + 1];
+        m_gapStart = m_size;
+        m_gapLength = 0;
         byte[] data = new byte[2 * (m_size - 2)];
         in.readFully(data);
         for (int i = 1; i < m_size - 1; i++) {
@@ -709,6 +1050,7 @@ public class GameMoveModel
         }
         m_moves[0]          = LINE_START;
         m_moves[m_size - 1] = LINE_END;
+        m_moves[m_size]     = LINE_END;
         changed();
         if (DEBUG) write(System.out);
     }
@@ -719,7 +1061,7 @@ public class GameMoveModel
         out.writeInt(m_size - 2);
         byte[] data = new byte[2 * (m_size - 2)];
         for (int i = 1; i < m_size - 1; i++) {
-            short m = m_moves[i];
+            short m = get(i);
             // copied from RandomAccesFile.writeShort
             data[2*i - 2] = (byte)((m >>> 8) & 0xFF);
             data[2*i - 1] = (byte)((m >>> 0) & 0xFF);
@@ -745,12 +1087,12 @@ public class GameMoveModel
     {
         boolean inComment = false;
         for (int i=0; i<m_size; i++) {
-            short move = m_moves[i];
+            short move = get(i);
             if (move == COMMENT_END)   inComment = false;
             if (inComment) {
                 out.print((char)move);
             } else {
-                out.print(valueToString(m_moves[i]));
+                out.print(valueToString(get(i)));
                 out.print(" ");
             }
             if ((i % 20) == 19) out.println();
@@ -776,8 +1118,9 @@ public class GameMoveModel
     {
         if (m_hashCode == 0) {
             int shift = 0;
-            for (int index = 0; ; index = goForward(index)) {
-                if (m_moves[index] == LINE_END) break;
+            Navigation nav = getNavigation(false);
+            for (int index = 0; ; index = goForward(index, nav)) {
+                if (get(index) == LINE_END) break;
                 short move = getMove(index);
 //                m_hashCode ^= move;
 //                m_hashCode += move;
@@ -805,16 +1148,17 @@ public class GameMoveModel
         if (gameMoveModel.getHashCode() != getHashCode()) return false;  // =====>
 //        s_fullCompare++; 
         
+        Navigation nav1 = getNavigation(false), nav2 = gameMoveModel.getNavigation(false);
         int index1 = 0, index2 = 0;
         for (;;) {
-            short move1 = m_moves[index1];
-            short move2 = gameMoveModel.m_moves[index2];
+            short move1 = get(index1);
+            short move2 = gameMoveModel.get(index2);
             if (move1 == LINE_END && move2 == LINE_END) return true;  // =====>
             if (move1 != move2) return false;  // =====>
 //            if (move1 == LINE_END && move2 == LINE_END) {s_true++; System.out.println(s_fullCompare + " / " + s_equals + " " + s_true + " " + s_false);return true;}  // =====>
 //            if (move1 != move2) {s_false++; System.out.println(s_fullCompare + " / " + s_equals + " " + s_true + " " + s_false);return false;}  // =====>
-            index1 = goForward(index1);
-            index2 = gameMoveModel.goForward(index2);
+            index1 = goForward(index1, nav1);
+            index2 = gameMoveModel.goForward(index2, nav2);
         }
     }
     
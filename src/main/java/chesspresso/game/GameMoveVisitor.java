@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import chesspresso.position.ImmutablePosition;
+
+/**
+ * Low-level visitor for the moves of a game, see {@link GameReplayer}.
+ *
+ * Unlike {@link GameListener}, the visitor gets the plain move and the
+ * position after the move, no {@link chesspresso.move.Move} objects, nags or
+ * comments. These can be requested from the replayer while a move is visited.
+ */
+public interface GameMoveVisitor
+{
+    /**
+     * Called for every move.
+     *
+     * @param move the move
+     * @param plyNumber the ply number of the position before the move
+     * @param level the line level, 0 for the main line
+     * @param position the position after the move, only valid during the call
+     *        and must not be changed
+     */
+    public void visitMove(short move, int plyNumber, int level, ImmutablePosition position);
+
+    /**
+     * Called before the first move of a line which is an alternative to the
+     * last visited move.
+     *
+     * @param level the level of the line the alternative is given for
+     */
+    public void visitLineStart(int level);
+
+    /**
+     * Called after the last move of a line.
+     *
+     * @param level the level of the line the alternative is given for
+     */
+    public void visitLineEnd(int level);
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+
+/**
+ * Replays games to a {@link GameMoveVisitor} without allocating objects per
+ * move.
+ *
+ * The replayer walks the {@link GameMoveModel} in a single pass and plays the
+ * moves on a position it keeps from game to game; lines are entered and left
+ * by undoing moves. Compared to {@link Game#traverse}, no
+ * {@link Move} objects, nag arrays or comment strings are built and check and
+ * mate are not computed. While a move is visited, these can be requested from
+ * the replayer:
+ * <pre>
+ *   final GameReplayer replayer = new GameReplayer();
+ *   replayer.replay(gameModel, new GameMoveVisitor() {
+ *       public void visitMove(short move, int plyNumber, int level, ImmutablePosition position)
+ *       {
+ *           if (level == 0 && replayer.isMate()) System.out.println(replayer.getMove());
+ *       }
+ *       public void visitLineStart(int level) {}
+ *       public void visitLineEnd(int level) {}
+ *   }, false);
+ * </pre>
+ *
+ * A replayer is not thread-safe; use one per thread.
+ */
+public class GameReplayer
+{
+
+    /**
+     * Collects the hash codes of the positions visited.
+     */
+    private static final class HashCodeCollector implements GameMoveVisitor
+    {
+        long[] m_hashCodes;
+        int m_num;
+
+        void add(long hashCode)
+        {
+            if (m_num < m_hashCodes.length) m_hashCodes[m_num] = hashCode;
+            m_num++;
+        }
+
+        public void visitMove(short move, int plyNumber, int level, ImmutablePosition position) {add(position.getHashCode());}
+        public void visitLineStart(int level) {}
+        public void visitLineEnd(int level) {}
+    }
+
+    /*================================================================================*/
+
+    private final Position m_position;
+    private boolean m_atStandardStart;   // position is at the standard start position and has no moves
+    private int[] m_levels;
+    private GameMoveModel m_moveModel;
+    private int m_moveIndex;
+    private final HashCodeCollector m_collector;
+
+    /*================================================================================*/
+
+    public GameReplayer()
+    {
+        m_position = new Position();
+        m_atStandardStart = false;
+        m_levels = new int[16];
+        m_moveModel = null;
+        m_moveIndex = -1;
+        m_collector = new HashCodeCollector();
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Replays the game.
+     *
+     * @param withLines whether to visit the lines too or the main line only
+     * @throws IllegalMoveException if the game contains an illegal move
+     * @throws IllegalArgumentException if the FEN tag of the game is malformed
+     */
+    public void replay(GameModel gameModel, GameMoveVisitor visitor, boolean withLines) throws IllegalMoveException
+    {
+        initStartPosition(gameModel);
+        replayFromStart(gameModel, visitor, withLines);
+    }
+
+    private void initStartPosition(GameModel gameModel)
+    {
+        if (gameModel.getHeaderModel().getTag(PGN.TAG_FEN) != null) {
+            gameModel.initStartPosition(m_position);
+            m_atStandardStart = false;
+        } else if (!m_atStandardStart) {
+            m_position.setStart();
+            m_atStandardStart = true;
+        }
+    }
+
+    private void replayFromStart(GameModel gameModel, GameMoveVisitor visitor, boolean withLines) throws IllegalMoveException
+    {
+        m_moveModel = gameModel.getMoveModel();
+        try {
+            m_levels = m_moveModel.replay(m_position, visitor, withLines, this, m_levels);
+        } finally {
+            m_moveModel = null;
+            m_moveIndex = -1;
+        }
+    }
+
+    void setMoveIndex(int index) {m_moveIndex = index;}
+
+    /*================================================================================*/
+
+    /**
+     * Returns the hash codes of the start position and the positions after
+     * each move, in the order the moves are visited by {@link #replay}. The
+     * moves are played on the position of the replayer, which has no
+     * listeners.
+     *
+     * @param hashCodes the array to store the hash codes in
+     * @param withLines whether to include the positions of the lines
+     * @return the number of positions of the game; if larger than the array,
+     *         only the first positions have been stored
+     * @throws IllegalMoveException if the game contains an illegal move; the
+     *         hash codes up to the illegal move have been stored
+     */
+    public int getHashCodes(GameModel gameModel, long[] hashCodes, boolean withLines) throws IllegalMoveException
+    {
+        HashCodeCollector collector = m_collector;
+        initStartPosition(gameModel);
+        collector.m_hashCodes = hashCodes;
+        collector.m_num = 0;
+        try {
+            collector.add(m_position.getHashCode());
+            replayFromStart(gameModel, collector, withLines);
+            return collector.m_num;
+        } finally {
+            collector.m_hashCodes = null;
+        }
+    }
+
+    /**
+     * Returns the hash codes of the start position and the positions after
+     * each move, see {@link #getHashCodes(GameModel, long[], boolean)}.
+     */
+    public long[] getHashCodes(GameModel gameModel, boolean withLines) throws IllegalMoveException
+    {
+        GameMoveModel moveModel = gameModel.getMoveModel();
+        int numOfPlies = (withLines ? moveModel.getTotalNumOfPlies() : moveModel.getNumOfMainLinePlies());
+        long[] hashCodes = new long[numOfPlies + 1];
+        getHashCodes(gameModel, hashCodes, withLines);
+        return hashCodes;
+    }
+
+    /*================================================================================*/
+    // information about the visited move, only valid in GameMoveVisitor.visitMove
+
+    private void checkInMove()
+    {
+        if (m_moveModel == null) throw new IllegalStateException("No move visited");
+    }
+
+    /**
+     * Returns the current position, i.e. the position after the visited move.
+     */
+    public ImmutablePosition getPosition() {return m_position;}
+
+    public boolean isCheck()   {checkInMove(); return m_position.isCheck();}
+    public boolean isMate()    {checkInMove(); return m_position.isMate();}
+
+    /**
+     * Returns the visited move with SAN information and check and mate flags.
+     */
+    public Move getMove()      {checkInMove(); return m_position.getLastLazyMove();}
+
+    /**
+     * Writes the SAN of the visited move into the buffer, see
+     * {@link Position#appendLastMoveSAN}.
+     *
+     * @return the offset after the SAN
+     */
+    public int appendSAN(byte[] buffer, int offset) {checkInMove(); return m_position.appendLastMoveSAN(buffer, offset);}
+
+    /**
+     * Returns the nags of the visited move, null if it has none.
+     */
+    public short[] getNags()   {checkInMove(); return m_moveModel.getNags(m_moveIndex);}
+
+    /**
+     * Returns the comment of the visited move, null if it has none.
+     */
+    public String getComment() {checkInMove(); return m_moveModel.getComment(m_moveIndex);}
+
+}
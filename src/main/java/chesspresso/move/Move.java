@@ -392,7 +392,15 @@ public class Move
     {
         if (obj instanceof Move) {
             Move move = (Move)obj;
-            return m_move == move.m_move && m_info == move.m_info;
+            if (getClass() == Move.class && move.getClass() == Move.class) {
+                return m_move == move.m_move && m_info == move.m_info;  // =====>
+            } else {
+                // subclasses may compute the information on demand
+                return m_move == move.m_move && isWhiteMove() == move.isWhiteMove()
+                    && getMovingPiece() == move.getMovingPiece()
+                    && getColFrom() == move.getColFrom() && getRowFrom() == move.getRowFrom()
+                    && isCheck() == move.isCheck() && isMate() == move.isMate();
+            }
         } else {
             return false;
         }
@@ -49,6 +49,100 @@ public abstract class PGN
         }
     }
     
+    //======================================================================
+    // packed pgn date: (year << 9) | (month << 5) | day, unknown parts are 0
+    
+    public static final int NO_PACKED_DATE = -1;
+    
+    /**
+     * Returns the packed form of a pgn date, or <code>NO_PACKED_DATE</code> if
+     * the string is not a well-formed date like "1992.08.31" or "1993.??.??".
+     * Only dates which can be reproduced exactly by
+     * <code>packedDateToPGNDate</code> are packed.
+     */
+    public static int pgnDateToPackedDate(String pgnDate)
+    {
+        if (pgnDate == null || pgnDate.length() != 10
+            || pgnDate.charAt(4) != TOK_PERIOD || pgnDate.charAt(7) != TOK_PERIOD) {
+            return NO_PACKED_DATE;  // =====>
+        }
+        int year  = getDatePart(pgnDate, 0, 4);
+        int month = getDatePart(pgnDate, 5, 7);
+        int day   = getDatePart(pgnDate, 8, 10);
+        if (year < 0 || month < 0 || month > 12 || day < 0 || day > 31) return NO_PACKED_DATE;  // =====>
+        return (year << 9) | (month << 5) | day;
+    }
+    
+    private static int getDatePart(String s, int from, int to)
+    {
+        if (s.charAt(from) == '?') {
+            for (int i = from; i < to; i++) if (s.charAt(i) != '?') return -1;  // =====>
+            return 0;
+        } else {
+            int value = 0;
+            for (int i = from; i < to; i++) {
+                char ch = s.charAt(i);
+                if (ch < '0' || ch > '9') return -1;  // =====>
+                value = 10 * value + (ch - '0');
+            }
+            return (value == 0 ? -1 : value);  // 0 is reserved for ??
+        }
+    }
+    
+    public static String packedDateToPGNDate(int packedDate)
+    {
+        if (packedDate == NO_PACKED_DATE) return null;  // =====>
+        char[] chars = new char[10];
+        setDatePart(chars, 0, 4, getYearOfPackedDate(packedDate));
+        chars[4] = TOK_PERIOD;
+        setDatePart(chars, 5, 7, (packedDate >> 5) & 0x0F);
+        chars[7] = TOK_PERIOD;
+        setDatePart(chars, 8, 10, packedDate & 0x1F);
+        return new String(chars);
+    }
+    
+    private static void setDatePart(char[] chars, int from, int to, int value)
+    {
+        boolean unknown = (value == 0);
+        for (int i = to - 1; i >= from; i--) {
+            chars[i] = (unknown ? '?' : (char)('0' + value % 10));
+            value /= 10;
+        }
+    }
+    
+    /**
+     * Returns the year of a packed date, 0 if the year is unknown.
+     */
+    public static int getYearOfPackedDate(int packedDate)
+    {
+        return (packedDate == NO_PACKED_DATE ? 0 : packedDate >>> 9);
+    }
+    
+    //======================================================================
+    // packed eco code: A00 = 0, ..., E99 = 499
+    
+    public static final int NO_PACKED_ECO = -1;
+    
+    public static int ecoToPackedECO(String eco)
+    {
+        if (eco == null || eco.length() != 3) return NO_PACKED_ECO;  // =====>
+        char letter = eco.charAt(0), tens = eco.charAt(1), ones = eco.charAt(2);
+        if (letter < 'A' || letter > 'E' || tens < '0' || tens > '9' || ones < '0' || ones > '9') {
+            return NO_PACKED_ECO;  // =====>
+        }
+        return 100 * (letter - 'A') + 10 * (tens - '0') + (ones - '0');
+    }
+    
+    public static String packedECOToECO(int packedECO)
+    {
+        if (packedECO < 0 || packedECO >= 500) return null;  // =====>
+        return new String(new char[] {(char)('A' + packedECO / 100),
+                                      (char)('0' + (packedECO / 10) % 10),
+                                      (char)('0' + packedECO % 10)});
+    }
+    
+    //======================================================================
+    
     private static String getRights(String s, int num)
     {
         return s.substring(s.length() - num);
@@ -27,6 +27,7 @@ import org.slf4j.Logger;
 
 import chesspresso.*;
 import chesspresso.move.*;
+import chesspresso.game.ECOClassifier;
 import chesspresso.game.Game;
 import chesspresso.position.NAG;
 
@@ -107,6 +108,12 @@ public final class PGNReader extends PGN {
 
   private PGNErrorHandler m_errorHandler;
 
+  private ECOClassifier m_ecoClassifier;
+  private boolean m_overrideECO;
+  private boolean m_classify;
+  private int m_mainLinePly;
+  private int m_packedECO;
+
   //======================================================================
 
   public PGNReader(InputStream in, String name) {
@@ -130,6 +137,8 @@ public final class PGNReader extends PGN {
     m_buf = new char[MAX_TOKEN_SIZE];
     m_filename = null;
     m_errorHandler = null;
+    m_ecoClassifier = null;
+    m_overrideECO = false;
     m_pushedBack = false;
     m_lastToken = TOK_EOL;
   }
@@ -149,6 +158,24 @@ public final class PGNReader extends PGN {
     m_errorHandler = handler;
   }
 
+  /**
+   * Sets the classifier used to assign ECO codes to the games read. The
+   * classifier is consulted for each main line move while the game is parsed.
+   * Games with a FEN tag are not classified.
+   *
+   * @param classifier the classifier, null to switch classification off
+   * @param overrideECO whether to replace ECO tags present in the PGN, otherwise
+   *        only games without ECO tag are classified
+   */
+  public void setECOClassifier(ECOClassifier classifier, boolean overrideECO) {
+    m_ecoClassifier = classifier;
+    m_overrideECO = overrideECO;
+  }
+
+  public ECOClassifier getECOClassifier() {
+    return m_ecoClassifier;
+  }
+
   //======================================================================
 
   final static int
@@ -411,6 +438,21 @@ public final class PGNReader extends PGN {
   // routines for parsing movetext sections
 
   private void initForMovetext() {
+    m_classify = m_ecoClassifier != null
+     && m_curGame.getTag(TAG_FEN) == null
+     && (m_overrideECO || m_curGame.getTag(TAG_ECO) == null);
+    m_mainLinePly = 0;
+    m_packedECO = NO_PACKED_ECO;
+  }
+
+  private void classifyMainLineMove() {
+    m_mainLinePly++;
+    if (m_mainLinePly > m_ecoClassifier.getMaxPly()) {
+      m_classify = false;
+      return;  // =====>
+    }
+    int packedECO = m_ecoClassifier.getPackedECO(m_curGame.getPosition().getHashCode());
+    if (packedECO != NO_PACKED_ECO) m_packedECO = packedECO;
   }
 
   private boolean isLastTokenResult() throws PGNSyntaxError {
@@ -645,6 +687,7 @@ public final class PGNReader extends PGN {
       } else {
         m_logger.trace("parseMovetextSection(): parseHalfMove()");
         parseHalfMove(needsMoveNumber);
+        if (m_classify && level == 0) classifyMainLineMove();
         needsMoveNumber = (m_curGame.getPosition().getToPlay() == Chess.WHITE);
         getNextToken();
       }
@@ -678,6 +721,10 @@ public final class PGNReader extends PGN {
       parseTagPairSection();
       initForMovetext();
       parseMovetextSection();
+      getNextToken();  // skip the result, it would be taken for the start of a game without headers
+      if (m_packedECO != NO_PACKED_ECO) {
+        m_curGame.setTag(TAG_ECO, packedECOToECO(m_packedECO));
+      }
       m_curGame.pack();
 
       if (m_curGame.getTotalNumOfPlies() == 0) {
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.pgn;
+
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * Writes games in PGN syntax to an output stream, producing the same text as
+ * the {@link PGNWriter}.
+ *
+ * Intended for exporting large databases: the moves are replayed by a
+ * {@link GameReplayer} and their SAN, move numbers and nags are formatted
+ * directly into a byte buffer, so no Move objects or strings are created per
+ * move. Tags and comments are encoded with the given charset, ISO-8859-1 by
+ * default. The buffer is written to the stream in large blocks, between
+ * games; call {@link #flush} or {@link #close} when done.
+ *
+ * Large exports can be spread over several threads with
+ * {@link #write(GameModelIterator, int)}, the games are still written in the
+ * order of the iterator.
+ */
+public class PGNStreamWriter extends PGN
+{
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int GAMES_PER_BATCH = 256;
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(ISO_8859_1);
+
+    /*================================================================================*/
+
+    /**
+     * Formats the moves of the replayed game.
+     */
+    private final class MoveWriter implements GameMoveVisitor
+    {
+        boolean m_needsMoveNumber;
+
+        public void visitMove(short move, int plyNumber, int level, ImmutablePosition position)
+        {
+            boolean isWhiteMove = (position.getToPlay() == Chess.BLACK);
+            if (m_needsMoveNumber) {
+                int len = appendNumber(m_token, 0, Chess.plyToMoveNumber(plyNumber));
+                m_token[len++] = TOK_PERIOD;
+                if (!isWhiteMove) {m_token[len++] = TOK_PERIOD; m_token[len++] = TOK_PERIOD;}
+                printToken(len, true);
+            }
+            printToken(m_replayer.appendSAN(m_token, 0), true);
+
+            short[] nags = m_replayer.getNags();
+            if (nags != null) {
+                for (int i=0; i < nags.length; i++) {
+                    m_token[0] = TOK_NAG_BEGIN;
+                    printToken(appendNumber(m_token, 1, nags[i]), true);
+                }
+            }
+            String comment = m_replayer.getComment();
+            if (comment != null) printComment(comment);
+            m_needsMoveNumber = !isWhiteMove || (comment != null);
+        }
+
+        public void visitLineStart(int level)
+        {
+            m_token[0] = TOK_LINE_BEGIN;
+            printToken(1, false);
+            m_needsMoveNumber = true;
+        }
+
+        public void visitLineEnd(int level)
+        {
+            m_token[0] = TOK_LINE_END;
+            printToken(1, true);
+            m_needsMoveNumber = true;
+        }
+    }
+
+    /*================================================================================*/
+
+    private OutputStream m_out;
+    private Charset m_charset;
+    private byte[] m_buffer;
+    private int m_pos;
+    private int m_charactersPerLine;
+    private int m_curCol;
+    private final byte[] m_token;
+    private final GameReplayer m_replayer;
+    private final MoveWriter m_moveWriter;
+    private Position m_fenPosition;   // for the FEN tag, created on demand
+
+    /*================================================================================*/
+
+    public PGNStreamWriter(OutputStream out)
+    {
+        this(out, ISO_8859_1);
+    }
+
+    public PGNStreamWriter(OutputStream out, Charset charset)
+    {
+        m_out = out;
+        m_charset = charset;
+        m_buffer = new byte[2 * BLOCK_SIZE];
+        m_pos = 0;
+        m_token = new byte[16];
+        m_replayer = new GameReplayer();
+        m_moveWriter = new MoveWriter();
+        setCharactersPerLine(80);
+    }
+
+    /*================================================================================*/
+
+    public void setCharactersPerLine(int chars) {m_charactersPerLine = chars;}
+
+    public void write(GameModelIterator iterator) throws IOException, IllegalMoveException
+    {
+        while (iterator.hasNext()) {
+            write(iterator.nextGameModel());
+            println();
+        }
+    }
+
+    /**
+     * Writes the games of the iterator using the given number of threads.
+     *
+     * The games are read in the calling thread and collected into batches.
+     * Each batch is formatted into a byte array by a worker thread with a
+     * writer of its own. The calling thread writes the arrays to the stream
+     * in the order of the batches, waiting for the oldest batch if too many
+     * are pending, so at most a few batches per thread are held in memory.
+     *
+     * @throws IllegalMoveException if a game contains an illegal move; the
+     *         batches before the one of the game have been written
+     */
+    public void write(GameModelIterator iterator, int numOfThreads) throws IOException, IllegalMoveException, InterruptedException
+    {
+        if (numOfThreads <= 1) {write(iterator); return;}  // =====>
+
+        final Charset charset = m_charset;
+        final int charactersPerLine = m_charactersPerLine;
+        final ThreadLocal<PGNStreamWriter> writers = new ThreadLocal<PGNStreamWriter>() {
+            protected PGNStreamWriter initialValue()
+            {
+                PGNStreamWriter writer = new PGNStreamWriter(null, charset);
+                writer.setCharactersPerLine(charactersPerLine);
+                return writer;
+            }
+        };
+
+        writeBuffer();
+        ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        int maxPending = 4 * numOfThreads;
+        try {
+            while (iterator.hasNext()) {
+                final List<GameModel> batch = new ArrayList<>(GAMES_PER_BATCH);
+                while (batch.size() < GAMES_PER_BATCH && iterator.hasNext()) batch.add(iterator.nextGameModel());
+                pending.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception
+                    {
+                        PGNStreamWriter writer = writers.get();
+                        try {
+                            for (GameModel gameModel : batch) {
+                                writer.write(gameModel);
+                                writer.println();
+                            }
+                            return writer.takeBuffer();
+                        } finally {
+                            writer.m_pos = 0;  // drop the batch if it failed
+                        }
+                    }
+                }));
+                if (pending.size() >= maxPending) m_out.write(getBatch(pending.poll()));
+            }
+            while (!pending.isEmpty()) m_out.write(getBatch(pending.poll()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] getBatch(Future<byte[]> future) throws IOException, IllegalMoveException, InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IllegalMoveException) throw (IllegalMoveException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Writes the game.
+     *
+     * @throws IllegalMoveException if the game contains an illegal move;
+     *         nothing is written in this case
+     */
+    public void write(GameModel gameModel) throws IOException, IllegalMoveException
+    {
+        if (m_pos >= BLOCK_SIZE && m_out != null) writeBuffer();
+        int gameStart = m_pos;
+        try {
+            writeHeader(gameModel.getHeaderModel());
+            println();
+            m_curCol = 0;
+            writeMoves(gameModel);
+            if (m_curCol > 0) println();
+        } catch (IllegalMoveException ex) {
+            m_pos = gameStart;
+            throw ex;
+        }
+    }
+
+    public void flush() throws IOException
+    {
+        writeBuffer();
+        m_out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        writeBuffer();
+        m_out.close();
+    }
+
+    /*================================================================================*/
+
+    private void writeHeader(GameHeaderModel header)
+    {
+        writeTag(TAG_EVENT,  header.getEvent());
+        writeTag(TAG_SITE,   header.getSite());
+        writeTag(TAG_DATE,   header.getDate());
+        writeTag(TAG_ROUND,  header.getRound());
+        writeTag(TAG_WHITE,  header.getWhite());
+        writeTag(TAG_BLACK,  header.getBlack());
+        writeTag(TAG_RESULT, header.getResultStr());
+
+        if (header.getWhiteEloStr() != null) writeTag(TAG_WHITE_ELO,  String.valueOf(header.getWhiteElo()));
+        if (header.getBlackEloStr() != null) writeTag(TAG_BLACK_ELO,  String.valueOf(header.getBlackElo()));
+        if (header.getEventDate() != null)   writeTag(TAG_EVENT_DATE, header.getEventDate());
+        if (header.getECO() != null)         writeTag(TAG_ECO,        header.getECO());
+
+        String fen = header.getTag(TAG_FEN);
+        if (fen != null) {
+            if (m_fenPosition == null) m_fenPosition = new Position();
+            FEN.initFromFEN(m_fenPosition, fen, false);
+            if (!m_fenPosition.isStartPosition()) writeTag(TAG_FEN, FEN.getFEN(m_fenPosition));
+        }
+    }
+
+    private void writeTag(String tagName, String value)
+    {
+        ensureCapacity(1);
+        m_buffer[m_pos++] = TOK_TAG_BEGIN;
+        writeText(tagName);
+        ensureCapacity(2);
+        m_buffer[m_pos++] = ' ';
+        m_buffer[m_pos++] = TOK_QUOTE;
+        writeText(String.valueOf(value));  // as the PGNWriter, null values are written as "null"
+        ensureCapacity(2);
+        m_buffer[m_pos++] = TOK_QUOTE;
+        m_buffer[m_pos++] = TOK_TAG_END;
+        println();
+    }
+
+    private void writeMoves(GameModel gameModel) throws IllegalMoveException
+    {
+        // print leading comments before move 1
+        String comment = gameModel.getMoveModel().getComment(0);
+        if (comment != null) printComment(comment);
+
+        m_moveWriter.m_needsMoveNumber = true;
+        m_replayer.replay(gameModel, m_moveWriter, true);
+
+        String result = gameModel.getHeaderModel().getResultStr();
+        if (m_curCol + result.length() > m_charactersPerLine) println();
+        writeText(result);
+        m_curCol += result.length();
+    }
+
+    /*================================================================================*/
+    // line wrapping, as PGNWriter.print
+
+    private void printToken(int len, boolean addSpace)
+    {
+        if (m_curCol + len > m_charactersPerLine) println();
+        ensureCapacity(len + 1);
+        System.arraycopy(m_token, 0, m_buffer, m_pos, len);
+        m_pos += len;
+        m_curCol += len;
+        if (m_curCol > 0 && addSpace) {
+            m_buffer[m_pos++] = ' ';
+            m_curCol += 1;
+        }
+    }
+
+    private void printComment(String comment)
+    {
+        int len = comment.length() + 2;
+        if (m_curCol + len > m_charactersPerLine) println();
+        ensureCapacity(1);
+        m_buffer[m_pos++] = TOK_COMMENT_BEGIN;
+        writeText(comment);
+        ensureCapacity(2);
+        m_buffer[m_pos++] = TOK_COMMENT_END;
+        m_curCol += len;
+        if (m_curCol > 0) {
+            m_buffer[m_pos++] = ' ';
+            m_curCol += 1;
+        }
+    }
+
+    private void println()
+    {
+        ensureCapacity(LINE_SEPARATOR.length);
+        for (int i=0; i < LINE_SEPARATOR.length; i++) m_buffer[m_pos++] = LINE_SEPARATOR[i];
+        m_curCol = 0;
+    }
+
+    /*================================================================================*/
+
+    private static int appendNumber(byte[] buffer, int offset, int number)
+    {
+        if (number < 0) {buffer[offset++] = '-'; number = -number;}
+        int end = offset;
+        for (int n = number; n >= 10; n /= 10) end++;
+        for (int i = end; i >= offset; i--) {
+            buffer[i] = (byte)('0' + number % 10);
+            number /= 10;
+        }
+        return end + 1;
+    }
+
+    private void writeText(String s)
+    {
+        int len = s.length();
+        ensureCapacity(len);
+        for (int i=0; i < len; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x80) {
+                // not plain ASCII, let the charset do it
+                byte[] bytes = s.substring(i).getBytes(m_charset);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, m_buffer, m_pos, bytes.length);
+                m_pos += bytes.length;
+                return;  // =====>
+            }
+            m_buffer[m_pos++] = (byte)ch;
+        }
+    }
+
+    private void ensureCapacity(int num)
+    {
+        if (m_pos + num > m_buffer.length) {
+            // the current game does not fit, the buffer is only written between games
+            byte[] buffer = new byte[Math.max(2 * m_buffer.length, m_pos + num)];
+            System.arraycopy(m_buffer, 0, buffer, 0, m_pos);
+            m_buffer = buffer;
+        }
+    }
+
+    /**
+     * Returns the text written so far and empties the buffer, for writers
+     * without a stream.
+     */
+    private byte[] takeBuffer()
+    {
+        byte[] bytes = Arrays.copyOf(m_buffer, m_pos);
+        m_pos = 0;
+        return bytes;
+    }
+
+    private void writeBuffer() throws IOException
+    {
+        if (m_pos > 0) {
+            m_out.write(m_buffer, 0, m_pos);
+            m_pos = 0;
+        }
+    }
+
+}
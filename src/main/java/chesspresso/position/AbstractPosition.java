@@ -160,6 +160,11 @@ public abstract class AbstractPosition implements ImmutablePosition
         return hashCode;
     }
 
+    public long getPolyglotKey()
+    {
+        return PolyglotKey.getKey(this);
+    }
+
     public final int hashCode()
     {
         return (int)getHashCode();
@@ -35,6 +35,12 @@ public class CompactPosition extends AbstractPosition
         PLY_NUMBER_SHIFT      = 12,   PLY_NUMBER_MASK       = 0x3FF,  // [0, 1024[
         HALF_MOVE_CLOCK_SHIFT = 22,   HALF_MOVE_CLOCK_MASK  = 0xFF;   // [0, 128[
     
+    /**
+     * A row without stones, used to initialize the stones before placing
+     * the pieces.
+     */
+    static final int EMPTY_ROW = 0x11111111 * (Chess.NO_STONE - Chess.MIN_STONE);
+    
     /*================================================================================*/
     
     private int[] m_stones;   // 32 bytes
@@ -44,33 +50,73 @@ public class CompactPosition extends AbstractPosition
     
     public CompactPosition()
     {
-        // TODO
+        m_stones = new int[Chess.NUM_OF_SQUARES / 8];
+        java.util.Arrays.fill(m_stones, EMPTY_ROW);
+        m_flags = 0;  // no ep square, no castles, white to play, ply 0
     }
     
     public CompactPosition(ImmutablePosition position)
     {
         m_stones = new int[Chess.NUM_OF_SQUARES / 8];
-        for (int sqi=0; sqi < Chess.NUM_OF_SQUARES; sqi += 8) {
-            m_stones[sqi / 8] = (position.getStone(sqi    ) - Chess.NO_STONE)       +
-                                (position.getStone(sqi + 1) - Chess.NO_STONE) <<  4 +
-                                (position.getStone(sqi + 2) - Chess.NO_STONE) <<  8 +
-                                (position.getStone(sqi + 3) - Chess.NO_STONE) << 12 +
-                                (position.getStone(sqi + 4) - Chess.NO_STONE) << 16 +
-                                (position.getStone(sqi + 5) - Chess.NO_STONE) << 20 +
-                                (position.getStone(sqi + 6) - Chess.NO_STONE) << 24 +
-                                (position.getStone(sqi + 7) - Chess.NO_STONE) << 28;
+        if (position instanceof Position) {
+            // place the pieces of the bitboards, empty squares are not looked at
+            java.util.Arrays.fill(m_stones, EMPTY_ROW);
+            Position pos = (Position)position;
+            for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+                if (stone == Chess.NO_STONE || pos.getNumOfStones(stone) == 0) continue;
+                int code = stone - Chess.MIN_STONE;
+                for (long bb = pos.getBitBoard(stone); bb != 0L; bb &= bb - 1) {
+                    int sqi = Long.numberOfTrailingZeros(bb);
+                    int shift = 4 * (sqi & 0x7);
+                    m_stones[sqi / 8] = (m_stones[sqi / 8] & ~(0xF << shift)) | (code << shift);
+                }
+            }
+        } else {
+            for (int sqi=0; sqi < Chess.NUM_OF_SQUARES; sqi += 8) {
+                m_stones[sqi / 8] =  (position.getStone(sqi    ) - Chess.MIN_STONE)        |
+                                    ((position.getStone(sqi + 1) - Chess.MIN_STONE) <<  4) |
+                                    ((position.getStone(sqi + 2) - Chess.MIN_STONE) <<  8) |
+                                    ((position.getStone(sqi + 3) - Chess.MIN_STONE) << 12) |
+                                    ((position.getStone(sqi + 4) - Chess.MIN_STONE) << 16) |
+                                    ((position.getStone(sqi + 5) - Chess.MIN_STONE) << 20) |
+                                    ((position.getStone(sqi + 6) - Chess.MIN_STONE) << 24) |
+                                    ((position.getStone(sqi + 7) - Chess.MIN_STONE) << 28);
+            }
         }
         
-        m_flags = ((position.getSqiEP() - Chess.NO_SQUARE)       << SQI_EP_SHIFT) +
-                   (position.getCastles()                        << CASTLES_SHIFT) +
-                  ((position.getToPlay() == Chess.WHITE ? 0 : 1) << TO_PLAY_SHIFT) +
-                   (position.getPlyNumber()                      << PLY_NUMBER_SHIFT) +
-                   (position.getHalfMoveClock()                  << HALF_MOVE_CLOCK_SHIFT);
+        m_flags = getFlags(position.getSqiEP(), position.getCastles(), position.getToPlay(),
+                           position.getPlyNumber(), position.getHalfMoveClock());
+    }
+    
+    /**
+     * Creates a position of packed stones, 8 squares per int with 4 bits per
+     * square holding <code>stone - Chess.MIN_STONE</code>. The array is not
+     * copied.
+     */
+    CompactPosition(int[] stones, int sqiEP, int castles, int toPlay, int plyNumber, int halfMoveClock)
+    {
+        m_stones = stones;
+        m_flags = getFlags(sqiEP, castles, toPlay, plyNumber, halfMoveClock);
     }
+    
+    private static int getFlags(int sqiEP, int castles, int toPlay, int plyNumber, int halfMoveClock)
+    {
+        return ((sqiEP - Chess.NO_SQUARE)           << SQI_EP_SHIFT) +
+                (castles                            << CASTLES_SHIFT) +
+               ((toPlay == Chess.WHITE ? 0 : 1)     << TO_PLAY_SHIFT) +
+                (plyNumber                          << PLY_NUMBER_SHIFT) +
+                (halfMoveClock                      << HALF_MOVE_CLOCK_SHIFT);
+    }
+    
+    /**
+     * Returns the packed stones, see {@link #CompactPosition(int[], int, int, int, int, int)}.
+     * The array must not be changed.
+     */
+    int[] getPackedStones() {return m_stones;}
 
     /*================================================================================*/
     
-    public int getStone(int sqi)   {return ((m_stones[sqi / 8] >> (4 * (sqi & 0x7))) & 0xF) + Chess.NO_STONE;}
+    public int getStone(int sqi)   {return ((m_stones[sqi / 8] >> (4 * (sqi & 0x7))) & 0xF) + Chess.MIN_STONE;}
     public int getSqiEP()          {return ((m_flags >> SQI_EP_SHIFT) & SQI_EP_MASK) + Chess.NO_SQUARE;}
     public int getCastles()        {return ((m_flags >> CASTLES_SHIFT) & CASTLES_MASK);}
     public int getToPlay()         {return ((m_flags >> TO_PLAY_SHIFT) & TO_PLAY_MASK) == 0 ? Chess.WHITE : Chess.BLACK;}
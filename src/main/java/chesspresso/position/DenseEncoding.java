@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import chesspresso.*;
+
+/**
+ * Variable length binary encoding of positions, for storing many positions
+ * in little space.
+ *
+ * An encoded position consists of (big endian):
+ * <pre>
+ *   long    occupancy   bitboard of the occupied squares
+ *   nibbles stones      4 bits per occupied square in the order of the squares,
+ *                       <code>stone - Chess.MIN_STONE</code>, high nibble first,
+ *                       padded to a full byte
+ *   int     flags       to play (bit 0), castles (bits 1-4), column of the ep
+ *                       square + 1 or 0 (bits 5-8), ply number (bits 9-18),
+ *                       half move clock (bits 19-26)
+ * </pre>
+ * A position with 32 stones takes {@link #MAX_LENGTH} = 28 bytes, a typical
+ * middle game position about 24 bytes. The ep square is stored by its
+ * column only, its row follows from the player to move.
+ */
+public class DenseEncoding
+{
+
+    /**
+     * The maximum length of an encoded position with at most 32 stones.
+     */
+    public static final int MAX_LENGTH = 8 + 16 + 4;
+
+    /*================================================================================*/
+
+    private DenseEncoding() {}
+
+    /*================================================================================*/
+
+    private static long getOccupancy(ImmutablePosition position)
+    {
+        long occupancy = 0L;
+        if (position instanceof Position) {
+            Position pos = (Position)position;
+            for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+                if (stone != Chess.NO_STONE && pos.getNumOfStones(stone) > 0) occupancy |= pos.getBitBoard(stone);
+            }
+        } else {
+            for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+                if (position.getStone(sqi) != Chess.NO_STONE) occupancy |= 1L << sqi;
+            }
+        }
+        return occupancy;
+    }
+
+    /**
+     * Returns the length of the encoding of the position.
+     */
+    public static int getLength(ImmutablePosition position)
+    {
+        return 8 + (Long.bitCount(getOccupancy(position)) + 1) / 2 + 4;
+    }
+
+    /**
+     * Returns the length of the position encoded at the given offset.
+     */
+    public static int getLength(byte[] buf, int offset)
+    {
+        return 8 + (Long.bitCount(readLong(buf, offset)) + 1) / 2 + 4;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Encodes a position into the buffer. A buffer of {@link #MAX_LENGTH}
+     * bytes is large enough for legal positions, see
+     * {@link #getLength(ImmutablePosition)} for others.
+     *
+     *@param position the position to encode
+     *@param buf the buffer
+     *@param offset the offset to write to
+     *@return the offset after the encoded position
+     */
+    public static int encode(ImmutablePosition position, byte[] buf, int offset)
+    {
+        long occupancy = getOccupancy(position);
+        writeLong(buf, offset, occupancy);
+        offset += 8;
+
+        boolean high = true;
+        for (long bb = occupancy; bb != 0L; bb &= bb - 1) {
+            int code = position.getStone(Long.numberOfTrailingZeros(bb)) - Chess.MIN_STONE;
+            if (high) {
+                buf[offset] = (byte)(code << 4);
+            } else {
+                buf[offset++] |= (byte)code;
+            }
+            high = !high;
+        }
+        if (!high) offset++;
+
+        int sqiEP = position.getSqiEP();
+        int flags = (position.getToPlay() == Chess.WHITE ? 0 : 1)
+                  | (position.getCastles() << 1)
+                  | ((sqiEP == Chess.NO_SQUARE ? 0 : Chess.sqiToCol(sqiEP) + 1) << 5)
+                  | (position.getPlyNumber() << 9)
+                  | (position.getHalfMoveClock() << 19);
+        buf[offset]     = (byte)(flags >>> 24);
+        buf[offset + 1] = (byte)(flags >>> 16);
+        buf[offset + 2] = (byte)(flags >>>  8);
+        buf[offset + 3] = (byte) flags;
+        return offset + 4;
+    }
+
+    /**
+     * Decodes a position.
+     *
+     *@param buf the buffer
+     *@param offset the offset of the encoded position
+     *@return the position
+     *@throws IllegalArgumentException if the data does not encode a position
+     */
+    public static CompactPosition decode(byte[] buf, int offset) throws IllegalArgumentException
+    {
+        long occupancy = readLong(buf, offset);
+        offset += 8;
+
+        int[] stones = new int[Chess.NUM_OF_SQUARES / 8];
+        java.util.Arrays.fill(stones, CompactPosition.EMPTY_ROW);
+        boolean high = true;
+        for (long bb = occupancy; bb != 0L; bb &= bb - 1) {
+            int code = (high ? (buf[offset] >>> 4) : buf[offset++]) & 0xF;
+            high = !high;
+            if (code > Chess.MAX_STONE - Chess.MIN_STONE || code == Chess.NO_STONE - Chess.MIN_STONE)
+                throw new IllegalArgumentException("Illegal stone code " + code);
+            int sqi = Long.numberOfTrailingZeros(bb);
+            int shift = 4 * (sqi & 0x7);
+            stones[sqi / 8] = (stones[sqi / 8] & ~(0xF << shift)) | (code << shift);
+        }
+        if (!high) offset++;
+
+        int flags = ((buf[offset] & 0xFF) << 24) | ((buf[offset + 1] & 0xFF) << 16)
+                  | ((buf[offset + 2] & 0xFF) << 8) | (buf[offset + 3] & 0xFF);
+        int toPlay = ((flags & 1) == 0 ? Chess.WHITE : Chess.BLACK);
+        int colEP = ((flags >>> 5) & 0xF) - 1;
+        int sqiEP = (colEP < 0 ? Chess.NO_SQUARE : Chess.coorToSqi(colEP, toPlay == Chess.WHITE ? 5 : 2));
+        return new CompactPosition(stones, sqiEP, (flags >>> 1) & 0xF, toPlay, (flags >>> 9) & 0x3FF, (flags >>> 19) & 0xFF);
+    }
+
+    /**
+     * Decodes a position and sets it to the given position.
+     *
+     *@param buf the buffer
+     *@param offset the offset of the encoded position
+     *@param position the position to set
+     *@return the offset after the encoded position
+     *@throws IllegalArgumentException if the data does not encode a position
+     */
+    public static int decode(byte[] buf, int offset, MutablePosition position) throws IllegalArgumentException
+    {
+        position.set(decode(buf, offset));
+        return offset + getLength(buf, offset);
+    }
+
+    /*================================================================================*/
+
+    private static long readLong(byte[] buf, int offset)
+    {
+        long value = 0L;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (buf[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static void writeLong(byte[] buf, int offset, long value)
+    {
+        for (int i = 7; i >= 0; i--) {
+            buf[offset + i] = (byte)value;
+            value >>>= 8;
+        }
+    }
+
+}
@@ -122,6 +122,13 @@ public interface ImmutablePosition
      */
     public long getHashCode();
     
+    /**
+     * Returns the key of the current position in Polyglot opening books.
+     *
+     *@return the 64bit Polyglot key
+     */
+    public long getPolyglotKey();
+    
     /**
      * Returns a 32bit hash code of the current position.
      * 32 bit is not enough to distinguish positions reliably, use only if
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import chesspresso.*;
+import chesspresso.move.*;
+
+/**
+ * A move whose SAN information is computed on demand.
+ *
+ * Creating a full {@link Move} requires to test for check and mate and, for
+ * piece moves, to find other pieces which could go to the same square. Most
+ * moves created while reading or replaying games are never printed, so a lazy
+ * move only keeps the short move and the state of the position before the
+ * move, as found on the backup stack of the position. The moving piece is
+ * read from the stored bitboards; disambiguation, check and mate are computed
+ * the first time they are asked for, by playing the move on a scratch position
+ * of the calling thread.
+ */
+final class LazyMove extends Move
+{
+    private static final ThreadLocal<Position> s_scratch = new ThreadLocal<Position>() {
+        protected Position initialValue() {return new Position();}
+    };
+
+    /*================================================================================*/
+
+    private final long m_bbWhites, m_bbPawns, m_bbKnights, m_bbBishops, m_bbRooks;
+    private final int m_whiteKing, m_blackKing;
+    private final long m_flags;
+    private Move m_move;  // the full move, once resolved
+
+    /*================================================================================*/
+
+    LazyMove(short move, boolean isWhiteMove, long bbWhites, long bbPawns, long bbKnights, long bbBishops, long bbRooks,
+             int whiteKing, int blackKing, long flags)
+    {
+        super(move, Chess.NO_PIECE, Chess.NO_COL, Chess.NO_ROW, false, false, isWhiteMove);
+        m_bbWhites = bbWhites;
+        m_bbPawns = bbPawns;
+        m_bbKnights = bbKnights;
+        m_bbBishops = bbBishops;
+        m_bbRooks = bbRooks;
+        m_whiteKing = whiteKing;
+        m_blackKing = blackKing;
+        m_flags = flags;
+    }
+
+    /*================================================================================*/
+
+    private Move resolve()
+    {
+        if (m_move == null) {
+            Position position = s_scratch.get();
+            position.setState(m_bbWhites, m_bbPawns, m_bbKnights, m_bbBishops, m_bbRooks, m_whiteKing, m_blackKing, m_flags);
+            try {
+                position.doMove(getShortMoveDesc());
+                m_move = position.getLastMove();
+                position.undoMove();
+            } catch (IllegalMoveException ex) {
+                // cannot happen, the move has been played before
+            }
+            if (m_move == null) m_move = Move.createIllegalMove();
+        }
+        return m_move;
+    }
+
+    /*================================================================================*/
+
+    public int getMovingPiece()
+    {
+        if (isCastle(getShortMoveDesc())) return Chess.KING;  // =====>
+
+        long bbFrom = 1L << getFromSqi();
+        if      ((m_bbPawns   & bbFrom) != 0L) return Chess.PAWN;
+        else if ((m_bbKnights & bbFrom) != 0L) return Chess.KNIGHT;
+        else if ((m_bbBishops & m_bbRooks & bbFrom) != 0L) return Chess.QUEEN;
+        else if ((m_bbBishops & bbFrom) != 0L) return Chess.BISHOP;
+        else if ((m_bbRooks   & bbFrom) != 0L) return Chess.ROOK;
+        else                                   return Chess.KING;
+    }
+
+    public int getColFrom()     {return resolve().getColFrom();}
+    public int getRowFrom()     {return resolve().getRowFrom();}
+    public boolean isCheck()    {return resolve().isCheck();}
+    public boolean isMate()     {return resolve().isMate();}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import chesspresso.*;
+
+/**
+ * Material signatures: the number of pieces of each kind and color of a
+ * position, packed into an int.
+ *
+ * The white pieces are stored in the lower, the black pieces in the upper 16
+ * bits. Per color, pawns use 4 bits, knights, bishops, rooks and queens 3 bits
+ * each (counts above 7, only possible after promotions, are stored as 7). Kings
+ * are not counted. Signatures are written like "KRPKR": the white pieces
+ * starting with the white king, followed by the black pieces starting with the
+ * black king.
+ *
+ * Material patterns allow wildcards: a piece letter followed by '*' matches any
+ * number (including zero) of these pieces, e.g. "KRP*KR" matches all rook
+ * endings where white has an extra pawn or more. A pattern is stored in a long,
+ * the mask of the constrained bits in the upper and the required values in
+ * the lower 32 bits.
+ */
+public final class MaterialSignature
+{
+
+    // shift and maximum count per piece, indexed by piece
+    private static final int[] s_shift = new int[Chess.MAX_PIECE + 1];
+    private static final int[] s_max = new int[Chess.MAX_PIECE + 1];
+
+    // pieces in the order they are written
+    private static final int[] s_pieces = {Chess.QUEEN, Chess.ROOK, Chess.BISHOP, Chess.KNIGHT, Chess.PAWN};
+
+    static {
+        s_shift[Chess.PAWN]   =  0; s_max[Chess.PAWN]   = 15;
+        s_shift[Chess.KNIGHT] =  4; s_max[Chess.KNIGHT] =  7;
+        s_shift[Chess.BISHOP] =  7; s_max[Chess.BISHOP] =  7;
+        s_shift[Chess.ROOK]   = 10; s_max[Chess.ROOK]   =  7;
+        s_shift[Chess.QUEEN]  = 13; s_max[Chess.QUEEN]  =  7;
+    }
+
+    private static final int BLACK_SHIFT = 16;
+
+    private MaterialSignature() {}
+
+    /*================================================================================*/
+
+    private static int getShift(int piece, int color)
+    {
+        return s_shift[piece] + (color == Chess.BLACK ? BLACK_SHIFT : 0);
+    }
+
+    private static int getFieldMask(int piece)
+    {
+        return (piece == Chess.PAWN ? 0xF : 0x7);
+    }
+
+    /**
+     * Builds a signature from a material long of {@link Position}, which holds
+     * 4 bits per stone.
+     */
+    static int getSignature(long material)
+    {
+        int signature = 0;
+        for (int i = 0; i < s_pieces.length; i++) {
+            int piece = s_pieces[i];
+            for (int color = Chess.WHITE; color <= Chess.BLACK; color++) {
+                int stone = Chess.pieceToStone(piece, color);
+                int num = (int)(material >>> (4 * (stone - Chess.MIN_STONE))) & 0xF;
+                signature |= Math.min(num, s_max[piece]) << getShift(piece, color);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the material signature of the position.
+     */
+    public static int getSignature(ImmutablePosition position)
+    {
+        if (position instanceof Position) return ((Position)position).getMaterialSignature();  // =====>
+
+        int[] num = new int[Chess.MAX_STONE - Chess.MIN_STONE + 1];
+        for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+            num[position.getStone(sqi) - Chess.MIN_STONE]++;
+        }
+        int signature = 0;
+        for (int i = 0; i < s_pieces.length; i++) {
+            int piece = s_pieces[i];
+            for (int color = Chess.WHITE; color <= Chess.BLACK; color++) {
+                int stone = Chess.pieceToStone(piece, color);
+                signature |= Math.min(num[stone - Chess.MIN_STONE], s_max[piece]) << getShift(piece, color);
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the number of pieces of the given kind and color.
+     */
+    public static int getNumOfPieces(int signature, int piece, int color)
+    {
+        return (signature >>> getShift(piece, color)) & getFieldMask(piece);
+    }
+
+    /**
+     * Returns the signature with the colors exchanged.
+     */
+    public static int getColorFlipped(int signature)
+    {
+        return (signature >>> BLACK_SHIFT) | (signature << BLACK_SHIFT);
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Parses a signature like "KRPKR" or "KRP v KR".
+     *
+     * @throws IllegalArgumentException if the string is malformed or contains wildcards
+     */
+    public static int valueOf(String str) throws IllegalArgumentException
+    {
+        long pattern = getPattern(str);
+        if ((int)(pattern >>> 32) != -1) throw new IllegalArgumentException("Wildcards not allowed in signature: " + str);
+        return (int)pattern;
+    }
+
+    /**
+     * Parses a material pattern like "KRP*KR", see above.
+     *
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public static long getPattern(String str) throws IllegalArgumentException
+    {
+        String s = str.replace(" ", "").toUpperCase();
+        int split = s.indexOf('V');
+        String[] sides;
+        if (split != -1) {
+            sides = new String[] {s.substring(0, split), s.substring(split + 1)};
+        } else {
+            split = s.indexOf('K', 1);
+            if (split == -1) throw new IllegalArgumentException("Missing black king: " + str);
+            sides = new String[] {s.substring(0, split), s.substring(split)};
+        }
+
+        int mask = -1, value = 0;
+        for (int color = Chess.WHITE; color <= Chess.BLACK; color++) {
+            String side = sides[color == Chess.WHITE ? 0 : 1];
+            if (side.length() == 0 || side.charAt(0) != 'K') throw new IllegalArgumentException("Side must start with king: " + str);
+            for (int i = 1; i < side.length(); i++) {
+                int piece = Chess.charToPiece(side.charAt(i));
+                if (piece == Chess.NO_PIECE || piece == Chess.KING) throw new IllegalArgumentException("Illegal piece '" + side.charAt(i) + "': " + str);
+                int shift = getShift(piece, color);
+                if (i + 1 < side.length() && side.charAt(i + 1) == '*') {
+                    mask &= ~(getFieldMask(piece) << shift);
+                    value &= ~(getFieldMask(piece) << shift);
+                    i++;
+                } else if (((mask >>> shift) & getFieldMask(piece)) != 0) {
+                    if (((value >>> shift) & getFieldMask(piece)) == s_max[piece]) throw new IllegalArgumentException("Too many pieces: " + str);
+                    value += 1 << shift;
+                }
+            }
+        }
+        return ((long)mask << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns whether the signature matches the pattern.
+     */
+    public static boolean matches(long pattern, int signature)
+    {
+        return (signature & (int)(pattern >>> 32)) == (int)pattern;
+    }
+
+    /**
+     * Returns the pattern with the colors exchanged.
+     */
+    public static long getColorFlipped(long pattern)
+    {
+        int mask = getColorFlipped((int)(pattern >>> 32));
+        int value = getColorFlipped((int)pattern);
+        return ((long)mask << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns a string like "KRPKR" for the signature.
+     */
+    public static String toString(int signature)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int color = Chess.WHITE; color <= Chess.BLACK; color++) {
+            sb.append('K');
+            for (int i = 0; i < s_pieces.length; i++) {
+                int num = getNumOfPieces(signature, s_pieces[i], color);
+                for (int j = 0; j < num; j++) sb.append(Chess.pieceToChar(s_pieces[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import chesspresso.*;
+
+/**
+ * Piece-square tables: positional values in centipawns of the stones on the
+ * squares, for the middle game and the end game. Black values are the
+ * mirrored white values, negated, so that the sum over all stones is the
+ * score from the point of view of white. Material is not included.
+ *
+ * {@link Position} maintains the sums incrementally, see
+ * {@link Position#getPSTScore}.
+ */
+public final class PieceSquareTables
+{
+
+    // tables from the point of view of white, a8 first
+    private static final int[] PAWN = {
+         0,  0,  0,  0,  0,  0,  0,  0,
+        50, 50, 50, 50, 50, 50, 50, 50,
+        10, 10, 20, 30, 30, 20, 10, 10,
+         5,  5, 10, 25, 25, 10,  5,  5,
+         0,  0,  0, 20, 20,  0,  0,  0,
+         5, -5,-10,  0,  0,-10, -5,  5,
+         5, 10, 10,-20,-20, 10, 10,  5,
+         0,  0,  0,  0,  0,  0,  0,  0};
+
+    private static final int[] PAWN_END_GAME = {
+         0,  0,  0,  0,  0,  0,  0,  0,
+        80, 80, 80, 80, 80, 80, 80, 80,
+        50, 50, 50, 50, 50, 50, 50, 50,
+        30, 30, 30, 30, 30, 30, 30, 30,
+        15, 15, 15, 15, 15, 15, 15, 15,
+         5,  5,  5,  5,  5,  5,  5,  5,
+         0,  0,  0,  0,  0,  0,  0,  0,
+         0,  0,  0,  0,  0,  0,  0,  0};
+
+    private static final int[] KNIGHT = {
+       -50,-40,-30,-30,-30,-30,-40,-50,
+       -40,-20,  0,  0,  0,  0,-20,-40,
+       -30,  0, 10, 15, 15, 10,  0,-30,
+       -30,  5, 15, 20, 20, 15,  5,-30,
+       -30,  0, 15, 20, 20, 15,  0,-30,
+       -30,  5, 10, 15, 15, 10,  5,-30,
+       -40,-20,  0,  5,  5,  0,-20,-40,
+       -50,-40,-30,-30,-30,-30,-40,-50};
+
+    private static final int[] BISHOP = {
+       -20,-10,-10,-10,-10,-10,-10,-20,
+       -10,  0,  0,  0,  0,  0,  0,-10,
+       -10,  0,  5, 10, 10,  5,  0,-10,
+       -10,  5,  5, 10, 10,  5,  5,-10,
+       -10,  0, 10, 10, 10, 10,  0,-10,
+       -10, 10, 10, 10, 10, 10, 10,-10,
+       -10,  5,  0,  0,  0,  0,  5,-10,
+       -20,-10,-10,-10,-10,-10,-10,-20};
+
+    private static final int[] ROOK = {
+         0,  0,  0,  0,  0,  0,  0,  0,
+         5, 10, 10, 10, 10, 10, 10,  5,
+        -5,  0,  0,  0,  0,  0,  0, -5,
+        -5,  0,  0,  0,  0,  0,  0, -5,
+        -5,  0,  0,  0,  0,  0,  0, -5,
+        -5,  0,  0,  0,  0,  0,  0, -5,
+        -5,  0,  0,  0,  0,  0,  0, -5,
+         0,  0,  0,  5,  5,  0,  0,  0};
+
+    private static final int[] QUEEN = {
+       -20,-10,-10, -5, -5,-10,-10,-20,
+       -10,  0,  0,  0,  0,  0,  0,-10,
+       -10,  0,  5,  5,  5,  5,  0,-10,
+        -5,  0,  5,  5,  5,  5,  0, -5,
+         0,  0,  5,  5,  5,  5,  0, -5,
+       -10,  5,  5,  5,  5,  5,  0,-10,
+       -10,  0,  5,  0,  0,  0,  0,-10,
+       -20,-10,-10, -5, -5,-10,-10,-20};
+
+    private static final int[] KING = {
+       -30,-40,-40,-50,-50,-40,-40,-30,
+       -30,-40,-40,-50,-50,-40,-40,-30,
+       -30,-40,-40,-50,-50,-40,-40,-30,
+       -30,-40,-40,-50,-50,-40,-40,-30,
+       -20,-30,-30,-40,-40,-30,-30,-20,
+       -10,-20,-20,-20,-20,-20,-20,-10,
+        20, 20,  0,  0,  0,  0, 20, 20,
+        20, 30, 10,  0,  0, 10, 30, 20};
+
+    private static final int[] KING_END_GAME = {
+       -50,-40,-30,-20,-20,-30,-40,-50,
+       -30,-20,-10,  0,  0,-10,-20,-30,
+       -30,-10, 20, 30, 30, 20,-10,-30,
+       -30,-10, 30, 40, 40, 30,-10,-30,
+       -30,-10, 30, 40, 40, 30,-10,-30,
+       -30,-10, 20, 30, 30, 20,-10,-30,
+       -30,-30,  0,  0,  0,  0,-30,-30,
+       -50,-30,-30,-30,-30,-30,-30,-50};
+
+    /**
+     * The phase of the game with all pieces on the board, see {@link Position#getPhase}.
+     */
+    public static final int MAX_PHASE = 24;
+
+    /*================================================================================*/
+
+    // middle game value in the upper, end game value in the lower 32 bits, indexed by stone - MIN_STONE, sqi
+    static final long[][] s_packed = new long[Chess.MAX_STONE - Chess.MIN_STONE + 1][Chess.NUM_OF_SQUARES];
+
+    static {
+        for (int piece = Chess.KNIGHT; piece <= Chess.KING; piece++) {
+            int[] middleGame, endGame;
+            switch (piece) {
+                case Chess.PAWN:   middleGame = PAWN;   endGame = PAWN_END_GAME; break;
+                case Chess.KNIGHT: middleGame = KNIGHT; endGame = KNIGHT; break;
+                case Chess.BISHOP: middleGame = BISHOP; endGame = BISHOP; break;
+                case Chess.ROOK:   middleGame = ROOK;   endGame = ROOK; break;
+                case Chess.QUEEN:  middleGame = QUEEN;  endGame = QUEEN; break;
+                default:           middleGame = KING;   endGame = KING_END_GAME; break;
+            }
+            for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+                // white on sqi is at sqi ^ 56 in the tables, black on sqi is mirrored
+                s_packed[Chess.pieceToStone(piece, Chess.WHITE) - Chess.MIN_STONE][sqi] =  pack(middleGame[sqi ^ 56], endGame[sqi ^ 56]);
+                s_packed[Chess.pieceToStone(piece, Chess.BLACK) - Chess.MIN_STONE][sqi] = -pack(middleGame[sqi], endGame[sqi]);
+            }
+        }
+    }
+
+    private PieceSquareTables() {}
+
+    /*================================================================================*/
+
+    static long pack(int middleGame, int endGame) {return ((long)middleGame << 32) + endGame;}
+    static int getMiddleGame(long packed)          {return (int)((packed + 0x80000000L) >> 32);}
+    static int getEndGame(long packed)             {return (int)packed;}
+
+    /**
+     * Returns the middle game value of a stone on a square, from the point of
+     * view of white.
+     */
+    public static int getMiddleGameValue(int stone, int sqi)
+    {
+        return getMiddleGame(s_packed[stone - Chess.MIN_STONE][sqi]);
+    }
+
+    /**
+     * Returns the end game value of a stone on a square, from the point of
+     * view of white.
+     */
+    public static int getEndGameValue(int stone, int sqi)
+    {
+        return getEndGame(s_packed[stone - Chess.MIN_STONE][sqi]);
+    }
+
+}
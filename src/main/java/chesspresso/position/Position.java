@@ -363,6 +363,9 @@ public final class Position extends AbstractMoveablePosition
     private int m_whiteKing, m_blackKing;  // actually only a short (6 bit)
     private long m_flags;
     private long m_hashCode;
+    private long m_material;  // number of stones, 4 bits per stone, see getMaterial
+    private long m_pst;  // piece-square sums, middle game in upper, end game in lower 32 bits, see PieceSquareTables
+    private long m_pawnHashCode;
     
 //    private int getToPlay();
 //    private int m_plyNumber;
@@ -370,9 +373,13 @@ public final class Position extends AbstractMoveablePosition
     private long[] m_bakStack;
     private int m_bakIndex;
     private short[] m_moveStack;
+    private long[] m_materialStack;  // parallel to m_moveStack, material before resp. after (once undone) the move
+    private long[] m_pstStack;       // parallel to m_moveStack, as m_materialStack
+    private long[] m_pawnHashStack;  // parallel to m_moveStack, as m_materialStack
     private int m_moveStackIndex;
 
     private short[] m_moves = new short[256];   // buffer for getAllMoves, allocated once for efficiency
+    private int[] m_seeGain = new int[32];      // buffer for see, one entry per capture on the square
     
     /*================================================================================*/
     
@@ -392,6 +399,9 @@ public final class Position extends AbstractMoveablePosition
         
         m_bakStack = new long[4 * bufferLength];  //on average, we need about 3.75 longs to backup a position
         m_moveStack = new short[bufferLength];
+        m_materialStack = new long[bufferLength];
+        m_pstStack = new long[bufferLength];
+        m_pawnHashStack = new long[bufferLength];
         clear();
     }
     
@@ -420,6 +430,85 @@ public final class Position extends AbstractMoveablePosition
 //        m_bakIndex = 0;
     }
     
+    public void set(ImmutablePosition position)
+    {
+        m_flags &= ~(CHECK_MASK << CHECK_SHIFT);        // delete isCheck info
+        m_flags &= ~(CAN_MOVE_MASK << CAN_MOVE_SHIFT);  // delete canMove info
+        
+        if (position instanceof CompactPosition && !(m_notifyListeners && m_listeners != null)) {
+            setPackedStones(((CompactPosition)position).getPackedStones());
+            boolean notify = m_notifyPositionChanged;
+            m_notifyPositionChanged = false;
+            setCastles(position.getCastles());
+            setSqiEP(position.getSqiEP());
+            setToPlay(position.getToPlay());
+            setPlyNumber(position.getPlyNumber());
+            setHalfMoveClock(position.getHalfMoveClock());
+            m_notifyPositionChanged = notify;
+            firePositionChanged();
+            return;  // =====>
+        }
+        
+        // setStone keeps track of one king per color only, so remove kings
+        // which are not on the same square in the new position first
+        boolean notify = m_notifyPositionChanged;
+        m_notifyPositionChanged = false;
+        if (m_whiteKing != Chess.NO_SQUARE && position.getStone(m_whiteKing) != Chess.WHITE_KING) setStone(m_whiteKing, Chess.NO_STONE);
+        if (m_blackKing != Chess.NO_SQUARE && position.getStone(m_blackKing) != Chess.BLACK_KING) setStone(m_blackKing, Chess.NO_STONE);
+        m_notifyPositionChanged = notify;
+        super.set(position);
+    }
+    
+    /**
+     * Sets the stones from the packed stones of a {@link CompactPosition},
+     * without notifying square listeners. The hash code is recomputed for the
+     * stones; castles, ep square and to play are reset and have to be set
+     * afterwards.
+     */
+    private void setPackedStones(int[] stones)
+    {
+        long bbWhites = 0L, bbBlacks = 0L, bbPawns = 0L, bbKnights = 0L, bbBishops = 0L, bbRooks = 0L;
+        int whiteKing = Chess.NO_SQUARE, blackKing = Chess.NO_SQUARE;
+        long hashCode = 0L, material = 0L, pst = 0L, pawnHashCode = 0L;
+        for (int row = 0; row < stones.length; row++) {
+            int packed = stones[row];
+            if (packed == CompactPosition.EMPTY_ROW) continue;
+            for (int sqi = 8 * row; sqi < 8 * row + 8; sqi++, packed >>>= 4) {
+                int stone = (packed & 0xF) + Chess.MIN_STONE;
+                if (stone == Chess.NO_STONE) continue;
+                long bbSqi = ofSquare(sqi);
+                switch(stone) {
+                    case Chess.WHITE_KING:   bbWhites |= bbSqi; whiteKing = sqi; break;
+                    case Chess.WHITE_PAWN:   bbWhites |= bbSqi; bbPawns |= bbSqi; break;
+                    case Chess.WHITE_KNIGHT: bbWhites |= bbSqi; bbKnights |= bbSqi; break;
+                    case Chess.WHITE_BISHOP: bbWhites |= bbSqi; bbBishops |= bbSqi; break;
+                    case Chess.WHITE_ROOK:   bbWhites |= bbSqi; bbRooks |= bbSqi; break;
+                    case Chess.WHITE_QUEEN:  bbWhites |= bbSqi; bbBishops |= bbSqi; bbRooks |= bbSqi; break;
+                    case Chess.BLACK_KING:   bbBlacks |= bbSqi; blackKing = sqi; break;
+                    case Chess.BLACK_PAWN:   bbBlacks |= bbSqi; bbPawns |= bbSqi; break;
+                    case Chess.BLACK_KNIGHT: bbBlacks |= bbSqi; bbKnights |= bbSqi; break;
+                    case Chess.BLACK_BISHOP: bbBlacks |= bbSqi; bbBishops |= bbSqi; break;
+                    case Chess.BLACK_ROOK:   bbBlacks |= bbSqi; bbRooks |= bbSqi; break;
+                    case Chess.BLACK_QUEEN:  bbBlacks |= bbSqi; bbBishops |= bbSqi; bbRooks |= bbSqi; break;
+                }
+                hashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
+                material += getMaterialUnit(stone);
+                pst += getPST(stone, sqi);
+                if (stone == Chess.WHITE_PAWN || stone == Chess.BLACK_PAWN) pawnHashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
+            }
+        }
+        m_bbWhites = bbWhites; m_bbBlacks = bbBlacks;
+        m_bbPawns = bbPawns; m_bbKnights = bbKnights; m_bbBishops = bbBishops; m_bbRooks = bbRooks;
+        m_whiteKing = whiteKing; m_blackKing = blackKing;
+        m_material = material;
+        m_pst = pst;
+        m_pawnHashCode = pawnHashCode;
+        
+        // flags of an empty position: no castles, no ep square, white to play
+        m_flags &= ~((CASTLES_MASK << CASTLES_SHIFT) | (SQI_EP_MASK << SQI_EP_SHIFT) | (HASH_COL_EP_MASK << HASH_COL_EP_SHIFT) | (TO_PLAY_MASK << TO_PLAY_SHIFT));
+        m_hashCode = hashCode ^ s_hashCastleMod[NO_CASTLES];
+    }
+    
     /*================================================================================*/
     
     public final int getToPlay()                {return      ((m_flags >> TO_PLAY_SHIFT) & TO_PLAY_MASK) == 0 ? Chess.WHITE : Chess.BLACK;}
@@ -432,6 +521,68 @@ public final class Position extends AbstractMoveablePosition
     public final int getPlyNumber()             {return (int) (m_flags >> PLY_NUMBER_SHIFT) & PLY_NUMBER_MASK;}
     public final long getHashCode()             {return m_hashCode;}
     
+    /**
+     * Returns the number of stones of the given kind on the board. Maintained
+     * incrementally, takes constant time.
+     */
+    public final int getNumOfStones(int stone)  {return (int)(m_material >>> (4 * (stone - Chess.MIN_STONE))) & 0xF;}
+    
+    /**
+     * Returns the material signature of the position, see {@link MaterialSignature}.
+     * Maintained incrementally, takes constant time.
+     */
+    public final int getMaterialSignature()     {return MaterialSignature.getSignature(m_material);}
+    
+    private static final long getMaterialUnit(int stone) {return 1L << (4 * (stone - Chess.MIN_STONE));}
+    
+    private static final long getPST(int stone, int sqi) {return PieceSquareTables.s_packed[stone - Chess.MIN_STONE][sqi];}
+    
+    /**
+     * Returns the hash code of the pawns only, as key of pawn structure caches.
+     * Maintained incrementally, takes constant time.
+     */
+    public final long getPawnHashCode()         {return m_pawnHashCode;}
+    
+    /**
+     * Returns the phase of the game, from {@link PieceSquareTables#MAX_PHASE}
+     * with all pieces on the board down to 0 with pawns and kings only. Knights
+     * and bishops count 1, rooks 2 and queens 4. Takes constant time.
+     */
+    public final int getPhase()
+    {
+        int phase = getNumOfStones(Chess.WHITE_KNIGHT) + getNumOfStones(Chess.BLACK_KNIGHT)
+                  + getNumOfStones(Chess.WHITE_BISHOP) + getNumOfStones(Chess.BLACK_BISHOP)
+                  + 2 * (getNumOfStones(Chess.WHITE_ROOK) + getNumOfStones(Chess.BLACK_ROOK))
+                  + 4 * (getNumOfStones(Chess.WHITE_QUEEN) + getNumOfStones(Chess.BLACK_QUEEN));
+        return Math.min(phase, PieceSquareTables.MAX_PHASE);
+    }
+    
+    /**
+     * Returns the sum of the middle game {@link PieceSquareTables} values of
+     * all stones, from the point of view of white. Maintained incrementally,
+     * takes constant time.
+     */
+    public final int getMiddleGamePSTScore()    {return PieceSquareTables.getMiddleGame(m_pst);}
+    
+    /**
+     * Returns the sum of the end game {@link PieceSquareTables} values of
+     * all stones, from the point of view of white. Maintained incrementally,
+     * takes constant time.
+     */
+    public final int getEndGamePSTScore()       {return PieceSquareTables.getEndGame(m_pst);}
+    
+    /**
+     * Returns the piece-square score interpolated between middle game and end
+     * game by the phase, from the point of view of the player to move, like
+     * {@link #getMaterial}. Takes constant time.
+     */
+    public final int getPSTScore()
+    {
+        int phase = getPhase();
+        int score = (getMiddleGamePSTScore() * phase + getEndGamePSTScore() * (PieceSquareTables.MAX_PHASE - phase)) / PieceSquareTables.MAX_PHASE;
+        return (getToPlay() == Chess.WHITE ? score : -score);
+    }
+    
     public final int getStone(int sqi)
     {
         if (PROFILE) m_numGetSquare++;
@@ -480,7 +631,11 @@ public final class Position extends AbstractMoveablePosition
         return Chess.NOBODY;
     }
     
-    private final long getBitBoard(int stone)
+    /**
+     * Returns the squares occupied by the stone as a bitboard, bit <i>sqi</i>
+     * being set if the stone is on square <i>sqi</i>.
+     */
+    public final long getBitBoard(int stone)
     {
         switch(stone) {
             case Chess.NO_STONE:     return 0L;
@@ -564,9 +719,11 @@ public final class Position extends AbstractMoveablePosition
                 case Chess.BLACK_QUEEN:  m_bbBlacks |= bbSqi; m_bbBishops |= bbSqi; m_bbRooks |= bbSqi; break;
             }
             
-            /*---------- hash value ----------*/
-            if (old != Chess.NO_STONE)   m_hashCode ^= s_hashMod[sqi][old   - Chess.MIN_STONE];
-            if (stone != Chess.NO_STONE) m_hashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
+            /*---------- hash value, material ----------*/
+            if (old != Chess.NO_STONE)   {m_hashCode ^= s_hashMod[sqi][old   - Chess.MIN_STONE]; m_material -= getMaterialUnit(old);   m_pst -= getPST(old, sqi);}
+            if (stone != Chess.NO_STONE) {m_hashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE]; m_material += getMaterialUnit(stone); m_pst += getPST(stone, sqi);}
+            if (old   == Chess.WHITE_PAWN || old   == Chess.BLACK_PAWN) m_pawnHashCode ^= s_hashMod[sqi][old   - Chess.MIN_STONE];
+            if (stone == Chess.WHITE_PAWN || stone == Chess.BLACK_PAWN) m_pawnHashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
             //System.out.println("hash code set: " + m_hashCode);
             
             /*---------- listeners ----------*/
@@ -703,6 +860,9 @@ public final class Position extends AbstractMoveablePosition
     
     private final void setMove(short move)
     {
+        long materialBefore = m_material;
+        long pstBefore = m_pst;
+        long pawnHashCodeBefore = m_pawnHashCode;
         boolean increaseHalfMoveClock = true;
         int sqiEP = Chess.NO_SQUARE;
         long squaresChanged = 0L;
@@ -719,6 +879,7 @@ public final class Position extends AbstractMoveablePosition
                     m_hashCode ^= s_hashMod[Chess.F1][Chess.WHITE_ROOK - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.G1][Chess.WHITE_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.H1][Chess.WHITE_ROOK - Chess.MIN_STONE];
+                    m_pst += getPST(Chess.WHITE_KING, Chess.G1) - getPST(Chess.WHITE_KING, Chess.E1) + getPST(Chess.WHITE_ROOK, Chess.F1) - getPST(Chess.WHITE_ROOK, Chess.H1);
                 } else {
                     squaresChanged = WHITE_LONG_CASTLE_KING_CHANGE_MASK | WHITE_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_bbWhites ^= WHITE_LONG_CASTLE_KING_CHANGE_MASK | WHITE_LONG_CASTLE_ROOK_CHANGE_MASK;
@@ -728,6 +889,7 @@ public final class Position extends AbstractMoveablePosition
                     m_hashCode ^= s_hashMod[Chess.D1][Chess.WHITE_ROOK - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.C1][Chess.WHITE_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.A1][Chess.WHITE_ROOK - Chess.MIN_STONE];
+                    m_pst += getPST(Chess.WHITE_KING, Chess.C1) - getPST(Chess.WHITE_KING, Chess.E1) + getPST(Chess.WHITE_ROOK, Chess.D1) - getPST(Chess.WHITE_ROOK, Chess.A1);
                 }
                 excludeCastles(WHITE_CASTLE);
             } else {
@@ -740,6 +902,7 @@ public final class Position extends AbstractMoveablePosition
                     m_hashCode ^= s_hashMod[Chess.F8][Chess.BLACK_ROOK - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.G8][Chess.BLACK_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.H8][Chess.BLACK_ROOK - Chess.MIN_STONE];
+                    m_pst += getPST(Chess.BLACK_KING, Chess.G8) - getPST(Chess.BLACK_KING, Chess.E8) + getPST(Chess.BLACK_ROOK, Chess.F8) - getPST(Chess.BLACK_ROOK, Chess.H8);
                 } else {
                     squaresChanged = BLACK_LONG_CASTLE_KING_CHANGE_MASK | BLACK_LONG_CASTLE_ROOK_CHANGE_MASK;
                     m_bbBlacks ^= BLACK_LONG_CASTLE_KING_CHANGE_MASK | BLACK_LONG_CASTLE_ROOK_CHANGE_MASK;
@@ -749,6 +912,7 @@ public final class Position extends AbstractMoveablePosition
                     m_hashCode ^= s_hashMod[Chess.D8][Chess.BLACK_ROOK - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.C8][Chess.BLACK_KING - Chess.MIN_STONE];
                     m_hashCode ^= s_hashMod[Chess.A8][Chess.BLACK_ROOK - Chess.MIN_STONE];
+                    m_pst += getPST(Chess.BLACK_KING, Chess.C8) - getPST(Chess.BLACK_KING, Chess.E8) + getPST(Chess.BLACK_ROOK, Chess.D8) - getPST(Chess.BLACK_ROOK, Chess.A8);
                 }
                 excludeCastles(BLACK_CASTLE);
             }
@@ -771,12 +935,19 @@ public final class Position extends AbstractMoveablePosition
                     int pawnSqi = getSqiEP() + (getToPlay() == Chess.WHITE ? -Chess.NUM_OF_COLS : Chess.NUM_OF_COLS);
                     notBBTo = ~ofSquare(pawnSqi);
                     squaresChanged |= ~notBBTo;
-                    m_hashCode ^= s_hashMod[pawnSqi][(getToPlay() == Chess.WHITE ? Chess.BLACK_PAWN : Chess.WHITE_PAWN) - Chess.MIN_STONE];
+                    int capturedPawn = (getToPlay() == Chess.WHITE ? Chess.BLACK_PAWN : Chess.WHITE_PAWN);
+                    m_hashCode ^= s_hashMod[pawnSqi][capturedPawn - Chess.MIN_STONE];
+                    m_material -= getMaterialUnit(capturedPawn);
+                    m_pst -= getPST(capturedPawn, pawnSqi);
+                    m_pawnHashCode ^= s_hashMod[pawnSqi][capturedPawn - Chess.MIN_STONE];
                 } else {
                     notBBTo = ~bbTo;
 //                    int capturedStone = Chess.pieceToStone(ChMove.getCapturedPiece(move), getNotToPlay());
                     int capturedStone = getStone(Move.getToSqi(move));
                     m_hashCode ^= s_hashMod[sqiTo][capturedStone - Chess.MIN_STONE];
+                    m_material -= getMaterialUnit(capturedStone);
+                    m_pst -= getPST(capturedStone, sqiTo);
+                    if (capturedStone == Chess.WHITE_PAWN || capturedStone == Chess.BLACK_PAWN) m_pawnHashCode ^= s_hashMod[sqiTo][capturedStone - Chess.MIN_STONE];
                 }
                 //                this.printBoard(notBBTo);
                 //TODO:  remove all bits -> faster than switching?
@@ -810,7 +981,11 @@ public final class Position extends AbstractMoveablePosition
                         default: throw new RuntimeException("Illegal promotion stone " + promotionStone + " " + Chess.stoneToChar(promotionStone));
                     }
                 }
+                int pawn = Chess.pieceToStone(Chess.PAWN, getToPlay());
                 m_hashCode ^= s_hashMod[sqiTo][promotionStone - Chess.MIN_STONE];
+                m_material += getMaterialUnit(promotionStone) - getMaterialUnit(pawn);
+                m_pst += getPST(promotionStone, sqiTo) - getPST(pawn, sqiFrom);
+                m_pawnHashCode ^= s_hashMod[sqiFrom][pawn - Chess.MIN_STONE];
                 increaseHalfMoveClock = false;
             } else {
 //                int stone = Chess.pieceToStone(ChMove.getMovingPiece(move), getToPlay());
@@ -836,6 +1011,10 @@ public final class Position extends AbstractMoveablePosition
                 }
                 m_hashCode ^= s_hashMod[sqiFrom][stone - Chess.MIN_STONE];
                 m_hashCode ^= s_hashMod[sqiTo][stone - Chess.MIN_STONE];
+                m_pst += getPST(stone, sqiTo) - getPST(stone, sqiFrom);
+                if (stone == Chess.WHITE_PAWN || stone == Chess.BLACK_PAWN) {
+                    m_pawnHashCode ^= s_hashMod[sqiFrom][stone - Chess.MIN_STONE] ^ s_hashMod[sqiTo][stone - Chess.MIN_STONE];
+                }
             }
             
             /*---------- update castles ----------*/
@@ -884,6 +1063,9 @@ public final class Position extends AbstractMoveablePosition
 //        }
 //        if (index < 0 || index >= m_moveStack.length) System.out.println(index + " " + m_plyNumber + " " + m_initialPlyNumber + " " + m_moveStack.length);
         m_moveStack[index] = move;
+        m_materialStack[index] = materialBefore;
+        m_pstStack[index] = pstBefore;
+        m_pawnHashStack[index] = pawnHashCodeBefore;
         m_moveStackIndex++;
     }
     
@@ -893,6 +1075,15 @@ public final class Position extends AbstractMoveablePosition
             short[] newMoveStack = new short[m_moveStack.length * 2];
             System.arraycopy(m_moveStack, 0, newMoveStack, 0, m_moveStack.length);
             m_moveStack = newMoveStack;
+            long[] newMaterialStack = new long[newMoveStack.length];
+            System.arraycopy(m_materialStack, 0, newMaterialStack, 0, m_materialStack.length);
+            m_materialStack = newMaterialStack;
+            long[] newPSTStack = new long[newMoveStack.length];
+            System.arraycopy(m_pstStack, 0, newPSTStack, 0, m_pstStack.length);
+            m_pstStack = newPSTStack;
+            long[] newPawnHashStack = new long[newMoveStack.length];
+            System.arraycopy(m_pawnHashStack, 0, newPawnHashStack, 0, m_pawnHashStack.length);
+            m_pawnHashStack = newPawnHashStack;
 //            if (index >= m_moveStack.length) System.out.println("Too big");
         }
     }
@@ -930,6 +1121,9 @@ public final class Position extends AbstractMoveablePosition
         m_bakStack[m_bakIndex] = 0L;  // prevent redos
         
         checkMoveStack();
+        m_materialStack[m_moveStackIndex] = m_material;
+        m_pstStack[m_moveStackIndex] = m_pst;
+        m_pawnHashStack[m_moveStackIndex] = m_pawnHashCode;
         m_moveStack[m_moveStackIndex++] = OTHER_CHANGE_MOVE;
     }
     
@@ -987,6 +1181,18 @@ public final class Position extends AbstractMoveablePosition
         if (DEBUG) System.out.println("I did a move " + Move.getString(move));
     }
     
+    /**
+     * Forgets the moves played so far, they can neither be undone nor redone
+     * afterwards. To be called after the position has been set to a state
+     * which is not reached by the moves on the stack.
+     */
+    public void clearHistory()
+    {
+        m_bakIndex = 0;
+        m_bakStack[0] = 0L;  // prevent redos
+        m_moveStackIndex = 0;
+    }
+
     public boolean canUndoMove()
     {
         return m_bakIndex > 0;
@@ -1030,6 +1236,15 @@ public final class Position extends AbstractMoveablePosition
             m_bbBlacks = ((1L << m_blackKing) | m_bbPawns | m_bbKnights | m_bbBishops | m_bbRooks) & (~m_bbWhites);
             
             m_moveStackIndex--;
+            long material = m_materialStack[m_moveStackIndex];  // swap to allow redo
+            m_materialStack[m_moveStackIndex] = m_material;
+            m_material = material;
+            long pst = m_pstStack[m_moveStackIndex];
+            m_pstStack[m_moveStackIndex] = m_pst;
+            m_pst = pst;
+            long pawnHashCode = m_pawnHashStack[m_moveStackIndex];
+            m_pawnHashStack[m_moveStackIndex] = m_pawnHashCode;
+            m_pawnHashCode = pawnHashCode;
             
             if (DEBUG) System.out.println("I undid the last move");
             
@@ -1102,6 +1317,15 @@ public final class Position extends AbstractMoveablePosition
             m_flags        =       allFlags;
             m_bbBlacks = ((1L << m_blackKing) | m_bbPawns | m_bbKnights | m_bbBishops | m_bbRooks) & (~m_bbWhites);
             
+            long material = m_materialStack[m_moveStackIndex];  // swap back
+            m_materialStack[m_moveStackIndex] = m_material;
+            m_material = material;
+            long pst = m_pstStack[m_moveStackIndex];
+            m_pstStack[m_moveStackIndex] = m_pst;
+            m_pst = pst;
+            long pawnHashCode = m_pawnHashStack[m_moveStackIndex];
+            m_pawnHashStack[m_moveStackIndex] = m_pawnHashCode;
+            m_pawnHashCode = pawnHashCode;
             m_moveStackIndex++;
             
             if (DEBUG) System.out.println("I redid the last move");
@@ -1285,6 +1509,195 @@ public final class Position extends AbstractMoveablePosition
         }
     }
     
+    /**
+     * Maximum number of characters of a SAN, e.g. exd8=Q# or Qa1xb2#.
+     */
+    public static final int MAX_SAN_LENGTH = 7;
+    
+    /**
+     * Writes the SAN of the last move as ASCII characters into the buffer,
+     * without creating a {@link Move} or a string. The result equals
+     * <code>getLastMove().getSAN()</code>. Like getLastMove, piece moves
+     * are undone and done again to find ambiguous pieces, so moves undone
+     * before cannot be redone afterwards.
+     *
+     *@param buffer the buffer, with room for MAX_SAN_LENGTH characters at the offset
+     *@param offset where to write the SAN
+     *@return the offset after the SAN, the given offset if there is no last move
+     */
+    public int appendLastMoveSAN(byte[] buffer, int offset)
+    {
+        if (m_moveStackIndex == 0) return offset;  // =====>
+        short move = m_moveStack[m_moveStackIndex - 1];
+        if (!Move.isValid(move)) return offset;  // =====>
+        
+        if (Move.isShortCastle(move)) {
+            buffer[offset++] = 'O'; buffer[offset++] = '-'; buffer[offset++] = 'O';
+        } else if (Move.isLongCastle(move)) {
+            buffer[offset++] = 'O'; buffer[offset++] = '-'; buffer[offset++] = 'O'; buffer[offset++] = '-'; buffer[offset++] = 'O';
+        } else {
+            int from = Move.getFromSqi(move);
+            int to = Move.getToSqi(move);
+            int piece = (Move.isPromotion(move) ? Chess.PAWN : getPiece(to));
+            if (piece == Chess.PAWN) {
+                if (Move.isCapturing(move)) buffer[offset++] = (byte)Chess.colToChar(Chess.sqiToCol(from));
+            } else {
+                buffer[offset++] = (byte)Chess.pieceToChar(piece);
+                long bb;
+                boolean notify = m_notifyListeners;
+                m_notifyListeners = false;
+                undoMoveNoMoveListeners();
+                try {
+                    bb = getAmbiguousPieces(move);
+                    doMoveNoMoveListeners(move);
+                } catch (IllegalMoveException ex) {
+                    throw new RuntimeException(ex);  // cannot happen, the move has been played before
+                } finally {
+                    m_notifyListeners = notify;
+                }
+                if (bb != 0L) {
+                    if ((bb & ofCol(Chess.sqiToCol(from))) == 0L) {
+                        buffer[offset++] = (byte)Chess.colToChar(Chess.sqiToCol(from));
+                    } else if ((bb & ofRow(Chess.sqiToRow(from))) == 0L) {
+                        buffer[offset++] = (byte)Chess.rowToChar(Chess.sqiToRow(from));
+                    } else {
+                        buffer[offset++] = (byte)Chess.colToChar(Chess.sqiToCol(from));
+                        buffer[offset++] = (byte)Chess.rowToChar(Chess.sqiToRow(from));
+                    }
+                }
+            }
+            if (Move.isCapturing(move)) buffer[offset++] = 'x';
+            buffer[offset++] = (byte)Chess.colToChar(Chess.sqiToCol(to));
+            buffer[offset++] = (byte)Chess.rowToChar(Chess.sqiToRow(to));
+            if (Move.isPromotion(move)) {
+                buffer[offset++] = '=';
+                buffer[offset++] = (byte)Chess.pieceToChar(Move.getPromotionPiece(move));
+            }
+        }
+        if      (isMate())  buffer[offset++] = '#';
+        else if (isCheck()) buffer[offset++] = '+';
+        return offset;
+    }
+    
+    /**
+     * Returns the last move like {@link #getLastMove}, but postpones the
+     * computation of disambiguation, check and mate until they are asked for.
+     * The state before the move is read from the backup stack without
+     * changing the position, so this is much cheaper than getLastMove if the
+     * SAN of the move is rarely needed, e.g. when traversing games.
+     *
+     *@return the last move, null if no move has been played
+     */
+    public Move getLastLazyMove()
+    {
+        if (m_moveStackIndex == 0 || m_bakIndex == 0) return null;  // =====>
+        short move = m_moveStack[m_moveStackIndex - 1];
+        if (!Move.isValid(move)) return getLastMove();  // =====>
+        
+        // peek at the state before the move, see undoMoveNoMoveListeners
+        int index = m_bakIndex;
+        long allFlags  = m_bakStack[--index];
+        int changeMask = (int)(allFlags & 0x1F); allFlags >>>= 5;
+        long bbRooks   = ((changeMask & 0x01) != 0 ? m_bakStack[--index] : m_bbRooks);
+        long bbBishops = ((changeMask & 0x02) != 0 ? m_bakStack[--index] : m_bbBishops);
+        long bbKnights = ((changeMask & 0x04) != 0 ? m_bakStack[--index] : m_bbKnights);
+        long bbPawns   = ((changeMask & 0x08) != 0 ? m_bakStack[--index] : m_bbPawns);
+        long bbWhites  = ((changeMask & 0x10) != 0 ? m_bakStack[--index] : m_bbWhites);
+        int blackKing  = (int)(allFlags & 0x3F); allFlags >>>= 6;
+        int whiteKing  = (int)(allFlags & 0x3F); allFlags >>>= 6;
+        return new LazyMove(move, getToPlay() == Chess.BLACK, bbWhites, bbPawns, bbKnights, bbBishops, bbRooks, whiteKing, blackKing, allFlags);
+    }
+    
+    /**
+     * Sets the raw state of the position, used by {@link LazyMove} to replay a
+     * move on a scratch position. The hash code and the material are not
+     * maintained.
+     */
+    void setState(long bbWhites, long bbPawns, long bbKnights, long bbBishops, long bbRooks, int whiteKing, int blackKing, long flags)
+    {
+        m_bbWhites   = bbWhites;
+        m_bbPawns    = bbPawns;
+        m_bbKnights  = bbKnights;
+        m_bbBishops  = bbBishops;
+        m_bbRooks    = bbRooks;
+        m_whiteKing  = whiteKing;
+        m_blackKing  = blackKing;
+        m_flags      = flags;
+        m_bbBlacks   = ((1L << m_blackKing) | m_bbPawns | m_bbKnights | m_bbBishops | m_bbRooks) & (~m_bbWhites);
+        m_hashCode   = 0L;
+        m_material   = 0L;
+        m_pst        = 0L;
+        m_pawnHashCode = 0L;
+    }
+    
+    /**
+     * Writes the state of the position as a record of {@link PositionArena}.
+     */
+    void writeState(java.nio.ByteBuffer buf, int offset)
+    {
+        buf.putLong(offset,      m_bbWhites);
+        buf.putLong(offset +  8, m_bbPawns);
+        buf.putLong(offset + 16, m_bbKnights);
+        buf.putLong(offset + 24, m_bbBishops);
+        buf.putLong(offset + 32, m_bbRooks);
+        buf.putLong(offset + 40, m_hashCode);
+        buf.putLong(offset + 48, (m_flags << 14) | ((long)(m_whiteKing - Chess.NO_SQUARE) << 7) | (long)(m_blackKing - Chess.NO_SQUARE));
+    }
+
+    /**
+     * Sets the position to a record of {@link PositionArena}. The moves played
+     * so far are forgotten. Listeners are notified of a changed position, but
+     * not of the single squares.
+     */
+    void readState(java.nio.ByteBuffer buf, int offset)
+    {
+        m_bbWhites   = buf.getLong(offset);
+        m_bbPawns    = buf.getLong(offset +  8);
+        m_bbKnights  = buf.getLong(offset + 16);
+        m_bbBishops  = buf.getLong(offset + 24);
+        m_bbRooks    = buf.getLong(offset + 32);
+        m_hashCode   = buf.getLong(offset + 40);
+        long state   = buf.getLong(offset + 48);
+        m_blackKing  = (int)(state & 0x7F) + Chess.NO_SQUARE; state >>>= 7;
+        m_whiteKing  = (int)(state & 0x7F) + Chess.NO_SQUARE; state >>>= 7;
+        m_flags      = state;
+
+        long bbKings = (m_whiteKing != Chess.NO_SQUARE ? ofSquare(m_whiteKing) : 0L) | (m_blackKing != Chess.NO_SQUARE ? ofSquare(m_blackKing) : 0L);
+        m_bbBlacks   = (bbKings | m_bbPawns | m_bbKnights | m_bbBishops | m_bbRooks) & (~m_bbWhites);
+
+        /*---------- material ----------*/
+        long bbQueens = m_bbBishops & m_bbRooks;
+        m_material = 0L;
+        if (m_whiteKing != Chess.NO_SQUARE) m_material += getMaterialUnit(Chess.WHITE_KING);
+        if (m_blackKing != Chess.NO_SQUARE) m_material += getMaterialUnit(Chess.BLACK_KING);
+        m_material += Long.bitCount(m_bbPawns   & m_bbWhites)  * getMaterialUnit(Chess.WHITE_PAWN);
+        m_material += Long.bitCount(m_bbPawns   & m_bbBlacks)  * getMaterialUnit(Chess.BLACK_PAWN);
+        m_material += Long.bitCount(m_bbKnights & m_bbWhites)  * getMaterialUnit(Chess.WHITE_KNIGHT);
+        m_material += Long.bitCount(m_bbKnights & m_bbBlacks)  * getMaterialUnit(Chess.BLACK_KNIGHT);
+        m_material += Long.bitCount(m_bbBishops & ~bbQueens & m_bbWhites) * getMaterialUnit(Chess.WHITE_BISHOP);
+        m_material += Long.bitCount(m_bbBishops & ~bbQueens & m_bbBlacks) * getMaterialUnit(Chess.BLACK_BISHOP);
+        m_material += Long.bitCount(m_bbRooks   & ~bbQueens & m_bbWhites) * getMaterialUnit(Chess.WHITE_ROOK);
+        m_material += Long.bitCount(m_bbRooks   & ~bbQueens & m_bbBlacks) * getMaterialUnit(Chess.BLACK_ROOK);
+        m_material += Long.bitCount(bbQueens & m_bbWhites) * getMaterialUnit(Chess.WHITE_QUEEN);
+        m_material += Long.bitCount(bbQueens & m_bbBlacks) * getMaterialUnit(Chess.BLACK_QUEEN);
+
+        /*---------- piece-square sums, pawn hash code ----------*/
+        m_pst = 0L;
+        m_pawnHashCode = 0L;
+        for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+            if (stone == Chess.NO_STONE || getNumOfStones(stone) == 0) continue;
+            boolean isPawn = (stone == Chess.WHITE_PAWN || stone == Chess.BLACK_PAWN);
+            for (long bb = getBitBoard(stone); bb != 0L; bb &= bb - 1) {
+                int sqi = Long.numberOfTrailingZeros(bb);
+                m_pst += getPST(stone, sqi);
+                if (isPawn) m_pawnHashCode ^= s_hashMod[sqi][stone - Chess.MIN_STONE];
+            }
+        }
+
+        clearHistory();
+        firePositionChanged();
+    }
+
     private final int getFromSqi(int piece, int colFrom, int rowFrom, int to)
     {
         long bb = getBitBoard(Chess.pieceToStone(piece, getToPlay()));
@@ -1325,19 +1738,17 @@ public final class Position extends AbstractMoveablePosition
         return Move.getRegularMove(getFromSqi(piece, colFrom, rowFrom, to), to, !isSquareEmpty(to));
     }
     
-    private Move getPieceMoveAndDo(short move) throws IllegalMoveException
+    /**
+     * Returns the other pieces of the moving stone which could legally go to
+     * the to-square of the move, as needed to disambiguate the SAN.
+     */
+    private long getAmbiguousPieces(short move) throws IllegalMoveException
     {
-        if (!Move.isValid(move)) throw new IllegalMoveException (move);
-        
         int from = Move.getFromSqi(move);
         int to = Move.getToSqi(move);
         boolean isCapturing = Move.isCapturing(move);
-        int stone = getStone(from);
-
-        int colFrom = Chess.NO_COL;
-        int rowFrom = Chess.NO_ROW;
-
-        long bb = getBitBoard(stone) & getDirectAttackers(to, getToPlay(), false) & ~ofSquare(from);
+        
+        long bb = getBitBoard(getStone(from)) & getDirectAttackers(to, getToPlay(), false) & ~ofSquare(from);
         if (!isCapturing) bb &= (~m_bbPawns);
         if (bb != 0L) {
             for (long bb2 = bb; bb2 != 0L; bb2 &= bb2 -1) {
@@ -1350,6 +1761,22 @@ public final class Position extends AbstractMoveablePosition
                 undoMoveNoMoveListeners();
             }
         }
+        return bb;
+    }
+    
+    private Move getPieceMoveAndDo(short move) throws IllegalMoveException
+    {
+        if (!Move.isValid(move)) throw new IllegalMoveException (move);
+        
+        int from = Move.getFromSqi(move);
+        int to = Move.getToSqi(move);
+        boolean isCapturing = Move.isCapturing(move);
+        int stone = getStone(from);
+
+        int colFrom = Chess.NO_COL;
+        int rowFrom = Chess.NO_ROW;
+
+        long bb = getAmbiguousPieces(move);
         if (bb != 0L) {
             if ((bb & ofCol(Chess.sqiToCol(from))) == 0L) {
                 colFrom = Chess.sqiToCol(from);
@@ -1956,6 +2383,38 @@ public final class Position extends AbstractMoveablePosition
         return getAllMoves(bbTargets, bbPawnTargets);
     }
     
+    /**
+     * Writes all legal moves into the given buffer. Unlike {@link #getAllMoves()}
+     * no array is allocated, which makes this variant suitable for searches.
+     *
+     *@param moves the buffer, must have room for 256 moves after <code>offset</code>
+     *@param offset the index of the first move in the buffer
+     *@return the number of moves written
+     */
+    public int getAllMoves(short[] moves, int offset)
+    {
+        int numOfMoves = generateMoves(~0L, ~0L);
+        System.arraycopy(m_moves, 0, moves, offset, numOfMoves);
+        return numOfMoves;
+    }
+    
+    /**
+     * Writes all legal capturing moves, including en passant, into the given
+     * buffer. No array is allocated.
+     *
+     *@param moves the buffer, must have room for 256 moves after <code>offset</code>
+     *@param offset the index of the first move in the buffer
+     *@return the number of moves written
+     */
+    public int getAllCapturingMoves(short[] moves, int offset)
+    {
+        long bbTargets = getToPlay() == Chess.WHITE ? m_bbBlacks : m_bbWhites;
+        long bbPawnTargets = (getSqiEP() == Chess.NO_SQUARE ? bbTargets : bbTargets | ofSquare(getSqiEP()));
+        int numOfMoves = generateMoves(bbTargets, bbPawnTargets);
+        System.arraycopy(m_moves, 0, moves, offset, numOfMoves);
+        return numOfMoves;
+    }
+    
     public short[] getAllNonCapturingMoves()
     {
         long bbTargets = getToPlay() == Chess.WHITE ? ~m_bbBlacks : ~m_bbWhites;
@@ -1966,9 +2425,19 @@ public final class Position extends AbstractMoveablePosition
     
     private final short[] getAllMoves(long bbTargets, long bbPawnTargets)
     {
+        int moveIndex = generateMoves(bbTargets, bbPawnTargets);
+        short[] onlyTheMoves = new short[moveIndex];
+        System.arraycopy(m_moves, 0, onlyTheMoves, 0, moveIndex);
+        
+        return onlyTheMoves;
+    }
+    
+    private final int generateMoves(long bbTargets, long bbPawnTargets)
+    {
+        // writes the moves into m_moves, returns the number of moves
         if (PROFILE) m_numGetAllMoves++;
         
-        if (bbTargets == 0L) return new short[0];  // =====>
+        if (bbTargets == 0L) return 0;  // =====>
         
         int moveIndex = 0;  // TODO: make class?
         
@@ -2000,10 +2469,7 @@ public final class Position extends AbstractMoveablePosition
             moveIndex = getAllPawnMoves(moveIndex, bbPawnTargets);
         }
         
-        short[] onlyTheMoves = new short[moveIndex];
-        System.arraycopy(m_moves, 0, onlyTheMoves, 0, moveIndex);
-        
-        return onlyTheMoves;
+        return moveIndex;
     }
     
     public boolean canMove()
@@ -2144,17 +2610,208 @@ public final class Position extends AbstractMoveablePosition
 //    }
     
     /*================================================================================*/
+    // static exchange evaluation
+    
+    private static final int[] SEE_VALUE = {0, 300, 325, 500, 900, 100, 10000};  // indexed by piece
+    
+    /**
+     * Returns the value of a piece as used by the static exchange evaluation,
+     * in centipawns. The values are the ones of {@link #getMaterial()}, the
+     * king is worth more than all other pieces together.
+     *
+     *@param piece the piece
+     *@return the value of the piece
+     */
+    public static final int getSEEValue(int piece) {return SEE_VALUE[piece];}
     
+    /**
+     * Returns the static exchange evaluation of a move, i.e. the material
+     * balance in centipawns for the moving player after the sequence of
+     * captures on the destination square of the move, where each side
+     * recaptures with its least valuable piece and may stop capturing at any
+     * time. The sequence is computed on bitboards, no move is made. Sliders
+     * behind a capturing piece join the sequence (x-rays), pins and
+     * promotions of recapturing pawns are not considered. Castles are
+     * evaluated as 0.
+     *
+     *@param move the move to evaluate, must be a pseudo-legal move in the position
+     *@return the value of the exchange
+     */
+    public int see(short move)
+    {
+        if (Move.isCastle(move) || !Move.isValid(move)) return 0;  // =====>
+        
+        int from = Move.getFromSqi(move), to = Move.getToSqi(move);
+        int color = getColor(from);
+        long bbOccupied = (m_bbWhites | m_bbBlacks) & ~ofSquare(from);
+        int[] gain = m_seeGain;
+        int value;
+        if (Move.isEPMove(move)) {
+            bbOccupied &= ~ofSquare(color == Chess.WHITE ? to - Chess.NUM_OF_COLS : to + Chess.NUM_OF_COLS);
+            gain[0] = SEE_VALUE[Chess.PAWN];
+        } else {
+            gain[0] = SEE_VALUE[getPiece(to)];
+        }
+        if (Move.isPromotion(move)) {
+            value = SEE_VALUE[Move.getPromotionPiece(move)];
+            gain[0] += value - SEE_VALUE[Chess.PAWN];
+        } else {
+            value = SEE_VALUE[getPiece(from)];
+        }
+        
+        long bbAttackers = getAttackers(to, bbOccupied);
+        int depth = 0;
+        for (;;) {
+            color = Chess.otherPlayer(color);
+            long bbOwn = bbAttackers & (color == Chess.WHITE ? m_bbWhites : m_bbBlacks);
+            if (bbOwn == 0L) break;
+            int piece = getLeastValuablePiece(bbOwn);
+            if (piece == Chess.KING && (bbAttackers & ~bbOwn) != 0L) break;  // king cannot capture into check
+            depth++;
+            gain[depth] = value - gain[depth - 1];
+            value = SEE_VALUE[piece];
+            long bbFrom = getFirstSqiBB(bbOwn & getPieceBitBoard(piece));
+            bbOccupied &= ~bbFrom;
+            bbAttackers = (bbAttackers & ~bbFrom) | getXRayAttacker(to, bbFrom, bbOccupied);
+        }
+        while (depth > 0) {
+            gain[depth - 1] = -Math.max(-gain[depth - 1], gain[depth]);
+            depth--;
+        }
+        return gain[0];
+    }
+    
+    /**
+     * Returns whether the static exchange evaluation of a move is at least
+     * the given threshold. Equivalent to <code>see(move) &gt;= threshold</code>
+     * but faster, since the sequence of captures is stopped as soon as the
+     * result is known.
+     *
+     *@param move the move to evaluate, must be a pseudo-legal move in the position
+     *@param threshold the threshold in centipawns
+     *@return whether the value of the exchange is at least <code>threshold</code>
+     */
+    public boolean seeGE(short move, int threshold)
+    {
+        if (Move.isCastle(move) || !Move.isValid(move)) return 0 >= threshold;  // =====>
+        
+        int from = Move.getFromSqi(move), to = Move.getToSqi(move);
+        int color = getColor(from);
+        long bbOccupied = (m_bbWhites | m_bbBlacks) & ~ofSquare(from);
+        int swap, value;
+        if (Move.isEPMove(move)) {
+            bbOccupied &= ~ofSquare(color == Chess.WHITE ? to - Chess.NUM_OF_COLS : to + Chess.NUM_OF_COLS);
+            swap = SEE_VALUE[Chess.PAWN];
+        } else {
+            swap = SEE_VALUE[getPiece(to)];
+        }
+        if (Move.isPromotion(move)) {
+            value = SEE_VALUE[Move.getPromotionPiece(move)];
+            swap += value - SEE_VALUE[Chess.PAWN];
+        } else {
+            value = SEE_VALUE[getPiece(from)];
+        }
+        
+        // swap is the balance the side to capture has to beat, res is 1 if the moving player reaches the threshold
+        swap -= threshold;
+        if (swap < 0) return false;  // =====>  even without recapture
+        swap = value - swap;
+        if (swap <= 0) return true;  // =====>  even after losing the moving piece
+        
+        long bbAttackers = getAttackers(to, bbOccupied);
+        int res = 1;
+        for (;;) {
+            color = Chess.otherPlayer(color);
+            long bbOwn = bbAttackers & (color == Chess.WHITE ? m_bbWhites : m_bbBlacks);
+            if (bbOwn == 0L) break;
+            res ^= 1;
+            int piece = getLeastValuablePiece(bbOwn);
+            if (piece == Chess.KING) {
+                return ((bbAttackers & ~bbOwn) != 0L ? res ^ 1 : res) != 0;  // =====>
+            }
+            swap = SEE_VALUE[piece] - swap;
+            if (swap < res) break;
+            long bbFrom = getFirstSqiBB(bbOwn & getPieceBitBoard(piece));
+            bbOccupied &= ~bbFrom;
+            bbAttackers = (bbAttackers & ~bbFrom) | getXRayAttacker(to, bbFrom, bbOccupied);
+        }
+        return res != 0;
+    }
+    
+    /**
+     * Returns the pieces of both colors in <code>bbOccupied</code> attacking <code>sqi</code>,
+     * with the sliders blocked by <code>bbOccupied</code>. Ep captures are not included.
+     */
+    private final long getAttackers(int sqi, long bbOccupied)
+    {
+        long attackers = (KNIGHT_ATTACKS[sqi] & m_bbKnights)
+                       | (KING_ATTACKS[sqi] & getPieceBitBoard(Chess.KING))
+                       | (BLACK_PAWN_ATTACKS[sqi] & m_bbPawns & m_bbWhites)
+                       | (WHITE_PAWN_ATTACKS[sqi] & m_bbPawns & m_bbBlacks);
+        
+        long bbTargets = ((BISHOP_ATTACKS[sqi] & m_bbBishops) | (ROOK_ATTACKS[sqi] & m_bbRooks)) & bbOccupied;
+        while (bbTargets != 0L) {
+            int from = getFirstSqi(bbTargets);
+            if ((SQUARES_BETWEEN[from][sqi] & bbOccupied) == 0L) attackers |= ofSquare(from);
+            bbTargets &= bbTargets - 1;
+        }
+        return attackers & bbOccupied;
+    }
+    
+    /**
+     * Returns the slider attacking <code>sqi</code> through the square <code>bbRemoved</code>
+     * after the piece there has been removed from <code>bbOccupied</code>, or 0 if none.
+     */
+    private final long getXRayAttacker(int sqi, long bbRemoved, long bbOccupied)
+    {
+        int dir = DIR[sqi][getFirstSqi(bbRemoved)];
+        if (dir == NO_DIR) return 0L;  // =====>  knight
+        
+        long bbBehind = RAY[sqi][dir] & bbOccupied & (isDiagonal(dir) ? m_bbBishops : m_bbRooks);
+        if (bbBehind == 0L) return 0L;  // =====>
+        long bbNext = (DIR_SHIFT[dir] > 0 ? getFirstSqiBB(bbBehind) : Long.highestOneBit(bbBehind));
+        return ((SQUARES_BETWEEN[sqi][getFirstSqi(bbNext)] & bbOccupied) == 0L ? bbNext : 0L);
+    }
+    
+    private final int getLeastValuablePiece(long bb)
+    {
+        if ((bb & m_bbPawns) != 0L) return Chess.PAWN;
+        if ((bb & m_bbKnights) != 0L) return Chess.KNIGHT;
+        if ((bb & m_bbBishops & ~m_bbRooks) != 0L) return Chess.BISHOP;
+        if ((bb & m_bbRooks & ~m_bbBishops) != 0L) return Chess.ROOK;
+        if ((bb & m_bbRooks & m_bbBishops) != 0L) return Chess.QUEEN;
+        return Chess.KING;
+    }
+    
+    private final long getPieceBitBoard(int piece)
+    {
+        switch(piece) {
+            case Chess.PAWN:     return m_bbPawns;
+            case Chess.KNIGHT:   return m_bbKnights;
+            case Chess.BISHOP:   return m_bbBishops & (~m_bbRooks);
+            case Chess.ROOK:     return m_bbRooks & (~m_bbBishops);
+            case Chess.QUEEN:    return m_bbBishops & m_bbRooks;
+            case Chess.KING:     return (m_bbWhites | m_bbBlacks) & ~(m_bbPawns | m_bbKnights | m_bbBishops | m_bbRooks);
+            default:
+                throw new RuntimeException("Unknown piece: " + piece);
+        }
+    }
+    
+    /*================================================================================*/
+    
+    /**
+     * Returns the material balance in centipawns from the point of view of the
+     * player to move, see {@link #getSEEValue} for the piece values. Computed
+     * from the stone counts, takes constant time.
+     */
     public int getMaterial()
     {
         int value = 0;
-        //        if ((m_bbPawns & m_bbWhites) != 0L) System.out.println("not null");
-        value += 100 * (numOfBitsSet(m_bbPawns & m_bbWhites) - numOfBitsSet(m_bbPawns & m_bbBlacks));
-        value += 300 * (numOfBitsSet(m_bbKnights & m_bbWhites) - numOfBitsSet(m_bbKnights & m_bbBlacks));
-        value += 325 * (numOfBitsSet(m_bbBishops & (~m_bbRooks) & m_bbWhites) - numOfBitsSet(m_bbBishops & (~m_bbRooks) & m_bbBlacks));
-        value += 500 * (numOfBitsSet(m_bbRooks & (~m_bbBishops) & m_bbWhites) - numOfBitsSet(m_bbRooks & (~m_bbBishops) & m_bbBlacks));
-        value += 900 * (numOfBitsSet(m_bbRooks & m_bbBishops & m_bbWhites) - numOfBitsSet(m_bbRooks & m_bbBishops & m_bbBlacks));
-        //        System.out.println(value);
+        value += 100 * (getNumOfStones(Chess.WHITE_PAWN)   - getNumOfStones(Chess.BLACK_PAWN));
+        value += 300 * (getNumOfStones(Chess.WHITE_KNIGHT) - getNumOfStones(Chess.BLACK_KNIGHT));
+        value += 325 * (getNumOfStones(Chess.WHITE_BISHOP) - getNumOfStones(Chess.BLACK_BISHOP));
+        value += 500 * (getNumOfStones(Chess.WHITE_ROOK)   - getNumOfStones(Chess.BLACK_ROOK));
+        value += 900 * (getNumOfStones(Chess.WHITE_QUEEN)  - getNumOfStones(Chess.BLACK_QUEEN));
         return (getToPlay() == Chess.WHITE ? value : -value);
     }
     
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * Storage for large numbers of positions outside of the java heap.
+ *
+ * The positions are stored as fixed size records in direct byte buffers or,
+ * if a file is given, in memory mapped segments of the file. A record is
+ * addressed by its number, records are appended at the end. Positions are
+ * copied from and to {@link Position} as bitboards, no square is looked at
+ * and no object is allocated.
+ *
+ * Record layout (big endian, {@link #RECORD_SIZE} bytes):
+ * <pre>
+ *   long  whites     bitboard of the white stones
+ *   long  pawns      bitboards of the pieces, queens are bishops and rooks
+ *   long  knights
+ *   long  bishops
+ *   long  rooks
+ *   long  hashCode   hash code of the position
+ *   long  state      flags of the position (castles, ep square, to play,
+ *                    ply number, half move clock) in bits 14 and above,
+ *                    white king + 1 in bits 7-13, black king + 1 in bits 0-6
+ * </pre>
+ * A file starts with a header of {@link #HEADER_SIZE} bytes holding the
+ * number of records, which is written by {@link #flush} and {@link #close}.
+ * While the arena is open, the file is longer than its records, the last
+ * segment is mapped with room to grow; {@link #close} cuts it to its used
+ * length.
+ *
+ * Optionally, the arena maintains an index from hash codes to records, see
+ * {@link #find(long)}. The index is an open addressing table of record
+ * numbers, also held in direct byte buffers; it is not stored in the file
+ * but rebuilt when the file is opened.
+ *
+ * An arena can be read by many threads at the same time as long as no
+ * positions are added or changed.
+ */
+public class PositionArena implements Closeable
+{
+
+    public static final int
+        RECORD_SIZE = 56,
+        HEADER_SIZE = 16;
+
+    static final int
+        MAGIC = 0x43504141,  // "CPAA"
+        VERSION = 1;
+
+    private static final int
+        SEGMENT_SHIFT = 20,
+        RECORDS_PER_SEGMENT = 1 << SEGMENT_SHIFT,  // 56 MB per segment
+        INDEX_SEGMENT_SHIFT = 24,
+        SLOTS_PER_INDEX_SEGMENT = 1 << INDEX_SEGMENT_SHIFT;  // 128 MB per index segment
+
+    /*================================================================================*/
+
+    private final RandomAccessFile m_file;  // null if in memory
+    private ByteBuffer[] m_segments;
+    private long m_numOfRecords;
+
+    private ByteBuffer[] m_index;  // record number + 1 per slot, 0 for empty slots; null if not indexed
+    private long m_indexMask;
+    private long m_numOfIndexed;
+
+    /*================================================================================*/
+
+    /**
+     * Creates an empty arena in memory.
+     *
+     *@param indexed whether to maintain an index of the hash codes
+     */
+    public PositionArena(boolean indexed)
+    {
+        m_file = null;
+        m_segments = new ByteBuffer[0];
+        m_numOfRecords = 0;
+        if (indexed) initIndex(1L << 10);
+    }
+
+    /**
+     * Opens an arena stored in a file, the file is created if it does not
+     * exist. The positions added are written to the file.
+     *
+     *@param file the file
+     *@param indexed whether to maintain an index of the hash codes
+     */
+    public PositionArena(File file, boolean indexed) throws IOException
+    {
+        m_file = new RandomAccessFile(file, "rw");
+        boolean ok = false;
+        try {
+            if (m_file.length() == 0L) {
+                m_numOfRecords = 0;
+                writeHeader();
+            } else {
+                if (m_file.readInt() != MAGIC) throw new IOException("Not a position arena file: " + file);
+                if (m_file.readInt() != VERSION) throw new IOException("Unsupported position arena version: " + file);
+                m_numOfRecords = m_file.readLong();
+                if (HEADER_SIZE + m_numOfRecords * RECORD_SIZE > m_file.length()) throw new IOException("Truncated position arena file: " + file);
+            }
+            m_segments = new ByteBuffer[0];
+            ensureCapacity(m_numOfRecords);
+            if (indexed) {
+                initIndex(Long.highestOneBit(Math.max(1024L, 2 * m_numOfRecords)) * 2);
+                for (long record = 0; record < m_numOfRecords; record++) addToIndex(record);
+            }
+            ok = true;
+        } finally {
+            if (!ok) m_file.close();
+        }
+    }
+
+    private void writeHeader() throws IOException
+    {
+        m_file.seek(0L);
+        m_file.writeInt(MAGIC);
+        m_file.writeInt(VERSION);
+        m_file.writeLong(m_numOfRecords);
+    }
+
+    /**
+     * Writes the number of records to the file. The records themselves are
+     * written by the operating system.
+     */
+    public void flush() throws IOException
+    {
+        if (m_file != null) writeHeader();
+    }
+
+    public void close() throws IOException
+    {
+        if (m_file != null) {
+            try {
+                writeHeader();
+                // cut the unused part of the last mapped segment
+                m_file.setLength(HEADER_SIZE + m_numOfRecords * RECORD_SIZE);
+            } finally {
+                m_file.close();
+            }
+        }
+        m_segments = new ByteBuffer[0];
+        m_numOfRecords = 0;
+        m_index = null;
+    }
+
+    /*================================================================================*/
+
+    public long getNumOfPositions() {return m_numOfRecords;}
+
+    public boolean isIndexed() {return m_index != null;}
+
+    private ByteBuffer getSegment(long record)
+    {
+        return m_segments[(int)(record >>> SEGMENT_SHIFT)];
+    }
+
+    private static int getOffset(long record)
+    {
+        return (int)(record & (RECORDS_PER_SEGMENT - 1)) * RECORD_SIZE;
+    }
+
+    private void checkRecord(long record)
+    {
+        if (record < 0 || record >= m_numOfRecords) throw new IndexOutOfBoundsException("Record " + record + " of " + m_numOfRecords);
+    }
+
+    private void ensureCapacity(long numOfRecords) throws IOException
+    {
+        int numOfSegments = (int)((numOfRecords + RECORDS_PER_SEGMENT - 1) >>> SEGMENT_SHIFT);
+        ByteBuffer[] segments = m_segments;
+        if (numOfSegments > segments.length) {
+            segments = new ByteBuffer[numOfSegments];
+            System.arraycopy(m_segments, 0, segments, 0, m_segments.length);
+        }
+        // the last segment grows by doubling: in memory it is copied, a file is mapped again
+        for (int i = Math.max(0, m_segments.length - 1); i < numOfSegments; i++) {
+            int needed = (int)Math.min(RECORDS_PER_SEGMENT, numOfRecords - ((long)i << SEGMENT_SHIFT)) * RECORD_SIZE;
+            ByteBuffer segment = segments[i];
+            if (segment != null && segment.capacity() >= needed) continue;
+            int capacity = (segment == null ? 0 : segment.capacity());
+            int size = Math.min(Math.max(Math.max(needed, 2 * capacity), 1024 * RECORD_SIZE), RECORDS_PER_SEGMENT * RECORD_SIZE);
+            if (m_file != null) {
+                segments[i] = m_file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + ((long)i << SEGMENT_SHIFT) * RECORD_SIZE, size);
+            } else {
+                ByteBuffer newSegment = ByteBuffer.allocateDirect(size);
+                if (segment != null) {
+                    ByteBuffer old = segment.duplicate();
+                    old.clear();
+                    newSegment.put(old);
+                    newSegment.clear();
+                }
+                segments[i] = newSegment;
+            }
+        }
+        m_segments = segments;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Appends a position.
+     *
+     *@param position the position to store
+     *@return the number of the record
+     */
+    public long add(ImmutablePosition position) throws IOException
+    {
+        ensureCapacity(m_numOfRecords + 1);
+        long record = m_numOfRecords++;
+        write(record, position);
+        if (m_index != null) {
+            if (2 * (m_numOfIndexed + 1) > m_indexMask + 1) growIndex();
+            addToIndex(record);
+        }
+        return record;
+    }
+
+    /**
+     * Replaces the position stored in a record. If the arena is indexed, the
+     * index keeps pointing to the record under its old hash code, so only
+     * positions with the same hash code should be replaced.
+     */
+    public void set(long record, ImmutablePosition position)
+    {
+        checkRecord(record);
+        write(record, position);
+    }
+
+    private void write(long record, ImmutablePosition position)
+    {
+        Position pos = (position instanceof Position ? (Position)position : new Position(position));
+        pos.writeState(getSegment(record), getOffset(record));
+    }
+
+    /**
+     * Sets the position to the one stored in a record. If the position is a
+     * {@link Position}, the moves played so far are forgotten, and only
+     * position change listeners are notified.
+     *
+     *@param record the number of the record
+     *@param position the position to set
+     */
+    public void get(long record, MutablePosition position)
+    {
+        checkRecord(record);
+        if (position instanceof Position) {
+            ((Position)position).readState(getSegment(record), getOffset(record));
+        } else {
+            Position pos = new Position();
+            pos.readState(getSegment(record), getOffset(record));
+            position.set(pos);
+        }
+    }
+
+    /**
+     * Returns a copy of the position stored in a record.
+     */
+    public Position getPosition(long record)
+    {
+        Position position = new Position();
+        get(record, position);
+        return position;
+    }
+
+    /**
+     * Returns the hash code of the position stored in a record.
+     */
+    public long getHashCode(long record)
+    {
+        checkRecord(record);
+        return getSegment(record).getLong(getOffset(record) + 40);
+    }
+
+    /*================================================================================*/
+    // index
+
+    private static long getSlot(long hashCode)
+    {
+        return hashCode ^ (hashCode >>> 32);  // the bits of the hash codes are random already
+    }
+
+    private long getIndexEntry(long slot)
+    {
+        return m_index[(int)(slot >>> INDEX_SEGMENT_SHIFT)].getLong((int)(slot & (SLOTS_PER_INDEX_SEGMENT - 1)) * 8);
+    }
+
+    private void setIndexEntry(long slot, long entry)
+    {
+        m_index[(int)(slot >>> INDEX_SEGMENT_SHIFT)].putLong((int)(slot & (SLOTS_PER_INDEX_SEGMENT - 1)) * 8, entry);
+    }
+
+    private void initIndex(long numOfSlots)
+    {
+        int numOfSegments = (int)Math.max(1L, numOfSlots >>> INDEX_SEGMENT_SHIFT);
+        int segmentSize = (int)Math.min(numOfSlots, SLOTS_PER_INDEX_SEGMENT) * 8;
+        m_index = new ByteBuffer[numOfSegments];
+        for (int i = 0; i < numOfSegments; i++) m_index[i] = ByteBuffer.allocateDirect(segmentSize);
+        m_indexMask = numOfSlots - 1;
+        m_numOfIndexed = 0;
+    }
+
+    private void growIndex()
+    {
+        initIndex(2 * (m_indexMask + 1));
+        for (long record = 0; record < m_numOfRecords - 1; record++) addToIndex(record);  // the new record is added by the caller
+    }
+
+    private void addToIndex(long record)
+    {
+        long hashCode = getSegment(record).getLong(getOffset(record) + 40);
+        for (long slot = getSlot(hashCode) & m_indexMask; ; slot = (slot + 1) & m_indexMask) {
+            long entry = getIndexEntry(slot);
+            if (entry == 0L) {
+                setIndexEntry(slot, record + 1);
+                m_numOfIndexed++;
+                return;  // =====>
+            }
+            if (getHashCode(entry - 1) == hashCode) return;  // =====> keep the first record
+        }
+    }
+
+    /**
+     * Returns the first record with the given hash code, or -1 if there is
+     * none. Takes constant time if the arena is indexed; otherwise, the
+     * records are searched one by one.
+     *
+     *@param hashCode the hash code of the position
+     *@return the number of the record, or -1
+     */
+    public long find(long hashCode)
+    {
+        if (m_index == null) {
+            for (long record = 0; record < m_numOfRecords; record++) {
+                if (getHashCode(record) == hashCode) return record;  // =====>
+            }
+            return -1;  // =====>
+        }
+
+        for (long slot = getSlot(hashCode) & m_indexMask; ; slot = (slot + 1) & m_indexMask) {
+            long entry = getIndexEntry(slot);
+            if (entry == 0L) return -1;  // =====>
+            if (getHashCode(entry - 1) == hashCode) return entry - 1;  // =====>
+        }
+    }
+
+    /**
+     * Returns the first record holding the given position, or -1 if there is
+     * none, see {@link #find(long)}.
+     */
+    public long find(ImmutablePosition position)
+    {
+        return find(position.getHashCode());
+    }
+
+}
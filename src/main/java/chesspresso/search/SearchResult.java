@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.search;
+
+import chesspresso.move.*;
+
+/**
+ * The result of a search, as computed by the last completed iteration.
+ */
+public class SearchResult
+{
+    private final int m_score;
+    private final int m_depth;
+    private final long m_numOfNodes;
+    private final long m_time;
+    private final short[] m_pv;
+
+    /*================================================================================*/
+
+    /**
+     * Creates a result, for instance of an external engine.
+     */
+    public SearchResult(int score, int depth, long numOfNodes, long time, short[] pv)
+    {
+        m_score = score;
+        m_depth = depth;
+        m_numOfNodes = numOfNodes;
+        m_time = time;
+        m_pv = pv;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the score in centipawns from the point of view of the player to
+     * move, see {@link Searcher#isMateScore}.
+     */
+    public int getScore() {return m_score;}
+
+    /**
+     * Returns the depth of the last completed iteration.
+     */
+    public int getDepth() {return m_depth;}
+
+    public long getNumOfNodes() {return m_numOfNodes;}
+
+    /**
+     * Returns the time used by the search in milliseconds.
+     */
+    public long getTime() {return m_time;}
+
+    /**
+     * Returns the best move, or <code>Move.NO_MOVE</code> if the player to
+     * move cannot move.
+     */
+    public short getBestMove() {return (m_pv.length > 0 ? m_pv[0] : Move.NO_MOVE);}
+
+    /**
+     * Returns the principal variation, starting with the best move.
+     */
+    public short[] getPV() {return m_pv.clone();}
+
+    /*================================================================================*/
+
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append("depth ").append(m_depth).append(" score ").append(m_score);
+        sb.append(" nodes ").append(m_numOfNodes).append(" time ").append(m_time).append(" pv");
+        for (int i = 0; i < m_pv.length; i++) {
+            sb.append(' ').append(Move.getString(m_pv[i]));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.search;
+
+import chesspresso.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * In-process chess search, for quick evaluations of many positions without
+ * an external engine.
+ *
+ * The search is an iterative deepening principal variation search with a
+ * {@link TranspositionTable}, check extensions and a quiescence search of
+ * captures pruned by static exchange evaluation. Moves are ordered by the
+ * move of the table or the previous iteration, winning captures, killer
+ * moves and history. Positions are scored by {@link #evaluate}, by default
+ * the material balance plus the piece-square score.
+ *
+ * A searcher can be used from many threads at once. Every thread searches
+ * on its own {@link Position} and buffers, which are allocated on the first
+ * search of the thread and reused afterwards, so no objects are allocated
+ * in the search loop. The table is shared by all threads.
+ */
+public class Searcher
+{
+
+    /**
+     * The maximum number of plies searched, including the quiescence search.
+     */
+    public static final int MAX_PLY = 64;
+
+    /**
+     * The score of being mated now. Mate in n plies is scored
+     * <code>MATE - n</code>, being mated in n plies <code>-MATE + n</code>.
+     */
+    public static final int MATE = 30000;
+
+    private static final int INFINITY = 32000;
+
+    /**
+     * Returns whether the score announces a mate.
+     */
+    public static boolean isMateScore(int score)
+    {
+        return Math.abs(score) > MATE - MAX_PLY;
+    }
+
+    /*================================================================================*/
+
+    private final TranspositionTable m_table;
+    private final AtomicInteger m_numOfStops;
+    private final ThreadLocal<Worker> m_workers;
+
+    /*================================================================================*/
+
+    /**
+     * Creates a searcher with a new transposition table.
+     *
+     *@param tableSizeInMB the size of the transposition table
+     */
+    public Searcher(int tableSizeInMB)
+    {
+        this(new TranspositionTable(tableSizeInMB));
+    }
+
+    /**
+     * Creates a searcher using the given transposition table, which may be
+     * shared with other searchers.
+     *
+     *@param table the transposition table
+     */
+    public Searcher(TranspositionTable table)
+    {
+        m_table = table;
+        m_numOfStops = new AtomicInteger();
+        m_workers = new ThreadLocal<Worker>() {
+            protected Worker initialValue() {return new Worker();}
+        };
+    }
+
+    /*================================================================================*/
+
+    public TranspositionTable getTranspositionTable() {return m_table;}
+
+    /**
+     * Searches a position until one of the limits is reached. The first
+     * iteration is always completed. At least one limit should be set.
+     *
+     *@param position the position to search
+     *@param maxDepth the maximum depth in plies, 0 for no limit
+     *@param maxNodes the maximum number of nodes, 0 for no limit
+     *@param maxTime the maximum time in milliseconds, 0 for no limit
+     *@return the result of the last completed iteration
+     */
+    public SearchResult search(ImmutablePosition position, int maxDepth, long maxNodes, long maxTime)
+    {
+        return m_workers.get().search(position, maxDepth, maxNodes, maxTime);
+    }
+
+    /**
+     * Stops all searches running at the time of the call. They return the
+     * result of their last completed iteration.
+     */
+    public void stop()
+    {
+        m_numOfStops.incrementAndGet();
+    }
+
+    /**
+     * Returns the static score of a position in centipawns from the point of
+     * view of the player to move. May be overwritten for other evaluations,
+     * implementations are called from all searching threads and must not
+     * change the position.
+     *
+     *@param position the position to evaluate
+     *@return the score
+     */
+    protected int evaluate(Position position)
+    {
+        return position.getMaterial() + position.getPSTScore();
+    }
+
+    /*================================================================================*/
+
+    private static int toTableScore(int score, int ply)
+    {
+        // mate scores are stored relative to the position
+        if (score > MATE - MAX_PLY) return score + ply;
+        if (score < -MATE + MAX_PLY) return score - ply;
+        return score;
+    }
+
+    private static int fromTableScore(int score, int ply)
+    {
+        if (score > MATE - MAX_PLY) return score - ply;
+        if (score < -MATE + MAX_PLY) return score + ply;
+        return score;
+    }
+
+    /*================================================================================*/
+
+    /**
+     * The search state of one thread.
+     */
+    private class Worker
+    {
+        private final Position m_position = new Position();
+        private final short[][] m_moves = new short[MAX_PLY][256];
+        private final int[][] m_moveScores = new int[MAX_PLY][256];
+        private final short[][] m_pv = new short[MAX_PLY][MAX_PLY];
+        private final int[] m_pvLength = new int[MAX_PLY];
+        private final short[][] m_killers = new short[MAX_PLY][2];
+        private final int[] m_history = new int[Chess.NUM_OF_SQUARES * Chess.NUM_OF_SQUARES];
+        private final long[] m_hashCodes = new long[MAX_PLY];
+
+        private long m_numOfNodes, m_maxNodes, m_deadline;
+        private int m_numOfStops;
+        private boolean m_canAbort, m_aborted;
+        private short m_rootMove;
+
+        /*================================================================================*/
+
+        SearchResult search(ImmutablePosition position, int maxDepth, long maxNodes, long maxTime)
+        {
+            long start = System.nanoTime();
+            m_position.set(position);
+            m_position.clearHistory();
+            m_numOfNodes = 0L;
+            m_maxNodes = (maxNodes > 0L ? maxNodes : Long.MAX_VALUE);
+            m_deadline = (maxTime > 0L ? start + maxTime * 1000000L : Long.MAX_VALUE);
+            m_numOfStops = getNumOfStops();
+            m_canAbort = false;
+            m_aborted = false;
+            m_rootMove = Move.NO_MOVE;
+            if (maxDepth <= 0 || maxDepth >= MAX_PLY) maxDepth = MAX_PLY - 1;
+            for (int i = 0; i < MAX_PLY; i++) {
+                m_killers[i][0] = Move.NO_MOVE;
+                m_killers[i][1] = Move.NO_MOVE;
+            }
+            java.util.Arrays.fill(m_history, 0);
+
+            int score = 0, depth = 0;
+            short[] pv = new short[0];
+            for (int d = 1; d <= maxDepth; d++) {
+                int s = search(d, 0, -INFINITY, INFINITY);
+                if (m_aborted) break;
+                score = s;
+                depth = d;
+                pv = new short[m_pvLength[0]];
+                System.arraycopy(m_pv[0], 0, pv, 0, pv.length);
+                m_rootMove = (pv.length > 0 ? pv[0] : Move.NO_MOVE);
+                m_canAbort = true;
+                if (pv.length == 0) break;  // no legal move
+                if (isMateScore(score) && MATE - Math.abs(score) <= d) break;  // shortest mate found
+            }
+            return new SearchResult(score, depth, m_numOfNodes, (System.nanoTime() - start) / 1000000L, pv);
+        }
+
+        private int getNumOfStops()
+        {
+            return Searcher.this.m_numOfStops.get();
+        }
+
+        private void checkLimits()
+        {
+            if (!m_canAbort) return;  // =====>
+            if (m_numOfNodes >= m_maxNodes) {
+                m_aborted = true;
+            } else if ((m_numOfNodes & 1023) == 0L) {
+                m_aborted = System.nanoTime() > m_deadline || getNumOfStops() != m_numOfStops;
+            }
+        }
+
+        /*================================================================================*/
+
+        private boolean isRepetition(int ply)
+        {
+            long hashCode = m_hashCodes[ply];
+            int minPly = Math.max(0, ply - m_position.getHalfMoveClock());
+            for (int i = ply - 4; i >= minPly; i -= 2) {
+                if (m_hashCodes[i] == hashCode) return true;  // =====>
+            }
+            return false;
+        }
+
+        private void doMove(short move)
+        {
+            try {
+                m_position.doMove(move);
+            } catch (IllegalMoveException ex) {
+                throw new RuntimeException("Generated move is illegal: " + Move.getString(move));
+            }
+        }
+
+        private void updatePV(int ply, short move)
+        {
+            m_pv[ply][ply] = move;
+            int length = m_pvLength[ply + 1];
+            System.arraycopy(m_pv[ply + 1], ply + 1, m_pv[ply], ply + 1, length - ply - 1);
+            m_pvLength[ply] = Math.max(length, ply + 1);
+        }
+
+        /*================================================================================*/
+
+        private void scoreMoves(int ply, int numOfMoves, short bestMove)
+        {
+            short[] moves = m_moves[ply];
+            int[] scores = m_moveScores[ply];
+            for (int i = 0; i < numOfMoves; i++) {
+                short move = moves[i];
+                if (move == bestMove) {
+                    scores[i] = 1 << 30;
+                } else if (Move.isCapturing(move) || Move.isPromotion(move)) {
+                    int victim = (Move.isEPMove(move) ? Chess.PAWN : m_position.getPiece(Move.getToSqi(move)));
+                    int mvvLva = 16 * Position.getSEEValue(victim) - Position.getSEEValue(m_position.getPiece(Move.getFromSqi(move))) / 100;
+                    scores[i] = (m_position.seeGE(move, 0) ? (1 << 28) + mvvLva : -(1 << 28) + mvvLva);
+                } else if (move == m_killers[ply][0]) {
+                    scores[i] = (1 << 27) + 1;
+                } else if (move == m_killers[ply][1]) {
+                    scores[i] = 1 << 27;
+                } else {
+                    scores[i] = m_history[Move.getFromSqi(move) * Chess.NUM_OF_SQUARES + Move.getToSqi(move)];
+                }
+            }
+        }
+
+        private short pickMove(int ply, int index, int numOfMoves)
+        {
+            // selection sort step, moves are mostly cut off before all are sorted
+            short[] moves = m_moves[ply];
+            int[] scores = m_moveScores[ply];
+            int best = index;
+            for (int i = index + 1; i < numOfMoves; i++) {
+                if (scores[i] > scores[best]) best = i;
+            }
+            short move = moves[best];
+            int score = scores[best];
+            moves[best] = moves[index]; scores[best] = scores[index];
+            moves[index] = move;        scores[index] = score;
+            return move;
+        }
+
+        private void updateQuietMove(int ply, short move, int depth)
+        {
+            if (m_killers[ply][0] != move) {
+                m_killers[ply][1] = m_killers[ply][0];
+                m_killers[ply][0] = move;
+            }
+            int index = Move.getFromSqi(move) * Chess.NUM_OF_SQUARES + Move.getToSqi(move);
+            m_history[index] = Math.min(m_history[index] + depth * depth, 1 << 26);
+        }
+
+        /*================================================================================*/
+
+        private int search(int depth, int ply, int alpha, int beta)
+        {
+            if (depth <= 0) return quiesce(ply, alpha, beta);  // =====>
+
+            m_pvLength[ply] = ply;
+            m_numOfNodes++;
+            checkLimits();
+            if (m_aborted) return 0;  // =====>
+
+            long hashCode = m_position.getHashCode();
+            m_hashCodes[ply] = hashCode;
+            if (ply > 0) {
+                if (m_position.getHalfMoveClock() >= 100 || isRepetition(ply)) return 0;  // =====>
+                if (ply >= MAX_PLY - 1) return evaluate(m_position);  // =====>
+            }
+
+            /*---------- transposition table ----------*/
+            short bestMove = Move.NO_MOVE;
+            long data = m_table.probe(hashCode);
+            if (data != TranspositionTable.NOT_FOUND) {
+                bestMove = TranspositionTable.getMove(data);
+                if (beta - alpha == 1 && TranspositionTable.getDepth(data) >= depth) {  // not in pv nodes, to keep the pv complete
+                    int score = fromTableScore(TranspositionTable.getScore(data), ply);
+                    int bound = TranspositionTable.getBound(data);
+                    if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                        || (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) return score;  // =====>
+                }
+            }
+            if (ply == 0 && m_rootMove != Move.NO_MOVE) bestMove = m_rootMove;
+
+            /*---------- moves ----------*/
+            boolean inCheck = m_position.isCheck();
+            if (inCheck) depth++;
+            int numOfMoves = m_position.getAllMoves(m_moves[ply], 0);
+            if (numOfMoves == 0) return (inCheck ? -MATE + ply : 0);  // =====>
+            scoreMoves(ply, numOfMoves, bestMove);
+
+            int alphaOrig = alpha;
+            int bestScore = -INFINITY;
+            bestMove = Move.NO_MOVE;
+            for (int i = 0; i < numOfMoves; i++) {
+                short move = pickMove(ply, i, numOfMoves);
+                doMove(move);
+                int score;
+                if (i == 0) {
+                    score = -search(depth - 1, ply + 1, -beta, -alpha);
+                } else {
+                    score = -search(depth - 1, ply + 1, -alpha - 1, -alpha);
+                    if (score > alpha && score < beta) score = -search(depth - 1, ply + 1, -beta, -alpha);
+                }
+                m_position.undoMove();
+                if (m_aborted) return 0;  // =====>
+
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestMove = move;
+                    if (score > alpha) {
+                        alpha = score;
+                        updatePV(ply, move);
+                        if (score >= beta) {
+                            if (!Move.isCapturing(move) && !Move.isPromotion(move)) updateQuietMove(ply, move, depth);
+                            break;
+                        }
+                    }
+                }
+            }
+
+            int bound = (bestScore >= beta ? TranspositionTable.LOWER_BOUND
+                       : bestScore > alphaOrig ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND);
+            m_table.store(hashCode, bestMove, toTableScore(bestScore, ply), Math.min(depth, 255), bound);
+            return bestScore;
+        }
+
+        private int quiesce(int ply, int alpha, int beta)
+        {
+            m_pvLength[ply] = ply;
+            m_numOfNodes++;
+            checkLimits();
+            if (m_aborted) return 0;  // =====>
+            if (ply >= MAX_PLY - 1) return evaluate(m_position);  // =====>
+
+            boolean inCheck = m_position.isCheck();
+            int bestScore, numOfMoves;
+            if (inCheck) {
+                // all evasions
+                numOfMoves = m_position.getAllMoves(m_moves[ply], 0);
+                if (numOfMoves == 0) return -MATE + ply;  // =====>
+                bestScore = -INFINITY;
+            } else {
+                bestScore = evaluate(m_position);
+                if (bestScore >= beta) return bestScore;  // =====>
+                if (bestScore > alpha) alpha = bestScore;
+                numOfMoves = m_position.getAllCapturingMoves(m_moves[ply], 0);
+            }
+            scoreMoves(ply, numOfMoves, Move.NO_MOVE);
+
+            for (int i = 0; i < numOfMoves; i++) {
+                short move = pickMove(ply, i, numOfMoves);
+                if (!inCheck && m_moveScores[ply][i] < 0) break;  // only losing captures left
+                doMove(move);
+                int score = -quiesce(ply + 1, -beta, -alpha);
+                m_position.undoMove();
+                if (m_aborted) return 0;  // =====>
+
+                if (score > bestScore) {
+                    bestScore = score;
+                    if (score > alpha) {
+                        alpha = score;
+                        updatePV(ply, move);
+                        if (score >= beta) break;
+                    }
+                }
+            }
+            return bestScore;
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.search;
+
+import chesspresso.move.*;
+
+/**
+ * Hash table of search results keyed by the hash code of the position, to be
+ * shared by searches running in several threads.
+ *
+ * The table does not lock. An entry consists of two longs, the data and the
+ * hash code xor'ed with the data. A probe only accepts an entry if both longs
+ * match the hash code, so an entry torn by concurrent writes is treated as
+ * missing. The entries are organized in buckets of two: the first entry keeps
+ * the result of the deepest search, the second one is always replaced.
+ *
+ * The data of an entry is returned as a long, use the static getters to read
+ * it.
+ */
+public class TranspositionTable
+{
+
+    /**
+     * The bound types of a stored score.
+     */
+    public static final int
+        EXACT = 0, LOWER_BOUND = 1, UPPER_BOUND = 2;
+
+    /**
+     * Returned by {@link #probe} if the table has no entry for the position.
+     */
+    public static final long NOT_FOUND = 0L;
+
+    /**
+     * The largest size of a table in megabytes, the entries of a larger one
+     * would not fit into an array.
+     */
+    public static final int MAX_SIZE_IN_MB = 8192;
+
+    // data layout: move (bits 0-15), score (bits 16-31), depth (bits 32-39), bound (bits 40-41), valid bit 63
+    private static final int
+        SCORE_SHIFT = 16,
+        DEPTH_SHIFT = 32,
+        BOUND_SHIFT = 40;
+    private static final long VALID = 1L << 63;
+
+    /*================================================================================*/
+
+    private final long[] m_entries;
+    private final int m_mask;
+
+    /*================================================================================*/
+
+    /**
+     * Creates a table.
+     *
+     *@param sizeInMB the size of the table in megabytes, rounded down to a power of two
+     *@throws IllegalArgumentException if the size is below 1 or above {@link #MAX_SIZE_IN_MB}
+     */
+    public TranspositionTable(int sizeInMB)
+    {
+        if (sizeInMB < 1) throw new IllegalArgumentException("Table size must be at least 1 MB: " + sizeInMB);
+        if (sizeInMB > MAX_SIZE_IN_MB) throw new IllegalArgumentException("Table size must be at most " + MAX_SIZE_IN_MB + " MB: " + sizeInMB);
+        int numOfBuckets = Integer.highestOneBit(sizeInMB) << 15;  // 32 bytes per bucket
+        m_entries = new long[4 * numOfBuckets];
+        m_mask = numOfBuckets - 1;
+    }
+
+    /*================================================================================*/
+
+    public int getNumOfEntries() {return m_entries.length / 2;}
+
+    /**
+     * Removes all entries. Must not be called while searches are using the table.
+     */
+    public void clear()
+    {
+        java.util.Arrays.fill(m_entries, 0L);
+    }
+
+    /*================================================================================*/
+
+    /**
+     * Returns the data stored for a position.
+     *
+     *@param hashCode the hash code of the position
+     *@return the data, or {@link #NOT_FOUND}
+     */
+    public long probe(long hashCode)
+    {
+        int index = 4 * ((int)hashCode & m_mask);
+        long data = m_entries[index + 1];
+        if ((m_entries[index] ^ data) == hashCode && data != 0L) return data;  // =====>
+        data = m_entries[index + 3];
+        if ((m_entries[index + 2] ^ data) == hashCode && data != 0L) return data;  // =====>
+        return NOT_FOUND;
+    }
+
+    /**
+     * Stores the result of a search.
+     *
+     *@param hashCode the hash code of the position
+     *@param move the best move, or <code>Move.NO_MOVE</code> if no move is known
+     *@param score the score, within the range of a short
+     *@param depth the depth searched, between 0 and 255
+     *@param bound the bound type of the score
+     */
+    public void store(long hashCode, short move, int score, int depth, int bound)
+    {
+        int index = 4 * ((int)hashCode & m_mask);
+        long deepData = m_entries[index + 1];
+        boolean sameKey = (m_entries[index] ^ deepData) == hashCode;
+        if (!sameKey && (m_entries[index + 2] ^ m_entries[index + 3]) == hashCode) {
+            sameKey = true;
+            index += 2;
+        } else if (!sameKey && getDepth(deepData) > depth) {
+            index += 2;  // keep the deeper result
+        }
+        if (move == Move.NO_MOVE && sameKey) move = getMove(m_entries[index + 1]);  // keep the known move
+        long data = VALID
+                  | ((long)bound << BOUND_SHIFT)
+                  | ((long)depth << DEPTH_SHIFT)
+                  | (((long)score & 0xFFFFL) << SCORE_SHIFT)
+                  | ((long)move & 0xFFFFL);
+        m_entries[index] = hashCode ^ data;
+        m_entries[index + 1] = data;
+    }
+
+    /*================================================================================*/
+
+    public static short getMove(long data)  {return (short)data;}
+    public static int   getScore(long data) {return (short)(data >>> SCORE_SHIFT);}
+    public static int   getDepth(long data) {return (int)(data >>> DEPTH_SHIFT) & 0xFF;}
+    public static int   getBound(long data) {return (int)(data >>> BOUND_SHIFT) & 0x3;}
+
+}
@@ -34,7 +34,30 @@ public class AllTests extends TestCase
         suite.addTest(chesspresso.position.TestLightWeightPosition.suite());
         suite.addTest(chesspresso.position.TestCompactPosition.suite());
         suite.addTest(chesspresso.position.TestPosition.suite());
+        suite.addTest(chesspresso.position.PositionArenaTests.suite());
+        suite.addTest(chesspresso.position.SEETests.suite());
+        suite.addTest(chesspresso.position.EvaluationTests.suite());
         
+        suite.addTest(chesspresso.search.SearcherTests.suite());
+        suite.addTest(chesspresso.engines.UCIEngineTests.suite());
+        suite.addTest(chesspresso.engines.EnginePoolTests.suite());
+        suite.addTest(chesspresso.engines.AnalysisCacheTests.suite());
+        
+        suite.addTest(chesspresso.game.GameHeaderModelTests.suite());
+        suite.addTest(chesspresso.game.ECOClassifierTests.suite());
+        suite.addTest(chesspresso.game.GameMoveModelTests.suite());
+        suite.addTest(chesspresso.game.GameTests.suite());
+        suite.addTest(chesspresso.game.GameReplayerTests.suite());
+        
+        suite.addTest(chesspresso.database.HeaderIndexTests.suite());
+        
+        suite.addTest(chesspresso.book.PolyglotBookTests.suite());
+        suite.addTest(chesspresso.database.MaterialIndexTests.suite());
+        suite.addTest(chesspresso.database.PatternIndexTests.suite());
+        suite.addTest(chesspresso.database.DuplicateDetectorTests.suite());
+        suite.addTest(chesspresso.database.OpeningTreeBuilderTests.suite());
+        
+        suite.addTest(chesspresso.pgn.PGNStreamWriterTests.suite());
         suite.addTest(chesspresso.pgn.PGNReaderTest.suite());
         
         return suite;
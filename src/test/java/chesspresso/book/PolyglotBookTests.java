@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.book;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.database.*;
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import java.io.*;
+
+/**
+ * Tests for polyglot keys, PolyglotBook and PolyglotBookWriter.
+ */
+public class PolyglotBookTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(PolyglotBookTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static void doMoves(Position position, String moves) throws IllegalMoveException
+    {
+        String[] tokens = moves.trim().split(" +");
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i].length() == 0) continue;
+            int from = Chess.strToSqi(tokens[i].substring(0, 2));
+            int to = Chess.strToSqi(tokens[i].substring(2, 4));
+            position.doMove(position.getMove(from, to, Chess.NO_PIECE));
+        }
+    }
+
+    public void testKeys() throws Exception
+    {
+        // test positions of the polyglot book format description
+        String[][] tests = {
+            {"",                                    "463b96181691fc9c"},
+            {"e2e4",                                "823c9b50fd114196"},
+            {"e2e4 d7d5",                           "0756b94461c50fb0"},
+            {"e2e4 d7d5 e4e5",                      "662fafb965db29d4"},
+            {"e2e4 d7d5 e4e5 f7f5",                 "22a48b5a8e47ff78"},
+            {"e2e4 d7d5 e4e5 f7f5 e1e2",            "652a607ca3f242c1"},
+            {"e2e4 d7d5 e4e5 f7f5 e1e2 e8f7",       "00fdd303c946bdd9"},
+            {"a2a4 b7b5 h2h4 b5b4 c2c4",            "3c8123ea7b067637"},
+            {"a2a4 b7b5 h2h4 b5b4 c2c4 b4c3 a1a3",  "5c3f9b829b279560"},
+        };
+        for (int i = 0; i < tests.length; i++) {
+            Position position = Position.createInitialPosition();
+            if (tests[i][0].endsWith("b4c3 a1a3")) {
+                doMoves(position, "a2a4 b7b5 h2h4 b5b4 c2c4");
+                position.doMove(Move.getEPMove(Chess.B4, Chess.C3));
+                doMoves(position, "a1a3");
+            } else {
+                doMoves(position, tests[i][0]);
+            }
+            long expected = Long.parseLong(tests[i][1].substring(0, 8), 16) << 32 | Long.parseLong(tests[i][1].substring(8), 16);
+            assertEquals(tests[i][0], expected, position.getPolyglotKey());
+            assertEquals(tests[i][0], expected, new LightWeightPosition(position).getPolyglotKey());
+        }
+    }
+
+    public void testMoveConversion() throws Exception
+    {
+        String[] fens = {
+            FEN.START_POSITION,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R b KQkq - 0 1",
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+            "n1n5/PPPk4/8/8/8/8/4Kppp/5N1N b - - 0 1",
+        };
+        for (int i = 0; i < fens.length; i++) {
+            Position position = new Position(fens[i]);
+            short[] moves = position.getAllMoves();
+            for (int j = 0; j < moves.length; j++) {
+                int polyglotMove = PolyglotBook.toPolyglotMove(moves[j]);
+                assertEquals(fens[i] + " " + Move.getString(moves[j]), moves[j], PolyglotBook.toMove(polyglotMove, position));
+            }
+        }
+        assertEquals("e1h1", 4 << 6 | 7, PolyglotBook.toPolyglotMove(Move.WHITE_SHORT_CASTLE));
+        assertEquals("e8a8", 60 << 6 | 56, PolyglotBook.toPolyglotMove(Move.BLACK_LONG_CASTLE));
+    }
+
+    //======================================================================
+
+    private static GameModel createGame(String moves, String result) throws Exception
+    {
+        Game game = new Game();
+        game.setTag(PGN.TAG_RESULT, result);
+        doMoves(game.getPosition(), moves);
+        return game.getModel();
+    }
+
+    public void testWriteAndRead() throws Exception
+    {
+        File treeFile = File.createTempFile("chesspresso-test", ".tree");
+        File bookFile = File.createTempFile("chesspresso-test", ".bin");
+        try {
+            OpeningTreeBuilder builder = PolyglotBookWriter.createTreeBuilder();
+            builder.addGame(createGame("e2e4 e7e5 g1f3", "1-0"));
+            builder.addGame(createGame("e2e4 c7c5", "0-1"));
+            builder.addGame(createGame("d2d4 d7d5", "1/2-1/2"));
+            builder.addGame(createGame("e2e4 e7e5 f1c4", "1-0"));
+            builder.build(treeFile);
+
+            OpeningTree tree = new OpeningTree(treeFile);
+            long numOfEntries = new PolyglotBookWriter().write(tree, bookFile);
+            tree.close();
+            assertEquals("entries", 6, numOfEntries);  // e7e5 is never written, it has weight 0
+            assertEquals("file size", 6 * 16, bookFile.length());
+
+            PolyglotBook book = new PolyglotBook(bookFile);
+            try {
+                Position position = Position.createInitialPosition();
+                short[] moves = new short[8];
+                int[] weights = new int[8];
+                assertEquals("start moves", 2, book.getMoves(position, moves, weights));
+                assertEquals("best", position.getMove(Chess.E2, Chess.E4, Chess.NO_PIECE), moves[0]);
+                assertEquals("best weight", 4, weights[0]);
+                assertEquals("second", position.getMove(Chess.D2, Chess.D4, Chess.NO_PIECE), moves[1]);
+                assertEquals("second weight", 1, weights[1]);
+                assertEquals("best move", moves[0], book.getBestMove(position));
+
+                position.doMove(moves[0]);
+                assertEquals("after e4", 1, book.getMoves(position, moves, null));
+                assertEquals("after e4", position.getMove(Chess.C7, Chess.C5, Chess.NO_PIECE), moves[0]);
+                assertEquals("random", moves[0], book.getRandomMove(position, new java.util.Random(1)));
+
+                doMoves(position, "c7c5 g1f3");
+                assertEquals("not in book", 0, book.getMoves(position, moves, weights));
+                assertEquals("not in book", Move.NO_MOVE, book.getBestMove(position));
+            } finally {
+                book.close();
+            }
+        } finally {
+            treeFile.delete();
+            bookFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import junit.framework.*;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import java.util.*;
+
+/**
+ * Tests for the DuplicateDetector.
+ */
+public class DuplicateDetectorTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(DuplicateDetectorTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static class Recorder implements DuplicateDetector.Listener
+    {
+        final List<int[]> m_duplicates = Collections.synchronizedList(new ArrayList<int[]>());
+
+        public void notifyDuplicate(int gameId, int originalId, int type)
+        {
+            m_duplicates.add(new int[] {gameId, originalId, type});
+        }
+    }
+
+    /**
+     * Creates a game of random legal moves. Games with the same seed share
+     * their moves, the shorter one is a prefix of the longer one.
+     */
+    private static GameModel createGame(String white, String black, String date, long seed, int numOfPlies) throws Exception
+    {
+        Game game = new Game();
+        if (white != null) game.setTag(PGN.TAG_WHITE, white);
+        if (black != null) game.setTag(PGN.TAG_BLACK, black);
+        if (date != null) game.setTag(PGN.TAG_DATE, date);
+        Random random = new Random(seed);
+        for (int ply = 0; ply < numOfPlies; ply++) {
+            Position position = game.getPosition();
+            short[] moves = position.getAllMoves();
+            if (moves.length == 0) break;
+            position.doMove(moves[random.nextInt(moves.length)]);
+        }
+        return game.getModel();
+    }
+
+    private static GameModel createGame(long seed, int numOfPlies) throws Exception
+    {
+        return createGame("Kasparov, Garry", "Karpov, Anatoly", "1985.10.15", seed, numOfPlies);
+    }
+
+    private static GameModelIterator iterator(final List<GameModel> games)
+    {
+        final Iterator<GameModel> it = games.iterator();
+        return new GameModelIterator() {
+            public boolean hasNext()        {return it.hasNext();}
+            public GameModel nextGameModel() {return it.next();}
+            public Object next()            {return it.next();}
+            public void remove()            {throw new UnsupportedOperationException();}
+        };
+    }
+
+    //======================================================================
+
+    public void testHeaderKey() throws Exception
+    {
+        assertEquals("kasparov|karpov|1985", DuplicateDetector.getHeaderKey(createGame(1, 0).getHeaderModel()));
+        assertEquals("kasparov|karpov|1985",
+            DuplicateDetector.getHeaderKey(createGame("Garry Kasparov", "Anatoly  Karpov", "1985.??.??", 1, 0).getHeaderModel()));
+        assertEquals("||0", DuplicateDetector.getHeaderKey(createGame(null, null, null, 1, 0).getHeaderModel()));
+    }
+
+    public void testExactDuplicates() throws Exception
+    {
+        DuplicateDetector detector = new DuplicateDetector();
+        Recorder recorder = new Recorder();
+        detector.setListener(recorder);
+
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(1, 50)));                         // 0
+        assertEquals(0, detector.addGame(createGame(1, 50)));                                                      // 1
+        assertEquals(0, detector.addGame(createGame("Smith", "Jones", "2001.01.01", 1, 50)));                      // 2, long enough
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(2, 10)));                         // 3
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame("Smith", "Jones", "2001.01.01", 2, 10)));  // 4, too short
+        assertEquals(3, detector.addGame(createGame(2, 10)));                                                      // 5
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(null, null, null, 3, 10)));       // 6
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(null, null, null, 3, 10)));       // 7, unknown header
+
+        assertEquals(8, detector.getNumOfGames());
+        assertEquals(3, detector.getNumOfDuplicates());
+        assertEquals(3, recorder.m_duplicates.size());
+        assertTrue(Arrays.equals(new int[] {1, 0, DuplicateDetector.EXACT_DUPLICATE}, recorder.m_duplicates.get(0)));
+        assertTrue(Arrays.equals(new int[] {5, 3, DuplicateDetector.EXACT_DUPLICATE}, recorder.m_duplicates.get(2)));
+    }
+
+    public void testNearDuplicates() throws Exception
+    {
+        DuplicateDetector detector = new DuplicateDetector();
+        Recorder recorder = new Recorder();
+        detector.setListener(recorder);
+
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(1, 60)));                         // 0
+        assertEquals(0, detector.addGame(createGame(1, 30)));                                                      // 1, truncated
+        assertEquals(0, detector.addGame(createGame(1, 30)));                                                      // 2, exact copy of a near duplicate
+        assertEquals(0, detector.addGame(createGame(1, 80)));                                                      // 3, extended
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(1, 15)));                         // 4, too short
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame("Smith", "Jones", "1985.10.15", 1, 30)));  // 5, other players
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(null, null, null, 1, 30)));       // 6, unknown header
+        assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(null, null, null, 1, 35)));       // 7, unknown header
+
+        assertEquals(3, detector.getNumOfDuplicates());
+        assertTrue(Arrays.equals(new int[] {1, 0, DuplicateDetector.NEAR_DUPLICATE}, recorder.m_duplicates.get(0)));
+        assertTrue(Arrays.equals(new int[] {2, 0, DuplicateDetector.EXACT_DUPLICATE}, recorder.m_duplicates.get(1)));
+        assertTrue(Arrays.equals(new int[] {3, 0, DuplicateDetector.NEAR_DUPLICATE}, recorder.m_duplicates.get(2)));
+    }
+
+    public void testNoDuplicates() throws Exception
+    {
+        DuplicateDetector detector = new DuplicateDetector();
+        for (int i = 0; i < 200; i++) {
+            assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(100 + i, 20 + i % 40)));
+        }
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(DuplicateDetector.NO_DUPLICATE, detector.addGame(createGame(null, null, null, 1000 + i, 25)));
+        }
+        assertEquals(2200, detector.getNumOfGames());
+        assertEquals(0, detector.getNumOfDuplicates());
+    }
+
+    public void testAddGames() throws Exception
+    {
+        List<GameModel> games = new ArrayList<>();
+        for (int i = 0; i < 300; i++) games.add(createGame(i, 45));
+        List<Integer> originals = new ArrayList<>();
+        for (int i = 0; originals.size() < 100; i++) {
+            GameModel copy = createGame("Smith", "Jones", "2001.01.01", i, 45);
+            if (copy.getMoveModel().getMainLine().length < 45) continue;   // ended by mate, too short for moves only
+            games.add(copy);
+            originals.add(i);
+        }
+
+        DuplicateDetector detector = new DuplicateDetector();
+        Recorder recorder = new Recorder();
+        detector.setListener(recorder);
+        assertEquals(100, detector.addGames(iterator(games), 4));
+        assertEquals(400, detector.getNumOfGames());
+        assertEquals(100, recorder.m_duplicates.size());
+        for (int[] duplicate : recorder.m_duplicates) {
+            assertEquals(DuplicateDetector.EXACT_DUPLICATE, duplicate[2]);
+            // either the copy or the first game may have been added first
+            if (duplicate[0] >= 300) {
+                assertEquals(originals.get(duplicate[0] - 300).intValue(), duplicate[1]);
+            } else {
+                assertEquals(300 + originals.indexOf(duplicate[0]), duplicate[1]);
+            }
+        }
+
+        // the same games again, all of them are duplicates now
+        assertEquals(400, detector.addGames(iterator(games), 4));
+
+        detector = new DuplicateDetector();
+        int num = 0;
+        for (GameModelIterator it = detector.filter(iterator(games)); it.hasNext(); it.nextGameModel()) num++;
+        assertEquals(300, num);
+    }
+
+}
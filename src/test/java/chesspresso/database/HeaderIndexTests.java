@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import junit.framework.*;
+import chesspresso.Chess;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import java.util.*;
+
+/**
+ * Tests for GameBitmap, HeaderIndex and HeaderQuery.
+ */
+public class HeaderIndexTests extends TestCase
+{
+    
+    public static Test suite()
+    {
+        return new TestSuite(HeaderIndexTests.class);
+    }
+    
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+    
+    private static GameBitmap createBitmap(BitSet bits)
+    {
+        GameBitmap bitmap = new GameBitmap();
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) bitmap.add(i);
+        return bitmap;
+    }
+    
+    private static BitSet createBitSet(Random random, int size, double density)
+    {
+        BitSet bits = new BitSet();
+        for (int i = 0; i < size; i++) {
+            if (random.nextDouble() < density) bits.set(i);
+        }
+        return bits;
+    }
+    
+    private static void assertSame(String msg, BitSet expected, GameBitmap bitmap)
+    {
+        assertEquals(msg + ": cardinality", expected.cardinality(), bitmap.getCardinality());
+        int[] ids = bitmap.toArray();
+        int index = 0;
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            assertEquals(msg + ": id", i, ids[index++]);
+            assertTrue(msg + ": contains", bitmap.contains(i));
+        }
+    }
+    
+    public void testBitmapOperations() throws Exception
+    {
+        Random random = new Random(4711);
+        double[] densities = {0.001, 0.05, 0.5, 0.99};
+        for (int i = 0; i < densities.length; i++) {
+            for (int j = 0; j < densities.length; j++) {
+                BitSet bits1 = createBitSet(random, 200000, densities[i]);
+                BitSet bits2 = createBitSet(random, 150000, densities[j]);
+                GameBitmap bitmap1 = createBitmap(bits1), bitmap2 = createBitmap(bits2);
+                assertSame("add", bits1, bitmap1);
+                GameBitmap copy = new GameBitmap(bitmap1);
+                assertSame("copy", bits1, copy);
+                for (int id = 0; id < 200000; id += 7) copy.add(id);
+                assertSame("copied", bits1, bitmap1);
+                
+                BitSet and = (BitSet)bits1.clone(); and.and(bits2);
+                assertSame("and", and, bitmap1.and(bitmap2));
+                BitSet or = (BitSet)bits1.clone(); or.or(bits2);
+                assertSame("or", or, bitmap1.or(bitmap2));
+                BitSet andNot = (BitSet)bits1.clone(); andNot.andNot(bits2);
+                assertSame("andNot", andNot, bitmap1.andNot(bitmap2));
+                BitSet notAndNot = (BitSet)bits2.clone(); notAndNot.andNot(bits1);
+                assertSame("andNot", notAndNot, bitmap2.andNot(bitmap1));
+            }
+        }
+    }
+    
+    public void testBitmapUnion() throws Exception
+    {
+        Random random = new Random(17);
+        double[] densities = {0.0, 0.0005, 0.02, 0.3, 0.9};
+        List<GameBitmap> bitmaps = new ArrayList<>();
+        BitSet union = new BitSet();
+        assertSame("empty union", union, GameBitmap.union(bitmaps));
+        for (int i = 0; i < 12; i++) {
+            BitSet bits = createBitSet(random, 50000 + random.nextInt(200000), densities[i % densities.length]);
+            bitmaps.add(createBitmap(bits));
+            union.or(bits);
+            assertSame("union of " + (i + 1), union, GameBitmap.union(bitmaps));
+        }
+    }
+    
+    public void testBitmapUnorderedAdd() throws Exception
+    {
+        Random random = new Random(42);
+        BitSet bits = new BitSet();
+        GameBitmap bitmap = new GameBitmap();
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(300000);
+            bits.set(id);
+            bitmap.add(id);
+        }
+        assertSame("random add", bits, bitmap);
+        
+        BitSet range = new BitSet(); range.set(1000, 140000);
+        assertSame("range", range, GameBitmap.range(1000, 140000));
+    }
+    
+    //======================================================================
+    
+    private static GameHeaderModel createHeader(String white, String black, String result, String date, String eco, int whiteElo)
+    {
+        GameHeaderModel headerModel = new GameHeaderModel();
+        headerModel.setTag(PGN.TAG_WHITE, white);
+        headerModel.setTag(PGN.TAG_BLACK, black);
+        headerModel.setTag(PGN.TAG_RESULT, result);
+        headerModel.setTag(PGN.TAG_DATE, date);
+        headerModel.setTag(PGN.TAG_ECO, eco);
+        headerModel.setTag(PGN.TAG_WHITE_ELO, String.valueOf(whiteElo));
+        return headerModel;
+    }
+    
+    public void testQueries() throws Exception
+    {
+        HeaderIndex index = new HeaderIndex(2);
+        index.addGame(createHeader("Kasparov", "Karpov", "1-0", "1985.10.15", "B44", 2700));     // 0
+        index.addGame(createHeader("Karpov", "Kasparov", "1/2-1/2", "1985.10.17", "D55", 2720)); // 1
+        index.addGame(createHeader("Kasparov", "Anand", "0-1", "1995.09.11", "C80", 2795));      // 2
+        index.addGame(createHeader("Anand", "Kasparov", "0-1", "1995.09.12", "B84", 2725));      // 3
+        index.addGame(createHeader("Anand", "Karpov", "*", "1998.??.??", "B90", 2770));          // 4
+        
+        assertEquals(5, index.getNumOfGames());
+        assertEquals(3, index.getNumOfPlayers());
+        assertEquals(1995, index.getYear(3));
+        
+        assertTrue(Arrays.equals(new int[] {0, 1, 2, 3},
+            HeaderQuery.player("Kasparov").evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {0, 3},
+            HeaderQuery.wins("Kasparov").evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {0, 3, 4},
+            HeaderQuery.eco("B00", "B99").evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {2, 3, 4},
+            HeaderQuery.year(1990, 2000).evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {1, 4},
+            HeaderQuery.not(HeaderQuery.or(HeaderQuery.result(Chess.RES_WHITE_WINS),
+                                           HeaderQuery.result(Chess.RES_BLACK_WINS))).evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {2, 4},
+            HeaderQuery.elo(Chess.WHITE, 2750, 3000).evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {1, 2},
+            HeaderQuery.date("1985.10.16", "1995.09.11").evaluate(index).toArray()));
+        assertTrue(Arrays.equals(new int[] {3},
+            HeaderQuery.and(HeaderQuery.black("Kasparov"), HeaderQuery.year(1995, 1995),
+                            HeaderQuery.eco("B80", "B89")).evaluate(index).toArray()));
+        assertTrue(HeaderQuery.white("Fischer").evaluate(index).isEmpty());
+        
+        // the returned bitmaps are copies, changing them does not change the index
+        GameBitmap allGames = index.getAllGames();
+        assertNotSame(allGames, index.getAllGames());
+        allGames.add(10);
+        assertEquals(5, index.getAllGames().getCardinality());
+        GameBitmap draws = index.getResultBitmap(Chess.RES_DRAW);
+        draws.add(0);
+        assertFalse(index.getResultBitmap(Chess.RES_DRAW).contains(0));
+        GameBitmap kasparov = index.getBlackPlayerBitmap(index.getPlayerId("Kasparov"));
+        kasparov.add(0);
+        assertFalse(index.getBlackPlayerBitmap(index.getPlayerId("Kasparov")).contains(0));
+        index.addGame(createHeader("Anand", "Kasparov", "1-0", "1999.01.20", "B90", 2780));     // 5
+        assertEquals(6, index.getAllGames().getCardinality());
+        assertTrue(Arrays.equals(new int[] {1, 4},
+            HeaderQuery.not(HeaderQuery.or(HeaderQuery.result(Chess.RES_WHITE_WINS),
+                                           HeaderQuery.result(Chess.RES_BLACK_WINS))).evaluate(index).toArray()));
+    }
+    
+}
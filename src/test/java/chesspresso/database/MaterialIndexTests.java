@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import junit.framework.*;
+import chesspresso.Chess;
+import chesspresso.game.*;
+import chesspresso.position.*;
+import java.util.*;
+
+/**
+ * Tests for MaterialSignature, the material of Position and MaterialIndex.
+ */
+public class MaterialIndexTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(MaterialIndexTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    public void testSignatures() throws Exception
+    {
+        int signature = MaterialSignature.valueOf("KRPKR");
+        assertEquals("toString", "KRPKR", MaterialSignature.toString(signature));
+        assertEquals("white rooks", 1, MaterialSignature.getNumOfPieces(signature, Chess.ROOK, Chess.WHITE));
+        assertEquals("white pawns", 1, MaterialSignature.getNumOfPieces(signature, Chess.PAWN, Chess.WHITE));
+        assertEquals("black pawns", 0, MaterialSignature.getNumOfPieces(signature, Chess.PAWN, Chess.BLACK));
+        assertEquals("v", signature, MaterialSignature.valueOf("KRP v KR"));
+        assertEquals("flipped", "KRKRP", MaterialSignature.toString(MaterialSignature.getColorFlipped(signature)));
+
+        Position start = Position.createInitialPosition();
+        assertEquals("start", "KQRRBBNNPPPPPPPPKQRRBBNNPPPPPPPP", MaterialSignature.toString(start.getMaterialSignature()));
+        assertEquals("start lightweight", start.getMaterialSignature(), MaterialSignature.getSignature(new LightWeightPosition(start)));
+
+        long pattern = MaterialSignature.getPattern("KRP*KR");
+        assertTrue("KRKR", MaterialSignature.matches(pattern, MaterialSignature.valueOf("KRKR")));
+        assertTrue("KRPPKR", MaterialSignature.matches(pattern, MaterialSignature.valueOf("KRPPKR")));
+        assertFalse("KRPKRP", MaterialSignature.matches(pattern, MaterialSignature.valueOf("KRPKRP")));
+        assertFalse("KRRPKR", MaterialSignature.matches(pattern, MaterialSignature.valueOf("KRRPKR")));
+        assertTrue("flipped", MaterialSignature.matches(MaterialSignature.getColorFlipped(pattern), MaterialSignature.valueOf("KRKRPP")));
+
+        String[] illegal = {"KRPR", "RKR", "KXKR", "KR*KR", ""};
+        for (int i = 0; i < illegal.length; i++) {
+            try {
+                MaterialSignature.valueOf(illegal[i]);
+                fail("Accepted illegal signature " + illegal[i]);
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    public void testIncrementalMaterial() throws Exception
+    {
+        Random random = new Random(4711);
+        for (int game = 0; game < 50; game++) {
+            Position position = Position.createInitialPosition();
+            List<Integer> signatures = new ArrayList<>();
+            int plies = 0;
+            while (plies < 300) {
+                short[] moves = position.getAllMoves();
+                if (moves.length == 0) break;
+                signatures.add(position.getMaterialSignature());
+                position.doMove(moves[random.nextInt(moves.length)]);
+                plies++;
+                assertEquals("after move", MaterialSignature.getSignature(new LightWeightPosition(position)), position.getMaterialSignature());
+            }
+            int last = position.getMaterialSignature();
+            for (int i = plies - 1; i >= 0; i--) {
+                position.undoMove();
+                assertEquals("after undo", signatures.get(i).intValue(), position.getMaterialSignature());
+            }
+            for (int i = 0; i < plies; i++) position.redoMove();
+            assertEquals("after redo", last, position.getMaterialSignature());
+            assertEquals("after redo", MaterialSignature.getSignature(new LightWeightPosition(position)), last);
+        }
+    }
+
+    //======================================================================
+
+    private static GameModel createGame(String fen, String sans) throws Exception
+    {
+        Game game = new Game();
+        if (fen != null) game.setTag(chesspresso.pgn.PGN.TAG_FEN, fen);
+        StringTokenizer st = new StringTokenizer(sans);
+        while (st.hasMoreTokens()) {
+            String move = st.nextToken();
+            Position position = game.getPosition();
+            position.doMove(position.getMove(Chess.strToSqi(move.substring(0, 2)), Chess.strToSqi(move.substring(2, 4)), Chess.NO_PIECE));
+        }
+        return game.getModel();
+    }
+
+    public void testIndex() throws Exception
+    {
+        MaterialIndex index = new MaterialIndex();
+        // 0: rook ending, black rook lost at ply 3, white pawn at ply 6
+        index.addGame(createGame("8/8/3k4/8/3P4/8/r7/R3K3 w - - 0 1", "a1b1 a2a1 b1a1 d6d5 e1e2 d5d4"));
+        // 1: black rook lost at ply 1
+        index.addGame(createGame("8/8/3k4/8/3P4/8/r7/R3K3 w - - 0 1", "a1a2 d6c6"));
+        // 2: opening
+        index.addGame(createGame(null, "e2e4 e7e5"));
+
+        assertEquals("games", 3, index.getNumOfGames());
+        int krpkr = MaterialSignature.valueOf("KRPKR");
+        assertEquals("KRPKR games", 2, index.getNumOfGames(krpkr));
+        assertEquals("KRK", 1, index.getGames(MaterialSignature.valueOf("KRK")).getCardinality());
+        assertTrue("KRK game", index.getGames(MaterialSignature.valueOf("KRK")).contains(0));
+
+        long pattern = MaterialSignature.getPattern("KR*P*KR*");
+        assertEquals("pattern", 2, index.getGames(pattern, 1).getCardinality());
+        assertEquals("pattern, min plies", 1, index.getGames(MaterialSignature.getPattern("KRPKR"), 3).getCardinality());
+        assertTrue("pattern, min plies", index.getGames(MaterialSignature.getPattern("KRPKR"), 3).contains(0));
+
+        assertEquals("first ply KRPK", 3, index.getFirstPly(0, MaterialSignature.getPattern("KRPK")));
+        assertEquals("first ply KRK", 6, index.getFirstPly(0, MaterialSignature.getPattern("KRK")));
+        assertEquals("first ply KRPK", 1, index.getFirstPly(1, MaterialSignature.getPattern("KRPK")));
+        assertEquals("first ply none", -1, index.getFirstPly(2, MaterialSignature.getPattern("KRK")));
+        assertEquals("first ply start", 0, index.getFirstPly(2, MaterialSignature.getPattern("KQRRBBNNPPPPPPPPKQRRBBNNPPPPPPPP")));
+    }
+
+}
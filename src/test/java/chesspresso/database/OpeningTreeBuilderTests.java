@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import junit.framework.*;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Tests for OpeningTreeBuilder and OpeningTree.
+ */
+public class OpeningTreeBuilderTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(OpeningTreeBuilderTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private File m_tempDir;
+
+    protected void setUp() throws Exception
+    {
+        m_tempDir = Files.createTempDirectory("chesspresso-tree").toFile();
+    }
+
+    protected void tearDown()
+    {
+        File[] files = m_tempDir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        m_tempDir.delete();
+    }
+
+    private File build(List<GameModel> games, int maxTuplesInMemory, int minNumOfRuns) throws IOException
+    {
+        OpeningTreeBuilder builder = new OpeningTreeBuilder();
+        builder.setTempDir(m_tempDir);
+        if (maxTuplesInMemory > 0) builder.setMaxTuplesInMemory(maxTuplesInMemory);
+        for (GameModel game : games) builder.addGame(game);
+        assertEquals(games.size(), builder.getNumOfGames());
+        assertTrue("runs " + builder.getNumOfRuns(), builder.getNumOfRuns() >= minNumOfRuns);
+
+        File file = new File(m_tempDir, "tree" + maxTuplesInMemory + ".bin");
+        builder.build(file);
+        assertEquals(0, builder.getNumOfRuns());
+        File[] left = m_tempDir.listFiles();
+        for (File f : left) {
+            assertTrue("run file not deleted: " + f, f.getName().startsWith("tree"));
+        }
+        return file;
+    }
+
+    //======================================================================
+
+    public void testSpill() throws Exception
+    {
+        List<GameModel> games = PGNTestFiles.readGameModels("chusa99");
+        File inMemory = build(games, 0, 0);
+        // about 3000 tuples in runs of 16: more than MAX_RUNS_PER_MERGE runs, merged in two passes
+        File spilled = build(games, 16, 129);
+        assertTrue(Arrays.equals(Files.readAllBytes(inMemory.toPath()), Files.readAllBytes(spilled.toPath())));
+
+        OpeningTree tree = new OpeningTree(spilled);
+        try {
+            int numOfGames = 0;
+            for (OpeningTree.Entry entry : tree.getNextMoves(Position.createInitialPosition())) {
+                numOfGames += entry.getNumOfGames();
+            }
+            assertEquals(games.size(), numOfGames);
+        } finally {
+            tree.close();
+        }
+    }
+
+    public void testSingleTupleRuns() throws Exception
+    {
+        List<GameModel> games = PGNTestFiles.readGameModels("chusa99").subList(0, 40);
+        File inMemory = build(games, 0, 0);
+        File spilled = build(games, 1, 1000);
+        assertTrue(Arrays.equals(Files.readAllBytes(inMemory.toPath()), Files.readAllBytes(spilled.toPath())));
+    }
+
+    public void testFailedMerge() throws Exception
+    {
+        OpeningTreeBuilder builder = new OpeningTreeBuilder();
+        builder.setTempDir(m_tempDir);
+        builder.setMaxTuplesInMemory(1);
+        for (GameModel game : PGNTestFiles.readGameModels("chusa99").subList(0, 40)) builder.addGame(game);
+        assertTrue("runs " + builder.getNumOfRuns(), builder.getNumOfRuns() > 256);
+
+        // a lost run file makes one of the merges of the reduction fail
+        File[] runs = m_tempDir.listFiles();
+        assertTrue(runs[runs.length / 2].delete());
+        try {
+            builder.build(new File(m_tempDir, "tree.bin"));
+            fail("merge of a lost run must fail");
+        } catch (IOException ex) {
+            // expected
+        }
+        File[] left = m_tempDir.listFiles();
+        for (File f : left) {
+            assertTrue("run file not deleted: " + f, f.getName().startsWith("tree"));
+        }
+        assertEquals(0, builder.getNumOfRuns());
+    }
+
+}
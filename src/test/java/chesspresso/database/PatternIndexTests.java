@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.database;
+
+import junit.framework.*;
+import chesspresso.Chess;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import java.util.*;
+
+/**
+ * Tests for PatternQuery and PatternIndex.
+ */
+public class PatternIndexTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(PatternIndexTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static boolean matchesSlowly(ImmutablePosition position, int[] stones, String[] squares, int forbiddenStone)
+    {
+        for (int i = 0; i < stones.length; i++) {
+            StringTokenizer st = new StringTokenizer(squares[i]);
+            while (st.hasMoreTokens()) {
+                if (position.getStone(Chess.strToSqi(st.nextToken())) != stones[i]) return false;
+            }
+        }
+        for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES && forbiddenStone != Chess.NO_STONE; sqi++) {
+            if (position.getStone(sqi) == forbiddenStone) return false;
+        }
+        return true;
+    }
+
+    private void doTestSearch(PatternIndex index, List<GameModel> games, int[] stones, String[] squares, int forbiddenStone) throws Exception
+    {
+        PatternQuery query = new PatternQuery();
+        for (int i = 0; i < stones.length; i++) query.require(stones[i], PatternQuery.getSquares(squares[i]));
+        if (forbiddenStone != Chess.NO_STONE) query.forbid(forbiddenStone, PatternQuery.ALL_SQUARES);
+        assertFalse("contradictory", query.isContradictory());
+
+        GameBitmap expected = new GameBitmap();
+        for (int gameId = 0; gameId < games.size(); gameId++) {
+            Game game = new Game(games.get(gameId));
+            game.gotoStart();
+            int firstPly = -1;
+            for (int ply = 0; ; ply++) {
+                if (matchesSlowly(game.getPosition(), stones, squares, forbiddenStone)) {firstPly = ply; break;}
+                if (!game.goForward()) break;
+            }
+            if (firstPly != -1) expected.add(gameId);
+            assertEquals("first ply of game " + gameId, firstPly, index.getFirstPly(gameId, query));
+        }
+        assertFalse("some games found", expected.isEmpty());
+        assertEquals("single thread", expected, index.search(query));
+        assertEquals("four threads", expected, index.search(query, 4));
+    }
+
+    public void testSearch() throws Exception
+    {
+        List<GameModel> games = PGNTestFiles.readGameModels("chusa99");
+        PatternIndex index = new PatternIndex();
+        for (GameModel game : games) index.addGame(game);
+        assertEquals("games", games.size(), index.getNumOfGames());
+
+        // white knight on d5
+        doTestSearch(index, games, new int[] {Chess.WHITE_KNIGHT}, new String[] {"d5"}, Chess.NO_STONE);
+        // black pawns on c6 and e6, no black bishop
+        doTestSearch(index, games, new int[] {Chess.BLACK_PAWN}, new String[] {"c6 e6"}, Chess.BLACK_BISHOP);
+        // white rook on the seventh rank, black king on the back rank, no queens
+        doTestSearch(index, games, new int[] {Chess.WHITE_ROOK, Chess.BLACK_KING}, new String[] {"d7", "g8"}, Chess.WHITE_QUEEN);
+    }
+
+    public void testQuery() throws Exception
+    {
+        Position position = Position.createInitialPosition();
+        assertTrue("empty", new PatternQuery().matches(position));
+        assertTrue("kings", new PatternQuery().require(Chess.WHITE_KING, PatternQuery.getSquares("e1"))
+                                              .require(Chess.BLACK_KING, PatternQuery.getSquares("e8")).matches(position));
+        assertFalse("no queen", new PatternQuery().forbid(Chess.WHITE_QUEEN, PatternQuery.ALL_SQUARES).matches(position));
+        assertFalse("black to play", new PatternQuery().setToPlay(Chess.BLACK).matches(position));
+        assertTrue("contradictory", new PatternQuery().require(Chess.WHITE_PAWN, PatternQuery.getSquares("e4"))
+                                                      .require(Chess.BLACK_PAWN, PatternQuery.getSquares("e4")).isContradictory());
+        try {
+            PatternQuery.getSquares("e4 i9");
+            fail("Accepted illegal square");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+}
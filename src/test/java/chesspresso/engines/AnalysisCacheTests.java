@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests for the AnalysisCache.
+ */
+public class AnalysisCacheTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(AnalysisCacheTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static final String[] FENS = {
+        FEN.START_POSITION,
+        "k7/8/2K5/8/8/8/8/1R6 w - - 0 1",
+        "4k3/8/8/3q4/8/8/8/3RK3 w - - 0 1",
+        "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3"};
+
+    private File m_file;
+
+    protected void setUp() throws Exception
+    {
+        m_file = File.createTempFile("analysis", ".cache");
+        m_file.delete();
+    }
+
+    protected void tearDown()
+    {
+        m_file.delete();
+    }
+
+    private static SearchResult getResult(int depth, int score)
+    {
+        short[] pv = {Move.getPawnMove(Chess.E2, Chess.E4, false, Chess.NO_PIECE),
+                      Move.getPawnMove(Chess.E7, Chess.E5, false, Chess.NO_PIECE)};
+        return new SearchResult(score, depth, 1000L * depth, 10L * depth, pv);
+    }
+
+    private static void assertResult(SearchResult expected, SearchResult result)
+    {
+        assertNotNull(result);
+        assertEquals(expected.getScore(), result.getScore());
+        assertEquals(expected.getDepth(), result.getDepth());
+        assertEquals(expected.getNumOfNodes(), result.getNumOfNodes());
+        assertEquals(expected.getTime(), result.getTime());
+        assertTrue(Arrays.equals(expected.getPV(), result.getPV()));
+    }
+
+    //======================================================================
+
+    public void testMemory() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache(null, 2);
+        Position position = Position.createInitialPosition();
+        assertNull(cache.get(position, 1));
+        cache.put(position, getResult(8, 25));
+        assertResult(getResult(8, 25), cache.get(position, 8));
+        assertResult(getResult(8, 25), cache.get(new Position("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 5 20"), 4));
+        assertNull(cache.get(position, 9));
+        assertEquals(2, cache.getNumOfHits());
+        assertEquals(2, cache.getNumOfMisses());
+
+        cache.put(position, getResult(6, -10));   // shallower, ignored
+        assertResult(getResult(8, 25), cache.get(position, 1));
+        cache.put(position, getResult(10, 30));
+        assertResult(getResult(10, 30), cache.get(position, 10));
+
+        cache.put(new Position(FENS[1]), getResult(3, 1));
+        cache.put(new Position(FENS[2]), getResult(3, 2));   // evicts the start position
+        assertEquals(2, cache.getNumOfEntries());
+        assertNull(cache.get(position, 1));
+        assertResult(getResult(3, 1), cache.get(new Position(FENS[1]), 1));
+        cache.close();
+    }
+
+    public void testFile() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache(m_file, 2);
+        for (int i = 0; i < FENS.length; i++) {
+            cache.put(new Position(FENS[i]), getResult(5, i));
+            cache.put(new Position(FENS[i]), getResult(7, 10 * i));
+        }
+        assertEquals(FENS.length, cache.getNumOfEntries());
+        assertEquals(FENS.length, cache.getNumOfStaleRecords());
+        for (int i = 0; i < FENS.length; i++) {
+            assertResult(getResult(7, 10 * i), cache.get(new Position(FENS[i]), 7));
+        }
+        cache.close();
+
+        long length = m_file.length();
+        cache = new AnalysisCache(m_file, 2);
+        assertEquals(FENS.length, cache.getNumOfEntries());
+        assertEquals(FENS.length, cache.getNumOfStaleRecords());
+        cache.compact();
+        assertEquals(0, cache.getNumOfStaleRecords());
+        assertTrue(m_file.length() < length);
+        for (int i = 0; i < FENS.length; i++) {
+            assertResult(getResult(7, 10 * i), cache.get(new Position(FENS[i]), 7));
+        }
+        cache.close();
+
+        // a record cut by a crash is dropped
+        length = m_file.length();
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        raf.seek(length);
+        raf.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        raf.close();
+        cache = new AnalysisCache(m_file, 2);
+        assertEquals(length, m_file.length());
+        assertEquals(FENS.length, cache.getNumOfEntries());
+        cache.put(Position.createInitialPosition(), getResult(20, 50));
+        assertResult(getResult(20, 50), cache.get(Position.createInitialPosition(), 20));
+        cache.close();
+    }
+
+    public void testCompaction() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache(m_file, 16);
+        Position position = Position.createInitialPosition();
+        for (int depth = 1; depth <= 3000; depth++) {
+            cache.put(position, getResult(depth, depth));
+        }
+        assertEquals(1, cache.getNumOfEntries());
+        assertTrue(cache.getNumOfStaleRecords() <= 1024);
+        assertResult(getResult(3000, 3000), cache.get(position, 3000));
+        cache.close();
+    }
+
+    public void testFinalResults() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache(m_file, 2);
+        Position mate = new Position("k7/1Q6/1K6/8/8/8/8/8 b - - 0 1");
+        Position stalemate = new Position("k7/8/1QK5/8/8/8/8/8 b - - 0 1");
+        cache.put(mate, new SearchResult(-Searcher.MATE, 0, 0L, 0L, new short[0]));
+        cache.put(stalemate, new SearchResult(0, 0, 0L, 0L, new short[0]));
+        cache.put(Position.createInitialPosition(), getResult(0, 10));
+        assertEquals(-Searcher.MATE, cache.get(mate, 20).getScore());
+        assertEquals(0, cache.get(stalemate, 1).getDepth());
+        assertNull(cache.get(Position.createInitialPosition(), 1));
+
+        // no best move, as for unparsable engine output, is not final in a position with moves
+        Position position = new Position(FENS[0]);
+        cache.put(position, new SearchResult(0, 2, 0L, 0L, new short[0]));
+        assertEquals(2, cache.get(position, 2).getDepth());
+        assertNull(cache.get(position, 3));
+        cache.close();
+
+        cache = new AnalysisCache(m_file, 2);
+        assertEquals(-Searcher.MATE, cache.get(mate, 20).getScore());
+        cache.close();
+    }
+
+    public void testClosed() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache(m_file, 1);
+        for (String fen : FENS) cache.put(new Position(fen), getResult(5, 1));
+        cache.close();
+        try {
+            cache.get(new Position(FENS[0]), 1);   // not in memory any more
+            fail("closed cache must not be read");
+        } catch (IOException ex) {
+            // expected
+        }
+        try {
+            cache.put(new Position(FENS[0]), getResult(6, 1));
+            fail("closed cache must not be written");
+        } catch (IOException ex) {
+            // expected
+        }
+        cache.close();
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import junit.framework.*;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Tests for the EnginePool, run against {@link StubUCIEngine} processes.
+ */
+public class EnginePoolTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(EnginePoolTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static final String[] FENS = {
+        FEN.START_POSITION,
+        "k7/8/2K5/8/8/8/8/1R6 w - - 0 1",
+        "4k3/8/8/3q4/8/8/8/3RK3 w - - 0 1",
+        "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3"};
+
+    private static class Collector implements EnginePool.ResultConsumer
+    {
+        final List<AnalysisJob> m_jobs = new ArrayList<>();
+        final List<SearchResult> m_results = new ArrayList<>();
+        final List<AnalysisJob> m_failures = Collections.synchronizedList(new ArrayList<AnalysisJob>());
+
+        public synchronized void notifyResult(AnalysisJob job, SearchResult result)
+        {
+            m_jobs.add(job);
+            m_results.add(result);
+        }
+
+        public void notifyFailure(AnalysisJob job, Exception cause)
+        {
+            m_failures.add(job);
+        }
+
+        synchronized void assertResults()
+        {
+            assertResults(Collections.<AnalysisJob>emptyList());
+        }
+
+        /**
+         * Checks the results, those of the given jobs may come from the cache
+         * and be deeper than asked for.
+         */
+        synchronized void assertResults(Collection<AnalysisJob> cachedJobs)
+        {
+            for (int i = 0; i < m_jobs.size(); i++) {
+                AnalysisJob job = m_jobs.get(i);
+                SearchResult result = m_results.get(i);
+                Position position = new Position(job.getPosition());
+                short[] moves = position.getAllMoves();
+                if (moves.length > 0) {
+                    boolean legal = false;
+                    for (short move : moves) legal |= (move == result.getBestMove());
+                    assertTrue(job.toString() + " " + result, legal);
+                }
+                if (cachedJobs.contains(job)) {
+                    assertTrue(job.toString(), result.getDepth() >= job.getMaxDepth());
+                } else if (job.getMaxDepth() > 0) {
+                    assertTrue(job.toString(), result.getDepth() <= job.getMaxDepth());
+                }
+            }
+        }
+    }
+
+    private static Game readGame() throws Exception
+    {
+        return PGNTestFiles.readGames("PGNTest").get(0);
+    }
+
+    //======================================================================
+
+    public void testJobs() throws Exception
+    {
+        Collector collector = new Collector();
+        EnginePool pool = new EnginePool(StubUCIEngine.getCommand(), null, 2, 3, collector);
+        assertEquals(2, pool.getNumOfEngines());
+        int numOfJobs = 0;
+        for (int i = 0; i < 3; i++) {
+            for (String fen : FENS) {
+                pool.submit(new AnalysisJob(new Position(fen), 3, 0L, 0L));
+                assertTrue(pool.getNumOfWaitingJobs() <= 3);
+                numOfJobs++;
+            }
+        }
+        Game game = readGame();
+        numOfJobs += pool.submit(game, 2, 0L, 0L);
+        pool.close();
+
+        assertEquals(0, collector.m_failures.size());
+        collector.assertResults();
+        assertEquals(numOfJobs, collector.m_jobs.size());
+        int numOfGameJobs = 0;
+        for (AnalysisJob job : collector.m_jobs) {
+            if (job.getGame() == game) numOfGameJobs++;
+        }
+        assertEquals(game.getNumOfPlies() + 1, numOfGameJobs);
+        assertEquals(0, pool.getNumOfRestarts());
+
+        try {
+            pool.submit(new AnalysisJob(new Position(FENS[0]), 1, 0L, 0L));
+            fail("closed pool must not accept jobs");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    public void testCache() throws Exception
+    {
+        AnalysisCache cache = new AnalysisCache(null, 100);
+        Collector collector = new Collector();
+        EnginePool pool = new EnginePool(StubUCIEngine.getCommand("-crashAfter", String.valueOf(FENS.length)), null, 1, 2, collector);
+        pool.setCache(cache);
+        for (String fen : FENS) pool.submit(new AnalysisJob(new Position(fen), 3, 0L, 0L));
+        List<AnalysisJob> cachedJobs = new ArrayList<>();
+        for (String fen : FENS) {
+            AnalysisJob job = new AnalysisJob(new Position(fen), 2, 0L, 0L);
+            cachedJobs.add(job);
+            pool.submit(job);
+        }
+        pool.close();
+        assertEquals(0, collector.m_failures.size());
+        assertEquals(2 * FENS.length, collector.m_jobs.size());
+        collector.assertResults(cachedJobs);
+        assertEquals(0, pool.getNumOfRestarts());   // the engine would have crashed on a fifth search
+        assertEquals(FENS.length, cache.getNumOfHits());
+        assertEquals(FENS.length, cache.getNumOfEntries());
+    }
+
+    public void testRestart() throws Exception
+    {
+        Collector collector = new Collector();
+        EnginePool pool = new EnginePool(StubUCIEngine.getCommand("-crashAfter", "2"), null, 1, 1, collector);
+        for (String fen : FENS) {
+            pool.submit(new AnalysisJob(new Position(fen), 2, 0L, 0L));
+            pool.submit(new AnalysisJob(new Position(fen), 0, 0L, 50L));
+        }
+        pool.close();
+        assertEquals(0, collector.m_failures.size());
+        assertEquals(2 * FENS.length, collector.m_jobs.size());
+        collector.assertResults();
+        assertTrue(pool.getNumOfRestarts() >= 3);
+    }
+
+    public void testTimeout() throws Exception
+    {
+        Collector collector = new Collector();
+        EnginePool pool = new EnginePool(StubUCIEngine.getCommand(), null, 1, 2, collector);
+        pool.setSearchTimeout(300L);
+        AnalysisJob endless = new AnalysisJob(new Position(FENS[3]), Searcher.MAX_PLY - 1, 0L, 0L);
+        pool.submit(endless);
+        pool.submit(new AnalysisJob(new Position(FENS[0]), 2, 0L, 0L));
+        pool.close();
+        assertEquals(1, collector.m_failures.size());
+        assertSame(endless, collector.m_failures.get(0));
+        assertEquals(1, collector.m_jobs.size());
+        collector.assertResults();
+        assertTrue(pool.getNumOfRestarts() >= 1);
+    }
+
+    public void testSubmitWhileClosing() throws Exception
+    {
+        Collector collector = new Collector();
+        final EnginePool pool = new EnginePool(StubUCIEngine.getCommand(), null, 2, 2, collector);
+        final AtomicInteger numOfAccepted = new AtomicInteger();
+        Thread[] submitters = new Thread[4];
+        for (int i = 0; i < submitters.length; i++) {
+            submitters[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (;;) {
+                            pool.submit(new AnalysisJob(new Position(FENS[1]), 1, 0L, 0L));
+                            numOfAccepted.incrementAndGet();
+                        }
+                    } catch (IllegalStateException ex) {
+                        // closed
+                    } catch (InterruptedException ex) {
+                        fail("interrupted");
+                    }
+                }
+            });
+            submitters[i].start();
+        }
+        Thread.sleep(300);
+        pool.close();
+        for (Thread submitter : submitters) submitter.join(10000L);
+        // every accepted job has been analyzed, none was queued behind the end of the jobs
+        assertEquals(0, collector.m_failures.size());
+        assertEquals(numOfAccepted.get(), collector.m_jobs.size());
+        assertTrue(numOfAccepted.get() > 0);
+    }
+
+    public void testFailure() throws Exception
+    {
+        Collector collector = new Collector();
+        EnginePool pool = new EnginePool(StubUCIEngine.getCommand("-crashAfter", "0"), null, 2, 2, collector);
+        for (String fen : FENS) {
+            pool.submit(new AnalysisJob(new Position(fen), 2, 0L, 0L));
+        }
+        pool.close();
+        assertEquals(0, collector.m_jobs.size());
+        assertEquals(FENS.length, collector.m_failures.size());
+
+        try {
+            new AnalysisJob(new Position(FENS[0]), 0, 0L, 0L);
+            fail("job without limit must be refused");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * A minimal UCI engine on top of {@link Searcher}, run as a separate process
+ * by the engine tests. It searches depth by depth, sending an info line per
+ * depth. The option <code>Crash</code> makes it exit on the next go, the
+ * arguments <code>-crashAfter n</code> after n searches.
+ */
+public class StubUCIEngine
+{
+
+    public static void main(String[] args) throws Exception
+    {
+        StubUCIEngine engine = new StubUCIEngine();
+        if (args.length == 2 && args[0].equals("-crashAfter")) {
+            engine.m_numOfSearchesLeft = Integer.parseInt(args[1]);
+        }
+        engine.run();
+    }
+
+    /**
+     * Returns the command line to start the stub engine with the java
+     * runtime and class path of the calling process.
+     */
+    public static String[] getCommand(String... args)
+    {
+        String[] command = {System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+            "-cp", System.getProperty("java.class.path"), StubUCIEngine.class.getName()};
+        String[] res = Arrays.copyOf(command, command.length + args.length);
+        System.arraycopy(args, 0, res, command.length, args.length);
+        return res;
+    }
+
+    //======================================================================
+
+    private final Searcher m_searcher = new Searcher(4);
+    private Position m_position = Position.createInitialPosition();
+    private Thread m_thread;
+    private volatile boolean m_stopped;
+    private boolean m_crash;
+    private int m_numOfSearchesLeft = -1;
+
+    private static void send(String line)
+    {
+        synchronized (System.out) {
+            System.out.println(line);
+            System.out.flush();
+        }
+    }
+
+    private void run() throws Exception
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] tokens = line.trim().split(" +");
+            switch (tokens[0]) {
+                case "uci":
+                    send("id name Chesspresso stub");
+                    send("id author Bernhard Seybold");
+                    send("option name Hash type spin default 4 min 1 max 64");
+                    send("option name Crash type check default false");
+                    send("uciok");
+                    break;
+                case "isready":
+                    send("readyok");
+                    break;
+                case "setoption":
+                    if (line.contains("name Crash")) m_crash = true;
+                    break;
+                case "ucinewgame":
+                    m_searcher.getTranspositionTable().clear();
+                    break;
+                case "position":
+                    m_position = new Position(line.substring(line.indexOf("fen ") + 4));
+                    break;
+                case "go":
+                    if (m_crash || m_numOfSearchesLeft == 0) System.exit(1);
+                    if (m_numOfSearchesLeft > 0) m_numOfSearchesLeft--;
+                    go(tokens);
+                    break;
+                case "stop":
+                    stop();
+                    break;
+                case "quit":
+                    stop();
+                    return;
+            }
+        }
+    }
+
+    private void go(String[] tokens)
+    {
+        int maxDepth = 0;
+        long maxNodes = 0L, maxTime = 0L;
+        for (int i = 1; i < tokens.length - 1; i++) {
+            if      (tokens[i].equals("depth"))    maxDepth = Integer.parseInt(tokens[i + 1]);
+            else if (tokens[i].equals("nodes"))    maxNodes = Long.parseLong(tokens[i + 1]);
+            else if (tokens[i].equals("movetime")) maxTime = Long.parseLong(tokens[i + 1]);
+        }
+        final boolean infinite = (maxDepth == 0 && maxNodes == 0L && maxTime == 0L);
+        final int depthLimit = (maxDepth > 0 ? maxDepth : Searcher.MAX_PLY - 1);
+        final long nodeLimit = maxNodes, timeLimit = maxTime;
+        final Position position = m_position;
+        m_stopped = false;
+        m_thread = new Thread(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis(), numOfNodes = 0L;
+                SearchResult result = null;
+                for (int depth = 1; depth <= depthLimit && !m_stopped; depth++) {
+                    result = m_searcher.search(position, depth, 0L, 0L);
+                    numOfNodes += result.getNumOfNodes();
+                    long time = System.currentTimeMillis() - start;
+                    sendInfo(result, numOfNodes, time);
+                    if (nodeLimit > 0 && numOfNodes >= nodeLimit) break;
+                    if (timeLimit > 0 && time >= timeLimit) break;
+                }
+                while (infinite && !m_stopped) {
+                    try {Thread.sleep(10);} catch (InterruptedException ex) {}
+                }
+                send("bestmove " + UCIEngine.getUCIString(result != null ? result.getBestMove() : 0));
+            }
+        });
+        m_thread.start();
+    }
+
+    private static void sendInfo(SearchResult result, long numOfNodes, long time)
+    {
+        StringBuffer sb = new StringBuffer("info depth ").append(result.getDepth());
+        sb.append(" seldepth ").append(result.getDepth());
+        int score = result.getScore();
+        if (Searcher.isMateScore(score)) {
+            int plies = Searcher.MATE - Math.abs(score);
+            sb.append(" score mate ").append(score > 0 ? (plies + 1) / 2 : -plies / 2);
+        } else {
+            sb.append(" score cp ").append(score);
+        }
+        sb.append(" nodes ").append(numOfNodes).append(" time ").append(time);
+        sb.append(" nps ").append(1000L * numOfNodes / Math.max(time, 1L));
+        sb.append(" hashfull 0 pv");
+        short[] pv = result.getPV();
+        for (int i = 0; i < pv.length; i++) {
+            sb.append(' ').append(UCIEngine.getUCIString(pv[i]));
+        }
+        send(sb.toString());
+    }
+
+    private void stop() throws InterruptedException
+    {
+        m_stopped = true;
+        m_searcher.stop();
+        if (m_thread != null) m_thread.join();
+    }
+
+}
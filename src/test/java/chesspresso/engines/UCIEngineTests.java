@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.engines;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import chesspresso.search.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tests for the UCIEngine, run against the {@link StubUCIEngine} process.
+ */
+public class UCIEngineTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(UCIEngineTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static final String MATE_IN_TWO = "k7/8/2K5/8/8/8/8/1R6 w - - 0 1";
+
+    private UCIEngine m_engine;
+
+    protected void setUp() throws Exception
+    {
+        m_engine = new UCIEngine(StubUCIEngine.getCommand(), null);
+    }
+
+    protected void tearDown()
+    {
+        m_engine.close();
+    }
+
+    private static void assertLegal(Position position, short move)
+    {
+        short[] moves = position.getAllMoves();
+        for (int i = 0; i < moves.length; i++) {
+            if (moves[i] == move) return;   // =====>
+        }
+        fail(Move.getString(move) + " is not legal");
+    }
+
+    //======================================================================
+
+    public void testHandshake() throws Exception
+    {
+        assertEquals("Chesspresso stub", m_engine.getName());
+        assertEquals("Bernhard Seybold", m_engine.getAuthor());
+        assertEquals(Arrays.asList("Hash", "Crash"), m_engine.getOptionNames());
+        m_engine.setOption("Hash", "8");
+        m_engine.newGame();
+        m_engine.isReady();
+        assertTrue(m_engine.isAlive());
+    }
+
+    public void testUCIString()
+    {
+        assertEquals("e2e4", UCIEngine.getUCIString(Move.getPawnMove(Chess.E2, Chess.E4, false, Chess.NO_PIECE)));
+        assertEquals("e1g1", UCIEngine.getUCIString(Move.getShortCastle(Chess.WHITE)));
+        assertEquals("e7f8n", UCIEngine.getUCIString(Move.getPawnMove(Chess.E7, Chess.F8, true, Chess.KNIGHT)));
+        assertEquals("0000", UCIEngine.getUCIString(Move.NO_MOVE));
+    }
+
+    public void testGo() throws Exception
+    {
+        final List<UCIInfo> infos = Collections.synchronizedList(new ArrayList<UCIInfo>());
+        Position position = Position.createInitialPosition();
+        UCIEngine.SearchFuture future = m_engine.go(position, 3, 0L, 0L, new UCIEngine.InfoListener() {
+            public void notifyInfo(UCIInfo info) {infos.add(info);}
+        });
+        SearchResult result = future.get(30, TimeUnit.SECONDS);
+        assertEquals(3, infos.size());
+        UCIInfo last = infos.get(2);
+        assertEquals(3, last.getDepth());
+        assertTrue(last.hasScore());
+        assertEquals(TranspositionTable.EXACT, last.getBound());
+        assertTrue(last.getNumOfNodes() > 0);
+        assertEquals(3, result.getDepth());
+        assertEquals(last.getScore(), result.getScore());
+        assertTrue(result.getPV().length > 0);
+        assertEquals(last.getPV()[0], result.getBestMove());
+        assertLegal(position, result.getBestMove());
+
+        try {
+            m_engine.go(position, 0, 0L, 0L, null);
+            m_engine.go(position, 0, 0L, 0L, null);
+            fail("second search must be refused");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    public void testMate() throws Exception
+    {
+        SearchResult result = m_engine.go(new Position(MATE_IN_TWO), 4, 0L, 0L, null).get(30, TimeUnit.SECONDS);
+        assertEquals(result.toString(), Searcher.MATE - 3, result.getScore());
+        Position position = new Position(MATE_IN_TWO);
+        short[] pv = result.getPV();
+        assertEquals(result.toString(), 3, pv.length);
+        for (int i = 0; i < pv.length; i++) {
+            assertLegal(position, pv[i]);
+            position.doMove(pv[i]);
+        }
+        assertTrue(position.isMate());
+    }
+
+    public void testStop() throws Exception
+    {
+        Position position = Position.createInitialPosition();
+        UCIEngine.SearchFuture future = m_engine.go(position, 0, 0L, 0L, null);
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+        m_engine.stop();
+        SearchResult result = future.get(30, TimeUnit.SECONDS);
+        assertTrue(result.getDepth() >= 1);
+        assertLegal(position, result.getBestMove());
+
+        future = m_engine.go(position, 0, 0L, 0L, null);
+        Thread.sleep(100);
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        result = m_engine.go(position, 2, 0L, 0L, null).get(30, TimeUnit.SECONDS);  // waits for the cancelled search
+        assertEquals(2, result.getDepth());
+    }
+
+    public void testTerminated() throws Exception
+    {
+        m_engine.setOption("Crash", "true");
+        UCIEngine.SearchFuture future = m_engine.go(Position.createInitialPosition(), 0, 0L, 0L, null);
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            fail("search of a terminated engine must fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+        assertFalse(m_engine.isAlive());
+        try {
+            m_engine.isReady();
+            fail("terminated engine must not be ready");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import junit.framework.*;
+import chesspresso.pgn.*;
+import java.io.*;
+
+/**
+ * Tests for the ECOClassifier.
+ */
+public class ECOClassifierTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(ECOClassifierTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static final String LINES =
+        "[ECO \"B00\"]\n\n1. e4 *\n\n" +
+        "[ECO \"B20\"]\n\n1. e4 c5 *\n\n" +
+        "[ECO \"B27\"]\n\n1. e4 c5 2. Nf3 g6 *\n\n" +
+        "[ECO \"A40\"]\n\n1. d4 *\n\n" +
+        "[ECO \"D06\"]\n\n1. d4 d5 2. c4 *\n\n" +
+        "[ECO \"X99\"]\n\n1. d4 d5 *\n\n" +     // illegal code, skipped
+        "[ECO \"A10\"]\n\n1. c4 *\n\n";
+
+    private static ECOClassifier createClassifier() throws IOException
+    {
+        return ECOClassifier.read(new StringReader(LINES), "eco.pgn");
+    }
+
+    private static Game parse(String pgn, ECOClassifier classifier, boolean overrideECO) throws Exception
+    {
+        PGNReader reader = new PGNReader(new StringReader(pgn), "test.pgn");
+        reader.setECOClassifier(classifier, overrideECO);
+        return reader.parseGame();
+    }
+
+    public void testClassifier() throws Exception
+    {
+        ECOClassifier classifier = createClassifier();
+        assertEquals("positions", 6, classifier.getNumOfPositions());
+        assertEquals("max ply", 4, classifier.getMaxPly());
+
+        assertEquals("B27", "B27", classifier.getECO(parse("1. e4 c5 2. Nf3 g6 3. d4 cxd4 *", null, false).getModel()));
+        assertEquals("B20", "B20", classifier.getECO(parse("1. e4 c5 2. Nc3 *", null, false).getModel()));
+        assertEquals("B00", "B00", classifier.getECO(parse("1. e4 e5 2. Nf3 *", null, false).getModel()));
+        assertEquals("transposition", "D06", classifier.getECO(parse("1. c4 d5 2. d4 e6 *", null, false).getModel()));
+        assertNull("unknown", classifier.getECO(parse("1. Nf3 d5 *", null, false).getModel()));
+    }
+
+    public void testReader() throws Exception
+    {
+        ECOClassifier classifier = createClassifier();
+        assertEquals("no tag", "D06", parse("[White \"a\"]\n\n1. c4 d5 2. d4 e6 *", classifier, false).getModel().getHeaderModel().getECO());
+        assertEquals("variation ignored", "A40",
+            parse("[White \"a\"]\n\n1. d4 Nf6 (1... d5 2. c4) 2. Nf3 *", classifier, false).getModel().getHeaderModel().getECO());
+        assertEquals("tag kept", "A00", parse("[ECO \"A00\"]\n\n1. e4 c5 *", classifier, false).getECO());
+        assertEquals("tag replaced", "B20", parse("[ECO \"A00\"]\n\n1. e4 c5 *", classifier, true).getECO());
+        assertNull("FEN", parse("[FEN \"8/8/4k3/8/8/4K3/4P3/8 w - - 0 1\"]\n\n1. e4 *", classifier, true).getECO());
+
+        PGNReader reader = new PGNReader(new StringReader("1. e4 c5 *\n\n1. d4 d5 2. c4 *\n"), "test.pgn");
+        reader.setECOClassifier(classifier, false);
+        assertEquals("first game", "B20", reader.parseGame().getECO());
+        assertEquals("second game", "D06", reader.parseGame().getECO());
+        assertNull("no more games", reader.parseGame());
+    }
+
+}
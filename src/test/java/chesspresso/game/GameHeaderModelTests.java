@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import junit.framework.*;
+import chesspresso.Chess;
+import chesspresso.pgn.*;
+import java.io.*;
+
+/**
+ * Tests for the GameHeaderModel.
+ */
+public class GameHeaderModelTests extends TestCase
+{
+    
+    public static Test suite()
+    {
+        return new TestSuite(GameHeaderModelTests.class);
+    }
+    
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+    
+    private GameHeaderModel createHeaderModel()
+    {
+        GameHeaderModel headerModel = new GameHeaderModel();
+        headerModel.setTag(PGN.TAG_EVENT, "FIDE World Championship KO");
+        headerModel.setTag(PGN.TAG_SITE, "Las Vegas");
+        headerModel.setTag(PGN.TAG_DATE, "1999.08.01");
+        headerModel.setTag(PGN.TAG_ROUND, "1.1");
+        headerModel.setTag(PGN.TAG_WHITE, "Kasimdzhanov, Rustam");
+        headerModel.setTag(PGN.TAG_BLACK, "Ljubojević, Ljubomir");
+        headerModel.setTag(PGN.TAG_RESULT, "1/2-1/2");
+        headerModel.setTag(PGN.TAG_WHITE_ELO, "2620");
+        headerModel.setTag(PGN.TAG_BLACK_ELO, "2575");
+        headerModel.setTag(PGN.TAG_ECO, "B33");
+        headerModel.setTag(PGN.TAG_FEN, "8/8/4k3/8/8/4K3/4P3/8 w - - 0 60");
+        headerModel.setTag("TimeControl", "40/7200:3600");
+        headerModel.setTag("Annotator", "");
+        headerModel.setTag("MyOwnTag", "some value");
+        return headerModel;
+    }
+    
+    private GameHeaderModel saveAndLoad(GameHeaderModel headerModel, int mode) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        headerModel.save(out, mode);
+        out.writeInt(0xCAFE);  // check that load consumes exactly what save wrote
+        out.close();
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        GameHeaderModel loaded = new GameHeaderModel(in, mode);
+        assertEquals("load did not consume saved header", 0xCAFE, in.readInt());
+        return loaded;
+    }
+    
+    private void assertSameTags(GameHeaderModel expected, GameHeaderModel actual)
+    {
+        String[] tags = expected.getTags();
+        String[] loadedTags = actual.getTags();
+        assertEquals("number of tags", tags.length, loadedTags.length);
+        for (int i = 0; i < tags.length; i++) {
+            assertEquals("tag order", tags[i], loadedTags[i]);
+            assertEquals("value of " + tags[i], expected.getTag(tags[i]), actual.getTag(tags[i]));
+        }
+    }
+    
+    public void testLoadSaveAllTags() throws Exception
+    {
+        GameHeaderModel headerModel = createHeaderModel();
+        headerModel.setTag("Annotator", "Seybold");
+        GameHeaderModel loaded = saveAndLoad(headerModel, GameHeaderModel.MODE_ALL_TAGS);
+        assertSameTags(headerModel, loaded);
+    }
+    
+    public void testLoadSaveEmptyValues() throws Exception
+    {
+        GameHeaderModel loaded = saveAndLoad(createHeaderModel(), GameHeaderModel.MODE_ALL_TAGS);
+        assertNull("empty values are read as null", loaded.getTag("Annotator"));
+        assertEquals("some value", loaded.getTag("MyOwnTag"));
+    }
+    
+    public void testLoadSaveStandardTags() throws Exception
+    {
+        GameHeaderModel loaded = saveAndLoad(createHeaderModel(), GameHeaderModel.MODE_STANDARD_TAGS);
+        assertEquals("B33", loaded.getECO());
+        assertEquals(2575, loaded.getBlackElo());
+        assertNull("other tags must not be stored", loaded.getTag(PGN.TAG_FEN));
+        
+        loaded = saveAndLoad(new GameHeaderModel(), GameHeaderModel.MODE_ALL_TAGS);
+        assertEquals(0, loaded.getTags().length);
+    }
+    
+    public void testPackedTags() throws Exception
+    {
+        GameHeaderModel headerModel = createHeaderModel();
+        assertEquals(1999, headerModel.getYear());
+        assertEquals(PGN.pgnDateToPackedDate("1999.08.01"), headerModel.getPackedDate());
+        assertEquals(PGN.ecoToPackedECO("B33"), headerModel.getPackedECO());
+        assertEquals(Chess.RES_DRAW, headerModel.getResult());
+        assertEquals(2620, headerModel.getWhiteElo());
+        assertEquals("1999.08.01", headerModel.getDate());
+        assertEquals("1/2-1/2", headerModel.getResultStr());
+        assertEquals("2620", headerModel.getWhiteEloStr());
+        assertEquals("B33", headerModel.getECO());
+        assertNull(headerModel.getEventDate());
+        
+        headerModel.setTag(PGN.TAG_DATE, "1993.??.??");
+        assertEquals("1993.??.??", headerModel.getDate());
+        assertEquals(1993, headerModel.getYear());
+        headerModel.setTag(PGN.TAG_DATE, "????.??.??");
+        assertEquals("????.??.??", headerModel.getDate());
+        assertEquals(0, headerModel.getYear());
+        
+        headerModel.setTag(PGN.TAG_RESULT, null);
+        assertNull(headerModel.getResultStr());
+        assertEquals(Chess.NO_RES, headerModel.getResult());
+    }
+    
+    public void testMalformedPackedTags() throws Exception
+    {
+        GameHeaderModel headerModel = new GameHeaderModel();
+        headerModel.setTag(PGN.TAG_DATE, "1999.8.1");
+        headerModel.setTag(PGN.TAG_RESULT, "1:0");
+        headerModel.setTag(PGN.TAG_WHITE_ELO, "02450");
+        headerModel.setTag(PGN.TAG_BLACK_ELO, "-");
+        headerModel.setTag(PGN.TAG_ECO, "B3");
+        
+        for (int mode = GameHeaderModel.MODE_STANDARD_TAGS; mode <= GameHeaderModel.MODE_ALL_TAGS; mode++) {
+            GameHeaderModel loaded = (mode == GameHeaderModel.MODE_STANDARD_TAGS ? headerModel : saveAndLoad(headerModel, mode));
+            assertEquals("1999.8.1", loaded.getDate());
+            assertEquals(PGN.NO_PACKED_DATE, loaded.getPackedDate());
+            assertEquals("1:0", loaded.getResultStr());
+            assertEquals(Chess.NO_RES, loaded.getResult());
+            assertEquals("02450", loaded.getWhiteEloStr());
+            assertEquals(2450, loaded.getWhiteElo());
+            assertEquals("-", loaded.getBlackEloStr());
+            assertEquals(0, loaded.getBlackElo());
+            assertEquals("B3", loaded.getECO());
+            assertEquals(PGN.NO_PACKED_ECO, loaded.getPackedECO());
+            assertEquals(5, loaded.getTags().length);
+        }
+    }
+    
+    public void testManyOtherTags() throws Exception
+    {
+        GameHeaderModel headerModel = new GameHeaderModel();
+        for (int i = 0; i < 20; i++) headerModel.setTag("Tag" + i, "Value" + i);
+        headerModel.setTag("Tag7", "Replaced");
+        headerModel.setTag("PlyCount", "42");
+        assertEquals(20, headerModel.getTags().length);
+        assertEquals("Replaced", headerModel.getTag("Tag7"));
+        assertNull(headerModel.getTag("PlyCount"));
+        assertSameTags(headerModel, saveAndLoad(headerModel, GameHeaderModel.MODE_ALL_TAGS));
+    }
+    
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.move.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Tests for the GameMoveModel.
+ */
+public class GameMoveModelTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(GameMoveModelTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static final short
+        E4 = Move.getPawnMove(Chess.E2, Chess.E4, false, Chess.NO_PIECE),
+        D4 = Move.getPawnMove(Chess.D2, Chess.D4, false, Chess.NO_PIECE),
+        E5 = Move.getPawnMove(Chess.E7, Chess.E5, false, Chess.NO_PIECE),
+        C5 = Move.getPawnMove(Chess.C7, Chess.C5, false, Chess.NO_PIECE),
+        NF3 = Move.getRegularMove(Chess.G1, Chess.F3, false),
+        NC6 = Move.getRegularMove(Chess.B8, Chess.C6, false),
+        C4 = Move.getPawnMove(Chess.C2, Chess.C4, false, Chess.NO_PIECE);
+
+    /**
+     * Returns all values of the model, including the guards at index 0 and
+     * at the end, as written by save.
+     */
+    private static short[] getValues(GameMoveModel model) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        model.save(new DataOutputStream(buffer), GameMoveModel.MODE_EVERYTHING);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        short[] values = new short[in.readInt() + 2];
+        values[0] = GameMoveModel.LINE_START;
+        for (int i = 1; i < values.length - 1; i++) values[i] = in.readShort();
+        values[values.length - 1] = GameMoveModel.LINE_END;
+        return values;
+    }
+
+    private static GameMoveModel createModel(short[] values) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(values.length - 2);
+        for (int i = 1; i < values.length - 1; i++) out.writeShort(values[i]);
+        out.close();
+        return new GameMoveModel(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())),
+                                 GameMoveModel.MODE_EVERYTHING);
+    }
+
+    private static GameMoveModel copy(GameMoveModel model) throws IOException
+    {
+        return createModel(getValues(model));
+    }
+
+    /**
+     * Returns the values of the model as text, without the NO_MOVEs left by
+     * deletions.
+     */
+    private static String dump(GameMoveModel model) throws IOException
+    {
+        StringBuffer sb = new StringBuffer();
+        boolean inComment = false;
+        for (short value : getValues(model)) {
+            if (value == GameMoveModel.COMMENT_END) inComment = false;
+            if (inComment) {
+                sb.append((char)value);
+            } else if (value != GameMoveModel.NO_MOVE) {
+                sb.append(GameMoveModel.valueToString(value)).append(' ');
+            }
+            if (value == GameMoveModel.COMMENT_START) inComment = true;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks that the model survives save and load, and pack.
+     */
+    private static void assertRoundTrip(GameMoveModel model) throws IOException
+    {
+        String expected = dump(model);
+        GameMoveModel loaded = copy(model);
+        assertEquals(expected, dump(loaded));
+        assertEquals(model, loaded);
+        assertTrue(Arrays.equals(model.getMainLine(), loaded.getMainLine()));
+
+        GameMoveModel packed = copy(model);
+        packed.pack(0);
+        assertEquals(expected, dump(packed));
+        assertEquals(expected, dump(copy(packed)));
+        assertEquals(model.getTotalNumOfPlies(), packed.getTotalNumOfPlies());
+        assertEquals(model.getTotalCommentSize(), packed.getTotalCommentSize());
+    }
+
+    /**
+     * Returns whether the model currently holds a navigation index.
+     */
+    private static boolean hasNavigation(GameMoveModel model) throws Exception
+    {
+        Field field = GameMoveModel.class.getDeclaredField("m_navigation");
+        field.setAccessible(true);
+        Field none = GameMoveModel.class.getDeclaredField("NO_NAVIGATION");
+        none.setAccessible(true);
+        Object navigation = field.get(model);
+        return navigation != null && navigation != none.get(null);
+    }
+
+    /**
+     * Queries the model until it builds its navigation index, the index is
+     * only built for models queried repeatedly.
+     */
+    private static void queryNavigation(GameMoveModel model) throws Exception
+    {
+        for (int i = 0; i < 100 && !hasNavigation(model); i++) model.goForward(0);
+    }
+
+    /**
+     * Returns a copy of the model with an empty line in front of the first
+     * move. The line does not change the answers of the linear scans, but
+     * no navigation index can be built for it. All indices but 0 are moved
+     * by two.
+     */
+    private static GameMoveModel createUnindexedCopy(GameMoveModel model) throws IOException
+    {
+        short[] values = getValues(model);
+        short[] copy = new short[values.length + 2];
+        copy[0] = values[0];
+        copy[1] = GameMoveModel.LINE_START;
+        copy[2] = GameMoveModel.LINE_END;
+        System.arraycopy(values, 1, copy, 3, values.length - 1);
+        return createModel(copy);
+    }
+
+    private static int toUnindexed(int index)
+    {
+        return (index <= 0 ? index : index + 2);
+    }
+
+    /**
+     * Checks the answers of the navigation index against the linear scans,
+     * for all moves and line starts of the model.
+     */
+    private static void assertNavigation(GameMoveModel model) throws Exception
+    {
+        queryNavigation(model);
+        assertTrue(hasNavigation(model));
+        GameMoveModel scan = createUnindexedCopy(model);
+        short[] values = getValues(model);
+        boolean inComment = false;
+        for (int index = 0; index < values.length - 1; index++) {
+            short value = values[index];
+            if (value == GameMoveModel.COMMENT_END) inComment = false;
+            if (value == GameMoveModel.COMMENT_START) inComment = true;
+            if (inComment || (value != GameMoveModel.LINE_START && Move.isSpecial(value))) continue;
+
+            int other = toUnindexed(index);
+            String msg = "index " + index + " " + GameMoveModel.valueToString(value);
+            assertEquals(msg, scan.goForward(other), toUnindexed(model.goForward(index)));
+            for (int line = 0; line < 3; line++) {
+                assertEquals(msg + " line " + line, scan.goForward(other, line), toUnindexed(model.goForward(index, line)));
+            }
+            assertEquals(msg, scan.getNumOfNextMoves(other), model.getNumOfNextMoves(index));
+            assertEquals(msg, scan.hasNextMove(other), model.hasNextMove(index));
+            assertEquals(msg, scan.goBack(other, false), toUnindexed(model.goBack(index, false)));
+            assertEquals(msg, scan.goBack(other, true), toUnindexed(model.goBack(index, true)));
+            assertEquals(msg, scan.getNumOfPliesToRoot(other), model.getNumOfPliesToRoot(index));
+        }
+        assertTrue(hasNavigation(model));
+        assertFalse(hasNavigation(scan));
+    }
+
+    private static short getRandomMove(Random random)
+    {
+        for (;;) {
+            short move = Move.getRegularMove(random.nextInt(64), random.nextInt(64), random.nextBoolean());
+            if (!Move.isSpecial(move)) return move;
+        }
+    }
+
+    private static String getRandomComment(Random random)
+    {
+        int length = random.nextInt(40);
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < length; i++) sb.append((char)('a' + random.nextInt(26)));
+        return sb.toString();
+    }
+
+    //======================================================================
+
+    public void testGapBuffer() throws Exception
+    {
+        GameMoveModel model = new GameMoveModel();
+        assertRoundTrip(model);
+        int e4 = model.appendAsRightMostLine(0, E4);
+        int e5 = model.appendAsRightMostLine(e4, E5);
+        int nf3 = model.appendAsRightMostLine(e5, NF3);
+        assertRoundTrip(model);   // gap at the end
+
+        // gap at the start, grown beyond the initial capacity
+        StringBuffer comment = new StringBuffer();
+        for (int i = 0; i < 100; i++) comment.append((char)('a' + i % 26));
+        assertTrue(model.addComment(0, comment.toString()));
+        e4 += 102; e5 += 102; nf3 += 102;
+        assertEquals(comment.toString(), model.getComment(0));
+        assertEquals(E4, model.getMove(e4));
+        assertEquals(NF3, model.getMove(nf3));
+        assertRoundTrip(model);
+
+        // gap in the middle
+        model.addNag(e5, (short)1);
+        model.addNag(e5, (short)4);
+        nf3 += 2;
+        assertTrue(model.hasNag(e5, (short)1));
+        assertTrue(Arrays.equals(new short[] {1, 4}, model.getNags(e5)));
+        assertRoundTrip(model);
+        assertTrue(model.setComment(e4, "best by test"));
+        e5 += 14; nf3 += 14;
+        assertEquals("best by test", model.getComment(e4));
+        assertRoundTrip(model);
+
+        // a line to e5 and one to e4, the gap moves back and forth
+        int c5 = model.appendAsRightMostLine(e4, C5);
+        assertEquals(C5, model.getMove(c5));
+        assertRoundTrip(model);
+        int d4 = model.appendAsRightMostLine(0, D4);
+        assertEquals(D4, model.getMove(d4));
+        assertRoundTrip(model);
+        e4 = model.goForward(0);
+        e5 = model.goForward(e4);
+        nf3 = model.goForward(e5);
+        assertEquals(E4, model.getMove(e4));
+        assertEquals(NF3, model.getMove(nf3));
+        assertEquals(2, model.getNumOfNextMoves(e4));
+        assertEquals(C5, model.getMove(model.goForward(e4, 1)));
+        assertEquals(2, model.getNumOfNextMoves(0));
+        assertTrue(Arrays.equals(new short[] {E4, E5, NF3}, model.getMainLine()));
+
+        // continue the main line at the end, then delete lines and comments
+        model.appendAsRightMostLine(nf3, NC6);
+        assertRoundTrip(model);
+        model.deleteCurrentLine(model.goForward(e4, 1));
+        assertEquals(1, model.getNumOfNextMoves(model.goForward(0)));
+        assertRoundTrip(model);
+        e5 = model.goForward(model.goForward(0));
+        assertTrue(model.setComment(e5, "only move"));
+        assertTrue(model.removeNag(e5, (short)1));
+        assertEquals("only move", model.getComment(e5));
+        assertTrue(Arrays.equals(new short[] {4}, model.getNags(e5)));
+        assertTrue(model.removeComment(e5));
+        assertTrue(model.removeComment(0));
+        assertNull(model.getComment(0));
+        assertRoundTrip(model);
+        assertTrue(Arrays.equals(new short[] {E4, E5, NF3, NC6}, model.getMainLine()));
+        assertEquals(4, model.getNumOfPliesToRoot(model.goForward(model.goForward(model.goForward(model.goForward(0))))));
+
+        // packing leaves no gap, the next insertion grows the buffer
+        int index = model.pack(model.goForward(0));
+        assertEquals(E4, model.getMove(index));
+        assertEquals("best by test", model.getComment(index));
+        model.appendAsRightMostLine(index, C5);
+        assertRoundTrip(model);
+    }
+
+    /**
+     * Edits a model at random and applies the same edits to a second model
+     * which is packed after each edit, so that it never has a gap before the
+     * edit. Both must have the same contents.
+     */
+    public void testRandomEdits() throws Exception
+    {
+        Random random = new Random(47);
+        for (int game = 0; game < 20; game++) {
+            GameMoveModel model = new GameMoveModel(), packed = new GameMoveModel();
+            int cur = 0, packedCur = 0;
+            for (int step = 0; step < 300; step++) {
+                int op = random.nextInt(12);
+                if (op < 4) {
+                    short move = getRandomMove(random);
+                    cur = model.appendAsRightMostLine(cur, move);
+                    packedCur = packed.appendAsRightMostLine(packedCur, move);
+                } else if (op == 4 && cur != 0) {
+                    short nag = (short)(1 + random.nextInt(20));
+                    model.addNag(cur, nag);
+                    packed.addNag(packedCur, nag);
+                } else if (op == 5 && cur != 0) {
+                    short nag = (short)(1 + random.nextInt(20));
+                    assertEquals(model.removeNag(cur, nag), packed.removeNag(packedCur, nag));
+                } else if (op == 6) {
+                    String comment = getRandomComment(random);
+                    assertEquals(model.setComment(cur, comment), packed.setComment(packedCur, comment));
+                } else if (op == 7 && cur != 0) {
+                    cur = model.goBack(cur, true);
+                    packedCur = packed.goBack(packedCur, true);
+                } else if (op == 8) {
+                    int num = model.getNumOfNextMoves(cur);
+                    assertEquals(num, packed.getNumOfNextMoves(packedCur));
+                    if (num > 0) {
+                        int line = random.nextInt(num);
+                        cur = model.goForward(cur, line);
+                        packedCur = packed.goForward(packedCur, line);
+                    }
+                } else if (op == 9 && cur != 0 && random.nextInt(4) == 0) {
+                    int index = cur, packedIndex = packedCur;
+                    cur = model.goBack(cur, true);
+                    packedCur = packed.goBack(packedCur, true);
+                    model.deleteCurrentLine(index);
+                    packed.deleteCurrentLine(packedIndex);
+                } else if (op == 10 && random.nextInt(10) == 0) {
+                    cur = model.pack(cur);
+                }
+                packedCur = packed.pack(packedCur);
+
+                assertEquals(dump(packed), dump(model));
+                assertEquals(packed.getMove(packedCur), model.getMove(cur));
+                assertEquals(packed.getComment(packedCur), model.getComment(cur));
+                if (cur != 0) assertTrue(Arrays.equals(packed.getNags(packedCur), model.getNags(cur)));
+                assertEquals(packed.getNumOfPliesToRoot(packedCur), model.getNumOfPliesToRoot(cur));
+                assertTrue(Arrays.equals(packed.getMainLine(), model.getMainLine()));
+                if (step % 50 == 0) assertRoundTrip(model);
+            }
+            assertRoundTrip(model);
+        }
+    }
+
+    public void testNavigation() throws Exception
+    {
+        // 1.e4 (1.d4 d5 (1...Nf6 2.c4) 2.c4) (1.c4) 1...e5 (1...c5 2.Nf3 (2.d4)) 2.Nf3 Nc6
+        GameMoveModel model = new GameMoveModel();
+        int e4 = model.appendAsRightMostLine(0, E4);
+        int e5 = model.appendAsRightMostLine(e4, E5);
+        model.appendAsRightMostLine(model.appendAsRightMostLine(e5, NF3), NC6);
+        model.addComment(0, "start");
+        int d4 = model.appendAsRightMostLine(0, D4);
+        int d5 = model.appendAsRightMostLine(d4, Move.getPawnMove(Chess.D7, Chess.D5, false, Chess.NO_PIECE));
+        model.appendAsRightMostLine(d5, C4);
+        int nf6 = model.appendAsRightMostLine(d4, Move.getRegularMove(Chess.G8, Chess.F6, false));
+        model.appendAsRightMostLine(nf6, C4);
+        model.appendAsRightMostLine(0, C4);
+        e4 = model.goForward(0);
+        model.addNag(e4, (short)1);
+        int c5 = model.appendAsRightMostLine(e4, C5);
+        model.setComment(c5, "sicilian");
+        int nf3 = model.appendAsRightMostLine(c5, NF3);
+        model.appendAsRightMostLine(c5, D4);
+
+        assertFalse(hasNavigation(model));
+        assertNavigation(model);
+        e4 = model.goForward(0);
+        assertEquals(3, model.getNumOfNextMoves(0));
+        assertEquals(C4, model.getMove(model.goForward(0, 2)));
+        assertEquals(-1, model.goForward(0, 3));
+        assertEquals(2, model.getNumOfNextMoves(e4));
+        c5 = model.goForward(e4, 1);
+        assertEquals(-1, model.goBack(c5, false));
+        assertEquals(e4, model.goBack(c5, true));
+        nf3 = model.goForward(c5);
+        assertEquals(3, model.getNumOfPliesToRoot(nf3));
+        assertEquals(D4, model.getMove(model.goForward(c5, 1)));
+        assertEquals(4, model.getNumOfPliesToRoot(model.goForward(model.goForward(model.goForward(e4)))));
+
+        // an edit drops the index, later queries build it again
+        int index = model.appendAsRightMostLine(nf3, NC6);
+        assertFalse(hasNavigation(model));
+        assertEquals(4, model.getNumOfPliesToRoot(index));
+        assertNavigation(model);
+        model.addNag(index, (short)2);
+        assertFalse(hasNavigation(model));
+        assertNavigation(model);
+        model.deleteCurrentLine(model.goForward(0, 1));
+        assertFalse(hasNavigation(model));
+        assertEquals(2, model.getNumOfNextMoves(0));
+        assertNavigation(model);
+
+        // so does packing, which moves the indices
+        index = model.pack(index);
+        assertFalse(hasNavigation(model));
+        assertEquals(NC6, model.getMove(index));
+        assertEquals(4, model.getNumOfPliesToRoot(index));
+        assertNavigation(model);
+    }
+
+    public void testRandomNavigation() throws Exception
+    {
+        Random random = new Random(11);
+        for (int game = 0; game < 10; game++) {
+            GameMoveModel model = new GameMoveModel();
+            int cur = 0;
+            for (int step = 0; step < 150; step++) {
+                int op = random.nextInt(10);
+                if (op < 5) {
+                    cur = model.appendAsRightMostLine(cur, getRandomMove(random));
+                } else if (op == 5 && cur != 0) {
+                    model.addNag(cur, (short)(1 + random.nextInt(20)));
+                } else if (op == 6) {
+                    model.setComment(cur, getRandomComment(random));
+                } else if (op == 7) {
+                    for (int i = random.nextInt(4); i > 0 && cur != 0; i--) cur = model.goBack(cur, true);
+                } else if (op == 8 && cur != 0 && random.nextInt(3) == 0) {
+                    int index = cur;
+                    cur = model.goBack(cur, true);
+                    model.deleteCurrentLine(index);
+                } else if (op == 9 && random.nextInt(5) == 0) {
+                    cur = model.pack(cur);
+                }
+                assertNavigation(model);
+            }
+        }
+    }
+
+    public void testNavigationFallback() throws Exception
+    {
+        short nf3 = NF3, d5 = Move.getPawnMove(Chess.D7, Chess.D5, false, Chess.NO_PIECE);
+        short S = GameMoveModel.LINE_START, E = GameMoveModel.LINE_END;
+
+        // 1.e4 () e5 (1...d5) 2.Nf3: an empty line
+        GameMoveModel model = createModel(new short[] {S, E4, S, E, E5, S, d5, E, nf3, E});
+        assertEquals(1, model.goForward(0));
+        assertEquals(4, model.goForward(1));
+        assertEquals(6, model.goForward(1, 1));
+        assertEquals(-1, model.goForward(1, 2));
+        assertEquals(2, model.getNumOfNextMoves(1));
+        assertEquals(-1, model.goBack(6, false));
+        assertEquals(1, model.goBack(6, true));
+        assertEquals(1, model.goBack(4, false));
+        assertEquals(3, model.getNumOfPliesToRoot(8));
+        assertEquals(2, model.getNumOfPliesToRoot(6));
+        assertEquals(9, model.goForward(8));
+        assertTrue(Arrays.equals(new short[] {E4, E5, nf3}, model.getMainLine()));
+        assertFalse(hasNavigation(model));
+
+        // (1.d4) 1.e4 e5: a line without a move to replace
+        model = createModel(new short[] {S, S, D4, E, E4, E5, E});
+        assertEquals(4, model.goForward(0));
+        assertEquals(5, model.goForward(4));
+        assertEquals(2, model.getNumOfPliesToRoot(5));
+        assertEquals(0, model.goBack(4, true));
+        assertTrue(Arrays.equals(new short[] {E4, E5}, model.getMainLine()));
+        assertFalse(hasNavigation(model));
+
+        // after the broken lines are deleted, the index is used again
+        model.deleteCurrentLine(2);
+        assertEquals(4, model.goForward(0));
+        queryNavigation(model);
+        assertTrue(hasNavigation(model));
+        assertEquals(2, model.getNumOfPliesToRoot(5));
+    }
+
+    public void testNavigationNotBuiltByEdits() throws Exception
+    {
+        Random random = new Random(5);
+        long start = System.currentTimeMillis();
+
+        // a long game entered the way Game does: look at the next moves, append
+        GameMoveModel model = new GameMoveModel();
+        int cur = 0;
+        for (int ply = 0; ply < 20000; ply++) {
+            if (model.getNumOfNextMoves(cur) > 0) cur = model.goForward(cur, 0);
+            cur = model.appendAsRightMostLine(cur, getRandomMove(random));
+            if (ply % 100 == 0) assertFalse(hasNavigation(model));
+        }
+        assertEquals(20000, model.getNumOfMainLinePlies());
+        assertFalse(hasNavigation(model));
+
+        // annotated from the end: a nag and a line every few moves
+        for (int i = 0; i < 5000; i++) {
+            for (int j = 0; j < 3; j++) cur = model.goBack(cur, true);
+            model.addNag(cur, (short)(1 + random.nextInt(20)));
+            model.appendAsRightMostLine(cur, getRandomMove(random));
+            if (i % 100 == 0) assertFalse(hasNavigation(model));
+        }
+        assertEquals(20000, model.getNumOfMainLinePlies());
+        assertEquals(25000, model.getTotalNumOfPlies());
+
+        // a full rebuild per edit took seconds, the scans take well below one
+        long time = System.currentTimeMillis() - start;
+        assertTrue("took " + time + " ms", time < 2000);
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import junit.framework.*;
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+import chesspresso.position.*;
+import java.util.*;
+
+/**
+ * Tests for the GameReplayer.
+ */
+public class GameReplayerTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(GameReplayerTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static void doTestGames(String name, boolean withLines) throws Exception
+    {
+        final GameReplayer replayer = new GameReplayer();
+        int numOfLines = 0;
+        for (Game game : PGNTestFiles.readGames(name)) {
+            final List<String> expected = new ArrayList<>();
+            game.traverse(new GameListener() {
+                public void notifyMove(Move move, short[] nags, String comment, int plyNumber, int level)
+                {
+                    expected.add(move.getSAN() + " " + Arrays.toString(nags) + " " + comment + " " + plyNumber + " " + level);
+                }
+                public void notifyLineStart(int level) {expected.add("( " + level);}
+                public void notifyLineEnd(int level)   {expected.add(") " + level);}
+            }, withLines);
+
+            final List<String> actual = new ArrayList<>();
+            replayer.replay(game.getModel(), new GameMoveVisitor() {
+                public void visitMove(short move, int plyNumber, int level, ImmutablePosition pos)
+                {
+                    assertEquals("move", move, replayer.getMove().getShortMoveDesc());
+                    assertEquals("ply number", plyNumber + 1, pos.getPlyNumber());
+                    actual.add(replayer.getMove().getSAN() + " " + Arrays.toString(replayer.getNags()) + " " + replayer.getComment() + " " + plyNumber + " " + level);
+                }
+                public void visitLineStart(int level) {actual.add("( " + level);}
+                public void visitLineEnd(int level)   {actual.add(") " + level);}
+            }, withLines);
+            assertEquals(game.toString(), expected, actual);
+            if (expected.contains("( 0")) numOfLines++;
+        }
+        if (withLines) assertTrue("games with lines", numOfLines > 0);
+    }
+
+    public void testWithLines() throws Exception
+    {
+        doTestGames("PGNTest", true);
+    }
+
+    public void testMainLine() throws Exception
+    {
+        doTestGames("PGNTest", false);
+        doTestGames("chusa99", false);
+    }
+
+    public void testHashCodes() throws Exception
+    {
+        GameReplayer replayer = new GameReplayer();
+        for (Game game : PGNTestFiles.readGames("PGNTest")) {
+            final List<Long> expected = new ArrayList<>();
+            game.gotoStart();
+            expected.add(game.getPosition().getHashCode());
+            while (game.goForward()) expected.add(game.getPosition().getHashCode());
+            long[] hashCodes = replayer.getHashCodes(game.getModel(), false);
+            assertEquals("num", expected.size(), hashCodes.length);
+            for (int i = 0; i < hashCodes.length; i++) assertEquals("ply " + i, expected.get(i).longValue(), hashCodes[i]);
+
+            long[] small = new long[2];
+            assertEquals("small array", hashCodes.length, replayer.getHashCodes(game.getModel(), small, false));
+            assertEquals("small array", hashCodes[0], small[0]);
+
+            expected.clear();
+            game.gotoStart();
+            expected.add(game.getPosition().getHashCode());
+            final Position gamePosition = game.getPosition();
+            game.traverse(new GameListener() {
+                public void notifyMove(Move move, short[] nags, String comment, int plyNumber, int level) {expected.add(gamePosition.getHashCode());}
+                public void notifyLineStart(int level) {}
+                public void notifyLineEnd(int level) {}
+            }, true);
+            long[] withLines = replayer.getHashCodes(game.getModel(), true);
+            assertEquals("with lines", expected.size(), withLines.length);
+            for (int i = 0; i < withLines.length; i++) assertEquals("with lines " + i, expected.get(i).longValue(), withLines[i]);
+        }
+    }
+
+    public void testExtractor() throws Exception
+    {
+        final List<Game> games = PGNTestFiles.readGames("chusa99");
+        final long[][] expected = new long[games.size()][];
+        GameReplayer replayer = new GameReplayer();
+        for (int i = 0; i < games.size(); i++) expected[i] = replayer.getHashCodes(games.get(i).getModel(), false);
+
+        final long[][] actual = new long[games.size()][];
+        chesspresso.database.HashCodeExtractor extractor = new chesspresso.database.HashCodeExtractor(false);
+        final Iterator<Game> gameIterator = games.iterator();
+        int numOfGames = extractor.extract(new GameModelIterator() {
+            public boolean hasNext() {return gameIterator.hasNext();}
+            public GameModel nextGameModel() {return gameIterator.next().getModel();}
+            public Object next() {return nextGameModel();}
+            public void remove() {throw new UnsupportedOperationException();}
+        }, new chesspresso.database.HashCodeExtractor.Listener() {
+            public void notifyHashCodes(int gameId, long[] hashCodes, int num)
+            {
+                actual[gameId] = Arrays.copyOf(hashCodes, num);
+            }
+        }, 4);
+        assertEquals("games", games.size(), numOfGames);
+        assertEquals("illegal games", 0, extractor.getNumOfIllegalGames());
+        for (int i = 0; i < games.size(); i++) assertTrue("game " + i, Arrays.equals(expected[i], actual[i]));
+    }
+
+    public void testLazyMoves() throws Exception
+    {
+        int numOfMoves = 0;
+        for (String name : new String[] {"PGNTest", "chusa99"}) {
+            for (Game game : PGNTestFiles.readGames(name)) {
+                String fen = game.getTag(PGN.TAG_FEN);
+                Position position = (fen != null ? new Position(fen) : Position.createInitialPosition());
+                List<Move> lazyMoves = new ArrayList<>();
+                for (short move : game.getModel().getMoveModel().getMainLine()) {
+                    position.doMove(move);
+                    long hashCode = position.getHashCode();
+                    Move lazy = position.getLastLazyMove();
+                    assertEquals("position unchanged", hashCode, position.getHashCode());
+                    Move eager = position.getLastMove();
+                    assertEquals("moving piece", eager.getMovingPiece(), lazy.getMovingPiece());
+                    assertEquals("white move", eager.isWhiteMove(), lazy.isWhiteMove());
+                    assertEquals("SAN", eager.getSAN(), lazy.getSAN());
+                    assertEquals("LAN", eager.getLAN(), lazy.getLAN());
+                    assertEquals("equals", eager, lazy);
+                    assertEquals("equals", lazy, eager);
+                    lazyMoves.add(position.getLastLazyMove());
+                    numOfMoves++;
+                }
+                // resolved after the position has moved on
+                game.gotoStart();
+                for (Move lazy : lazyMoves) {
+                    game.goForward();
+                    assertEquals("late SAN", game.getLastMove().getSAN(), lazy.getSAN());
+                }
+            }
+        }
+        assertTrue("moves", numOfMoves > 1000);
+    }
+
+    public void testReuse() throws Exception
+    {
+        GameReplayer replayer = new GameReplayer();
+        final int[] numOfMoves = new int[1];
+        GameMoveVisitor counter = new GameMoveVisitor() {
+            public void visitMove(short move, int plyNumber, int level, ImmutablePosition position) {numOfMoves[0]++;}
+            public void visitLineStart(int level) {}
+            public void visitLineEnd(int level) {}
+        };
+        Game game = new Game();
+        game.getPosition().doMove(game.getPosition().getMove(chesspresso.Chess.E2, chesspresso.Chess.E4, chesspresso.Chess.NO_PIECE));
+        for (int i = 0; i < 3; i++) replayer.replay(game.getModel(), counter, true);
+        assertEquals("moves", 3, numOfMoves[0]);
+        assertTrue("back at start", replayer.getPosition().isStartPosition());
+        try {
+            replayer.isCheck();
+            fail("isCheck outside of visitMove");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+}
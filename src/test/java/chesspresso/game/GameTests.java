@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.game;
+
+import junit.framework.*;
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+import java.util.*;
+
+/**
+ * Tests for the Game.
+ */
+public class GameTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(GameTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    /**
+     * Returns the nodes of the game with the FEN and the last move at each node,
+     * or null if the game leads to an illegal position.
+     */
+    private static Map<Integer,String> getNodes(GameModel gameModel)
+    {
+        final Game game = new Game(gameModel);
+        final Map<Integer,String> nodes = new LinkedHashMap<>();
+        final boolean[] legal = {true};
+        nodes.put(game.getCurNode(), game.getPosition().getFEN() + " null");
+        game.traverse(new GameListener() {
+            public void notifyMove(Move move, short[] nags, String comment, int plyNumber, int level)
+            {
+                nodes.put(game.getCurNode(), game.getPosition().getFEN() + " " + move.getSAN());
+                legal[0] &= game.getPosition().isLegal();
+            }
+            public void notifyLineStart(int level) {}
+            public void notifyLineEnd(int level) {}
+        }, true);
+        return legal[0] ? nodes : null;
+    }
+
+    private static String getState(Game game)
+    {
+        Move lastMove = game.getLastMove();
+        return game.getPosition().getFEN() + " " + (lastMove == null ? null : lastMove.getSAN());
+    }
+
+    private static void checkNodes(Game game, Map<Integer,String> expected, Random random)
+    {
+        List<Integer> nodes = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < 4 * nodes.size(); i++) {
+            int node = nodes.get(random.nextInt(nodes.size()));
+            game.gotoNode(node);
+            assertEquals("node", node, game.getCurNode());
+            assertEquals("node " + node, expected.get(node), getState(game));
+            if (random.nextBoolean() && game.goBack()) {
+                assertEquals("back from " + node, expected.get(game.getCurNode()), getState(game));
+            }
+            if (random.nextBoolean() && game.goForward()) {
+                assertEquals("forward from " + node, expected.get(game.getCurNode()), getState(game));
+            }
+        }
+        game.gotoStart();
+        assertEquals("start", expected.get(0), getState(game));
+    }
+
+    public void testCheckpoints() throws Exception
+    {
+        Random random = new Random(42);
+        int numOfNodes = 0;
+        for (Game game : PGNTestFiles.readGames("PGNTest")) {
+            Map<Integer,String> expected = getNodes(game.getModel());
+            if (expected == null) continue;  // illegal moves, positions depend on the way they are reached
+            game.setCheckpoints(4, 8);
+            checkNodes(game, expected, random);
+            assertTrue("max checkpoints", game.getNumOfCheckpoints() <= 8);
+            numOfNodes += expected.size();
+
+            // edit the moves, node indices change
+            if (expected.size() > 6) {
+                game.gotoNode(new ArrayList<>(expected.keySet()).get(5));
+                game.addComment("checkpoints");
+                assertEquals("dropped", 0, game.getNumOfCheckpoints());
+                game.deleteCurrentLine();
+                expected = getNodes(game.getModel());
+                assertNotNull("legal", expected);
+                checkNodes(game, expected, random);
+            }
+            game.setCheckpoints(0, 0);
+            assertEquals("disabled", 0, game.getNumOfCheckpoints());
+        }
+        assertTrue("nodes", numOfNodes > 500);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.pgn;
+
+import junit.framework.*;
+import chesspresso.game.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests that the PGNStreamWriter writes the same text as the PGNWriter, with
+ * one or several threads.
+ */
+public class PGNStreamWriterTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(PGNStreamWriterTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static GameModelIterator iterator(List<GameModel> games)
+    {
+        final Iterator<GameModel> it = games.iterator();
+        return new GameModelIterator() {
+            public boolean hasNext() {return it.hasNext();}
+            public GameModel nextGameModel() {return it.next();}
+            public Object next() {return nextGameModel();}
+            public void remove() {throw new UnsupportedOperationException();}
+        };
+    }
+
+    private void doTestWrite(String name, int charactersPerLine) throws Exception
+    {
+        List<GameModel> games = PGNTestFiles.readGameModels(name);
+        assertFalse("games", games.isEmpty());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(expected, "ISO-8859-1");
+        PGNWriter pgnWriter = new PGNWriter(writer);
+        pgnWriter.setCharactersPerLine(charactersPerLine);
+        pgnWriter.write(iterator(games));
+        writer.close();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        PGNStreamWriter streamWriter = new PGNStreamWriter(actual);
+        streamWriter.setCharactersPerLine(charactersPerLine);
+        streamWriter.write(iterator(games));
+        streamWriter.close();
+
+        assertEquals(name + " " + charactersPerLine, expected.toString("ISO-8859-1"), actual.toString("ISO-8859-1"));
+
+        List<GameModel> manyGames = new ArrayList<>();
+        for (int i = 0; i < 10; i++) manyGames.addAll(games);
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        streamWriter = new PGNStreamWriter(sequential);
+        streamWriter.setCharactersPerLine(charactersPerLine);
+        streamWriter.write(iterator(manyGames));
+        streamWriter.close();
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        streamWriter = new PGNStreamWriter(parallel);
+        streamWriter.setCharactersPerLine(charactersPerLine);
+        streamWriter.write(iterator(manyGames), 4);
+        streamWriter.close();
+        assertTrue(name + " parallel", Arrays.equals(sequential.toByteArray(), parallel.toByteArray()));
+    }
+
+    public void testWrite() throws Exception
+    {
+        doTestWrite("PGNTest", 80);
+        doTestWrite("PGNTest", 20);
+        doTestWrite("chusa99", 80);
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.pgn;
+
+import chesspresso.game.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Reads the pgn files the tests run on, e.g. <code>PGNTest</code> or
+ * <code>chusa99</code> from <code>chesspresso/pgn/&lt;name&gt;.pgn.gz</code>.
+ */
+public class PGNTestFiles
+{
+
+    private PGNTestFiles() {}
+
+    /**
+     * Returns the games of the file in file order. Games with syntax errors
+     * are skipped, errors and warnings are not reported. The reader continues
+     * after an error with the rest of the broken game, which is returned as
+     * game without tags and skipped as well.
+     */
+    public static List<Game> readGames(String name) throws IOException
+    {
+        String pgnFilename = "chesspresso/pgn/" + name + ".pgn.gz";
+        InputStream in = new GZIPInputStream(ClassLoader.getSystemResourceAsStream(pgnFilename));
+        try {
+            PGNReader pgnReader = new PGNReader(in, pgnFilename);
+            pgnReader.setErrorHandler(new PGNErrorHandler() {
+                public void handleError(PGNSyntaxError error) {}
+                public void handleWarning(PGNSyntaxError warning) {}
+            });
+            List<Game> games = new ArrayList<>();
+            for (;;) {
+                try {
+                    Game game = pgnReader.parseGame();
+                    if (game == null) break;
+                    if (game.getEvent() != null) games.add(game);
+                } catch (PGNSyntaxError ex) {
+                    // skip
+                }
+            }
+            return games;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the models of the games of the file, as {@link #readGames}.
+     */
+    public static List<GameModel> readGameModels(String name) throws IOException
+    {
+        List<GameModel> models = new ArrayList<>();
+        for (Game game : readGames(name)) models.add(game.getModel());
+        return models;
+    }
+
+}
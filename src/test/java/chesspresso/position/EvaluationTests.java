@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+import java.util.*;
+
+/**
+ * Tests for the incrementally maintained evaluation terms of Position.
+ */
+public class EvaluationTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(EvaluationTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static void assertEvaluation(String msg, Position position)
+    {
+        int middleGame = 0, endGame = 0, phase = 0, material = 0;
+        long pawnHashCode = 0L;
+        int[] phaseOfPiece = {0, 1, 1, 2, 4, 0, 0};
+        for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+            int stone = position.getStone(sqi);
+            if (stone == Chess.NO_STONE) continue;
+            int piece = Chess.stoneToPiece(stone);
+            middleGame += PieceSquareTables.getMiddleGameValue(stone, sqi);
+            endGame += PieceSquareTables.getEndGameValue(stone, sqi);
+            phase += phaseOfPiece[piece];
+            if (piece != Chess.KING) material += (stone < 0 ? 1 : -1) * Position.getSEEValue(piece);
+            if (piece == Chess.PAWN) pawnHashCode ^= AbstractPosition.s_hashMod[sqi][stone - Chess.MIN_STONE];
+        }
+        assertEquals(msg + " middle game", middleGame, position.getMiddleGamePSTScore());
+        assertEquals(msg + " end game", endGame, position.getEndGamePSTScore());
+        assertEquals(msg + " phase", Math.min(phase, PieceSquareTables.MAX_PHASE), position.getPhase());
+        assertEquals(msg + " material", position.getToPlay() == Chess.WHITE ? material : -material, position.getMaterial());
+        assertEquals(msg + " pawn hash code", pawnHashCode, position.getPawnHashCode());
+    }
+
+    public void testTables()
+    {
+        Position position = Position.createInitialPosition();
+        assertEquals(0, position.getMiddleGamePSTScore());
+        assertEquals(0, position.getEndGamePSTScore());
+        assertEquals(PieceSquareTables.MAX_PHASE, position.getPhase());
+        assertEquals(-PieceSquareTables.getMiddleGameValue(Chess.BLACK_KNIGHT, Chess.G8), PieceSquareTables.getMiddleGameValue(Chess.WHITE_KNIGHT, Chess.G1));
+        assertEquals(-PieceSquareTables.getEndGameValue(Chess.BLACK_PAWN, Chess.E2), PieceSquareTables.getEndGameValue(Chess.WHITE_PAWN, Chess.E7));
+        assertTrue(PieceSquareTables.getEndGameValue(Chess.WHITE_KING, Chess.E4) > PieceSquareTables.getEndGameValue(Chess.WHITE_KING, Chess.G1));
+        assertTrue(PieceSquareTables.getMiddleGameValue(Chess.WHITE_KING, Chess.E4) < PieceSquareTables.getMiddleGameValue(Chess.WHITE_KING, Chess.G1));
+
+        long pawnHashCode = position.getPawnHashCode();
+        position.setStone(Chess.G1, Chess.NO_STONE);
+        position.setStone(Chess.F3, Chess.WHITE_KNIGHT);
+        assertEquals(pawnHashCode, position.getPawnHashCode());
+        assertTrue(position.getMiddleGamePSTScore() > 0);
+        assertEquals(position.getMiddleGamePSTScore(), position.getPSTScore());  // white to play, full phase
+        position.setStone(Chess.E2, Chess.NO_STONE);
+        position.setStone(Chess.E4, Chess.WHITE_PAWN);
+        assertTrue(pawnHashCode != position.getPawnHashCode());
+        assertEvaluation("set stones", position);
+    }
+
+    public void testIncrementalUpdates() throws Exception
+    {
+        int numOfPlies = 0;
+        Position position = new Position();
+        for (Game game : PGNTestFiles.readGames("PGNTest")) {
+            game.gotoStart();
+            position.set(game.getPosition());
+            position.clearHistory();
+            assertEvaluation(game.toString() + " start", position);
+            List<Short> moves = new ArrayList<>();
+            boolean legal = true;
+            while (game.goForward()) {
+                legal &= game.getPosition().isLegal();
+                moves.add(game.getPosition().getLastShortMove());
+            }
+            if (!legal) continue;  // illegal moves may lead to inconsistent positions
+
+            for (short move : moves) {
+                position.doMove(move);
+                assertEvaluation(game.toString() + " " + Move.getString(move), position);
+                numOfPlies++;
+            }
+            Position copy = new Position(new CompactPosition(position));
+            assertEvaluation(game.toString() + " copy", copy);
+            while (position.canUndoMove()) {
+                position.undoMove();
+                assertEvaluation(game.toString() + " undo", position);
+            }
+            while (position.canRedoMove()) {
+                position.redoMove();
+                assertEvaluation(game.toString() + " redo", position);
+            }
+            assertEquals(copy.getHashCode(), position.getHashCode());
+        }
+        assertTrue(numOfPlies > 500);
+    }
+
+}
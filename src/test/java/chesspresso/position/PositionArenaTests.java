@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests for the PositionArena.
+ */
+public class PositionArenaTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(PositionArenaTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static List<Position> readPositions(String name) throws Exception
+    {
+        List<Position> positions = new ArrayList<>();
+        for (Game game : PGNTestFiles.readGames(name)) {
+            List<Position> gamePositions = new ArrayList<>();
+            boolean legal = true;
+            game.gotoStart();
+            do {
+                gamePositions.add(new Position(game.getPosition()));
+                legal &= game.getPosition().isLegal();
+            } while (game.goForward());
+            if (legal) positions.addAll(gamePositions);  // illegal moves may lead to inconsistent positions
+        }
+        return positions;
+    }
+
+    private static void assertSame(String msg, Position expected, Position actual)
+    {
+        assertEquals(msg, expected.getFEN(), actual.getFEN());
+        assertEquals(msg + " hash code", expected.getHashCode(), actual.getHashCode());
+        for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+            assertEquals(msg + " stones " + stone, expected.getNumOfStones(stone), actual.getNumOfStones(stone));
+        }
+        assertEquals(msg + " moves", expected.getAllMoves().length, actual.getAllMoves().length);
+        assertEquals(msg + " check", expected.isCheck(), actual.isCheck());
+        assertEquals(msg + " pst", expected.getMiddleGamePSTScore(), actual.getMiddleGamePSTScore());
+        assertEquals(msg + " pst", expected.getEndGamePSTScore(), actual.getEndGamePSTScore());
+        assertEquals(msg + " pawn hash code", expected.getPawnHashCode(), actual.getPawnHashCode());
+    }
+
+    public void testMemory() throws Exception
+    {
+        List<Position> positions = readPositions("PGNTest");
+        PositionArena arena = new PositionArena(true);
+        for (Position position : positions) arena.add(position);
+        assertEquals("size", positions.size(), arena.getNumOfPositions());
+
+        Position position = Position.createInitialPosition();
+        position.doMove(position.getMove(Chess.E2, Chess.E4, Chess.NO_PIECE));
+        Map<Long,Long> first = new HashMap<>();
+        for (int i = 0; i < positions.size(); i++) {
+            arena.get(i, position);
+            assertSame("record " + i, positions.get(i), position);
+            assertFalse("no undo", position.canUndoMove());
+            assertEquals("hash code", positions.get(i).getHashCode(), arena.getHashCode(i));
+            if (!first.containsKey(arena.getHashCode(i))) first.put(arena.getHashCode(i), (long)i);
+        }
+        for (Map.Entry<Long,Long> entry : first.entrySet()) {
+            assertEquals("find", entry.getValue().longValue(), arena.find(entry.getKey()));
+        }
+        assertEquals("not found", -1L, arena.find(0x1234567890ABCDEFL));
+
+        // moves can be played on a decoded position
+        arena.get(0, position);
+        short[] moves = position.getAllMoves();
+        position.doMove(moves[0]);
+        position.undoMove();
+        assertSame("undone", positions.get(0), position);
+
+        // other implementations
+        CompactPosition compact = new CompactPosition(positions.get(positions.size() - 1));
+        long record = arena.add(compact);
+        assertEquals("compact", compact.getFEN(), arena.getPosition(record).getFEN());
+        arena.close();
+    }
+
+    public void testSegments() throws Exception
+    {
+        List<Position> positions = readPositions("PGNTest");
+        PositionArena arena = new PositionArena(false);
+        int num = (1 << 20) + 1000;
+        for (int i = 0; i < num; i++) arena.add(positions.get(i % positions.size()));
+        Position position = new Position();
+        for (int i = num - 3000; i < num; i++) {
+            arena.get(i, position);
+            assertEquals("record " + i, positions.get(i % positions.size()).getFEN(), position.getFEN());
+        }
+        arena.close();
+    }
+
+    public void testFileGrowth() throws Exception
+    {
+        List<Position> positions = readPositions("PGNTest");
+        File file = File.createTempFile("arena", ".cpa");
+        file.deleteOnExit();
+        try {
+            PositionArena arena = new PositionArena(file, false);
+            long length = file.length();
+            int num = 20000;
+            for (int i = 0; i < num; i++) {
+                arena.add(positions.get(i % positions.size()));
+                // the mapped part grows with the records, at most to twice their size
+                assertTrue("record " + i, file.length() <= Math.max(PositionArena.HEADER_SIZE + 2L * (i + 1) * PositionArena.RECORD_SIZE,
+                                                                    PositionArena.HEADER_SIZE + 1024L * PositionArena.RECORD_SIZE));
+                length = Math.max(length, file.length());
+            }
+            assertTrue(length >= PositionArena.HEADER_SIZE + (long)num * PositionArena.RECORD_SIZE);
+            arena.close();
+            assertEquals("length", PositionArena.HEADER_SIZE + (long)num * PositionArena.RECORD_SIZE, file.length());
+
+            arena = new PositionArena(file, false);
+            Position position = new Position();
+            for (int i = 0; i < num; i += 97) {
+                arena.get(i, position);
+                assertEquals("record " + i, positions.get(i % positions.size()).getFEN(), position.getFEN());
+            }
+            arena.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFile() throws Exception
+    {
+        List<Position> positions = readPositions("PGNTest");
+        File file = File.createTempFile("arena", ".cpa");
+        file.deleteOnExit();
+        try {
+            PositionArena arena = new PositionArena(file, false);
+            for (int i = 0; i < positions.size() / 2; i++) arena.add(positions.get(i));
+            assertTrue("mapped " + file.length(), file.length() < 1024 * 1024);
+            arena.close();
+            assertEquals("length", PositionArena.HEADER_SIZE + (positions.size() / 2) * PositionArena.RECORD_SIZE, file.length());
+
+            arena = new PositionArena(file, true);
+            assertEquals("reopened", positions.size() / 2, arena.getNumOfPositions());
+            for (int i = positions.size() / 2; i < positions.size(); i++) arena.add(positions.get(i));
+            Position position = new Position();
+            for (int i = 0; i < positions.size(); i++) {
+                arena.get(i, position);
+                assertSame("record " + i, positions.get(i), position);
+                assertTrue("find", arena.find(position) <= i);
+            }
+            arena.close();
+            assertEquals("length", PositionArena.HEADER_SIZE + positions.size() * PositionArena.RECORD_SIZE, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+}
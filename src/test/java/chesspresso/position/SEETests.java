@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.position;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.move.*;
+import chesspresso.pgn.*;
+
+/**
+ * Tests for the static exchange evaluation of Position.
+ */
+public class SEETests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(SEETests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static void assertSEE(int expected, String fen, short move)
+    {
+        Position position = new Position(fen);
+        assertEquals(fen + " " + Move.getString(move), expected, position.see(move));
+        assertTrue(position.seeGE(move, expected));
+        assertFalse(position.seeGE(move, expected + 1));
+    }
+
+    private static int sqi(String s) {return Chess.strToSqi(s);}
+
+    public void testExchanges()
+    {
+        // undefended pawn, rook is not recaptured
+        assertSEE(100, "1k1r4/1pp4p/p7/4p3/8/P5P1/1PP4P/2K1R3 w - - 0 1",
+                  Move.getRegularMove(sqi("e1"), sqi("e5"), true));
+        // knight is lost for a pawn
+        assertSEE(-200, "1k1r3q/1ppn3p/p4b2/4p3/8/P2N2P1/1PP1R1BP/2K1Q3 w - - 0 1",
+                  Move.getRegularMove(sqi("d3"), sqi("e5"), true));
+        // second rook behind the first one
+        assertSEE(100, "4r1k1/8/8/4p3/8/8/4R3/4R1K1 w - - 0 1",
+                  Move.getRegularMove(sqi("e2"), sqi("e5"), true));
+        // king must not capture a defended piece
+        assertSEE(900 - Position.getSEEValue(Chess.KING), "3rk3/8/8/8/8/8/3q4/4K3 w - - 0 1",
+                  Move.getRegularMove(sqi("e1"), sqi("d2"), true));
+        assertSEE(900, "4k3/8/8/8/8/8/3q4/4K3 w - - 0 1",
+                  Move.getRegularMove(sqi("e1"), sqi("d2"), true));
+        // en passant, the captured pawn opens the file for the rook
+        assertSEE(100, "4k3/8/8/3pP3/8/8/8/3RK3 w - d6 0 1",
+                  Move.getEPMove(sqi("e5"), sqi("d6")));
+        assertSEE(0, "3rk3/8/8/3pP3/8/8/8/4K3 w - d6 0 1",
+                  Move.getEPMove(sqi("e5"), sqi("d6")));
+        // promotions
+        assertSEE(1300, "3r3k/4P3/8/8/8/8/8/4K3 w - - 0 1",
+                  Move.getPawnMove(sqi("e7"), sqi("d8"), true, Chess.QUEEN));
+        assertSEE(-100, "3r3k/4P3/8/8/8/8/8/4K3 w - - 0 1",
+                  Move.getPawnMove(sqi("e7"), sqi("e8"), false, Chess.QUEEN));
+        // quiet move to an attacked square, black to play
+        assertSEE(-300, "4k3/8/2n5/8/3P4/8/8/4K3 b - - 0 1",
+                  Move.getRegularMove(sqi("c6"), sqi("e5"), false));
+        assertSEE(0, "4k3/8/8/8/8/8/8/4K3 w - - 0 1", Move.getShortCastle(Chess.WHITE));
+    }
+
+    //======================================================================
+
+    private static final int[] KNIGHT_DELTAS = {-17, -15, -10, -6, 6, 10, 15, 17};
+
+    private static boolean attacks(int[] board, int from, int to)
+    {
+        int dcol = Chess.sqiToCol(to) - Chess.sqiToCol(from), drow = Chess.sqiToRow(to) - Chess.sqiToRow(from);
+        int stone = board[from];
+        switch (Chess.stoneToPiece(stone)) {
+            case Chess.PAWN:   return Math.abs(dcol) == 1 && drow == (Chess.stoneToColor(stone) == Chess.WHITE ? 1 : -1);
+            case Chess.KNIGHT: return Math.abs(dcol * drow) == 2;
+            case Chess.KING:   return Math.max(Math.abs(dcol), Math.abs(drow)) == 1;
+            case Chess.BISHOP: if (Math.abs(dcol) != Math.abs(drow)) return false; break;
+            case Chess.ROOK:   if (dcol != 0 && drow != 0) return false; break;
+            case Chess.QUEEN:  if (Math.abs(dcol) != Math.abs(drow) && dcol != 0 && drow != 0) return false; break;
+            default: return false;
+        }
+        int step = Integer.signum(drow) * Chess.NUM_OF_COLS + Integer.signum(dcol);
+        for (int sqi = from + step; sqi != to; sqi += step) {
+            if (board[sqi] != Chess.NO_STONE) return false;
+        }
+        return true;
+    }
+
+    private static int getLeastValuableAttacker(int[] board, int to, int color)
+    {
+        int best = Chess.NO_SQUARE;
+        for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) {
+            if (sqi != to && board[sqi] != Chess.NO_STONE && Chess.stoneToColor(board[sqi]) == color && attacks(board, sqi, to)) {
+                if (best == Chess.NO_SQUARE || Position.getSEEValue(Chess.stoneToPiece(board[sqi])) < Position.getSEEValue(Chess.stoneToPiece(board[best]))) best = sqi;
+            }
+        }
+        return best;
+    }
+
+    private static int getExchangeValue(int[] board, int to, int color)
+    {
+        // value for color of capturing on to or not, by playing the captures on the board
+        int from = getLeastValuableAttacker(board, to, color);
+        if (from == Chess.NO_SQUARE) return 0;
+        if (board[from] == Chess.pieceToStone(Chess.KING, color)
+            && getLeastValuableAttacker(board, to, Chess.otherPlayer(color)) != Chess.NO_SQUARE) return 0;
+        int captured = board[to];
+        board[to] = board[from];
+        board[from] = Chess.NO_STONE;
+        int value = Position.getSEEValue(Chess.stoneToPiece(captured)) - getExchangeValue(board, to, Chess.otherPlayer(color));
+        board[from] = board[to];
+        board[to] = captured;
+        return Math.max(0, value);
+    }
+
+    private static int getExpectedSEE(Position position, short move)
+    {
+        if (Move.isCastle(move)) return 0;
+        int[] board = new int[Chess.NUM_OF_SQUARES];
+        for (int sqi = 0; sqi < Chess.NUM_OF_SQUARES; sqi++) board[sqi] = position.getStone(sqi);
+        int from = Move.getFromSqi(move), to = Move.getToSqi(move);
+        int color = position.getColor(from);
+        int gain = Position.getSEEValue(Chess.stoneToPiece(board[to]));
+        board[to] = board[from];
+        board[from] = Chess.NO_STONE;
+        if (Move.isEPMove(move)) {
+            board[to + (color == Chess.WHITE ? -Chess.NUM_OF_COLS : Chess.NUM_OF_COLS)] = Chess.NO_STONE;
+            gain = Position.getSEEValue(Chess.PAWN);
+        }
+        if (Move.isPromotion(move)) {
+            board[to] = Chess.pieceToStone(Move.getPromotionPiece(move), color);
+            gain += Position.getSEEValue(Move.getPromotionPiece(move)) - Position.getSEEValue(Chess.PAWN);
+        }
+        return gain - getExchangeValue(board, to, Chess.otherPlayer(color));
+    }
+
+    public void testAgainstCaptures() throws Exception
+    {
+        int numOfMoves = 0;
+        for (Game game : PGNTestFiles.readGames("PGNTest")) {
+            game.gotoStart();
+            do {
+                Position position = game.getPosition();
+                if (!position.isLegal()) break;  // illegal moves may lead to inconsistent positions
+                short[] moves = position.getAllMoves();
+                for (int i = 0; i < moves.length; i++) {
+                    String msg = position.getFEN() + " " + Move.getString(moves[i]);
+                    int see = position.see(moves[i]);
+                    assertEquals(msg, getExpectedSEE(position, moves[i]), see);
+                    assertTrue(msg, position.seeGE(moves[i], see));
+                    assertFalse(msg, position.seeGE(moves[i], see + 1));
+                    assertTrue(msg, position.seeGE(moves[i], see - 200));
+                    assertFalse(msg, position.seeGE(moves[i], see + 200));
+                    numOfMoves++;
+                }
+            } while (game.goForward());
+        }
+        assertTrue(numOfMoves > 10000);
+    }
+
+}
@@ -15,6 +15,10 @@
 package chesspresso.position;
 
 import junit.framework.*;
+import chesspresso.*;
+import chesspresso.game.*;
+import chesspresso.pgn.*;
+import java.util.*;
 
 /**
  *
@@ -40,4 +44,74 @@ public class TestCompactPosition extends PositionTests
     
     //======================================================================
     
+    public void testEmpty()
+    {
+        assertEquals("empty", new Position().getFEN(), new CompactPosition().getFEN());
+    }
+    
+    public void testCopy()
+    {
+        String[] fens = {
+            FEN.START_POSITION,
+            "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+            "r3k2r/8/8/8/4p3/8/3P4/R3K2R b Kq - 17 40",
+            "8/8/8/8/8/k7/8/K7 w - - 99 500",
+        };
+        Position copy = new Position();  // reused, the kings move between the positions
+        for (int i = 0; i < fens.length; i++) {
+            Position position = new Position(fens[i]);
+            CompactPosition compact = new CompactPosition(position);
+            assertEquals("FEN", fens[i], compact.getFEN());
+            assertEquals("ply number", position.getPlyNumber(), compact.getPlyNumber());
+            assertEquals("hash code", position.getHashCode(), compact.getHashCode());
+            
+            copy.set(compact);
+            assertEquals("set", fens[i], copy.getFEN());
+            assertEquals("set hash code", position.getHashCode(), copy.getHashCode());
+        }
+    }
+    
+    private static List<Position> readPositions(String name) throws Exception
+    {
+        List<Position> positions = new ArrayList<>();
+        for (Game game : PGNTestFiles.readGames(name)) {
+            game.gotoStart();
+            do {
+                if (game.getPosition().isLegal()) positions.add(new Position(game.getPosition()));
+            } while (game.goForward());
+        }
+        return positions;
+    }
+    
+    public void testConversion() throws Exception
+    {
+        Position copy = new Position();
+        byte[] buf = new byte[DenseEncoding.MAX_LENGTH];
+        for (Position position : readPositions("PGNTest")) {
+            String fen = position.getFEN();
+            CompactPosition compact = new CompactPosition(position);
+            assertEquals("compact", fen, compact.getFEN());
+            
+            copy.isCheck();  // cache the check flag of the previous position
+            copy.set(compact);
+            assertEquals("set", fen, copy.getFEN());
+            assertEquals("hash code", position.getHashCode(), copy.getHashCode());
+            assertEquals("check", position.isCheck(), copy.isCheck());
+            assertEquals("moves", position.getAllMoves().length, copy.getAllMoves().length);
+            for (int stone = Chess.MIN_STONE; stone <= Chess.MAX_STONE; stone++) {
+                assertEquals("stones " + stone, position.getNumOfStones(stone), copy.getNumOfStones(stone));
+            }
+            
+            int length = DenseEncoding.encode(position, buf, 0);
+            assertEquals("length", DenseEncoding.getLength(position), length);
+            assertEquals("length", length, DenseEncoding.getLength(buf, 0));
+            assertEquals("dense", fen, DenseEncoding.decode(buf, 0).getFEN());
+            assertEquals("dense compact", length, DenseEncoding.encode(compact, buf, 0));
+            assertEquals("dense offset", length, DenseEncoding.decode(buf, 0, copy));
+            assertEquals("dense hash code", position.getHashCode(), copy.getHashCode());
+        }
+    }
+    
+    //======================================================================
+    
 }
\ No newline at end of file
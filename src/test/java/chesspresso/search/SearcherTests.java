@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) Bernhard Seybold. All rights reserved.
+ *
+ * This software is published under the terms of the LGPL Software License,
+ * a copy of which has been included with this distribution in the LICENSE.txt
+ * file.
+ *
+ * THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ */
+
+package chesspresso.search;
+
+import junit.framework.*;
+import chesspresso.*;
+import chesspresso.move.*;
+import chesspresso.position.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Tests for the Searcher and its TranspositionTable.
+ */
+public class SearcherTests extends TestCase
+{
+
+    public static Test suite()
+    {
+        return new TestSuite(SearcherTests.class);
+    }
+
+    public static void main (String[] args)
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+
+    //======================================================================
+
+    private static final String
+        MATE_IN_ONE = "6k1/5ppp/8/8/8/8/8/R5K1 w - - 0 1",
+        MATE_IN_TWO = "k7/8/2K5/8/8/8/8/1R6 w - - 0 1",
+        WIN_QUEEN   = "4k3/8/8/3q4/8/8/8/3RK3 w - - 0 1",
+        STALEMATE   = "7k/5Q2/6K1/8/8/8/8/8 b - - 0 1";
+
+    private static void assertLegal(Position position, short move)
+    {
+        assertTrue(Move.getString(move), Arrays.asList(toObjects(position.getAllMoves())).contains(move));
+    }
+
+    private static Short[] toObjects(short[] moves)
+    {
+        Short[] res = new Short[moves.length];
+        for (int i = 0; i < moves.length; i++) res[i] = moves[i];
+        return res;
+    }
+
+    private static void assertMate(String fen, int numOfPlies, SearchResult result) throws Exception
+    {
+        assertEquals(result.toString(), Searcher.MATE - numOfPlies, result.getScore());
+        Position position = new Position(fen);
+        short[] pv = result.getPV();
+        assertEquals(result.toString(), numOfPlies, pv.length);
+        for (int i = 0; i < pv.length; i++) {
+            assertLegal(position, pv[i]);
+            position.doMove(pv[i]);
+        }
+        assertTrue(result.toString(), position.isMate());
+    }
+
+    public void testTranspositionTable()
+    {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1 << 16, table.getNumOfEntries());
+        long hashCode = new Position(WIN_QUEEN).getHashCode();
+        assertEquals(TranspositionTable.NOT_FOUND, table.probe(hashCode));
+        short move = Move.getRegularMove(Chess.D1, Chess.D5, true);
+        table.store(hashCode, move, -1234, 7, TranspositionTable.UPPER_BOUND);
+        long data = table.probe(hashCode);
+        assertEquals(move, TranspositionTable.getMove(data));
+        assertEquals(-1234, TranspositionTable.getScore(data));
+        assertEquals(7, TranspositionTable.getDepth(data));
+        assertEquals(TranspositionTable.UPPER_BOUND, TranspositionTable.getBound(data));
+        assertEquals(TranspositionTable.NOT_FOUND, table.probe(hashCode ^ (1L << 40)));
+
+        table.store(hashCode, Move.NO_MOVE, 50, 8, TranspositionTable.EXACT);
+        assertEquals(move, TranspositionTable.getMove(table.probe(hashCode)));  // move is kept
+        table.clear();
+        assertEquals(TranspositionTable.NOT_FOUND, table.probe(hashCode));
+
+        for (int sizeInMB : new int[] {0, TranspositionTable.MAX_SIZE_IN_MB + 1, 16384, Integer.MAX_VALUE}) {
+            try {
+                new TranspositionTable(sizeInMB);
+                fail("table of " + sizeInMB + " MB must be refused");
+            } catch (IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    public void testSearch() throws Exception
+    {
+        Searcher searcher = new Searcher(4);
+        assertMate(MATE_IN_ONE, 1, searcher.search(new Position(MATE_IN_ONE), 4, 0L, 0L));
+        assertMate(MATE_IN_TWO, 3, searcher.search(new Position(MATE_IN_TWO), 6, 0L, 0L));
+
+        SearchResult result = searcher.search(new Position(WIN_QUEEN), 4, 0L, 0L);
+        assertEquals(Move.getRegularMove(Chess.D1, Chess.D5, true), result.getBestMove());
+        assertTrue(result.toString(), result.getScore() >= 400);
+
+        result = searcher.search(new Position(STALEMATE), 4, 0L, 0L);
+        assertEquals(Move.NO_MOVE, result.getBestMove());
+        assertEquals(0, result.getScore());
+    }
+
+    public void testLimits() throws Exception
+    {
+        Searcher searcher = new Searcher(4);
+        SearchResult result = searcher.search(Position.createInitialPosition(), 0, 20000L, 0L);
+        assertTrue(result.toString(), result.getNumOfNodes() <= 20000L);
+        assertTrue(result.toString(), result.getDepth() >= 2);
+        assertLegal(Position.createInitialPosition(), result.getBestMove());
+
+        result = searcher.search(Position.createInitialPosition(), 0, 0L, 200L);
+        assertTrue(result.toString(), result.getTime() < 2000L);
+        assertLegal(Position.createInitialPosition(), result.getBestMove());
+
+        // stop only reaches searches already running, so wait until the search evaluates positions
+        final CountDownLatch started = new CountDownLatch(1);
+        final Searcher stoppedSearcher = new Searcher(4) {
+            protected int evaluate(Position position) {
+                started.countDown();
+                return super.evaluate(position);
+            }
+        };
+        FutureTask<SearchResult> task = new FutureTask<SearchResult>(new Callable<SearchResult>() {
+            public SearchResult call() {return stoppedSearcher.search(Position.createInitialPosition(), 0, 0L, 0L);}
+        });
+        new Thread(task).start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        stoppedSearcher.stop();
+        result = task.get(10, TimeUnit.SECONDS);
+        assertTrue(result.toString(), result.getDepth() >= 1);
+    }
+
+    public void testThreads() throws Exception
+    {
+        final Searcher searcher = new Searcher(16);
+        final String[] fens = {MATE_IN_ONE, MATE_IN_TWO, WIN_QUEEN, FEN.START_POSITION,
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3"};
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int i = 0; i < 5; i++) {
+                        for (String fen : fens) {
+                            SearchResult result = searcher.search(new Position(fen), 5, 0L, 0L);
+                            assertLegal(new Position(fen), result.getBestMove());
+                            if (fen == MATE_IN_ONE) assertMate(fen, 1, result);
+                            if (fen == MATE_IN_TWO) assertMate(fen, 3, result);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) future.get();
+        executor.shutdown();
+    }
+
+}